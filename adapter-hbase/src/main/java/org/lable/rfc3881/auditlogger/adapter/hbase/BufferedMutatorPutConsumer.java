@@ -0,0 +1,548 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Put consumer for {@link HBaseAdapter} that writes through one {@link BufferedMutator} per table.
+ * <p>
+ * Puts are buffered client-side and sent to HBase in bulk once the buffered size for a table reaches the flush
+ * threshold, or once the flush interval has passed since the last flush of that table. Mutations that HBase rejects
+ * are retried a limited number of times; mutations that still fail after that are handed to the
+ * {@link FailedMutationListener}, which can spill them elsewhere.
+ * <p>
+ * Use this class directly with {@link HBaseAdapter#withMultiPutConsumer}, or pass {@link #forSinglePuts()} to the
+ * regular constructor. Call {@link #close()} on shutdown to flush any buffered puts.
+ */
+public class BufferedMutatorPutConsumer implements BiConsumer<TableName, List<Put>>, Flushable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BufferedMutatorPutConsumer.class);
+
+    private final Supplier<Connection> hbaseConnection;
+    private final long flushThresholdBytes;
+    private final long flushIntervalMillis;
+    private final int maxRetries;
+    private final FailedMutationListener failedMutationListener;
+
+    private final ConcurrentMap<TableName, TableBuffer> buffers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private final AtomicLong flushNanosMax = new AtomicLong();
+    private final AtomicLong retriedMutations = new AtomicLong();
+    private final AtomicLong failedMutations = new AtomicLong();
+
+    // Held for reading while puts are handed to a mutator, and for writing while closing, so no mutator is used or
+    // created after close() closed them.
+    private final ReentrantReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    BufferedMutatorPutConsumer(Supplier<Connection> hbaseConnection,
+                               long flushThresholdBytes,
+                               Duration flushInterval,
+                               int maxRetries,
+                               FailedMutationListener failedMutationListener) {
+        this.hbaseConnection = hbaseConnection;
+        this.flushThresholdBytes = flushThresholdBytes;
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.maxRetries = maxRetries;
+        this.failedMutationListener = failedMutationListener;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audit-log-mutator-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(10, flushIntervalMillis / 4);
+        flusher.scheduleWithFixedDelay(this::flushExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start building a put consumer.
+     *
+     * @param hbaseConnection A supplier that returns the HBase {@link Connection}.
+     * @return A builder for chaining.
+     */
+    public static Builder define(Supplier<Connection> hbaseConnection) {
+        return new Builder(hbaseConnection);
+    }
+
+    /**
+     * Buffer the puts for a table, and flush the buffer if it has grown past the flush threshold.
+     *
+     * @param tableName Table.
+     * @param puts      Puts.
+     * @throws UncheckedIOException Thrown when this consumer is closed, or when the mutator could not be created or
+     *                              could not accept the puts.
+     */
+    @Override
+    public void accept(TableName tableName, List<Put> puts) {
+        if (puts == null || puts.isEmpty()) return;
+
+        shutdownLock.readLock().lock();
+        try {
+            if (closed) throw new UncheckedIOException(new IOException("Put consumer is closed."));
+
+            TableBuffer buffer = bufferFor(tableName);
+            long size = 0;
+            for (Put put : puts) {
+                size += put.heapSize();
+            }
+
+            buffer.mutator.mutate(puts);
+            long buffered = buffer.bufferedBytes.addAndGet(size);
+            if (buffered >= flushThresholdBytes) {
+                flush(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return A view of this consumer that accepts single puts, suitable for the injectable
+     * {@link HBaseAdapter} constructor.
+     */
+    public BiConsumer<TableName, Put> forSinglePuts() {
+        return (tableName, put) -> accept(tableName, Collections.singletonList(put));
+    }
+
+    /**
+     * Flush the buffers of all tables.
+     *
+     * @throws IOException Thrown when flushing failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        shutdownLock.readLock().lock();
+        try {
+            // Closing flushes the buffers itself.
+            if (closed) return;
+            for (TableBuffer buffer : buffers.values()) {
+                flush(buffer);
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flush and close all mutators. This consumer can no longer be used afterwards.
+     *
+     * @throws IOException Thrown when flushing or closing a mutator failed.
+     */
+    @Override
+    public void close() throws IOException {
+        // Wait for puts being handed to a mutator; later calls see the flag and fail.
+        shutdownLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOException exception = null;
+        for (TableBuffer buffer : buffers.values()) {
+            try {
+                flush(buffer);
+                // Anything still waiting for a retry will not get one.
+                List<Put> abandoned = new ArrayList<>();
+                Retry retry;
+                while ((retry = buffer.retries.poll()) != null) {
+                    abandoned.add(retry.put);
+                }
+                if (!abandoned.isEmpty()) {
+                    reportFailed(buffer.tableName, abandoned, new IOException("Put consumer closed before retry."));
+                }
+                buffer.mutator.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        buffers.clear();
+
+        if (exception != null) throw exception;
+    }
+
+    /**
+     * @return A snapshot of the buffer and flush statistics of this consumer.
+     */
+    public Metrics getMetrics() {
+        long buffered = 0;
+        for (TableBuffer buffer : buffers.values()) {
+            buffered += buffer.bufferedBytes.get();
+        }
+        return new Metrics(
+                buffered,
+                flushThresholdBytes * buffers.size(),
+                flushCount.get(),
+                flushNanosTotal.get(),
+                flushNanosMax.get(),
+                retriedMutations.get(),
+                failedMutations.get()
+        );
+    }
+
+    TableBuffer bufferFor(TableName tableName) {
+        TableBuffer buffer = buffers.get(tableName);
+        if (buffer != null) return buffer;
+
+        try {
+            return buffers.computeIfAbsent(tableName, name -> {
+                try {
+                    return new TableBuffer(name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            logger.error("Failed to create a BufferedMutator for table {}.", tableName, e);
+            throw e;
+        }
+    }
+
+    void flush(TableBuffer buffer) throws IOException {
+        long buffered = buffer.bufferedBytes.get();
+        Map<Put, Integer> retried = buffer.retriedSnapshot();
+        long start = System.nanoTime();
+        buffer.mutator.flush();
+        long took = System.nanoTime() - start;
+
+        // The retried puts sent by this flush that were not rejected again have been persisted.
+        for (Map.Entry<Put, Integer> entry : retried.entrySet()) {
+            buffer.retryCounts.remove(entry.getKey(), entry.getValue());
+        }
+
+        buffer.bufferedBytes.addAndGet(-buffered);
+        buffer.lastFlush = System.currentTimeMillis();
+        flushCount.incrementAndGet();
+        flushNanosTotal.addAndGet(took);
+        flushNanosMax.accumulateAndGet(took, Math::max);
+
+        resubmitRetries(buffer);
+    }
+
+    void resubmitRetries(TableBuffer buffer) throws IOException {
+        if (buffer.retries.isEmpty() || closed) return;
+
+        List<Put> retries = new ArrayList<>();
+        long size = 0;
+        Retry retry;
+        while ((retry = buffer.retries.poll()) != null) {
+            buffer.retryCounts.put(retry.put, retry.attempts);
+            retries.add(retry.put);
+            size += retry.put.heapSize();
+        }
+        if (retries.isEmpty()) return;
+
+        buffer.mutator.mutate(retries);
+        buffer.bufferedBytes.addAndGet(size);
+    }
+
+    void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (TableBuffer buffer : buffers.values()) {
+            boolean due = buffer.bufferedBytes.get() > 0 && now - buffer.lastFlush >= flushIntervalMillis;
+            if (!due && buffer.retries.isEmpty()) continue;
+            try {
+                flush(buffer);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Periodic flush of audit log table {} failed.", buffer.tableName, e);
+            }
+        }
+    }
+
+    void onException(TableName tableName, RetriesExhaustedWithDetailsException exception) {
+        TableBuffer buffer = buffers.get(tableName);
+        Map<Throwable, List<Put>> givenUp = new LinkedHashMap<>();
+
+        for (int i = 0; i < exception.getNumExceptions(); i++) {
+            Row row = exception.getRow(i);
+            if (!(row instanceof Put)) continue;
+            Put put = (Put) row;
+
+            Integer retried = buffer == null ? null : buffer.retryCounts.remove(put);
+            int attempts = retried == null ? 0 : retried;
+            if (buffer != null && attempts < maxRetries && !closed) {
+                buffer.retries.add(new Retry(put, attempts + 1));
+                retriedMutations.incrementAndGet();
+            } else {
+                givenUp.computeIfAbsent(exception.getCause(i), ignored -> new ArrayList<>()).add(put);
+            }
+        }
+
+        for (Map.Entry<Throwable, List<Put>> entry : givenUp.entrySet()) {
+            reportFailed(tableName, entry.getValue(), entry.getKey());
+        }
+    }
+
+    void reportFailed(TableName tableName, List<Put> puts, Throwable cause) {
+        failedMutations.addAndGet(puts.size());
+        if (failedMutationListener == null) {
+            logger.error("Failed to persist {} audit log entries to table {}.", puts.size(), tableName, cause);
+            return;
+        }
+
+        try {
+            failedMutationListener.onFailure(tableName, puts, cause);
+        } catch (RuntimeException e) {
+            logger.error("Failed mutation listener threw an exception.", e);
+        }
+    }
+
+    /**
+     * A rejected put waiting to be sent again, and the number of times it has been.
+     */
+    static class Retry {
+        final Put put;
+        final int attempts;
+
+        Retry(Put put, int attempts) {
+            this.put = put;
+            this.attempts = attempts;
+        }
+    }
+
+    class TableBuffer {
+        final TableName tableName;
+        final BufferedMutator mutator;
+        final AtomicLong bufferedBytes = new AtomicLong();
+        final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+        // Retried puts sent to the mutator, and how often they were retried. Kept here rather than on the puts, as
+        // put attributes are sent to the region servers.
+        final Map<Put, Integer> retryCounts = Collections.synchronizedMap(new IdentityHashMap<>());
+        volatile long lastFlush = System.currentTimeMillis();
+
+        TableBuffer(TableName tableName) throws IOException {
+            this.tableName = tableName;
+            BufferedMutatorParams params = new BufferedMutatorParams(tableName)
+                    // Flushing is driven by this class; leave headroom so the mutator does not flush on its own.
+                    .writeBufferSize(flushThresholdBytes * 2)
+                    .listener((exception, mutator) -> onException(tableName, exception));
+            this.mutator = hbaseConnection.get().getBufferedMutator(params);
+        }
+
+        Map<Put, Integer> retriedSnapshot() {
+            synchronized (retryCounts) {
+                return retryCounts.isEmpty() ? Collections.emptyMap() : new IdentityHashMap<>(retryCounts);
+            }
+        }
+    }
+
+    /**
+     * Receives mutations that could not be persisted, even after retrying.
+     */
+    @FunctionalInterface
+    public interface FailedMutationListener {
+        /**
+         * @param tableName Table the puts were meant for.
+         * @param puts      Puts that were not persisted.
+         * @param cause     Reason reported by HBase.
+         */
+        void onFailure(TableName tableName, List<Put> puts, Throwable cause);
+    }
+
+    /**
+     * Snapshot of the statistics of a {@link BufferedMutatorPutConsumer}.
+     */
+    public static class Metrics {
+        final long bufferedBytes;
+        final long bufferCapacityBytes;
+        final long flushCount;
+        final long flushNanosTotal;
+        final long flushNanosMax;
+        final long retriedMutations;
+        final long failedMutations;
+
+        Metrics(long bufferedBytes,
+                long bufferCapacityBytes,
+                long flushCount,
+                long flushNanosTotal,
+                long flushNanosMax,
+                long retriedMutations,
+                long failedMutations) {
+            this.bufferedBytes = bufferedBytes;
+            this.bufferCapacityBytes = bufferCapacityBytes;
+            this.flushCount = flushCount;
+            this.flushNanosTotal = flushNanosTotal;
+            this.flushNanosMax = flushNanosMax;
+            this.retriedMutations = retriedMutations;
+            this.failedMutations = failedMutations;
+        }
+
+        /**
+         * @return Estimated size in bytes of the puts currently buffered, across all tables.
+         */
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+
+        /**
+         * @return Sum of the flush thresholds of all tables written to.
+         */
+        public long getBufferCapacityBytes() {
+            return bufferCapacityBytes;
+        }
+
+        /**
+         * @return Fraction of the write buffers in use, between 0 and 1.
+         */
+        public double getBufferUsage() {
+            return bufferCapacityBytes == 0 ? 0 : Math.min(1.0, (double) bufferedBytes / bufferCapacityBytes);
+        }
+
+        /**
+         * @return Number of flushes performed.
+         */
+        public long getFlushCount() {
+            return flushCount;
+        }
+
+        /**
+         * @return Mean flush latency.
+         */
+        public Duration getMeanFlushLatency() {
+            return Duration.ofNanos(flushCount == 0 ? 0 : flushNanosTotal / flushCount);
+        }
+
+        /**
+         * @return Highest flush latency seen.
+         */
+        public Duration getMaxFlushLatency() {
+            return Duration.ofNanos(flushNanosMax);
+        }
+
+        /**
+         * @return Number of mutations retried after HBase rejected them.
+         */
+        public long getRetriedMutations() {
+            return retriedMutations;
+        }
+
+        /**
+         * @return Number of mutations given up on.
+         */
+        public long getFailedMutations() {
+            return failedMutations;
+        }
+
+        @Override
+        public String toString() {
+            return "buffered: " + bufferedBytes + " / " + bufferCapacityBytes + " bytes; " +
+                    "flushes: " + flushCount + " (mean " + getMeanFlushLatency().toMillis() + " ms, " +
+                    "max " + getMaxFlushLatency().toMillis() + " ms); " +
+                    "retried: " + retriedMutations + "; failed: " + failedMutations;
+        }
+    }
+
+    public static class Builder {
+        private final Supplier<Connection> hbaseConnection;
+        private long flushThresholdBytes = 2 * 1024 * 1024;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int maxRetries = 3;
+        private FailedMutationListener failedMutationListener;
+
+        Builder(Supplier<Connection> hbaseConnection) {
+            parameterMayNotBeNull("hbaseConnection", hbaseConnection);
+            this.hbaseConnection = hbaseConnection;
+        }
+
+        /**
+         * Set the buffered size per table at which puts are flushed to HBase. Defaults to 2 MiB.
+         *
+         * @param flushThresholdBytes Size in bytes.
+         */
+        public Builder withFlushThreshold(long flushThresholdBytes) {
+            if (flushThresholdBytes < 1) {
+                throw new IllegalArgumentException("Flush threshold must be positive.");
+            }
+            this.flushThresholdBytes = flushThresholdBytes;
+            return this;
+        }
+
+        /**
+         * Set the maximum time puts stay buffered before they are flushed to HBase. Defaults to one second.
+         *
+         * @param flushInterval Flush interval.
+         */
+        public Builder withFlushInterval(Duration flushInterval) {
+            parameterMayNotBeNull("flushInterval", flushInterval);
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Set how often a mutation rejected by HBase is resubmitted before it is handed to the
+         * {@link FailedMutationListener}. Defaults to 3.
+         *
+         * @param maxRetries Number of retries.
+         */
+        public Builder withMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Set the listener for mutations that could not be persisted. If none is set, these are logged as errors.
+         *
+         * @param failedMutationListener Listener.
+         */
+        public Builder withFailedMutationListener(FailedMutationListener failedMutationListener) {
+            this.failedMutationListener = failedMutationListener;
+            return this;
+        }
+
+        public BufferedMutatorPutConsumer build() {
+            return new BufferedMutatorPutConsumer(
+                    hbaseConnection,
+                    flushThresholdBytes,
+                    flushInterval,
+                    maxRetries,
+                    failedMutationListener
+            );
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for assembling row keys and column qualifiers without intermediate arrays.
+ * <p>
+ * Instances are meant to be reused (e.g., one per thread); {@link #toByteArray()} is the only call that allocates
+ * once the buffer has grown large enough.
+ */
+final class ByteWriter {
+    /**
+     * Buffers that grew past this size are not kept around after a {@link #reset()}.
+     */
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final int initialCapacity;
+    private byte[] buffer;
+    private int length;
+
+    ByteWriter(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Discard the contents of this writer.
+     *
+     * @return This writer.
+     */
+    ByteWriter reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[initialCapacity];
+        }
+        length = 0;
+        return this;
+    }
+
+    ByteWriter write(byte value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+        return this;
+    }
+
+    ByteWriter write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    /**
+     * Write a long as eight big-endian bytes.
+     *
+     * @param value Value.
+     * @return This writer.
+     */
+    ByteWriter writeLong(long value) {
+        ensureCapacity(8);
+        for (int i = 7; i >= 0; i--) {
+            buffer[length + i] = (byte) value;
+            value >>>= 8;
+        }
+        length += 8;
+        return this;
+    }
+
+    /**
+     * Write a string as UTF-8. The output is identical to that of {@link String#getBytes(java.nio.charset.Charset)},
+     * including the replacement of unpaired surrogates by a question mark.
+     *
+     * @param value String.
+     * @return This writer.
+     */
+    ByteWriter writeUtf8(String value) {
+        int chars = value.length();
+        // Worst case is three bytes per UTF-16 char.
+        ensureCapacity(chars * 3);
+
+        byte[] buffer = this.buffer;
+        int position = length;
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                char low = i + 1 < chars ? value.charAt(i + 1) : 0;
+                if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    i++;
+                } else {
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        length = position;
+        return this;
+    }
+
+    /**
+     * Pad the contents with zero bytes up to the given length.
+     *
+     * @param targetLength Length.
+     * @return This writer.
+     */
+    ByteWriter padTo(int targetLength) {
+        if (targetLength <= length) return this;
+        ensureCapacity(targetLength - length);
+        Arrays.fill(buffer, length, targetLength, (byte) 0);
+        length = targetLength;
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return An exactly sized copy of the contents of this writer.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = length + extra;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
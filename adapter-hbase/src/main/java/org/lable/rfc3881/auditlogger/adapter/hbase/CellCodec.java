@@ -0,0 +1,307 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Codec for the values of the cells written by {@link HBaseAdapter}.
+ * <p>
+ * Cell values are small JSON documents that repeat the same field names and code system identifiers in every row.
+ * Compressing each value on its own gains little, but compressing it against a preset dictionary holding those
+ * recurring strings (see {@link CellDictionaryTrainer}) typically shrinks it to a fraction of its size. Compressed
+ * values are stored as:
+ * <pre>
+ *     [0x01][uncompressed length (4)][zlib stream]
+ * </pre>
+ * No JSON document starts with the marker byte, so compressed and plain values can coexist in one table. Values that
+ * are small, or that do not get smaller, are stored as-is. The zlib stream records the Adler-32 checksum of the
+ * dictionary it was compressed with; to keep reading older cells after switching to a newly trained dictionary, pass
+ * the old dictionaries to {@link Builder#withPreviousDictionary(byte[])}.
+ * <p>
+ * The uncompressed length in the header of a compressed value is not trusted: values claiming to be larger than
+ * {@link Builder#withMaxDecodedSize(int) the maximum decoded size}, or more than deflate can expand their compressed
+ * size to, are rejected as corrupt before any memory is allocated for them.
+ * <p>
+ * Compression uses {@link java.util.zip}, so no native libraries beyond those of the JDK itself are needed.
+ */
+public final class CellCodec {
+    static final byte DEFLATED_MARKER = 0x01;
+    static final int HEADER_LENGTH = 5;
+    /**
+     * Deflate cannot expand a compressed stream to more than about 1032 times its size.
+     */
+    static final int MAX_DEFLATE_RATIO = 1032;
+    static final int DEFAULT_MAX_DECODED_SIZE = 16 * 1024 * 1024;
+
+    private static final CellCodec PLAIN =
+            new CellCodec(false, null, Collections.emptyMap(), 0, 0, DEFAULT_MAX_DECODED_SIZE);
+
+    private final boolean compress;
+    private final byte[] dictionary;
+    private final Map<Integer, byte[]> dictionaries;
+    private final int minimumSize;
+    private final int maxDecodedSize;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private final ThreadLocal<byte[]> scratch = new ThreadLocal<>();
+
+    private CellCodec(boolean compress,
+                      byte[] dictionary,
+                      Map<Integer, byte[]> dictionaries,
+                      int minimumSize,
+                      int level,
+                      int maxDecodedSize) {
+        this.compress = compress;
+        this.dictionary = dictionary;
+        this.dictionaries = dictionaries;
+        this.minimumSize = minimumSize;
+        this.maxDecodedSize = maxDecodedSize;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    /**
+     * Get the codec that stores values as-is. This is the default. It still reads values compressed without a
+     * dictionary.
+     *
+     * @return The plain codec.
+     */
+    public static CellCodec plain() {
+        return PLAIN;
+    }
+
+    /**
+     * Start building a compressing codec.
+     *
+     * @return A builder for chaining.
+     */
+    public static Builder define() {
+        return new Builder();
+    }
+
+    /**
+     * @return True if this codec compresses the values it encodes.
+     */
+    public boolean isCompressing() {
+        return compress;
+    }
+
+    /**
+     * Encode a cell value.
+     *
+     * @param value Serialized value.
+     * @return The value to store; either the input itself, or its compressed form.
+     */
+    public byte[] encode(byte[] value) {
+        if (!compress || value == null || value.length < minimumSize) return value;
+
+        // Only worth it if the result is smaller than the input.
+        byte[] out = scratch.get();
+        if (out == null || out.length < value.length) {
+            out = new byte[Math.max(value.length, 256)];
+            if (out.length <= ByteWriter.MAX_RETAINED_CAPACITY) scratch.set(out);
+        }
+        int limit = value.length - 1;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(value);
+        deflater.finish();
+
+        int length = HEADER_LENGTH;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(out, length, limit - length);
+        }
+        if (!deflater.finished()) return value;
+
+        out[0] = DEFLATED_MARKER;
+        writeInt(out, 1, value.length);
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Decode a cell value written by {@link #encode(byte[])}, or by any other codec.
+     *
+     * @param value Stored value.
+     * @return The serialized value.
+     * @throws IOException Thrown when the value is compressed but cannot be decompressed, for example because it was
+     *                     compressed with a dictionary this codec does not know, or because its header claims an
+     *                     implausible uncompressed length.
+     */
+    public byte[] decode(byte[] value) throws IOException {
+        if (!isCompressed(value)) return value;
+        if (value.length < HEADER_LENGTH) throw new IOException("Compressed cell value is truncated.");
+
+        int length = readInt(value, 1);
+        if (length < 0) throw new IOException("Compressed cell value has an invalid length.");
+        if (length > maxDecodedSize) {
+            throw new IOException("Compressed cell value claims to be larger (" + length + " bytes) than the " +
+                    "maximum decoded size (" + maxDecodedSize + " bytes).");
+        }
+        if (length > (long) (value.length - HEADER_LENGTH) * MAX_DEFLATE_RATIO) {
+            throw new IOException("Compressed cell value claims an uncompressed length (" + length + " bytes) its " +
+                    "compressed size (" + (value.length - HEADER_LENGTH) + " bytes) cannot produce.");
+        }
+        byte[] out = new byte[length];
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+        try {
+            int offset = 0;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(out, offset, out.length - offset);
+                offset += inflated;
+                if (inflated > 0) continue;
+
+                if (inflater.needsDictionary()) {
+                    byte[] dictionary = dictionaries.get(inflater.getAdler());
+                    if (dictionary == null) {
+                        throw new IOException(String.format(
+                                "Cell value was compressed with an unknown dictionary (Adler-32 %08x).",
+                                inflater.getAdler()
+                        ));
+                    }
+                    inflater.setDictionary(dictionary);
+                } else {
+                    // Out of input, or out of room.
+                    break;
+                }
+            }
+            if (!inflater.finished() || offset != length) {
+                throw new IOException("Compressed cell value is truncated or corrupt.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed cell value is corrupt.", e);
+        }
+        return out;
+    }
+
+    static boolean isCompressed(byte[] value) {
+        return value != null && value.length > 0 && value[0] == DEFLATED_MARKER;
+    }
+
+    static int adlerOf(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | bytes[offset + 3] & 0xFF;
+    }
+
+    public static class Builder {
+        private byte[] dictionary;
+        private final Map<Integer, byte[]> previousDictionaries = new HashMap<>();
+        private int minimumSize = 64;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int maxDecodedSize = DEFAULT_MAX_DECODED_SIZE;
+
+        Builder() {
+        }
+
+        /**
+         * Compress against this preset dictionary. Without one, values are compressed on their own.
+         *
+         * @param dictionary Dictionary, as produced by {@link CellDictionaryTrainer#train()}. Only its last 32 KiB are
+         *                   used.
+         */
+        public Builder withDictionary(byte[] dictionary) {
+            parameterMayNotBeNull("dictionary", dictionary);
+            this.dictionary = dictionary.clone();
+            return this;
+        }
+
+        /**
+         * Also decode values compressed with this dictionary. Use this for dictionaries used before the current one.
+         *
+         * @param dictionary Dictionary.
+         */
+        public Builder withPreviousDictionary(byte[] dictionary) {
+            parameterMayNotBeNull("dictionary", dictionary);
+            previousDictionaries.put(adlerOf(dictionary), dictionary.clone());
+            return this;
+        }
+
+        /**
+         * Set the size below which values are stored as-is. Defaults to 64 bytes.
+         *
+         * @param minimumSize Size in bytes.
+         */
+        public Builder withMinimumSize(int minimumSize) {
+            this.minimumSize = Math.max(minimumSize, HEADER_LENGTH + 1);
+            return this;
+        }
+
+        /**
+         * Set the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+         * Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+         *
+         * @param level Compression level.
+         */
+        public Builder withLevel(int level) {
+            if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                    && level != Deflater.DEFAULT_COMPRESSION) {
+                throw new IllegalArgumentException("Invalid compression level (" + level + " passed).");
+            }
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Set the largest uncompressed size accepted when decoding a value. Values claiming to be larger are rejected
+         * as corrupt. Defaults to 16 MiB.
+         *
+         * @param maxDecodedSize Size in bytes.
+         */
+        public Builder withMaxDecodedSize(int maxDecodedSize) {
+            if (maxDecodedSize < 1) throw new IllegalArgumentException("Maximum decoded size must be positive.");
+            this.maxDecodedSize = maxDecodedSize;
+            return this;
+        }
+
+        /**
+         * @return A compressing codec.
+         */
+        public CellCodec build() {
+            Map<Integer, byte[]> dictionaries = new HashMap<>(previousDictionaries);
+            if (dictionary != null) dictionaries.put(adlerOf(dictionary), dictionary);
+            return new CellCodec(true, dictionary, dictionaries, minimumSize, level, maxDecodedSize);
+        }
+    }
+}
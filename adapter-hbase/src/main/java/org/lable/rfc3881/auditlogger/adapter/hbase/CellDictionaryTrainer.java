@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Trains a preset dictionary for {@link CellCodec} from a sample of cell values.
+ * <p>
+ * Each value is cut into tokens at its double quotes, which for JSON yields the field names, the string values, and
+ * the punctuation around them. Runs of up to three consecutive tokens that recur across the sample are scored by the
+ * number of bytes they would save, and the best are concatenated until the dictionary is full. Deflate reaches the
+ * end of its dictionary with the shortest distances, so the most valuable strings are placed last.
+ * <p>
+ * To train a dictionary from an existing table, run this class with the table name, the column family, the file to
+ * write the dictionary to, and optionally the number of rows to sample. The HBase configuration is read from the
+ * classpath.
+ */
+public class CellDictionaryTrainer {
+    static final int MAX_TOKENS_PER_RUN = 3;
+    static final int MIN_TOKEN_LENGTH = 3;
+
+    private final int maxDictionarySize;
+    private final Map<String, Integer> counts = new HashMap<>();
+    private int sampleCount = 0;
+
+    /**
+     * Create a trainer.
+     *
+     * @param maxDictionarySize Maximum size of the dictionary, in bytes. Deflate uses at most 32 KiB; smaller
+     *                          dictionaries are cheaper to load for every value compressed. 8 KiB works well.
+     */
+    public CellDictionaryTrainer(int maxDictionarySize) {
+        if (maxDictionarySize < 1) throw new IllegalArgumentException("Dictionary size must be positive.");
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * Add a cell value to the sample.
+     *
+     * @param value Serialized (uncompressed) cell value.
+     */
+    public void addSample(byte[] value) {
+        if (value == null || value.length == 0) return;
+        sampleCount++;
+
+        // ISO-8859-1 maps every byte to one char, so the tokens convert back to the exact bytes.
+        List<String> tokens = tokenize(new String(value, StandardCharsets.ISO_8859_1));
+        for (int i = 0; i < tokens.size(); i++) {
+            StringBuilder run = new StringBuilder();
+            for (int j = i; j < Math.min(i + MAX_TOKENS_PER_RUN, tokens.size()); j++) {
+                run.append(tokens.get(j));
+                if (run.length() >= MIN_TOKEN_LENGTH) counts.merge(run.toString(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Add the values of all cells in a row of the audit log table to the sample. Values already compressed with a
+     * dictionary are skipped.
+     *
+     * @param result Row.
+     * @param cf     Column family.
+     */
+    public void addSamples(Result result, byte[] cf) {
+        NavigableMap<byte[], byte[]> familyValues = result.getFamilyMap(cf);
+        if (familyValues == null) return;
+        for (byte[] value : familyValues.values()) {
+            try {
+                addSample(CellCodec.plain().decode(value));
+            } catch (IOException e) {
+                // Compressed with a dictionary; not usable as a sample.
+            }
+        }
+    }
+
+    /**
+     * @return Number of values sampled so far.
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Train a dictionary from the values sampled so far.
+     *
+     * @return The dictionary; empty if no string recurs in the sample.
+     */
+    public byte[] train() {
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) candidates.add(entry);
+        }
+        candidates.sort(Comparator.<Map.Entry<String, Integer>>comparingLong(CellDictionaryTrainer::score)
+                .reversed()
+                .thenComparing(Map.Entry::getKey));
+
+        List<String> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String string = candidate.getKey();
+            // Strings contained in a better one are covered already.
+            if (selected.stream().anyMatch(s -> s.contains(string))) continue;
+            // And those contained in this one become redundant.
+            int covered = selected.stream().filter(string::contains).mapToInt(String::length).sum();
+            if (size - covered + string.length() > maxDictionarySize) continue;
+
+            selected.removeIf(string::contains);
+            selected.add(string);
+            size += string.length() - covered;
+        }
+
+        // Best last.
+        Collections.reverse(selected);
+        StringBuilder dictionary = new StringBuilder(size);
+        selected.forEach(dictionary::append);
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Train a dictionary from the newest rows of an audit log table.
+     *
+     * @param connection        HBase connection.
+     * @param tableName         Table to sample.
+     * @param columnFamily      Column family the audit log entries are stored in.
+     * @param maxRows           Number of rows to sample.
+     * @param maxDictionarySize Maximum size of the dictionary, in bytes.
+     * @return The dictionary.
+     * @throws IOException Thrown when reading the table failed.
+     */
+    public static byte[] trainFromTable(Connection connection,
+                                        TableName tableName,
+                                        String columnFamily,
+                                        int maxRows,
+                                        int maxDictionarySize) throws IOException {
+        byte[] cf = columnFamily.getBytes(StandardCharsets.UTF_8);
+        CellDictionaryTrainer trainer = new CellDictionaryTrainer(maxDictionarySize);
+
+        Scan scan = new Scan().addFamily(cf).setLimit(maxRows).setCaching(Math.min(maxRows, 1000));
+        try (Table table = connection.getTable(tableName);
+             ResultScanner scanner = table.getScanner(scan)) {
+            int rows = 0;
+            for (Result result : scanner) {
+                trainer.addSamples(result, cf);
+                if (++rows >= maxRows) break;
+            }
+        }
+        return trainer.train();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CellDictionaryTrainer <table> <column family> <output file> [rows] [size]");
+            System.exit(1);
+        }
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        int size = args.length > 4 ? Integer.parseInt(args[4]) : 8 * 1024;
+
+        try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+            byte[] dictionary = trainFromTable(connection, TableName.valueOf(args[0]), args[1], rows, size);
+            Files.write(Paths.get(args[2]), dictionary);
+            System.out.println("Wrote a dictionary of " + dictionary.length + " bytes to " + args[2] + ".");
+        }
+    }
+
+    static long score(Map.Entry<String, Integer> candidate) {
+        // Roughly the number of bytes saved by referring to the dictionary instead of repeating the string.
+        return (long) (candidate.getValue() - 1) * (candidate.getKey().length() - 2);
+    }
+
+    static List<String> tokenize(String value) {
+        List<String> tokens = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                if (i > start) tokens.add(value.substring(start, i));
+                // The quote starts the next token, so field names and string values keep their opening quote.
+                start = i;
+            }
+        }
+        if (start < value.length()) tokens.add(value.substring(start));
+        return tokens;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.lable.rfc3881.auditlogger.api.EntryPart;
+import org.lable.rfc3881.auditlogger.api.Principal;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Caches the column qualifier and value of the cells written by {@link HBaseAdapter} for entry parts that recur
+ * from one log entry to the next, so they are serialized only once.
+ * <p>
+ * Parts that are the same for every entry a process writes, such as its
+ * {@link org.lable.rfc3881.auditlogger.api.AuditSource} and often its
+ * {@link org.lable.rfc3881.auditlogger.api.NetworkAccessPoint}, can be registered as templates; their cells are kept
+ * for as long as the templates are in use. Cells for {@link Principal}s are also kept in a bounded cache, as the same
+ * few users tend to account for most entries. Parts are matched by equality, so registered parts need not be the very
+ * instances passed in the log entries.
+ * <p>
+ * Cached cells are tied to the {@link EntryCodecs} and {@link CellCodec} they were made with, and are made anew
+ * when the adapter is configured differently.
+ */
+public final class CellTemplates {
+    private static final CellTemplates NONE = new CellTemplates(Collections.emptySet(), 0);
+
+    private final Set<EntryPart> templateParts;
+    private final Set<Class<?>> templateTypes = new HashSet<>();
+    private final int cacheCapacity;
+    private final Map<Key, Template> cells = new ConcurrentHashMap<>();
+    private final AtomicInteger cacheSize = new AtomicInteger();
+
+    private CellTemplates(Set<EntryPart> templateParts, int cacheCapacity) {
+        this.templateParts = templateParts;
+        this.cacheCapacity = cacheCapacity;
+        for (EntryPart part : templateParts) {
+            templateTypes.add(part.getClass());
+        }
+    }
+
+    /**
+     * Get an instance that caches nothing. This is the default.
+     *
+     * @return Templates that cache nothing.
+     */
+    public static CellTemplates none() {
+        return NONE;
+    }
+
+    /**
+     * Start defining templates.
+     *
+     * @return A builder for chaining.
+     */
+    public static Builder define() {
+        return new Builder();
+    }
+
+    /**
+     * Get the cell for an entry part, if it is a template or may be cached.
+     *
+     * @param qualifier Column qualifier prefix of the part.
+     * @param part      Entry part.
+     * @param codecs    Writers used by the adapter.
+     * @param cellCodec Cell codec used by the adapter.
+     * @return The cell, or null if the part is neither a template nor a principal that may be cached.
+     * @throws IOException Thrown when serialization of the part failed.
+     */
+    Template cellFor(byte[] qualifier, EntryPart part, EntryCodecs codecs, CellCodec cellCodec) throws IOException {
+        boolean cacheable = cacheCapacity > 0 && part instanceof Principal;
+        if (!cacheable && !templateTypes.contains(part.getClass())) return null;
+
+        Key key = new Key(qualifier, part);
+        Template template = cells.get(key);
+        if (template != null && template.codecs == codecs && template.cellCodec == cellCodec) return template;
+
+        boolean pinned = templateParts.contains(part);
+        if (!pinned && !cacheable) return null;
+
+        Template fresh = new Template(
+                HBaseAdapter.qualifierFor(qualifier, part.isComplete(), part),
+                cellCodec.encode(codecs.write(part)),
+                codecs,
+                cellCodec,
+                pinned
+        );
+        if (!pinned && template == null && cacheSize.incrementAndGet() > cacheCapacity) {
+            // Start over, but keep the templates.
+            cells.values().removeIf(cell -> !cell.pinned);
+            cacheSize.set(1);
+        }
+        cells.put(key, fresh);
+        return fresh;
+    }
+
+    /**
+     * @return The number of cells kept for parts that are not templates.
+     */
+    int cacheSize() {
+        return (int) cells.values().stream().filter(cell -> !cell.pinned).count();
+    }
+
+    /**
+     * The cached cell of an entry part.
+     */
+    static final class Template {
+        final byte[] qualifier;
+        final byte[] value;
+        final EntryCodecs codecs;
+        final CellCodec cellCodec;
+        final boolean pinned;
+
+        Template(byte[] qualifier, byte[] value, EntryCodecs codecs, CellCodec cellCodec, boolean pinned) {
+            this.qualifier = qualifier;
+            this.value = value;
+            this.codecs = codecs;
+            this.cellCodec = cellCodec;
+            this.pinned = pinned;
+        }
+    }
+
+    /**
+     * Entry part, and the column qualifier prefix it is written under.
+     */
+    static final class Key {
+        final byte[] qualifier;
+        final EntryPart part;
+
+        Key(byte[] qualifier, EntryPart part) {
+            this.qualifier = qualifier;
+            this.part = part;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            Key that = (Key) other;
+            return Arrays.equals(this.qualifier, that.qualifier) && Objects.equals(this.part, that.part);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(qualifier) + part.hashCode();
+        }
+    }
+
+    public static class Builder {
+        private final Set<EntryPart> parts = new LinkedHashSet<>();
+        private int cacheCapacity = 1024;
+
+        Builder() {
+        }
+
+        /**
+         * Register an entry part whose cells are to be kept for as long as these templates are in use.
+         *
+         * @param part Entry part, such as the audit source or network access point of this process.
+         */
+        public Builder withTemplate(EntryPart part) {
+            parameterMayNotBeNull("part", part);
+            parts.add(part);
+            return this;
+        }
+
+        /**
+         * Set the number of cells for principals that are not registered as templates to keep. When more are
+         * needed, all are forgotten and caching starts over. Defaults to 1024; pass 0 to cache only templates.
+         *
+         * @param cacheCapacity Number of cells.
+         */
+        public Builder withCacheCapacity(int cacheCapacity) {
+            this.cacheCapacity = Math.max(cacheCapacity, 0);
+            return this;
+        }
+
+        /**
+         * @return The templates.
+         */
+        public CellTemplates build() {
+            return new CellTemplates(new HashSet<>(parts), cacheCapacity);
+        }
+    }
+}
@@ -15,34 +15,30 @@
  */
 package org.lable.rfc3881.auditlogger.adapter.hbase;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Table;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.lable.codesystem.codereference.CodeReference;
 import org.lable.codesystem.codereference.Identifiable;
-import org.lable.codesystem.codereference.Referenceable;
-import org.lable.oss.bitsandbytes.ByteConversion;
-import org.lable.oss.bitsandbytes.ByteMangler;
 import org.lable.rfc3881.auditlogger.api.*;
-import org.lable.rfc3881.auditlogger.serialization.ObjectMapperFactory;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics.Stage;
+import org.lable.rfc3881.auditlogger.serialization.CodeSystemDictionary;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+import org.lable.rfc3881.auditlogger.serialization.EntryEncoding;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static org.apache.hadoop.hbase.util.Bytes.toBytes;
-import static org.lable.oss.bitsandbytes.ByteMangler.flipTheFirstBit;
 
 /**
  * Persist audit log messages in a HBase table.
@@ -51,32 +47,89 @@ public class HBaseAdapter implements AuditLogAdapter {
     static final byte[] INCOMPLETE_MARKER = "X-".getBytes();
     static final byte[] NULL_BYTE = new byte[]{0x00};
 
-    static ObjectMapper objectMapper;
+    static final byte[] EVENT_QUALIFIER = toBytes("event");
+    static final byte[] REQUESTOR_QUALIFIER = toBytes("requestor");
+    static final byte[] DELEGATOR_QUALIFIER = toBytes("delegator");
+    static final byte[] ACCESS_POINT_QUALIFIER = toBytes("access_point");
+    static final byte[] PRINCIPAL_QUALIFIER = toBytes("principal");
+    static final byte[] SOURCE_QUALIFIER = toBytes("source");
+    static final byte[] OBJECT_QUALIFIER = toBytes("object");
+    static final byte[] DETAILS_QUALIFIER = toBytes("details");
+    static final byte[] VERSION_QUALIFIER = toBytes("version");
 
-    private final BiConsumer<TableName, Put> putConsumer;
+    /**
+     * Per-thread buffer used to assemble row keys and column qualifiers.
+     */
+    static final ThreadLocal<ByteWriter> WRITER = ThreadLocal.withInitial(() -> new ByteWriter(256));
+
+    static volatile EntryCodecs customEntryCodecs;
+
+    private final BiConsumer<TableName, List<Put>> multiPutConsumer;
     private final Function<LogEntry, TableName> tableDecider;
     private final Supplier<String> columnFamilySetting;
     private final Supplier<Long> uniqueIDGenerator;
 
+    private volatile ColumnFamily columnFamily;
+    private volatile RowKeyLayout rowKeyLayout = RowKeyLayout.unsalted();
+    private volatile CellCodec cellCodec = CellCodec.plain();
+    private volatile EntryEncoding encoding = EntryEncoding.JSON;
+    private volatile CodeSystemDictionary codeSystemDictionary = CodeSystemDictionary.standard();
+    private volatile EntryCodecs entryCodecs = EntryCodecs.getDefault();
+    private volatile AuditLogMetrics metrics = AuditLogMetrics.noop();
+    private volatile CellTemplates cellTemplates = CellTemplates.none();
+
     /**
      * Create a new {@link HBaseAdapter}.
      *
-     * @param putConsumer         A consumer that will handle persisting the generated {@link Put}.
+     * @param putConsumer         A consumer that will handle persisting the generated {@link Put}. Use
+     *                            {@link #withMultiPutConsumer(BiConsumer, Function, Supplier, Supplier)} to persist
+     *                            puts in batches instead.
      * @param tableDecider        Provides the {@link TableName} for any given {@link LogEntry}.
      * @param columnFamilySetting A supplier that returns the column family that should be used for the logs.
-     * @param uniqueIDGenerator   A supplier that returns a unique identifier on each call.
+     * @param uniqueIDGenerator   A supplier that returns a unique identifier on each call, such as
+     *                            {@link org.lable.rfc3881.auditlogger.api.util.SnowflakeUidGenerator}.
      */
     @Inject
     public HBaseAdapter(@Named("hbase-put-consumer") BiConsumer<TableName, Put> putConsumer,
                         @Named("hbase-table-decider") Function<LogEntry, TableName> tableDecider,
                         @Named("audit-column-family") Supplier<String> columnFamilySetting,
                         @Named("uid-generator") Supplier<Long> uniqueIDGenerator) {
-        this.putConsumer = putConsumer;
+        this(
+                tableDecider,
+                columnFamilySetting,
+                uniqueIDGenerator,
+                (tableName, puts) -> puts.forEach(put -> putConsumer.accept(tableName, put))
+        );
+    }
+
+    private HBaseAdapter(Function<LogEntry, TableName> tableDecider,
+                         Supplier<String> columnFamilySetting,
+                         Supplier<Long> uniqueIDGenerator,
+                         BiConsumer<TableName, List<Put>> multiPutConsumer) {
+        this.multiPutConsumer = multiPutConsumer;
         this.tableDecider = tableDecider;
         this.columnFamilySetting = columnFamilySetting;
         this.uniqueIDGenerator = uniqueIDGenerator;
     }
 
+    /**
+     * Create a new {@link HBaseAdapter} that hands all {@link Put}s destined for the same table to the consumer in a
+     * single call. Use this when persisting a list of puts at once (e.g., through {@link Table#put(List)}) is
+     * cheaper than persisting them one by one.
+     *
+     * @param multiPutConsumer    A consumer that will handle persisting the generated {@link Put}s for a table.
+     * @param tableDecider        Provides the {@link TableName} for any given {@link LogEntry}.
+     * @param columnFamilySetting A supplier that returns the column family that should be used for the logs.
+     * @param uniqueIDGenerator   A supplier that returns a unique identifier on each call.
+     * @return An adapter.
+     */
+    public static HBaseAdapter withMultiPutConsumer(BiConsumer<TableName, List<Put>> multiPutConsumer,
+                                                    Function<LogEntry, TableName> tableDecider,
+                                                    Supplier<String> columnFamilySetting,
+                                                    Supplier<Long> uniqueIDGenerator) {
+        return new HBaseAdapter(tableDecider, columnFamilySetting, uniqueIDGenerator, multiPutConsumer);
+    }
+
     /**
      * Override the default {@link ObjectMapper}. This is only needed in rare cases where the default
      * {@link ObjectMapper} created by this library clashes with the data-bind library on the classpath, or if you want
@@ -85,7 +138,81 @@ public class HBaseAdapter implements AuditLogAdapter {
      * @param objectMapper Custom object-mapper.
      */
     public static void setObjectMapper(ObjectMapper objectMapper) {
-        HBaseAdapter.objectMapper = objectMapper;
+        HBaseAdapter.customEntryCodecs = objectMapper == null ? null : EntryCodecs.forMapper(objectMapper);
+    }
+
+    EntryCodecs entryCodecs() {
+        EntryCodecs codecs = customEntryCodecs;
+        return codecs == null ? entryCodecs : codecs;
+    }
+
+    /**
+     * Set the layout of the row keys written. Defaults to {@link RowKeyLayout#unsalted()}. Readers of the table must
+     * use the same layout; see {@link HBaseReader#setRowKeyLayout(RowKeyLayout)}.
+     *
+     * @param rowKeyLayout Row key layout.
+     */
+    public void setRowKeyLayout(RowKeyLayout rowKeyLayout) {
+        this.rowKeyLayout = rowKeyLayout == null ? RowKeyLayout.unsalted() : rowKeyLayout;
+    }
+
+    /**
+     * Set the codec for the cell values written. Defaults to {@link CellCodec#plain()}, which stores the serialized
+     * values as-is. Readers of the table must know any dictionary used; see
+     * {@link HBaseReader#setCellCodec(CellCodec)}.
+     *
+     * @param cellCodec Cell codec.
+     */
+    public void setCellCodec(CellCodec cellCodec) {
+        this.cellCodec = cellCodec == null ? CellCodec.plain() : cellCodec;
+    }
+
+    /**
+     * Set the encoding of the cell values written. Defaults to {@link EntryEncoding#JSON}. {@link HBaseReader} detects
+     * the encoding of each cell, so a table can be switched to {@link EntryEncoding#SMILE} or
+     * {@link EntryEncoding#BINARY} without rewriting the cells already written. Ignored when a custom object-mapper
+     * was set through {@link #setObjectMapper}.
+     *
+     * @param encoding Encoding.
+     */
+    public void setEncoding(EntryEncoding encoding) {
+        this.encoding = encoding == null ? EntryEncoding.JSON : encoding;
+        this.entryCodecs = EntryCodecs.getDefault(this.encoding).withDictionary(codeSystemDictionary);
+    }
+
+    /**
+     * Set the dictionary of custom code systems and code references used by {@link EntryEncoding#BINARY}. Defaults
+     * to {@link CodeSystemDictionary#standard()}. Readers of the table must use the same dictionary, or a later
+     * version of it; see {@link HBaseReader#setEntryCodecs(EntryCodecs)} and
+     * {@link EntryCodecs#withDictionary(CodeSystemDictionary)}.
+     *
+     * @param codeSystemDictionary Dictionary.
+     */
+    public void setCodeSystemDictionary(CodeSystemDictionary codeSystemDictionary) {
+        this.codeSystemDictionary = codeSystemDictionary == null
+                ? CodeSystemDictionary.standard()
+                : codeSystemDictionary;
+        this.entryCodecs = EntryCodecs.getDefault(encoding).withDictionary(this.codeSystemDictionary);
+    }
+
+    /**
+     * Set the entry parts whose cells are to be serialized once and then reused, such as the audit source of this
+     * process. Defaults to {@link CellTemplates#none()}.
+     *
+     * @param cellTemplates Templates.
+     */
+    public void setCellTemplates(CellTemplates cellTemplates) {
+        this.cellTemplates = cellTemplates == null ? CellTemplates.none() : cellTemplates;
+    }
+
+    /**
+     * Set where to report the latency of serialization, row key construction and puts, and the size of the entries
+     * written. Defaults to {@link AuditLogMetrics#noop()}.
+     *
+     * @param metrics Metrics.
+     */
+    public void setMetrics(AuditLogMetrics metrics) {
+        this.metrics = metrics == null ? AuditLogMetrics.noop() : metrics;
     }
 
     /**
@@ -94,6 +221,105 @@ public class HBaseAdapter implements AuditLogAdapter {
     @Override
     public void record(LogEntry logEntry) throws IOException {
         if (logEntry == null) return;
+
+        Put put = toPut(logEntry);
+        TableName tableName = tableDecider.apply(logEntry);
+
+        write(tableName, Collections.singletonList(put));
+    }
+
+    /**
+     * Persist several log entries. The {@link Put}s generated for all entries are grouped by their target table,
+     * and handed to the put consumer in one call per table. A failure to serialize an entry, or to write the puts of
+     * a table, does not stop the other entries from being written; a {@link PartialFailureException} lists the
+     * entries that were not.
+     *
+     * @param logEntries Audit log entries to process.
+     * @throws PartialFailureException Thrown when some of the audit messages could not be persisted.
+     */
+    @Override
+    public void recordAll(Collection<LogEntry> logEntries) throws IOException {
+        if (logEntries == null || logEntries.isEmpty()) return;
+
+        Set<LogEntry> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Exception failure = null;
+
+        Map<TableName, List<Put>> putsPerTable = new LinkedHashMap<>();
+        Map<TableName, List<LogEntry>> entriesPerTable = new HashMap<>();
+        for (LogEntry logEntry : logEntries) {
+            if (logEntry == null) continue;
+            Put put;
+            TableName tableName;
+            try {
+                put = toPut(logEntry);
+                tableName = tableDecider.apply(logEntry);
+            } catch (IOException | RuntimeException e) {
+                failed.add(logEntry);
+                failure = addFailure(failure, e);
+                continue;
+            }
+            putsPerTable.computeIfAbsent(tableName, ignored -> new ArrayList<>()).add(put);
+            entriesPerTable.computeIfAbsent(tableName, ignored -> new ArrayList<>()).add(logEntry);
+        }
+
+        for (Map.Entry<TableName, List<Put>> entry : putsPerTable.entrySet()) {
+            try {
+                write(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                failed.addAll(entriesPerTable.get(entry.getKey()));
+                failure = addFailure(failure, e);
+            }
+        }
+
+        if (failure != null) {
+            List<LogEntry> failedEntries = new ArrayList<>(failed.size());
+            for (LogEntry logEntry : logEntries) {
+                if (logEntry != null && failed.contains(logEntry)) failedEntries.add(logEntry);
+            }
+            throw new PartialFailureException(failedEntries, logEntries.size(), failure);
+        }
+    }
+
+    static Exception addFailure(Exception failure, Exception e) {
+        if (failure == null) return e;
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * @param logEntry Audit log entry.
+     * @return The table the entry is to be written to.
+     */
+    TableName tableFor(LogEntry logEntry) {
+        return tableDecider.apply(logEntry);
+    }
+
+    /**
+     * Hand puts to the put consumer.
+     *
+     * @param tableName Table.
+     * @param puts      Puts for that table.
+     */
+    void write(TableName tableName, List<Put> puts) {
+        AuditLogMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        try {
+            multiPutConsumer.accept(tableName, puts);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(Stage.PUT);
+            throw e;
+        }
+        metrics.recordLatency(Stage.PUT, System.nanoTime() - start);
+    }
+
+    /**
+     * Convert a log entry to a {@link Put}. If the entry has no unique identifier yet, it is assigned one.
+     *
+     * @param logEntry Audit log entry.
+     * @return The put.
+     * @throws IOException Thrown when serialization of one of the entry's parts failed.
+     */
+    Put toPut(LogEntry logEntry) throws IOException {
         Event event = logEntry.getEvent();
         UniqueEvent uEvent;
         if (event instanceof UniqueEvent) {
@@ -103,97 +329,165 @@ public class HBaseAdapter implements AuditLogAdapter {
             logEntry.setEvent(uEvent);
         }
 
+        AuditLogMetrics metrics = this.metrics;
+        byte[] family = familyBytes();
+        long start = System.nanoTime();
+        Put put = new Put(rowKeyFor(uEvent.toId(), rowKeyLayout));
+        long rowKeyDone = System.nanoTime();
+        metrics.recordLatency(Stage.ROW_KEY, rowKeyDone - start);
 
-        Put put = new Put(rowKeyFor(uEvent.toId()));
-        addIfNotNull(put, "event", uEvent);
-        addIfNotNull(put, "requestor", logEntry.getRequestor());
-        addIfNotNull(put, "delegator", logEntry.getDelegator());
-        addIfNotNull(put, "access_point", logEntry.getNetworkAccessPoint());
-        addIfNotNull(put, "principal", logEntry.getParticipatingPrincipals());
-        addIfNotNull(put, "source", logEntry.getAuditSources());
-        addIfNotNull(put, "object", logEntry.getParticipantObjects());
-        addIfNotNull(put, "details", logEntry.getDetails());
-        addIfNotNull(put, "version", logEntry.getVersion());
+        try {
+            addParts(put, family, logEntry, uEvent);
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(Stage.SERIALIZE);
+            throw e;
+        }
+        metrics.recordLatency(Stage.SERIALIZE, System.nanoTime() - rowKeyDone);
 
-        TableName tableName = tableDecider.apply(logEntry);
+        if (metrics != AuditLogMetrics.NOOP) {
+            long size = 0;
+            for (Cell cell : put.getFamilyCellMap().getOrDefault(family, Collections.emptyList())) {
+                size += cell.getValueLength();
+            }
+            metrics.recordEntrySize(size);
+            metrics.recordCellsPerRow(put.size());
+        }
+
+        return put;
+    }
 
-        putConsumer.accept(tableName, put);
+    void addParts(Put put, byte[] family, LogEntry logEntry, UniqueEvent uEvent) throws IOException {
+        EntryCodecs codecs = entryCodecs();
+        addIfNotNull(codecs, put, family, EVENT_QUALIFIER, uEvent);
+        addIfNotNull(codecs, put, family, REQUESTOR_QUALIFIER, logEntry.getRequestor());
+        addIfNotNull(codecs, put, family, DELEGATOR_QUALIFIER, logEntry.getDelegator());
+        addIfNotNull(codecs, put, family, ACCESS_POINT_QUALIFIER, logEntry.getNetworkAccessPoint());
+        addIfNotNull(codecs, put, family, PRINCIPAL_QUALIFIER, logEntry.getParticipatingPrincipals());
+        addIfNotNull(codecs, put, family, SOURCE_QUALIFIER, logEntry.getAuditSources());
+        addIfNotNull(codecs, put, family, OBJECT_QUALIFIER, logEntry.getParticipantObjects());
+        addIfNotNull(codecs, put, family, DETAILS_QUALIFIER, logEntry.getDetails());
+        addIfNotNull(codecs, put, family, VERSION_QUALIFIER, logEntry.getVersion());
     }
 
-    void addIfNotNull(Put put, String qualifier, Object value) throws JsonProcessingException {
+    /**
+     * @return The column family as bytes. The conversion is cached for as long as the configured family name does
+     * not change.
+     */
+    byte[] familyBytes() {
+        String name = columnFamilySetting.get();
+        ColumnFamily cached = columnFamily;
+        if (cached == null || !cached.name.equals(name)) {
+            cached = new ColumnFamily(name);
+            columnFamily = cached;
+        }
+        return cached.bytes;
+    }
+
+    void addIfNotNull(EntryCodecs codecs, Put put, byte[] family, byte[] qualifier, Object value)
+            throws IOException {
         if (value instanceof EntryPart) {
-            addIfNotNull(put, toBytes(qualifier), ((EntryPart) value).isComplete(), value);
+            addIfNotNull(codecs, put, family, qualifier, ((EntryPart) value).isComplete(), value);
         } else {
-            addIfNotNull(put, toBytes(qualifier), true, value);
+            addIfNotNull(codecs, put, family, qualifier, true, value);
         }
     }
 
-    void addIfNotNull(Put put, String qualifier, Collection<? extends EntryPart> collection)
-            throws JsonProcessingException {
+    void addIfNotNull(EntryCodecs codecs,
+                      Put put,
+                      byte[] family,
+                      byte[] qualifier,
+                      Collection<? extends EntryPart> collection) throws IOException {
         if (collection == null) return;
         for (EntryPart value : collection) {
-            addIfNotNull(put, toBytes(qualifier), value.isComplete(), value);
+            addIfNotNull(codecs, put, family, qualifier, value.isComplete(), value);
         }
     }
 
-    void addIfNotNull(Put put, byte[] qualifier, boolean complete, Object value) throws JsonProcessingException {
+    void addIfNotNull(EntryCodecs codecs, Put put, byte[] family, byte[] qualifier, boolean complete, Object value)
+            throws IOException {
         if (value == null) return;
-        if (value instanceof Identifiable) {
-            byte[] suffix = columnQualifierSuffixFor((Identifiable) value);
-
-            // Add the identifiers to the column qualifier.
-            qualifier = complete
-                    ? ByteMangler.add(qualifier, NULL_BYTE, suffix)
-                    : ByteMangler.add(INCOMPLETE_MARKER, qualifier, NULL_BYTE, suffix);
+        CellCodec cellCodec = this.cellCodec;
+        if (value instanceof EntryPart) {
+            CellTemplates.Template template = cellTemplates.cellFor(qualifier, (EntryPart) value, codecs, cellCodec);
+            if (template != null) {
+                put.addColumn(family, template.qualifier, template.value);
+                return;
+            }
         }
 
-        if (objectMapper == null) objectMapper = ObjectMapperFactory.getObjectMapper();
-        put.addColumn(toBytes(columnFamilySetting.get()), qualifier, objectMapper.writeValueAsBytes(value));
+        put.addColumn(family, qualifierFor(qualifier, complete, value), cellCodec.encode(codecs.write(value)));
+    }
+
+    /**
+     * @param qualifier Column qualifier prefix.
+     * @param complete  Whether the value is complete.
+     * @param value     Value.
+     * @return The column qualifier for the value; the prefix followed by the identifiers of the value, if it has any.
+     */
+    static byte[] qualifierFor(byte[] qualifier, boolean complete, Object value) {
+        if (!(value instanceof Identifiable)) return qualifier;
+
+        // Add the identifiers to the column qualifier.
+        ByteWriter writer = WRITER.get().reset();
+        if (!complete) writer.write(INCOMPLETE_MARKER);
+        writer.write(qualifier).write((byte) 0x00);
+        writeQualifierSuffix(writer, (Identifiable) value);
+        return writer.toByteArray();
     }
 
     static byte[] columnQualifierSuffixFor(Identifiable identifiable) {
-        List<String> parts = identifiable.identifyingStack();
-        List<byte[]> byteParts = new ArrayList<>();
+        ByteWriter writer = WRITER.get().reset();
+        writeQualifierSuffix(writer, identifiable);
+        return writer.toByteArray();
+    }
 
-        // Account for the separator bytes.
-        int targetLength = parts.size() - 1;
-        for (String part : parts) {
-            if (part != null) {
-                byte[] asBytes = toBytes(part);
-                targetLength += asBytes.length;
-                byteParts.add(asBytes);
-            }
-        }
+    static void writeQualifierSuffix(ByteWriter writer, Identifiable identifiable) {
+        List<String> parts = identifiable.identifyingStack();
 
-        ByteBuffer buffer = ByteBuffer.allocate(targetLength);
+        // Null parts are skipped, but their separators are still accounted for as trailing null bytes.
+        int separators = parts.size() - 1;
         boolean first = true;
-
-        for (byte[] part : byteParts) {
+        for (String part : parts) {
+            if (part == null) continue;
             if (!first) {
-                buffer.put(NULL_BYTE);
+                writer.write((byte) 0x00);
+                separators--;
             } else {
                 first = false;
             }
-
-            if (part != null) {
-                buffer.put(part);
-            }
+            writer.writeUtf8(part);
         }
-
-        return buffer.array();
+        writer.padTo(writer.length() + Math.max(0, separators));
     }
 
     static byte[] rowKeyFor(Event.EventId eventId) {
-        return Bytes.add(
-                // Flip the bytes in the data to order descending; latest event first.
-                ByteMangler.flip(flipTheFirstBit(toBytes(eventId.getHappenedAt()))),
-                ByteConversion.fromLong(eventId.getUid()),
-                referenceableToBytes(eventId.getId())
-        );
+        return rowKeyFor(eventId, RowKeyLayout.unsalted());
     }
 
-    static byte[] referenceableToBytes(Referenceable referenceable) {
-        CodeReference codeReference = referenceable.toCodeReference();
-        return Bytes.add(toBytes(codeReference.getCodeSystem()), NULL_BYTE, toBytes(codeReference.getCode()));
+    static byte[] rowKeyFor(Event.EventId eventId, RowKeyLayout rowKeyLayout) {
+        CodeReference codeReference = eventId.getId().toCodeReference();
+        ByteWriter writer = WRITER.get().reset();
+        if (rowKeyLayout.isSalted()) {
+            writer.write(RowKeyLayout.SALTED_KEY_MARKER).write((byte) rowKeyLayout.bucketFor(eventId.getUid()));
+        }
+        return writer
+                // Flip the bits in the timestamp to order descending; latest event first. Inverting all bits but the
+                // sign bit is the same as flipping the first bit and then inverting everything.
+                .writeLong(eventId.getHappenedAt() ^ Long.MAX_VALUE)
+                .writeLong(eventId.getUid())
+                .writeUtf8(codeReference.getCodeSystem())
+                .write((byte) 0x00)
+                .writeUtf8(codeReference.getCode())
+                .toByteArray();
+    }
+
+    static class ColumnFamily {
+        final String name;
+        final byte[] bytes;
+
+        ColumnFamily(String name) {
+            this.name = name;
+            this.bytes = toBytes(name);
+        }
     }
 }
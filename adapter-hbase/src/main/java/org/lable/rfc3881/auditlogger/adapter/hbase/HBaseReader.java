@@ -15,37 +15,47 @@
  */
 package org.lable.rfc3881.auditlogger.adapter.hbase;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.hadoop.hbase.CompareOperator;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.filter.*;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lable.codesystem.codereference.CodeReference;
 import org.lable.codesystem.codereference.Referenceable;
-import org.lable.oss.bitsandbytes.ByteComparison;
 import org.lable.oss.bitsandbytes.ByteConversion;
 import org.lable.oss.bitsandbytes.ByteMangler;
-import org.lable.oss.bitsandbytes.BytePrinter;
+import org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayout.KeyRange;
+import org.lable.rfc3881.auditlogger.adapter.hbase.TimePartitioning.Partition;
 import org.lable.rfc3881.auditlogger.api.*;
 import org.lable.rfc3881.auditlogger.api.Event.EventId;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics.Stage;
 import org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQuery;
 import org.lable.rfc3881.auditlogger.api.querybuilder.FindFirstQuery;
 import org.lable.rfc3881.auditlogger.hbase.AuditLogPrincipalFilter;
 import org.lable.rfc3881.auditlogger.hbase.AuditLogPrincipalFilter.FilterMode;
-import org.lable.rfc3881.auditlogger.serialization.ObjectMapperFactory;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -56,19 +66,36 @@ import static org.lable.oss.bitsandbytes.ByteMangler.flipTheFirstBit;
 import static org.lable.oss.bitsandbytes.ByteMangler.plusOne;
 import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.INCOMPLETE_MARKER;
 import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.columnQualifierSuffixFor;
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
 
 /**
  * Retrieves {@link LogEntry} written to HBase by {@link HBaseAdapter}.
  */
 public class HBaseReader implements AuditLogReader {
     private static final Logger logger = LoggerFactory.getLogger(HBaseReader.class);
+    private static final Set<Field> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(Field.class));
+    // Readers derived for the object-mappers passed to parseEntry, by identity; cleared when full.
+    private static final Map<ObjectMapper, EntryCodecs> MAPPER_CODECS = new IdentityHashMap<>();
 
-    static ObjectMapper objectMapper;
+    static final int DEFAULT_MAX_PARALLEL_SCANS = 32;
+    static final int MAX_CACHED_MAPPERS = 16;
+    static final Duration DEFAULT_PARTITION_CACHE_TTL = Duration.ofSeconds(10);
 
     private final Supplier<Connection> hbaseConnection;
     private final Supplier<TableName> tableNameSetting;
     private final Supplier<String> columnFamilySetting;
 
+    private volatile RowKeyLayout rowKeyLayout = RowKeyLayout.unsalted();
+    private volatile ExecutorService scanExecutor;
+    private volatile CellCodec cellCodec = CellCodec.plain();
+    private volatile EntryCodecs entryCodecs = EntryCodecs.getDefault();
+    private volatile TimePartitioning timePartitioning;
+    private volatile AuditLogMetrics metrics = AuditLogMetrics.noop();
+    private volatile boolean splitByRegion = false;
+    private volatile int maxParallelScans = DEFAULT_MAX_PARALLEL_SCANS;
+    private volatile Duration partitionCacheTtl = DEFAULT_PARTITION_CACHE_TTL;
+    private volatile PartitionListing partitionListing;
+
     /**
      * Create a new {@link HBaseReader}.
      *
@@ -85,6 +112,112 @@ public class HBaseReader implements AuditLogReader {
         this.columnFamilySetting = columnFamilySetting;
     }
 
+    /**
+     * Set the layout of the row keys in the table. Defaults to {@link RowKeyLayout#unsalted()}. With a salted layout,
+     * queries are run against each bucket in parallel, and against the unsalted rows that may still be present.
+     *
+     * @param rowKeyLayout Row key layout.
+     */
+    public void setRowKeyLayout(RowKeyLayout rowKeyLayout) {
+        this.rowKeyLayout = rowKeyLayout == null ? RowKeyLayout.unsalted() : rowKeyLayout;
+    }
+
+    /**
+     * Set the executor used to scan key ranges in parallel: the buckets of a salted table, and the regions crossed
+     * when splitting by region (see {@link #setSplitByRegion(boolean)}). By default, a shared pool of daemon threads
+     * is used.
+     *
+     * @param scanExecutor Executor.
+     */
+    public void setScanExecutor(ExecutorService scanExecutor) {
+        this.scanExecutor = scanExecutor;
+    }
+
+    /**
+     * Set the maximum number of scans a single query runs at the same time. Defaults to
+     * {@value #DEFAULT_MAX_PARALLEL_SCANS}. Further key ranges are scanned as earlier ones finish.
+     *
+     * @param maxParallelScans Maximum number of parallel scans; at least one.
+     */
+    public void setMaxParallelScans(int maxParallelScans) {
+        if (maxParallelScans < 1) {
+            throw new IllegalArgumentException("Maximum number of parallel scans must be at least one.");
+        }
+        this.maxParallelScans = maxParallelScans;
+    }
+
+    /**
+     * Split the key ranges of queries without a limit at the region boundaries they cross, and scan the parts in
+     * parallel, so a query spanning many regions is served by all of their region servers at once. Off by default.
+     * Queries with a limit are not split; they usually find enough entries in the first region they scan.
+     *
+     * @param splitByRegion Whether to split scans by region.
+     */
+    public void setSplitByRegion(boolean splitByRegion) {
+        this.splitByRegion = splitByRegion;
+    }
+
+    /**
+     * Read from time-partitioned tables instead of the single table supplied to the constructor. Queries read only
+     * the partitions that exist and overlap their time window. With a limit, partitions are read one by one, in
+     * order, until enough entries are found; without one, all partitions are read in parallel.
+     *
+     * @param timePartitioning Time partitioning, or null to read from the single table again.
+     */
+    public void setTimePartitioning(TimePartitioning timePartitioning) {
+        this.timePartitioning = timePartitioning;
+        this.partitionListing = null;
+    }
+
+    /**
+     * Set how long the list of existing partitions is reused before the partitions are listed again. Defaults to
+     * ten seconds. A partition created in the meantime is not read until then; a partition dropped in the meantime is
+     * skipped as soon as a query finds it missing. Only used with time partitioning (see
+     * {@link #setTimePartitioning(TimePartitioning)}).
+     *
+     * @param partitionCacheTtl How long to reuse the list of partitions; zero to list them for every query.
+     */
+    public void setPartitionCacheTtl(Duration partitionCacheTtl) {
+        parameterMayNotBeNull("partitionCacheTtl", partitionCacheTtl);
+        if (partitionCacheTtl.isNegative()) {
+            throw new IllegalArgumentException("Partition cache TTL may not be negative.");
+        }
+        this.partitionCacheTtl = partitionCacheTtl;
+        this.partitionListing = null;
+    }
+
+    /**
+     * Set where to report the latency of queries, scanner round trips and decoding, and the number of rows scanned
+     * and returned. Defaults to {@link AuditLogMetrics#noop()}.
+     *
+     * @param metrics Metrics.
+     */
+    public void setMetrics(AuditLogMetrics metrics) {
+        this.metrics = metrics == null ? AuditLogMetrics.noop() : metrics;
+    }
+
+    /**
+     * Set the readers used to deserialize the cell values. Defaults to {@link EntryCodecs#getDefault()}; only needed
+     * when the table was written with a custom object-mapper (see {@link HBaseAdapter#setObjectMapper}), or with a
+     * custom dictionary (see {@link HBaseAdapter#setCodeSystemDictionary}).
+     *
+     * @param entryCodecs Readers.
+     */
+    public void setEntryCodecs(EntryCodecs entryCodecs) {
+        this.entryCodecs = entryCodecs == null ? EntryCodecs.getDefault() : entryCodecs;
+    }
+
+    /**
+     * Set the codec used to decode the cell values read. Defaults to {@link CellCodec#plain()}, which reads values
+     * stored as-is and values compressed without a dictionary. To read values compressed with a preset dictionary,
+     * pass a codec that knows that dictionary.
+     *
+     * @param cellCodec Cell codec.
+     */
+    public void setCellCodec(CellCodec cellCodec) {
+        this.cellCodec = cellCodec == null ? CellCodec.plain() : cellCodec;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -92,6 +225,259 @@ public class HBaseReader implements AuditLogReader {
     public List<LogEntry> read(AuditLogQuery query, QueryLogger queryLogger) throws IOException {
         byte[] cf = columnFamilySetting.get().getBytes(StandardCharsets.UTF_8);
 
+        Long limit = query.getLimit();
+        long maxResults = limit != null && limit > 0 ? limit : Long.MAX_VALUE;
+        // Without a 'to', the scan runs in reverse from the 'from' up.
+        boolean reversed = query.hasFrom() && !query.hasTo();
+
+        String tableName = tableDescription();
+        Comparator<ScannedEntry> order = reversed ? ScannedEntry.KEY_ORDER.reversed() : ScannedEntry.KEY_ORDER;
+
+        AuditLogMetrics metrics = this.metrics;
+        AtomicLong scanned = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            Connection connection = hbaseConnection.get();
+            List<LogEntry> result;
+            try {
+                result = readTables(connection, query, cf, maxResults, reversed, order, metrics, scanned);
+            } catch (IOException e) {
+                // A partition was dropped since the partitions were listed; list them again and start over.
+                if (!partitionDropped(e)) throw e;
+                // Only count the rows scanned by the attempt that succeeds.
+                scanned.set(0);
+                result = readTables(connection, query, cf, maxResults, reversed, order, metrics, scanned);
+            }
+            if (reversed) {
+                // Maintain the expected order of new-to-old.
+                Collections.reverse(result);
+            }
+
+            long stop = System.nanoTime();
+            long took = (stop - start) / 1_000_000;
+            metrics.recordLatency(Stage.QUERY, stop - start);
+            metrics.recordRows(scanned.get(), result.size());
+
+            if (queryLogger != null) {
+                String layout = rowKeyLayout.isSalted() ? " (" + rowKeyLayout + ")" : "";
+                queryLogger.log(
+                        "Querying " + tableName + layout + ":\n"
+                                + query + "\n" +
+                                "Got " + describeCount(result.size()) + "; took: " + took + " ms."
+                );
+            }
+
+            return result;
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(Stage.QUERY);
+            // Log and rethrow.
+            if (queryLogger != null) {
+                queryLogger.log("Querying " + tableName + " failed with IOException:\n" + query + "\nError: " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read the entries matching a query from the tables that cover its time window.
+     */
+    List<LogEntry> readTables(Connection connection,
+                              AuditLogQuery query,
+                              byte[] cf,
+                              long maxResults,
+                              boolean reversed,
+                              Comparator<ScannedEntry> order,
+                              AuditLogMetrics metrics,
+                              AtomicLong scanned) throws IOException {
+        List<TableName> tables = tablesFor(
+                connection,
+                millisOf(query.getFromAsInstant(), query.getFromAsEventId()),
+                millisOf(query.getToAsInstant(), query.getToAsEventId()),
+                reversed
+        );
+        List<KeyRange> ranges = rowKeyLayout.ranges();
+
+        // Partitions hold consecutive periods, so reading them in order yields the entries in order.
+        List<List<TableName>> steps = maxResults == Long.MAX_VALUE || tables.size() <= 1
+                ? Collections.singletonList(tables)
+                : tables.stream().map(Collections::singletonList).collect(Collectors.toList());
+
+        List<LogEntry> result = new ArrayList<>();
+        for (List<TableName> step : steps) {
+            long remaining = maxResults - result.size();
+            List<TableRange> tableRanges = TableRange.of(step, ranges);
+            if (splitByRegion && maxResults == Long.MAX_VALUE) {
+                // The parts of a key range are consecutive, so merging them keeps the entries in order.
+                tableRanges = splitByRegion(connection, tableRanges, query, cf);
+            }
+            List<List<ScannedEntry>> perRange = inParallel(
+                    tableRanges,
+                    tableRange -> scanRange(connection, tableRange, query, cf, remaining, metrics, scanned)
+            );
+
+            result.addAll(mergeSorted(perRange, order, remaining));
+            if (result.size() >= maxResults) break;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rows are decoded as the stream is consumed; the scanners of the key ranges of a table are advanced side by
+     * side, and tables are read one after the other. A query with only a 'from' and no limit is scanned forwards,
+     * newest first, rather than in reverse. A query with only a 'from' and a limit wants the oldest entries after
+     * it, but returns them newest first; these are read in full before streaming, holding at most 'limit' entries.
+     */
+    @Override
+    public Stream<LogEntry> stream(AuditLogQuery query, QueryLogger queryLogger) throws IOException {
+        Long limit = query.getLimit();
+        long maxResults = limit != null && limit > 0 ? limit : Long.MAX_VALUE;
+        if (query.hasFrom() && !query.hasTo() && maxResults != Long.MAX_VALUE) {
+            return read(query, queryLogger).stream();
+        }
+
+        byte[] cf = columnFamilySetting.get().getBytes(StandardCharsets.UTF_8);
+        AuditLogMetrics metrics = this.metrics;
+        StreamingScan scan;
+        try {
+            Connection connection = hbaseConnection.get();
+            List<TableName> tables = tablesFor(
+                    connection,
+                    millisOf(query.getFromAsInstant(), query.getFromAsEventId()),
+                    millisOf(query.getToAsInstant(), query.getToAsEventId()),
+                    false
+            );
+            scan = new StreamingScan(
+                    this, connection, tables, rowKeyLayout.ranges(), query, cf, maxResults, metrics, queryLogger,
+                    tableDescription()
+            );
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(Stage.QUERY);
+            if (queryLogger != null) {
+                queryLogger.log("Streaming from " + tableDescription() + " failed:\n" + query + "\nError: " + e.getMessage());
+            }
+            throw e;
+        }
+
+        // Open the first scanners right away, so failing to do so throws an IOException here.
+        try {
+            scan.hasNext();
+        } catch (UncheckedIOException e) {
+            scan.close();
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            scan.close();
+            throw e;
+        }
+
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(scan, Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        ).onClose(scan::close);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entries are read and delivered on a shared pool of daemon threads, rather than on the executor set through
+     * {@link #setScanExecutor(ExecutorService)}, which may be needed to open the scanners of the key ranges.
+     */
+    @Override
+    public Flow.Publisher<LogEntry> publish(AuditLogQuery query, QueryLogger queryLogger) {
+        return publish(query, queryLogger, SharedScanExecutor.INSTANCE);
+    }
+
+    /**
+     * Read the entries in a single key range of a table.
+     *
+     * @param connection HBase connection.
+     * @param tableRange Key range.
+     * @param query      Query.
+     * @param cf         Column family.
+     * @param limit      Maximum number of entries to return.
+     * @param metrics    Metrics to report to.
+     * @param scanned    Counter of the rows read.
+     * @return The entries, in the order scanned.
+     * @throws IOException Thrown when scanning failed.
+     */
+    List<ScannedEntry> scanRange(Connection connection,
+                                 TableRange tableRange,
+                                 AuditLogQuery query,
+                                 byte[] cf,
+                                 long limit,
+                                 AuditLogMetrics metrics,
+                                 AtomicLong scanned) throws IOException {
+        Scan scan = tableRange.narrow(scanFor(tableRange.range, query, cf));
+        long start = System.nanoTime();
+        try (
+                Table table = connection.getTable(tableRange.tableName);
+                ResultScanner scanner = table.getScanner(scan)
+        ) {
+            metrics.recordLatency(Stage.SCAN_OPEN, System.nanoTime() - start);
+
+            List<ScannedEntry> entries = new ArrayList<>();
+            long rows = 0;
+            try {
+                for (Result result : scanner) {
+                    if (rows++ == 0) metrics.recordLatency(Stage.FIRST_ROW, System.nanoTime() - start);
+
+                    Optional<LogEntry> logEntry = decode(result, cf, metrics, query);
+                    if (logEntry.isEmpty()) continue;
+                    entries.add(new ScannedEntry(result.getRow(), logEntry.get()));
+                    // Always apply the limit on returned results too, because the PageFilter doesn't guarantee that
+                    // no more than `limit` results will be returned.
+                    if (entries.size() >= limit) break;
+                }
+            } finally {
+                scanned.addAndGet(rows);
+            }
+            return entries;
+        }
+    }
+
+    Optional<LogEntry> decode(Result result, byte[] cf, AuditLogMetrics metrics) {
+        return decode(result, cf, metrics, ALL_FIELDS, false);
+    }
+
+    Optional<LogEntry> decode(Result result, byte[] cf, AuditLogMetrics metrics, AuditLogQuery query) {
+        return decode(result, cf, metrics, query.getProjection(), query.isLazyDecoding());
+    }
+
+    Optional<LogEntry> decode(Result result,
+                              byte[] cf,
+                              AuditLogMetrics metrics,
+                              Set<Field> projection,
+                              boolean lazy) {
+        long start = System.nanoTime();
+        Optional<LogEntry> logEntry = parseEntry(entryCodecs, cellCodec, result, cf, projection, lazy);
+        metrics.recordLatency(Stage.DECODE, System.nanoTime() - start);
+        if (logEntry.isEmpty()) metrics.recordFailure(Stage.DECODE);
+        return logEntry;
+    }
+
+    /**
+     * Define the scan of a single key range for a query.
+     *
+     * @param range Key range.
+     * @param query Query.
+     * @param cf    Column family.
+     * @return The scan.
+     */
+    static Scan scanFor(KeyRange range, AuditLogQuery query, byte[] cf) {
+        return scanFor(range, query, cf, false);
+    }
+
+    /**
+     * Define the scan of a single key range for a query.
+     *
+     * @param range       Key range.
+     * @param query       Query.
+     * @param cf          Column family.
+     * @param newestFirst Scan a query with only a 'from' forwards, newest first, instead of in reverse.
+     * @return The scan.
+     */
+    static Scan scanFor(KeyRange range, AuditLogQuery query, byte[] cf, boolean newestFirst) {
         Scan scan = new Scan();
         scan.addFamily(cf);
 
@@ -109,8 +495,13 @@ public class HBaseReader implements AuditLogReader {
             byte[] start = toInclusive ? getPrefix(to, toEvent) : getPrefixPlusOne(to, toEvent);
             byte[] stop = fromInclusive ? getPrefixPlusOne(from, fromEvent) : getPrefix(from, fromEvent);
             scan = scan
-                    .withStartRow(start, true)
-                    .withStopRow(stop, false);
+                    .withStartRow(range.withPrefix(start), true)
+                    .withStopRow(range.withPrefix(stop), false);
+        } else if (query.hasFrom() && newestFirst) {
+            byte[] stop = fromInclusive ? getPrefixPlusOne(from, fromEvent) : getPrefix(from, fromEvent);
+            scan = scan
+                    .withStartRow(range.lowerBound(), true)
+                    .withStopRow(range.withPrefix(stop), false);
         } else if (query.hasFrom()) {
             // No 'to' means we have to scan in reverse from the 'from' up.
             // For a reversed scan, the start row has to be set on the next possible row prefix, which must be
@@ -118,10 +509,19 @@ public class HBaseReader implements AuditLogReader {
             byte[] start = fromInclusive ? getPrefixPlusOne(from, fromEvent) : getPrefix(from, fromEvent);
             scan = scan
                     .setReversed(true)
-                    .withStartRow(start, false);
+                    .withStartRow(range.withPrefix(start), false)
+                    .withStopRow(range.lowerBound(), true);
         } else if (query.hasTo()) {
             byte[] start = toInclusive ? getPrefix(to, toEvent) : getPrefixPlusOne(to, toEvent);
-            scan = scan.withStartRow(start, true);
+            scan = scan.withStartRow(range.withPrefix(start), true);
+            if (range.upperBound() != null) {
+                scan = scan.withStopRow(range.upperBound(), false);
+            }
+        } else {
+            scan = scan.withStartRow(range.lowerBound(), true);
+            if (range.upperBound() != null) {
+                scan = scan.withStopRow(range.upperBound(), false);
+            }
         }
 
         Long limit = query.getLimit();
@@ -130,111 +530,124 @@ public class HBaseReader implements AuditLogReader {
             filters.addFilter(pageFilter);
         }
 
+        if (query.hasProjection()) {
+            // Last, so the other filters see the columns they need; these are fetched too.
+            Set<Field> fetched = EnumSet.copyOf(query.getProjection());
+            fetched.addAll(fieldsFilteredOn(query.getFilter()));
+            if (fetched.size() < Field.values().length) {
+                filters.addFilter(new MultipleColumnPrefixFilter(columnPrefixesFor(fetched)));
+            }
+        }
+
         if (!filters.getFilters().isEmpty()) {
             scan.setFilter(filters);
         }
 
-        if (objectMapper == null) objectMapper = ObjectMapperFactory.getObjectMapper();
-
-        TableName tableName = tableNameSetting.get();
+        return scan;
+    }
 
-        long start = System.nanoTime();
-        try (
-                Table table = hbaseConnection.get().getTable(tableName);
-                ResultScanner scanner = table.getScanner(scan)
-        ) {
-            Stream<LogEntry> stream = StreamSupport.stream(scanner.spliterator(), false)
-                    .map(result -> parseEntry(objectMapper, result, cf))
-                    .filter(Optional::isPresent)
-                    .map(Optional::get);
-
-            if (limit != null && limit > 0) {
-                // Always apply the limit on returned results too, because the PageFilter doesn't guarantee
-                // that no more than `limit` results will be returned.
-                stream = stream.limit(limit);
-            }
+    @Override
+    public Optional<LogEntry> findFirst(FindFirstQuery query, QueryLogger queryLogger) throws IOException {
+        byte[] cf = columnFamilySetting.get().getBytes(StandardCharsets.UTF_8);
 
-            long stop = System.nanoTime();
-            long took = (stop - start) / 1_000_000;
+        String tableName = tableDescription();
+        if (queryLogger != null) {
+            queryLogger.log("Scanning table " + tableName + " for the first matching record.");
+        }
 
-            List<LogEntry> result;
-            if (scan.isReversed()) {
-                // Maintain the expected order of new-to-old.
-                result = stream.collect(Collectors.collectingAndThen(
-                        Collectors.toList(),
-                        list -> {
-                            Collections.reverse(list);
-                            return list;
-                        }
-                ));
-            } else {
-                result = stream.collect(Collectors.toList());
-            }
+        Connection connection = hbaseConnection.get();
+        // Set the client timeout to prevent taking to long to close the ResultScanner.
+        String normalTimeout = connection.getConfiguration().get(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
+        connection.getConfiguration().set(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, "20000");
 
-            if (queryLogger != null) {
-                int count = result.size();
-                String recordCount = "no records returned";
-                if (count == 1) {
-                    recordCount = "1 record";
-                } else if (count > 1) {
-                    recordCount = count + " records";
+        AuditLogMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        Optional<LogEntry> optionalResult = Optional.empty();
+        try {
+            Instant from = query.getFrom();
+            // Oldest partition first.
+            List<TableName> tables = tablesFor(connection, from == null ? null : from.toEpochMilli(), null, true);
+            for (TableName table : tables) {
+                List<List<ScannedEntry>> perRange;
+                try {
+                    perRange = inParallel(
+                            TableRange.of(Collections.singletonList(table), rowKeyLayout.ranges()),
+                            tableRange -> findFirstInRange(
+                                    connection, tableRange.tableName, tableRange.range, query, cf, queryLogger
+                            )
+                    );
+                } catch (IOException e) {
+                    // A partition dropped since the partitions were listed holds no entries any more.
+                    if (!partitionDropped(e)) throw e;
+                    continue;
                 }
 
-                queryLogger.log(
-                        "Querying " + tableName + ":\n"
-                                + query + "\n" +
-                                "Got " + recordCount + "; took: " + took + " ms."
-                );
+                // The first entry is the oldest, which has the highest row key.
+                optionalResult = mergeSorted(perRange, ScannedEntry.KEY_ORDER.reversed(), 1).stream().findFirst();
+                if (optionalResult.isPresent()) break;
             }
-
-            return result;
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(Stage.QUERY);
             // Log and rethrow.
             if (queryLogger != null) {
-                queryLogger.log("Querying " + tableName + " failed with IOException:\n" + query + "\nError: " + e.getMessage());
+                queryLogger.log(
+                        "Querying " + tableName + " for first matching entry failed with IOException:\n"
+                                + query + "\nError: " + e.getMessage()
+                );
             }
             throw e;
+        } finally {
+            // Restore the normal timeout.
+            if (normalTimeout == null) {
+                connection.getConfiguration().unset(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
+            } else {
+                connection.getConfiguration().set(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, normalTimeout);
+            }
         }
-    }
 
-    @Override
-    public Optional<LogEntry> findFirst(FindFirstQuery query, QueryLogger queryLogger) throws IOException {
-        byte[] cf = columnFamilySetting.get().getBytes(StandardCharsets.UTF_8);
+        long stop = System.nanoTime();
+        long took = (stop - start) / 1_000_000;
+        metrics.recordLatency(Stage.QUERY, stop - start);
+        if (queryLogger != null) {
+            String outcome = optionalResult.isPresent() ? "Found record" : "Nothing found";
+            queryLogger.log(
+                    "Querying " + tableName + " for first matching entry:\n"
+                            + query + "\n" +
+                            outcome + "; took: " + took + " ms."
+            );
+        }
 
+        return optionalResult;
+    }
+
+    List<ScannedEntry> findFirstInRange(Connection connection,
+                                        TableName tableName,
+                                        KeyRange range,
+                                        FindFirstQuery query,
+                                        byte[] cf,
+                                        QueryLogger queryLogger) throws IOException {
         FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
         addHbaseFiltersFromDefinition(filters, cf, query.getFilter());
 
-        Instant from = query.getFrom();
-
-        // Define the initial scan.
-        Scan scan = new Scan();
-        if (from != null) {
-            scan = scan.withStartRow(getTimestampPrefix(from), true);
-        }
-
         // Always limit to one; we just need the first one.
         PageFilter pageFilter = new PageFilter(1);
         filters.addFilter(pageFilter);
 
-        if (objectMapper == null) objectMapper = ObjectMapperFactory.getObjectMapper();
+        Instant from = query.getFrom();
 
-        TableName tableName = tableNameSetting.get();
-        if (queryLogger != null) {
-            queryLogger.log("Scanning table " + tableName + " for the first matching record.");
+        // Define the initial scan.
+        Scan scan = new Scan();
+        if (from != null) {
+            scan = scan.withStartRow(range.withPrefix(getTimestampPrefix(from)), true);
+        } else if (range.upperBound() != null) {
+            scan = scan.withStartRow(range.upperBound(), false);
         }
 
-        Connection connection = hbaseConnection.get();
-        // Set the client timeout to prevent taking to long to close the ResultScanner.
-        String normalTimeout = connection.getConfiguration().get(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
-        connection.getConfiguration().set(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, "20000");
-
-        long start = System.nanoTime();
-        Optional<LogEntry> optionalResult = Optional.empty();
         try (Table table = connection.getTable(tableName)) {
-            findLoop:
             while (true) {
                 scan = scan
                         .setReversed(true)
+                        .withStopRow(range.lowerBound(), true)
                         .setFilter(filters)
                         // For this type of scan it is not unusual for the first record matching the filters supplied
                         // to be quite some way into the table. To prevent timeouts and a lack of feedback in the logs we
@@ -243,26 +656,14 @@ public class HBaseReader implements AuditLogReader {
                         .addFamily(cf);
 
                 try (ResultScanner scanner = table.getScanner(scan)) {
+                    Cursor cursor = null;
                     for (Result result : scanner) {
                         if (result.isCursor()) {
-                            // Continue from the cursor with a fresh ResultScanner.
-                            Cursor cursor = result.getCursor();
-                            scan = Scan.createScanFromCursor(cursor);
-                            if (queryLogger != null) {
-                                byte[] row = cursor.getRow();
-                                byte[] ts = ByteMangler.shrink(8, row);
-                                try {
-                                    long at = ByteConversion.toLong(ByteMangler.flipTheFirstBit(ByteMangler.flip(ts)));
-                                    queryLogger.log("Scan timeout reached, continuing from cursor of log at " +
-                                            Instant.ofEpochMilli(at) + ": " + Bytes.toStringBinary(row));
-                                } catch (ByteConversion.ConversionException | IndexOutOfBoundsException e) {
-                                    queryLogger.log("Scan timeout reached, continuing from cursor: " + Bytes.toStringBinary(row));
-                                }
-                            }
-                            continue findLoop;
+                            cursor = result.getCursor();
+                            break;
                         }
 
-                        Optional<LogEntry> logEntry = parseEntry(objectMapper, result, cf);
+                        Optional<LogEntry> logEntry = decode(result, cf, metrics);
                         if (logEntry.isEmpty()) {
                             // Invalid data? Continue scanning using the current ResultScanner.
                             if (queryLogger != null) {
@@ -272,41 +673,224 @@ public class HBaseReader implements AuditLogReader {
                         }
 
                         // Done. We found an entry.
-                        optionalResult = logEntry;
+                        return Collections.singletonList(new ScannedEntry(result.getRow(), logEntry.get()));
+                    }
 
-                        break findLoop;
+                    // Reached the end of the range, no record matching filters found.
+                    if (cursor == null) return Collections.emptyList();
+
+                    // Continue from the cursor with a fresh ResultScanner.
+                    scan = Scan.createScanFromCursor(cursor);
+                    if (queryLogger != null) {
+                        byte[] row = cursor.getRow();
+                        int offset = RowKeyLayout.keyOffset(row);
+                        if (row.length >= offset + 8) {
+                            long at = Bytes.toLong(row, offset) ^ Long.MAX_VALUE;
+                            queryLogger.log("Scan timeout reached, continuing from cursor of log at " +
+                                    Instant.ofEpochMilli(at) + ": " + Bytes.toStringBinary(row));
+                        } else {
+                            queryLogger.log("Scan timeout reached, continuing from cursor: " + Bytes.toStringBinary(row));
+                        }
                     }
-                    // Reached the end of the table, no record matching filters found.
-                    break findLoop;
                 }
             }
-        } catch (
-                IOException e) {
-            // Log and rethrow.
-            if (queryLogger != null) {
-                queryLogger.log(
-                        "Querying " + tableName + " for first matching entry failed with IOException:\n"
-                                + query + "\nError: " + e.getMessage()
-                );
+        }
+    }
+
+    /**
+     * Get the tables to read for a time window.
+     *
+     * @param connection  HBase connection.
+     * @param from        Start of the window, or null.
+     * @param to          End of the window, or null.
+     * @param oldestFirst Whether to order the tables oldest first, rather than newest first.
+     * @return The tables.
+     * @throws IOException Thrown when the partitions could not be listed.
+     */
+    List<TableName> tablesFor(Connection connection, Long from, Long to, boolean oldestFirst) throws IOException {
+        TimePartitioning partitioning = timePartitioning;
+        if (partitioning == null) return Collections.singletonList(tableNameSetting.get());
+
+        List<TableName> tables = new ArrayList<>();
+        for (Partition partition : existingPartitions(connection, partitioning)) {
+            if (partition.overlaps(from, to)) tables.add(partition.getTableName());
+        }
+        if (oldestFirst) Collections.reverse(tables);
+        return tables;
+    }
+
+    /**
+     * Get the existing partitions, newest first. The list is reused for {@link #setPartitionCacheTtl(Duration)}
+     * before the partitions are listed again.
+     */
+    List<Partition> existingPartitions(Connection connection, TimePartitioning partitioning) throws IOException {
+        PartitionListing listing = partitionListing;
+        long now = System.nanoTime();
+        if (listing != null && listing.partitioning == partitioning && now - listing.listedAt < listing.ttl) {
+            return listing.partitions;
+        }
+
+        List<Partition> partitions;
+        try (Admin admin = connection.getAdmin()) {
+            partitions = Collections.unmodifiableList(partitioning.existingPartitions(admin));
+        }
+        long ttl = partitionCacheTtl.toNanos();
+        if (ttl > 0) partitionListing = new PartitionListing(partitioning, partitions, now, ttl);
+        return partitions;
+    }
+
+    /**
+     * Check whether scanning failed because a partition was dropped after the partitions were listed. If so, the
+     * partitions are listed again by the next query.
+     *
+     * @param e Exception thrown while scanning.
+     * @return True if a partition table was not found.
+     */
+    boolean partitionDropped(Throwable e) {
+        if (timePartitioning == null) return false;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TableNotFoundException) {
+                partitionListing = null;
+                return true;
             }
-            throw e;
+        }
+        return false;
+    }
+
+    String tableDescription() {
+        TimePartitioning partitioning = timePartitioning;
+        return partitioning == null ? tableNameSetting.get().toString() : partitioning.toString();
+    }
+
+    static Long millisOf(Instant at, EventId eventId) {
+        if (at != null) return at.toEpochMilli();
+        if (eventId != null) return eventId.getHappenedAt();
+        return null;
+    }
+
+    /**
+     * Split key ranges at the region boundaries their scans for a query cross.
+     *
+     * @param connection  HBase connection.
+     * @param tableRanges Key ranges.
+     * @param query       Query.
+     * @param cf          Column family.
+     * @return The parts of the key ranges, in the order of the key ranges.
+     * @throws IOException Thrown when the regions of a table could not be listed.
+     */
+    List<TableRange> splitByRegion(Connection connection,
+                                   List<TableRange> tableRanges,
+                                   AuditLogQuery query,
+                                   byte[] cf) throws IOException {
+        Map<TableName, byte[][]> startKeys = new HashMap<>();
+        List<TableRange> split = new ArrayList<>();
+        for (TableRange tableRange : tableRanges) {
+            byte[][] regionStartKeys = startKeys.get(tableRange.tableName);
+            if (regionStartKeys == null) {
+                try (RegionLocator regionLocator = connection.getRegionLocator(tableRange.tableName)) {
+                    regionStartKeys = regionLocator.getStartKeys();
+                }
+                startKeys.put(tableRange.tableName, regionStartKeys);
+            }
+            split.addAll(tableRange.splitAt(regionStartKeys, scanFor(tableRange.range, query, cf)));
+        }
+        return split;
+    }
+
+    /**
+     * Run a task for each key range, at most {@link #setMaxParallelScans(int)} at a time. A single range is handled
+     * on the calling thread.
+     */
+    <T> List<T> inParallel(List<TableRange> ranges, RangeTask<T> task) throws IOException {
+        if (ranges.size() == 1) {
+            return Collections.singletonList(task.run(ranges.get(0)));
+        }
+
+        ExecutorService executor = scanExecutor == null ? SharedScanExecutor.INSTANCE : scanExecutor;
+        // Each worker takes the next range until none are left, or a task failed.
+        int workers = Math.min(ranges.size(), maxParallelScans);
+        AtomicReferenceArray<T> results = new AtomicReferenceArray<>(ranges.size());
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                int index;
+                while (!failed.get() && (index = next.getAndIncrement()) < ranges.size()) {
+                    try {
+                        results.set(index, task.run(ranges.get(index)));
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
         } finally {
-            // Restore the normal timeout.
-            connection.getConfiguration().set(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, normalTimeout);
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
         }
 
-        long stop = System.nanoTime();
-        long took = (stop - start) / 1_000_000;
-        if (queryLogger != null) {
-            String outcome = optionalResult.isPresent() ? "Found record" : "Nothing found";
-            queryLogger.log(
-                    "Querying " + tableName + " for first matching entry:\n"
-                            + query + "\n" +
-                            outcome + "; took: " + took + " ms."
-            );
+        List<T> list = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            list.add(results.get(i));
         }
+        return list;
+    }
 
-        return optionalResult;
+    /**
+     * Merge lists that are each sorted in the same order into a single list.
+     *
+     * @param lists      Sorted lists.
+     * @param order      Order of the lists.
+     * @param maxResults Maximum number of entries to return.
+     * @return The log entries, in order.
+     */
+    static List<LogEntry> mergeSorted(List<List<ScannedEntry>> lists, Comparator<ScannedEntry> order, long maxResults) {
+        if (lists.size() == 1) {
+            return lists.get(0).stream()
+                    .limit(maxResults)
+                    .map(scannedEntry -> scannedEntry.logEntry)
+                    .collect(Collectors.toList());
+        }
+
+        // Each element in the queue is the iterator of one list, ordered by its current head.
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(
+                Math.max(1, lists.size()),
+                (a, b) -> order.compare(a.head, b.head)
+        );
+        for (List<ScannedEntry> list : lists) {
+            if (!list.isEmpty()) heads.add(new PeekingIterator(list.iterator()));
+        }
+
+        List<LogEntry> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < maxResults) {
+            PeekingIterator iterator = heads.poll();
+            merged.add(iterator.head.logEntry);
+            if (iterator.advance()) heads.add(iterator);
+        }
+        return merged;
+    }
+
+    static String describeCount(long count) {
+        if (count == 1) return "1 record";
+        if (count > 1) return count + " records";
+        return "no records returned";
     }
 
     public static byte[] getPrefixPlusOne(Instant at, EventId eventId) {
@@ -328,105 +912,148 @@ public class HBaseReader implements AuditLogReader {
         return ByteMangler.flip(flipTheFirstBit(Bytes.toBytes(at.toEpochMilli())));
     }
 
+    /**
+     * @deprecated Use {@link #parseEntry(EntryCodecs, CellCodec, Result, byte[])}, with readers derived once through
+     * {@link EntryCodecs#forMapper(ObjectMapper)}.
+     */
+    @Deprecated
     public static Optional<LogEntry> parseEntry(ObjectMapper objectMapper, Result result, byte[] cf) {
-        if (result == null || result.isEmpty()) return Optional.empty();
+        return parseEntry(objectMapper, CellCodec.plain(), result, cf);
+    }
 
-        byte[] row = result.getRow();
-        NavigableMap<byte[], byte[]> familyValues = result.getFamilyMap(cf);
+    /**
+     * @deprecated Use {@link #parseEntry(EntryCodecs, CellCodec, Result, byte[])}, with readers derived once through
+     * {@link EntryCodecs#forMapper(ObjectMapper)}.
+     */
+    @Deprecated
+    public static Optional<LogEntry> parseEntry(ObjectMapper objectMapper,
+                                                CellCodec cellCodec,
+                                                Result result,
+                                                byte[] cf) {
+        return parseEntry(entryCodecsFor(objectMapper), cellCodec, result, cf);
+    }
 
-        Event event = readObjectFromResult(objectMapper, Event.class, familyValues, row, "event");
-        if (event == null) return Optional.empty();
+    public static Optional<LogEntry> parseEntry(EntryCodecs codecs,
+                                                CellCodec cellCodec,
+                                                Result result,
+                                                byte[] cf) {
+        return parseEntry(codecs, cellCodec, result, cf, ALL_FIELDS, false);
+    }
 
-        // Grab the unique identifier from the row key. This is represented by 8 bytes starting from position 8.
-        ByteBuffer bb = ByteBuffer.allocate(row.length);
-        bb.put(row);
-        event = UniqueEvent.fromEvent(event, bb.getLong(8));
+    /**
+     * Get the readers for an object-mapper, deriving them only the first time a mapper is seen.
+     */
+    static EntryCodecs entryCodecsFor(ObjectMapper objectMapper) {
+        if (objectMapper == null || objectMapper == EntryCodecs.getDefault().getObjectMapper()) {
+            return EntryCodecs.getDefault();
+        }
+        synchronized (MAPPER_CODECS) {
+            EntryCodecs codecs = MAPPER_CODECS.get(objectMapper);
+            if (codecs == null) {
+                if (MAPPER_CODECS.size() >= MAX_CACHED_MAPPERS) MAPPER_CODECS.clear();
+                codecs = EntryCodecs.forMapper(objectMapper);
+                MAPPER_CODECS.put(objectMapper, codecs);
+            }
+            return codecs;
+        }
+    }
 
-        Principal requestor = readObjectFromResult(objectMapper, Principal.class, familyValues, row, "requestor");
-        Principal delegator = readObjectFromResult(objectMapper, Principal.class, familyValues, row, "delegator");
-        NetworkAccessPoint accessPoint =
-                readObjectFromResult(objectMapper, NetworkAccessPoint.class, familyValues, row, "access_point");
+    /**
+     * Parse the log entry in a row.
+     *
+     * @param codecs     Readers.
+     * @param cellCodec  Cell codec.
+     * @param result     Row.
+     * @param cf         Column family.
+     * @param projection Fields to decode; other fields are left empty.
+     * @param lazy       Return a {@link LazyLogEntry} that decodes its fields other than the event when first asked for.
+     * @return The log entry, or empty if the row holds no valid event.
+     */
+    public static Optional<LogEntry> parseEntry(EntryCodecs codecs,
+                                                CellCodec cellCodec,
+                                                Result result,
+                                                byte[] cf,
+                                                Set<Field> projection,
+                                                boolean lazy) {
+        if (result == null || result.isEmpty()) return Optional.empty();
 
-        List<Principal> principals = readObjectsFromResult(
-                objectMapper, Principal.class, familyValues, row, "principal"
-        );
-        List<AuditSource> auditSources = readObjectsFromResult(
-                objectMapper, AuditSource.class, familyValues, row, "source"
-        );
-        List<ParticipantObject> participantObjects = readObjectsFromResult(
-                objectMapper, ParticipantObject.class, familyValues, row, "object"
-        );
-        List<Detail> details = readDetailsFromResult(
-                objectMapper, familyValues, row
-        );
+        RowDecoder decoder = new RowDecoder(codecs, cellCodec, result, cf);
+        Event event = decoder.event();
+        if (event == null) return Optional.empty();
+        event = UniqueEvent.fromEvent(event, decoder.uid());
 
-        CodeReference version = readObjectFromResult(objectMapper, CodeReference.class, familyValues, row, "version");
+        if (lazy) return Optional.of(new LazyLogEntry(event, projection, decoder::decode));
 
         return Optional.of(new LogEntry(
                 event,
-                requestor,
-                delegator,
-                principals,
-                accessPoint,
-                auditSources,
-                participantObjects,
-                details,
-                version
+                decoder.decode(Field.REQUESTOR, projection),
+                decoder.decode(Field.DELEGATOR, projection),
+                decoder.decode(Field.PARTICIPATING_PRINCIPALS, projection),
+                decoder.decode(Field.NETWORK_ACCESS_POINT, projection),
+                decoder.decode(Field.AUDIT_SOURCES, projection),
+                decoder.decode(Field.PARTICIPANT_OBJECTS, projection),
+                decoder.decode(Field.DETAILS, projection),
+                decoder.decode(Field.VERSION, projection)
         ));
     }
 
-    static <T> List<T> readObjectsFromResult(ObjectMapper objectMapper,
-                                             Class<T> objectType,
-                                             NavigableMap<byte[], byte[]> columns,
-                                             byte[] row,
-                                             String columnPrefix) {
-        List<T> list = new ArrayList<>();
-
-        byte[] prefixBytes = ByteConversion.fromString(columnPrefix);
-        byte[] incompletePrefixBytes = ByteMangler.add(INCOMPLETE_MARKER, prefixBytes);
-        for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
-            byte[] key = entry.getKey();
-            if (ByteComparison.startsWith(key, prefixBytes) || ByteComparison.startsWith(key, incompletePrefixBytes)) {
-                byte[] value = entry.getValue();
-                if (value == null) continue;
-
-                try {
-                    T v = objectMapper.readValue(value, objectType);
-                    if (v != null) {
-                        list.add(v);
-                    }
-                } catch (IOException e) {
-                    logger.error(
-                            "Failed to parse byte value found in column {} as {}. Row: {}.",
-                            columnPrefix,
-                            objectType.getName(),
-                            BytePrinter.utf8Escaped(row)
-                    );
-                }
-            }
+    /**
+     * @param fields Fields.
+     * @return The prefixes of the column qualifiers the fields are stored under, complete or not.
+     */
+    static byte[][] columnPrefixesFor(Set<Field> fields) {
+        List<byte[]> prefixes = new ArrayList<>();
+        for (Field field : fields) {
+            byte[] qualifier = qualifierFor(field);
+            prefixes.add(qualifier);
+            prefixes.add(ByteMangler.add(INCOMPLETE_MARKER, qualifier));
         }
+        return prefixes.toArray(new byte[0][]);
+    }
 
-        return list;
+    static byte[] qualifierFor(Field field) {
+        switch (field) {
+            case EVENT:
+                return HBaseAdapter.EVENT_QUALIFIER;
+            case REQUESTOR:
+                return HBaseAdapter.REQUESTOR_QUALIFIER;
+            case DELEGATOR:
+                return HBaseAdapter.DELEGATOR_QUALIFIER;
+            case PARTICIPATING_PRINCIPALS:
+                return HBaseAdapter.PRINCIPAL_QUALIFIER;
+            case NETWORK_ACCESS_POINT:
+                return HBaseAdapter.ACCESS_POINT_QUALIFIER;
+            case AUDIT_SOURCES:
+                return HBaseAdapter.SOURCE_QUALIFIER;
+            case PARTICIPANT_OBJECTS:
+                return HBaseAdapter.OBJECT_QUALIFIER;
+            case DETAILS:
+                return HBaseAdapter.DETAILS_QUALIFIER;
+            case VERSION:
+                return HBaseAdapter.VERSION_QUALIFIER;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
     }
 
-    static List<Detail> readDetailsFromResult(ObjectMapper objectMapper,
-                                              NavigableMap<byte[], byte[]> columns,
-                                              byte[] row) {
-        byte[] value = columns.get(ByteConversion.fromString("details"));
-        if (value == null || value.length == 0) return Collections.emptyList();
+    /**
+     * @param filter Filter.
+     * @return The fields whose columns the server-side filters for the filter inspect.
+     */
+    static Set<Field> fieldsFilteredOn(LogFilter filter) {
+        Set<Field> fields = EnumSet.noneOf(Field.class);
+        if (filter == null) return fields;
 
-        try {
-            List<Detail> v = objectMapper.readValue(value, new TypeReference<List<Detail>>(){});
-            if (v != null) {
-                return v;
-            }
-        } catch (IOException e) {
-            logger.error(
-                    "Failed to parse byte value found in column details as List<Detail>. Row: {}.",
-                    BytePrinter.utf8Escaped(row)
-            );
+        Set<String> principalFilters = filter.getPrincipalFilter();
+        if (principalFilters != null && !principalFilters.isEmpty()) {
+            fields.add(Field.REQUESTOR);
+            fields.add(Field.DELEGATOR);
+            fields.add(Field.PARTICIPATING_PRINCIPALS);
         }
-        return Collections.emptyList();
+        if (!filter.getParticipantObjectIds().isEmpty()) {
+            fields.add(Field.PARTICIPANT_OBJECTS);
+        }
+        return fields;
     }
 
     static void addHbaseFiltersFromDefinition(FilterList filters, byte[] cf, LogFilter filter) {
@@ -484,37 +1111,6 @@ public class HBaseReader implements AuditLogReader {
         }
     }
 
-    static <T> T readObjectFromResult(ObjectMapper objectMapper,
-                                      Class<T> objectType,
-                                      NavigableMap<byte[], byte[]> columns,
-                                      byte[] row,
-                                      String columnPrefix) {
-
-        byte[] prefixBytes = ByteConversion.fromString(columnPrefix);
-        byte[] incompletePrefixBytes = ByteMangler.add(INCOMPLETE_MARKER, prefixBytes);
-        for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
-            byte[] key = entry.getKey();
-            if (ByteComparison.startsWith(key, prefixBytes) || ByteComparison.startsWith(key, incompletePrefixBytes)) {
-                byte[] value = entry.getValue();
-                if (value == null) return null;
-
-                try {
-                    return objectMapper.readValue(value, objectType);
-                } catch (IOException e) {
-                    logger.error(
-                            "Failed to parse byte value found in column {} as {}. Row: {}.",
-                            columnPrefix,
-                            objectType.getName(),
-                            BytePrinter.utf8Escaped(row)
-                    );
-                    return null;
-                }
-            }
-        }
-
-        return null;
-    }
-
     static Filter makePrincipalFilter(byte[] cf, FilterMode filterMode, Set<String> principalFilters) {
         if (principalFilters.size() == 1) {
             for (String principalFilter : principalFilters) {
@@ -555,4 +1151,166 @@ public class HBaseReader implements AuditLogReader {
         return filter;
     }
 
+    /**
+     * A parsed log entry, along with the row key it was read from.
+     */
+    static class ScannedEntry {
+        /**
+         * Orders entries by their row key, ignoring any salt prefix. This is newest-first.
+         */
+        static final Comparator<ScannedEntry> KEY_ORDER = (a, b) -> {
+            int offsetA = RowKeyLayout.keyOffset(a.row);
+            int offsetB = RowKeyLayout.keyOffset(b.row);
+            return Bytes.compareTo(
+                    a.row, offsetA, a.row.length - offsetA,
+                    b.row, offsetB, b.row.length - offsetB
+            );
+        };
+
+        final byte[] row;
+        final LogEntry logEntry;
+
+        ScannedEntry(byte[] row, LogEntry logEntry) {
+            this.row = row;
+            this.logEntry = logEntry;
+        }
+    }
+
+    static class PeekingIterator {
+        final Iterator<ScannedEntry> iterator;
+        ScannedEntry head;
+
+        PeekingIterator(Iterator<ScannedEntry> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) return false;
+            head = iterator.next();
+            return true;
+        }
+    }
+
+    /**
+     * A key range in a table, or the part of it within a single region.
+     */
+    static class TableRange {
+        final TableName tableName;
+        final KeyRange range;
+        // Bounds of the region the range is narrowed to; null if unbounded.
+        final byte[] regionStart;
+        final byte[] regionEnd;
+
+        TableRange(TableName tableName, KeyRange range) {
+            this(tableName, range, null, null);
+        }
+
+        TableRange(TableName tableName, KeyRange range, byte[] regionStart, byte[] regionEnd) {
+            this.tableName = tableName;
+            this.range = range;
+            this.regionStart = regionStart == null || regionStart.length == 0 ? null : regionStart;
+            this.regionEnd = regionEnd == null || regionEnd.length == 0 ? null : regionEnd;
+        }
+
+        /**
+         * Split this range into the parts that fall within the regions a scan of it crosses.
+         *
+         * @param regionStartKeys Start keys of the regions of the table, in order.
+         * @param scan            Scan of this range.
+         * @return The parts, in key order; or this range if the scan crosses no region boundary.
+         */
+        List<TableRange> splitAt(byte[][] regionStartKeys, Scan scan) {
+            byte[] low = scan.isReversed() ? scan.getStopRow() : scan.getStartRow();
+            byte[] high = scan.isReversed() ? scan.getStartRow() : scan.getStopRow();
+            boolean highInclusive = scan.isReversed() ? scan.includeStartRow() : scan.includeStopRow();
+
+            List<TableRange> parts = new ArrayList<>();
+            for (int i = 0; i < regionStartKeys.length; i++) {
+                byte[] start = regionStartKeys[i];
+                byte[] end = i + 1 < regionStartKeys.length ? regionStartKeys[i + 1] : HConstants.EMPTY_END_ROW;
+                // Skip the regions that end before the scan starts, or start after it stops.
+                if (end.length > 0 && Bytes.compareTo(end, low) <= 0) continue;
+                if (high.length > 0) {
+                    int compared = Bytes.compareTo(start, high);
+                    if (compared > 0 || compared == 0 && !highInclusive) continue;
+                }
+                parts.add(new TableRange(tableName, range, start, end));
+            }
+            return parts.size() <= 1 ? Collections.singletonList(this) : parts;
+        }
+
+        /**
+         * Narrow a scan of this key range to the region this range is part of, if any.
+         *
+         * @param scan Scan of the key range.
+         * @return The scan.
+         */
+        Scan narrow(Scan scan) {
+            if (scan.isReversed()) {
+                // A reversed scan starts at the high end of its range.
+                byte[] startRow = scan.getStartRow();
+                if (regionEnd != null && (startRow.length == 0 || Bytes.compareTo(regionEnd, startRow) <= 0)) {
+                    scan.withStartRow(regionEnd, false);
+                }
+                if (regionStart != null && Bytes.compareTo(regionStart, scan.getStopRow()) > 0) {
+                    scan.withStopRow(regionStart, true);
+                }
+            } else {
+                if (regionStart != null && Bytes.compareTo(regionStart, scan.getStartRow()) > 0) {
+                    scan.withStartRow(regionStart, true);
+                }
+                byte[] stopRow = scan.getStopRow();
+                if (regionEnd != null && (stopRow.length == 0 || Bytes.compareTo(regionEnd, stopRow) <= 0)) {
+                    scan.withStopRow(regionEnd, false);
+                }
+            }
+            return scan;
+        }
+
+        static List<TableRange> of(List<TableName> tableNames, List<KeyRange> ranges) {
+            List<TableRange> tableRanges = new ArrayList<>(tableNames.size() * ranges.size());
+            for (TableName tableName : tableNames) {
+                for (KeyRange range : ranges) {
+                    tableRanges.add(new TableRange(tableName, range));
+                }
+            }
+            return tableRanges;
+        }
+    }
+
+    /**
+     * The partitions that existed when they were last listed.
+     */
+    static class PartitionListing {
+        final TimePartitioning partitioning;
+        final List<Partition> partitions;
+        final long listedAt;
+        final long ttl;
+
+        PartitionListing(TimePartitioning partitioning, List<Partition> partitions, long listedAt, long ttl) {
+            this.partitioning = partitioning;
+            this.partitions = partitions;
+            this.listedAt = listedAt;
+            this.ttl = ttl;
+        }
+    }
+
+    @FunctionalInterface
+    interface RangeTask<T> {
+        T run(TableRange range) throws IOException;
+    }
+
+    static class SharedScanExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "audit-log-scan-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 }
@@ -0,0 +1,521 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only spool of {@link Put}s on local disk, stored in memory-mapped segment files.
+ * <p>
+ * Each segment file is a sequence of records:
+ * <pre>
+ *     [payload length (4)][CRC-32 of payload (4)][payload]
+ * </pre>
+ * terminated by a zero length (segment files are zero-filled when created). A record with a bad checksum, such as one
+ * that was only partially written before a crash, ends the readable part of a segment. Segments are read and deleted
+ * oldest first.
+ * <p>
+ * Records are read at least once: after a restart, the oldest segment is read from its start again, because read
+ * progress within a segment is not persisted. Replaying a put twice writes the same cells again.
+ * <p>
+ * A spooled put keeps its row, durability, attributes, and the family, qualifier, timestamp, type and value of each of
+ * its cells. Cell tags are not kept.
+ */
+class PutSpool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PutSpool.class);
+
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String DEAD_LETTER_FILE = "dead-letter.seg";
+    static final int RECORD_HEADER_LENGTH = 8;
+    static final byte FORMAT_VERSION = 2;
+    /**
+     * Records written before the durability, attributes and cell types of puts were kept.
+     */
+    static final byte FORMAT_VERSION_1 = 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSpoolBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+    private long pendingRecords = 0;
+    private boolean unforced = false;
+
+    PutSpool(Path directory, int segmentSize, long maxSpoolBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSpoolBytes = maxSpoolBytes;
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Append puts to the spool.
+     *
+     * @param tableName Table the puts are meant for.
+     * @param puts      Puts.
+     * @throws IOException Thrown when the puts do not fit in a segment, the spool is full, or writing failed.
+     */
+    synchronized void append(TableName tableName, List<Put> puts) throws IOException {
+        byte[] payload = encode(tableName, puts);
+        int recordLength = RECORD_HEADER_LENGTH + payload.length;
+        if (recordLength > segmentSize) {
+            throw new IOException("Puts too large to spool (" + recordLength + " bytes; segment size is " +
+                    segmentSize + " bytes).");
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.remaining() < recordLength) {
+            if ((long) (segments.size() + 1) * segmentSize > maxSpoolBytes) {
+                throw new IOException("Spool is full (" + segments.size() + " segments in " + directory + ").");
+            }
+            tail = Segment.create(directory.resolve(segmentName(nextSegmentId++)), segmentSize);
+            segments.addLast(tail);
+        }
+
+        tail.write(payload);
+        pendingRecords++;
+        unforced = true;
+    }
+
+    /**
+     * Read the oldest records in the spool, without removing them.
+     *
+     * @param maxRecords Maximum number of records to read.
+     * @return The records read, and the position to pass to {@link #commit(Batch)} once they have been handled.
+     */
+    synchronized Batch peek(int maxRecords) {
+        List<SpooledPuts> records = new ArrayList<>();
+        Iterator<Segment> iterator = segments.iterator();
+        Segment segment = null;
+        int position = 0;
+
+        while (records.size() < maxRecords && iterator.hasNext()) {
+            segment = iterator.next();
+            position = segment.readPosition;
+            while (records.size() < maxRecords && position < segment.writePosition) {
+                int length = segment.buffer.getInt(position);
+                byte[] payload = segment.read(position + RECORD_HEADER_LENGTH, length);
+                position += RECORD_HEADER_LENGTH + length;
+                try {
+                    records.add(decode(payload));
+                } catch (IOException e) {
+                    // Checksum matched, so this was written by an incompatible version. Skip it.
+                    logger.error("Skipping unreadable record in audit log spool segment {}.", segment.path, e);
+                }
+            }
+            if (position < segment.writePosition) break;
+        }
+
+        return new Batch(records, segment, position);
+    }
+
+    /**
+     * Remove the records returned by {@link #peek(int)} from the spool.
+     *
+     * @param batch Records read.
+     */
+    synchronized void commit(Batch batch) {
+        if (batch.segment == null) return;
+
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            if (head == batch.segment) {
+                head.readPosition = batch.position;
+                break;
+            }
+            // Fully read.
+            segments.removeFirst();
+            head.delete();
+        }
+
+        // Keep the last segment around while it still has room for new records.
+        Segment head = segments.peekFirst();
+        if (head != null && segments.size() > 1 && head.readPosition >= head.writePosition) {
+            segments.removeFirst();
+            head.delete();
+        }
+
+        pendingRecords = Math.max(0, pendingRecords - batch.records.size());
+    }
+
+    /**
+     * Append a record that could not be replayed to the dead-letter file in the spool directory, in the format of a
+     * segment file. The dead-letter file is never replayed; its records can be inspected or replayed by hand.
+     *
+     * @param record Record.
+     * @return Path of the dead-letter file.
+     * @throws IOException Thrown when writing failed.
+     */
+    synchronized Path deadLetter(SpooledPuts record) throws IOException {
+        byte[] payload = encode(record.tableName, record.puts);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        header.putInt(payload.length).putInt(checksum(payload)).flip();
+
+        Path path = directory.resolve(DEAD_LETTER_FILE);
+        try (FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        return path;
+    }
+
+    synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.readPosition < segment.writePosition) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Approximate number of records in the spool.
+     */
+    synchronized long pendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * @return Number of bytes written to the spool that have not been read yet.
+     */
+    synchronized long pendingBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.writePosition - segment.readPosition;
+        }
+        return bytes;
+    }
+
+    /**
+     * Force the contents of all segments to the storage device, if anything was appended since the last time.
+     */
+    synchronized void force() {
+        if (!unforced) return;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        unforced = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        IOException exception = null;
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+            }
+        }
+        segments.clear();
+        if (exception != null) throw exception;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list
+                    .filter(path -> segmentId(path) >= 0)
+                    .sorted(Comparator.comparingLong(PutSpool::segmentId))
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            Segment segment = Segment.open(file);
+            pendingRecords += segment.scan();
+            segments.addLast(segment);
+            nextSegmentId = segmentId(file) + 1;
+        }
+
+        if (!files.isEmpty()) {
+            logger.info("Recovered {} audit log record(s) from {} spool segment(s) in {}.",
+                    pendingRecords, files.size(), directory);
+        }
+    }
+
+    static String segmentName(long id) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static byte[] encode(TableName tableName, List<Put> puts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(FORMAT_VERSION);
+        writeBytes(out, tableName.getName());
+        out.writeInt(puts.size());
+        for (Put put : puts) {
+            writeBytes(out, put.getRow());
+            out.writeUTF(put.getDurability().name());
+            Map<String, byte[]> attributes = put.getAttributesMap();
+            out.writeInt(attributes.size());
+            for (Map.Entry<String, byte[]> attribute : attributes.entrySet()) {
+                out.writeUTF(attribute.getKey());
+                writeBytes(out, attribute.getValue());
+            }
+            List<Cell> cells = new ArrayList<>();
+            put.getFamilyCellMap().values().forEach(cells::addAll);
+            out.writeInt(cells.size());
+            for (Cell cell : cells) {
+                writeBytes(out, CellUtil.cloneFamily(cell));
+                writeBytes(out, CellUtil.cloneQualifier(cell));
+                out.writeLong(cell.getTimestamp());
+                out.writeByte(cell.getType().getCode());
+                writeBytes(out, CellUtil.cloneValue(cell));
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static SpooledPuts decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+            throw new IOException("Unknown spool record format: " + version + ".");
+        }
+
+        TableName tableName = TableName.valueOf(readBytes(in));
+        int putCount = in.readInt();
+        List<Put> puts = new ArrayList<>(putCount);
+        for (int i = 0; i < putCount; i++) {
+            byte[] row = readBytes(in);
+            Put put = new Put(row);
+            if (version == FORMAT_VERSION_1) {
+                int cellCount = in.readInt();
+                for (int j = 0; j < cellCount; j++) {
+                    byte[] family = readBytes(in);
+                    byte[] qualifier = readBytes(in);
+                    long timestamp = in.readLong();
+                    put.addColumn(family, qualifier, timestamp, readBytes(in));
+                }
+                puts.add(put);
+                continue;
+            }
+
+            try {
+                put.setDurability(Durability.valueOf(in.readUTF()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown durability in spool record.", e);
+            }
+            int attributeCount = in.readInt();
+            for (int j = 0; j < attributeCount; j++) {
+                put.setAttribute(in.readUTF(), readBytes(in));
+            }
+            int cellCount = in.readInt();
+            for (int j = 0; j < cellCount; j++) {
+                byte[] family = readBytes(in);
+                byte[] qualifier = readBytes(in);
+                long timestamp = in.readLong();
+                Cell.Type type = cellType(in.readByte());
+                put.add(CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+                        .setRow(row)
+                        .setFamily(family)
+                        .setQualifier(qualifier)
+                        .setTimestamp(timestamp)
+                        .setType(type)
+                        .setValue(readBytes(in))
+                        .build());
+            }
+            puts.add(put);
+        }
+
+        return new SpooledPuts(tableName, puts);
+    }
+
+    static Cell.Type cellType(byte code) throws IOException {
+        for (Cell.Type type : Cell.Type.values()) {
+            if (type.getCode() == code) return type;
+        }
+        throw new IOException("Unknown cell type in spool record: " + code + ".");
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Puts for a single table, as read from the spool.
+     */
+    static class SpooledPuts {
+        final TableName tableName;
+        final List<Put> puts;
+
+        SpooledPuts(TableName tableName, List<Put> puts) {
+            this.tableName = tableName;
+            this.puts = puts;
+        }
+    }
+
+    /**
+     * Records read from the spool.
+     */
+    static class Batch {
+        final List<SpooledPuts> records;
+        final Segment segment;
+        final int position;
+
+        Batch(List<SpooledPuts> records, Segment segment, int position) {
+            this.records = records;
+            this.segment = segment;
+            this.position = position;
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    static class Segment {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition = 0;
+        int readPosition = 0;
+
+        Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(
+                    path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+            );
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        void write(byte[] payload) {
+            // Write the payload and checksum before the length, so a reader never sees a length without its record.
+            buffer.putInt(writePosition + 4, checksum(payload));
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition + RECORD_HEADER_LENGTH);
+            view.put(payload);
+            buffer.putInt(writePosition, payload.length);
+            writePosition += RECORD_HEADER_LENGTH + payload.length;
+        }
+
+        byte[] read(int position, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Find the end of the valid records in this segment.
+         *
+         * @return Number of valid records.
+         */
+        int scan() {
+            int records = 0;
+            int position = 0;
+            int capacity = buffer.capacity();
+            while (position + RECORD_HEADER_LENGTH <= capacity) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_LENGTH + length > capacity) break;
+
+                byte[] payload = read(position + RECORD_HEADER_LENGTH, length);
+                if (checksum(payload) != buffer.getInt(position + 4)) {
+                    logger.warn("Audit log spool segment {} has a damaged record at offset {}; " +
+                            "ignoring the rest of the segment.", path, position);
+                    break;
+                }
+
+                position += RECORD_HEADER_LENGTH + length;
+                records++;
+            }
+
+            writePosition = position;
+            if (position + RECORD_HEADER_LENGTH <= capacity) {
+                // Clear the damaged record, if any, so it won't be mistaken for a valid one later.
+                buffer.putInt(position, 0);
+            }
+            return records;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete audit log spool segment {}.", path, e);
+            }
+        }
+    }
+}
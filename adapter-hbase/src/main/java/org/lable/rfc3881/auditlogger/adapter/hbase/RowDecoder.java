@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.oss.bitsandbytes.BytePrinter;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.INCOMPLETE_MARKER;
+
+/**
+ * Decodes the log entry stored in a row. The cells of the row are walked once, and each is assigned to the field its
+ * column qualifier belongs to; a field is decoded from its cells when asked for.
+ * <p>
+ * Fields other than the details may be stored in columns marked as incomplete, and under qualifiers followed by the
+ * identifiers of their value. Fields holding a single value are decoded from the first of their columns. Columns
+ * that belong to no field are ignored.
+ */
+final class RowDecoder {
+    private static final Logger logger = LoggerFactory.getLogger(RowDecoder.class);
+
+    private static final Field[] FIELDS = Field.values();
+    private static final byte[][] QUALIFIERS = new byte[FIELDS.length][];
+    // The fields whose qualifier starts with a given byte.
+    private static final Field[][] BY_FIRST_BYTE = new Field[256][];
+
+    static {
+        for (Field field : FIELDS) {
+            byte[] qualifier = HBaseReader.qualifierFor(field);
+            QUALIFIERS[field.ordinal()] = qualifier;
+            int first = qualifier[0] & 0xff;
+            Field[] fields = BY_FIRST_BYTE[first] == null ? new Field[0] : BY_FIRST_BYTE[first];
+            Field[] extended = new Field[fields.length + 1];
+            System.arraycopy(fields, 0, extended, 0, fields.length);
+            extended[fields.length] = field;
+            BY_FIRST_BYTE[first] = extended;
+        }
+    }
+
+    private final EntryCodecs codecs;
+    private final CellCodec cellCodec;
+    private final byte[] row;
+    private final Cell[] cells;
+    // Index of the first cell of each field, and of the next cell of the same field for each cell; -1 for none.
+    private final int[] first = new int[FIELDS.length];
+    private final int[] next;
+
+    /**
+     * Sort the cells of a row into fields.
+     *
+     * @param codecs    Readers.
+     * @param cellCodec Cell codec.
+     * @param result    Row.
+     * @param cf        Column family.
+     */
+    RowDecoder(EntryCodecs codecs, CellCodec cellCodec, Result result, byte[] cf) {
+        this.codecs = codecs;
+        this.cellCodec = cellCodec;
+        this.row = result.getRow();
+        this.cells = result.rawCells() == null ? new Cell[0] : result.rawCells();
+        this.next = new int[cells.length];
+
+        int[] last = new int[FIELDS.length];
+        Arrays.fill(first, -1);
+        Cell previous = null;
+        for (int i = 0; i < cells.length; i++) {
+            next[i] = -1;
+            Cell cell = cells[i];
+            if (!CellUtil.matchingFamily(cell, cf)) continue;
+            // Older versions of a column follow the newest one; only the newest counts.
+            if (previous != null && CellUtil.matchingQualifier(previous, cell)) continue;
+            previous = cell;
+
+            Field field = fieldOf(cell);
+            if (field == null) continue;
+            int ordinal = field.ordinal();
+            if (first[ordinal] == -1) {
+                first[ordinal] = i;
+            } else {
+                next[last[ordinal]] = i;
+            }
+            last[ordinal] = i;
+        }
+    }
+
+    /**
+     * @return The event, or null if the row holds no valid event.
+     */
+    Event event() {
+        return (Event) decode(Field.EVENT);
+    }
+
+    /**
+     * @return The unique identifier of the entry; the eight bytes following the timestamp in the row key.
+     */
+    long uid() {
+        return Bytes.toLong(row, RowKeyLayout.keyOffset(row) + 8);
+    }
+
+    /**
+     * Decode a field if it is part of the projection.
+     *
+     * @param field      Field.
+     * @param projection Fields to decode.
+     * @param <T>        Type of the field.
+     * @return The value of the field, or null if it is not part of the projection.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T decode(Field field, Set<Field> projection) {
+        return projection.contains(field) ? (T) decode(field) : null;
+    }
+
+    /**
+     * Decode a field.
+     *
+     * @param field Field.
+     * @return The value of the field; a list for fields that hold several values. May be null.
+     */
+    Object decode(Field field) {
+        switch (field) {
+            case EVENT:
+                return readObject(Event.class, field);
+            case REQUESTOR:
+            case DELEGATOR:
+                return readObject(Principal.class, field);
+            case PARTICIPATING_PRINCIPALS:
+                return readObjects(Principal.class, field);
+            case NETWORK_ACCESS_POINT:
+                return readObject(NetworkAccessPoint.class, field);
+            case AUDIT_SOURCES:
+                return readObjects(AuditSource.class, field);
+            case PARTICIPANT_OBJECTS:
+                return readObjects(ParticipantObject.class, field);
+            case DETAILS:
+                return readDetails();
+            case VERSION:
+                return readObject(CodeReference.class, field);
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    <T> T readObject(Class<T> objectType, Field field) {
+        int index = first[field.ordinal()];
+        if (index == -1) return null;
+
+        try {
+            return codecs.read(cellCodec.decode(CellUtil.cloneValue(cells[index])), objectType);
+        } catch (IOException e) {
+            logFailure(field, objectType.getName());
+            return null;
+        }
+    }
+
+    <T> List<T> readObjects(Class<T> objectType, Field field) {
+        List<T> list = new ArrayList<>();
+        for (int index = first[field.ordinal()]; index != -1; index = next[index]) {
+            try {
+                T v = codecs.read(cellCodec.decode(CellUtil.cloneValue(cells[index])), objectType);
+                if (v != null) {
+                    list.add(v);
+                }
+            } catch (IOException e) {
+                logFailure(field, objectType.getName());
+            }
+        }
+        return list;
+    }
+
+    List<Detail> readDetails() {
+        int index = first[Field.DETAILS.ordinal()];
+        if (index == -1 || cells[index].getValueLength() == 0) return Collections.emptyList();
+
+        try {
+            List<Detail> v = codecs.readDetails(cellCodec.decode(CellUtil.cloneValue(cells[index])));
+            if (v != null) {
+                return v;
+            }
+        } catch (IOException e) {
+            logFailure(Field.DETAILS, "List<Detail>");
+        }
+        return Collections.emptyList();
+    }
+
+    void logFailure(Field field, String typeName) {
+        logger.error(
+                "Failed to parse byte value found in column {} as {}. Row: {}.",
+                Bytes.toString(QUALIFIERS[field.ordinal()]),
+                typeName,
+                BytePrinter.utf8Escaped(row)
+        );
+    }
+
+    /**
+     * @param cell Cell.
+     * @return The field the column of the cell belongs to, or null if it belongs to none.
+     */
+    static Field fieldOf(Cell cell) {
+        byte[] array = cell.getQualifierArray();
+        int offset = cell.getQualifierOffset();
+        int length = cell.getQualifierLength();
+
+        boolean incomplete = startsWith(array, offset, length, INCOMPLETE_MARKER);
+        if (incomplete) {
+            offset += INCOMPLETE_MARKER.length;
+            length -= INCOMPLETE_MARKER.length;
+        }
+        if (length == 0) return null;
+
+        Field[] candidates = BY_FIRST_BYTE[array[offset] & 0xff];
+        if (candidates == null) return null;
+        for (Field field : candidates) {
+            byte[] qualifier = QUALIFIERS[field.ordinal()];
+            if (field == Field.DETAILS) {
+                // The details are stored in a single column, never marked as incomplete.
+                if (!incomplete && length == qualifier.length && startsWith(array, offset, length, qualifier)) {
+                    return field;
+                }
+            } else if (startsWith(array, offset, length, qualifier)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    static boolean startsWith(byte[] array, int offset, int length, byte[] prefix) {
+        return length >= prefix.length
+                && Bytes.equals(array, offset, prefix.length, prefix, 0, prefix.length);
+    }
+}
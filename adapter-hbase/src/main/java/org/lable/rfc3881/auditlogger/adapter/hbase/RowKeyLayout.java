@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Layout of the row keys written by {@link HBaseAdapter}.
+ * <p>
+ * The unsalted layout starts every row key with the (flipped) timestamp of the event, which keeps the table sorted
+ * newest-first, but sends all concurrent writes to the same region. The salted layout prefixes that key with a marker
+ * byte and a bucket byte derived from the event's unique identifier, spreading writes over as many key ranges as
+ * there are buckets:
+ * <pre>
+ *     unsalted: [flipped timestamp (8)][uid (8)][code system]\0[code]
+ *     salted:   [0x01][bucket (1)][flipped timestamp (8)][uid (8)][code system]\0[code]
+ * </pre>
+ * Unsalted keys start with the first byte of the flipped timestamp, which is {@code 0x7F} for any timestamp from
+ * 1970 onward, so the marker byte tells both formats apart and both can coexist in one table. {@link HBaseReader}
+ * always reads unsalted rows, and reads salted rows too when configured with a salted layout.
+ */
+public final class RowKeyLayout {
+    static final byte SALTED_KEY_MARKER = 0x01;
+    static final int SALT_PREFIX_LENGTH = 2;
+    static final int MAX_BUCKETS = 256;
+
+    private static final RowKeyLayout UNSALTED = new RowKeyLayout(0);
+
+    private final int buckets;
+
+    private RowKeyLayout(int buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * @return The row key layout without a salt prefix. This is the default.
+     */
+    public static RowKeyLayout unsalted() {
+        return UNSALTED;
+    }
+
+    /**
+     * Get a salted row key layout.
+     *
+     * @param buckets Number of buckets, between 2 and 256. Readers must be configured with the same number of buckets
+     *                as the adapter writing the table.
+     * @return A salted row key layout.
+     */
+    public static RowKeyLayout salted(int buckets) {
+        if (buckets < 2 || buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException(
+                    "Number of buckets must be between 2 and " + MAX_BUCKETS + " (" + buckets + " passed).");
+        }
+        return new RowKeyLayout(buckets);
+    }
+
+    /**
+     * @return True if row keys carry a salt prefix.
+     */
+    public boolean isSalted() {
+        return buckets > 0;
+    }
+
+    /**
+     * @return Number of buckets, or 0 for the unsalted layout.
+     */
+    public int getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Determine the bucket for an event.
+     *
+     * @param uid Unique identifier of the event.
+     * @return The bucket.
+     */
+    int bucketFor(long uid) {
+        // Mix the bits first; sequential identifiers would otherwise cycle through the buckets in lockstep.
+        long hash = uid * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        return (int) Long.remainderUnsigned(hash, buckets);
+    }
+
+    /**
+     * @return The key ranges a reader has to scan to see all rows: one per bucket, followed by the range holding the
+     * unsalted rows.
+     */
+    List<KeyRange> ranges() {
+        if (!isSalted()) return Collections.singletonList(KeyRange.UNSALTED);
+
+        List<KeyRange> ranges = new ArrayList<>(buckets + 1);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            ranges.add(KeyRange.forBucket(bucket));
+        }
+        ranges.add(KeyRange.UNSALTED);
+        return ranges;
+    }
+
+    /**
+     * Determine where the unsalted part of a row key starts.
+     *
+     * @param row Row key, in either layout.
+     * @return Offset of the flipped timestamp in the row key.
+     */
+    static int keyOffset(byte[] row) {
+        return row != null && row.length > SALT_PREFIX_LENGTH && row[0] == SALTED_KEY_MARKER
+                ? SALT_PREFIX_LENGTH
+                : 0;
+    }
+
+    @Override
+    public String toString() {
+        return isSalted() ? "salted (" + buckets + " buckets)" : "unsalted";
+    }
+
+    /**
+     * A contiguous range of row keys sharing a salt prefix (or lacking one).
+     */
+    static class KeyRange {
+        static final KeyRange UNSALTED = new KeyRange(new byte[0]);
+
+        final byte[] prefix;
+
+        KeyRange(byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        static KeyRange forBucket(int bucket) {
+            return new KeyRange(new byte[]{SALTED_KEY_MARKER, (byte) bucket});
+        }
+
+        /**
+         * @return Lowest possible row key in this range (inclusive).
+         */
+        byte[] lowerBound() {
+            // Unsalted rows sort after all salted rows.
+            return prefix.length == 0 ? new byte[]{SALTED_KEY_MARKER + 1} : prefix;
+        }
+
+        /**
+         * @return First row key past this range (exclusive), or null if the range is open-ended.
+         */
+        byte[] upperBound() {
+            if (prefix.length == 0) return null;
+            int bucket = prefix[1] & 0xFF;
+            return bucket == MAX_BUCKETS - 1
+                    ? new byte[]{SALTED_KEY_MARKER + 1}
+                    : new byte[]{SALTED_KEY_MARKER, (byte) (bucket + 1)};
+        }
+
+        /**
+         * @param key Unsalted (partial) row key.
+         * @return The key, prefixed for this range.
+         */
+        byte[] withPrefix(byte[] key) {
+            if (prefix.length == 0) return key;
+            byte[] prefixed = new byte[prefix.length + key.length];
+            System.arraycopy(prefix, 0, prefixed, 0, prefix.length);
+            System.arraycopy(key, 0, prefixed, prefix.length, key.length);
+            return prefixed;
+        }
+
+        boolean isSalted() {
+            return prefix.length != 0;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.lable.rfc3881.auditlogger.adapter.hbase.PutSpool.Batch;
+import org.lable.rfc3881.auditlogger.adapter.hbase.PutSpool.SpooledPuts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Put consumer that decorates another put consumer with a write-ahead spool on local disk.
+ * <p>
+ * As long as the wrapped consumer accepts puts promptly, puts are passed on directly. Each call to it is made on a
+ * separate worker thread, and the calling thread waits for it no longer than the slow-call threshold. When the call
+ * throws, or does not return in time, the puts are spooled and the circuit opens: from then on puts are appended to the
+ * spool (see {@link PutSpool}) instead, which keeps the latency of {@link HBaseAdapter#record} flat during region moves
+ * and outages. A background replayer periodically tries to pass the spooled puts on in batches; once the spool has been
+ * drained, the circuit closes again.
+ * <p>
+ * A call that timed out is cancelled, but may still have reached HBase; its puts are then written twice, which stores
+ * the same cells again.
+ * <p>
+ * At most a set number of calls to the wrapped consumer are in progress at the same time. Further callers wait for
+ * one to finish, for no longer than the slow-call threshold; if none does, their puts are spooled and replayed later,
+ * but the circuit stays closed, because only the calls in progress can tell whether the wrapped consumer is failing.
+ * <p>
+ * Spooled puts are written to memory-mapped files, so they survive a crash of the application as soon as they are
+ * spooled. They survive a crash of the operating system or a power loss only once forced to the storage device, which
+ * happens every force interval (one second by default), on {@link #flush()} and on {@link #close()}. With a force
+ * interval of zero, puts are forced to the device before {@link #accept(TableName, List)} returns.
+ * <p>
+ * A spooled record the wrapped consumer keeps rejecting for another reason than an {@link IOException} (for example
+ * because one of its cells is too large) would block the replay of all records behind it. After the configured number
+ * of attempts, such a record is moved to a dead-letter file in the spool directory (see
+ * {@link #getDeadLetterCount()}); a record that failed because of an I/O error is retried indefinitely.
+ * <p>
+ * Puts left in the spool when the application stops are replayed the next time a consumer is created on the same
+ * directory. Only one consumer may use a spool directory at a time.
+ */
+public class SpoolingPutConsumer implements BiConsumer<TableName, List<Put>>, Flushable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingPutConsumer.class);
+
+    private final BiConsumer<TableName, List<Put>> delegate;
+    private final PutSpool spool;
+    private final long slowCallThresholdNanos;
+    private final int replayBatchSize;
+    private final int maxReplayAttempts;
+    private final boolean forceOnSpool;
+    private final ScheduledExecutorService replayer;
+    private final ExecutorService caller;
+    private final Semaphore callPermits;
+
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
+    // The record at the head of the spool the wrapped consumer rejected, and how often; guarded by replay().
+    private PutSpool.Segment rejectedSegment;
+    private int rejectedPosition;
+    private int rejectedAttempts;
+
+    private volatile boolean circuitOpen;
+    private volatile boolean closed = false;
+
+    SpoolingPutConsumer(BiConsumer<TableName, List<Put>> delegate,
+                        PutSpool spool,
+                        Duration slowCallThreshold,
+                        Duration replayInterval,
+                        int replayBatchSize,
+                        int maxReplayAttempts,
+                        Duration forceInterval,
+                        int maxConcurrentCalls) {
+        this.delegate = delegate;
+        this.spool = spool;
+        this.slowCallThresholdNanos = slowCallThreshold.toNanos();
+        this.replayBatchSize = replayBatchSize;
+        this.maxReplayAttempts = maxReplayAttempts;
+        this.forceOnSpool = forceInterval.isZero();
+        // Anything left over from a previous run is replayed before new puts are passed on directly.
+        this.circuitOpen = !spool.isEmpty();
+
+        this.replayer = Executors.newScheduledThreadPool(forceOnSpool ? 1 : 2, daemonThreads("audit-log-spool-"));
+        long interval = replayInterval.toMillis();
+        replayer.scheduleWithFixedDelay(this::replayQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        if (!forceOnSpool) {
+            long forceMillis = forceInterval.toMillis();
+            replayer.scheduleWithFixedDelay(this::forceQuietly, forceMillis, forceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // The number of calls is bounded by the permits; a permit is returned only once its call returns.
+        this.callPermits = new Semaphore(maxConcurrentCalls);
+        this.caller = Executors.newCachedThreadPool(daemonThreads("audit-log-spool-call-"));
+    }
+
+    /**
+     * Start building a spooling put consumer.
+     *
+     * @param delegate       The put consumer to decorate.
+     * @param spoolDirectory Directory to keep the spool in.
+     * @return A builder for chaining.
+     */
+    public static Builder define(BiConsumer<TableName, List<Put>> delegate, Path spoolDirectory) {
+        return new Builder(delegate, spoolDirectory);
+    }
+
+    /**
+     * Pass the puts on to the wrapped consumer, or spool them if it is failing or slow.
+     *
+     * @param tableName Table.
+     * @param puts      Puts.
+     * @throws UncheckedIOException Thrown when the puts could not be spooled either.
+     */
+    @Override
+    public void accept(TableName tableName, List<Put> puts) {
+        if (closed) throw new UncheckedIOException(new IOException("Put consumer is closed."));
+        if (puts == null || puts.isEmpty()) return;
+
+        if (circuitOpen) {
+            spool(tableName, puts);
+            return;
+        }
+
+        try {
+            if (!callPermits.tryAcquire(slowCallThresholdNanos, TimeUnit.NANOSECONDS)) {
+                // Busy rather than failing; the calls in progress open the circuit if it is failing.
+                spool(tableName, puts);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spool(tableName, puts);
+            return;
+        }
+
+        Future<?> call;
+        try {
+            call = caller.submit(() -> {
+                try {
+                    delegate.accept(tableName, puts);
+                } finally {
+                    callPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed.
+            callPermits.release();
+            spool(tableName, puts);
+            return;
+        }
+
+        try {
+            call.get(slowCallThresholdNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            call.cancel(true);
+            openCircuit("it is slow");
+            spool(tableName, puts);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) throw (Error) cause;
+            openCircuit("it failed: " + cause.getMessage());
+            spool(tableName, puts);
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            spool(tableName, puts);
+        }
+    }
+
+    /**
+     * Force the spool to disk, and flush the wrapped consumer if it is {@link Flushable}.
+     *
+     * @throws IOException Thrown when flushing the wrapped consumer failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        spool.force();
+        if (delegate instanceof Flushable && !circuitOpen) {
+            ((Flushable) delegate).flush();
+        }
+    }
+
+    /**
+     * Stop the replayer and close the spool. Spooled puts that have not been replayed yet remain on disk.
+     *
+     * @throws IOException Thrown when closing the spool failed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        caller.shutdownNow();
+        replayer.shutdown();
+        try {
+            replayer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    /**
+     * @return True if puts are currently being spooled instead of passed on.
+     */
+    public boolean isSpooling() {
+        return circuitOpen;
+    }
+
+    /**
+     * @return Approximate number of batches of puts waiting in the spool.
+     */
+    public long getPendingCount() {
+        return spool.pendingRecords();
+    }
+
+    /**
+     * @return Number of bytes waiting in the spool.
+     */
+    public long getPendingBytes() {
+        return spool.pendingBytes();
+    }
+
+    /**
+     * @return Number of batches of puts spooled since creation.
+     */
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    /**
+     * @return Number of batches of puts replayed from the spool since creation.
+     */
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * @return Number of spooled batches of puts moved to the dead-letter file, because the wrapped consumer kept
+     * rejecting them.
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    void spool(TableName tableName, List<Put> puts) {
+        try {
+            spool.append(tableName, puts);
+            if (forceOnSpool) spool.force();
+            spooledCount.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void openCircuit(String reason) {
+        if (!circuitOpen) {
+            logger.warn("Spooling audit log puts to disk, because {}.", reason);
+            circuitOpen = true;
+        }
+    }
+
+    void replayQuietly() {
+        try {
+            replay();
+        } catch (RuntimeException e) {
+            logger.debug("Replaying spooled audit log puts failed; will retry.", e);
+        }
+    }
+
+    void forceQuietly() {
+        try {
+            spool.force();
+        } catch (RuntimeException e) {
+            logger.warn("Forcing the audit log spool to disk failed; will retry.", e);
+        }
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Pass spooled puts on to the wrapped consumer until the spool is empty, or the consumer fails.
+     */
+    synchronized void replay() {
+        // Once a batch is rejected, records are replayed one at a time for the rest of this pass, to find the culprit.
+        boolean oneByOne = false;
+        while (!closed) {
+            Batch batch = spool.peek(oneByOne ? 1 : replayBatchSize);
+            if (batch.isEmpty()) {
+                spool.commit(batch);
+                if (circuitOpen && spool.isEmpty()) {
+                    circuitOpen = false;
+                    logger.info("Audit log spool drained; passing puts on directly again.");
+                    // Anything spooled by a thread that saw the open circuit just now is picked up next time.
+                }
+                return;
+            }
+
+            try {
+                replay(batch);
+            } catch (RuntimeException e) {
+                // Failures caused by I/O are taken to be an outage, and are retried indefinitely.
+                if (causedByIO(e)) throw e;
+                if (batch.records.size() > 1) {
+                    oneByOne = true;
+                    continue;
+                }
+                if (!rejectedTooOften(batch)) throw e;
+                deadLetter(batch, e);
+                continue;
+            }
+
+            spool.commit(batch);
+            replayedCount.addAndGet(batch.records.size());
+        }
+    }
+
+    void replay(Batch batch) {
+        // Merge the puts per table, to replay them in as few calls as possible.
+        Map<TableName, List<Put>> putsPerTable = new LinkedHashMap<>();
+        for (SpooledPuts record : batch.records) {
+            putsPerTable.computeIfAbsent(record.tableName, ignored -> new ArrayList<>()).addAll(record.puts);
+        }
+        for (Map.Entry<TableName, List<Put>> entry : putsPerTable.entrySet()) {
+            delegate.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Count a rejection of the single record in a batch.
+     *
+     * @return True if the record has now been rejected {@link Builder#withMaxReplayAttempts(int)} times.
+     */
+    boolean rejectedTooOften(Batch batch) {
+        if (batch.segment != rejectedSegment || batch.position != rejectedPosition) {
+            rejectedSegment = batch.segment;
+            rejectedPosition = batch.position;
+            rejectedAttempts = 0;
+        }
+        return ++rejectedAttempts >= maxReplayAttempts;
+    }
+
+    void deadLetter(Batch batch, RuntimeException cause) {
+        SpooledPuts record = batch.records.get(0);
+        Path path;
+        try {
+            path = spool.deadLetter(record);
+        } catch (IOException e) {
+            e.addSuppressed(cause);
+            throw new UncheckedIOException(e);
+        }
+        spool.commit(batch);
+        deadLetterCount.incrementAndGet();
+        rejectedSegment = null;
+        logger.error("Moved {} spooled audit log put(s) for table {} to {}, after they were rejected {} times.",
+                record.puts.size(), record.tableName, path, maxReplayAttempts, cause);
+    }
+
+    static boolean causedByIO(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    public static class Builder {
+        private final BiConsumer<TableName, List<Put>> delegate;
+        private final Path spoolDirectory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private long maxSpoolBytes = 1024L * 1024 * 1024;
+        private Duration slowCallThreshold = Duration.ofSeconds(2);
+        private Duration replayInterval = Duration.ofSeconds(5);
+        private int replayBatchSize = 100;
+        private int maxReplayAttempts = 3;
+        private Duration forceInterval = Duration.ofSeconds(1);
+        private int maxConcurrentCalls = 16;
+
+        Builder(BiConsumer<TableName, List<Put>> delegate, Path spoolDirectory) {
+            parameterMayNotBeNull("delegate", delegate);
+            parameterMayNotBeNull("spoolDirectory", spoolDirectory);
+            this.delegate = delegate;
+            this.spoolDirectory = spoolDirectory;
+        }
+
+        /**
+         * Set the size of each spool segment file. Defaults to 64 MiB.
+         *
+         * @param segmentSize Size in bytes.
+         */
+        public Builder withSegmentSize(int segmentSize) {
+            if (segmentSize <= PutSpool.RECORD_HEADER_LENGTH) {
+                throw new IllegalArgumentException("Segment size too small (" + segmentSize + " passed).");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the spool on disk. Once full, puts that cannot be passed on are rejected. Defaults to
+         * 1 GiB.
+         *
+         * @param maxSpoolBytes Size in bytes.
+         */
+        public Builder withMaxSpoolSize(long maxSpoolBytes) {
+            this.maxSpoolBytes = maxSpoolBytes;
+            return this;
+        }
+
+        /**
+         * Set how long to wait for a call to the wrapped consumer. If it takes longer, its puts and all subsequent
+         * puts are spooled. Defaults to two seconds.
+         *
+         * @param slowCallThreshold Threshold.
+         */
+        public Builder withSlowCallThreshold(Duration slowCallThreshold) {
+            parameterMayNotBeNull("slowCallThreshold", slowCallThreshold);
+            this.slowCallThreshold = slowCallThreshold;
+            return this;
+        }
+
+        /**
+         * Set how often the replayer tries to pass spooled puts on. Defaults to five seconds.
+         *
+         * @param replayInterval Interval.
+         */
+        public Builder withReplayInterval(Duration replayInterval) {
+            parameterMayNotBeNull("replayInterval", replayInterval);
+            this.replayInterval = replayInterval;
+            return this;
+        }
+
+        /**
+         * Set the number of spooled records replayed per batch. Defaults to 100.
+         *
+         * @param replayBatchSize Batch size.
+         */
+        public Builder withReplayBatchSize(int replayBatchSize) {
+            if (replayBatchSize < 1) throw new IllegalArgumentException("Batch size must be positive.");
+            this.replayBatchSize = replayBatchSize;
+            return this;
+        }
+
+        /**
+         * Set how often a spooled record is offered to the wrapped consumer during replay, before it is moved to the
+         * dead-letter file because the consumer keeps rejecting it. Rejections caused by an I/O error do not count.
+         * Defaults to 3.
+         *
+         * @param maxReplayAttempts Number of attempts.
+         */
+        public Builder withMaxReplayAttempts(int maxReplayAttempts) {
+            if (maxReplayAttempts < 1) throw new IllegalArgumentException("Number of attempts must be positive.");
+            this.maxReplayAttempts = maxReplayAttempts;
+            return this;
+        }
+
+        /**
+         * Set how often spooled puts are forced to the storage device. Defaults to one second. Zero forces the spool
+         * after every write, which protects spooled puts against a crash of the operating system at the cost of a
+         * slower {@link SpoolingPutConsumer#accept(TableName, List)} while spooling.
+         *
+         * @param forceInterval Interval.
+         */
+        public Builder withForceInterval(Duration forceInterval) {
+            parameterMayNotBeNull("forceInterval", forceInterval);
+            if (forceInterval.isNegative()) throw new IllegalArgumentException("Force interval may not be negative.");
+            this.forceInterval = forceInterval;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of calls to the wrapped consumer that may be in progress at the same time. Beyond
+         * that, callers wait for a call to finish, up to the slow-call threshold, and then spool their puts without
+         * opening the circuit. Defaults to 16.
+         *
+         * @param maxConcurrentCalls Number of calls.
+         */
+        public Builder withMaxConcurrentCalls(int maxConcurrentCalls) {
+            if (maxConcurrentCalls < 1) throw new IllegalArgumentException("Number of calls must be positive.");
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            return this;
+        }
+
+        /**
+         * @return A spooling put consumer.
+         * @throws IOException Thrown when the spool directory could not be created or read.
+         */
+        public SpoolingPutConsumer build() throws IOException {
+            return new SpoolingPutConsumer(
+                    delegate,
+                    new PutSpool(spoolDirectory, segmentSize, maxSpoolBytes),
+                    slowCallThreshold,
+                    replayInterval,
+                    replayBatchSize,
+                    maxReplayAttempts,
+                    forceInterval,
+                    maxConcurrentCalls
+            );
+        }
+    }
+}
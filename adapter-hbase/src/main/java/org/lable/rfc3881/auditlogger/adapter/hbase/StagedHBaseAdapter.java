@@ -0,0 +1,571 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapter.FailureHandler;
+import org.lable.rfc3881.auditlogger.api.AuditLogAdapter;
+import org.lable.rfc3881.auditlogger.api.LogEntry;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Writes audit log entries to HBase through a two-stage pipeline.
+ * <p>
+ * {@link #record(LogEntry)} only queues the entry. A pool of serializer threads turns queued entries into
+ * {@link Put}s (the CPU-heavy part), and hands them to a separate pool of writer threads, which pass them on to the
+ * put consumer of the wrapped {@link HBaseAdapter} in batches, one call per table. Because both stages have their own
+ * queue and threads, serialization keeps all cores busy while the writers wait on the network.
+ * <p>
+ * Both queues are bounded; when they are full, {@link #record(LogEntry)} blocks. Call {@link #flush()} to wait for
+ * all entries recorded so far to be written, and {@link #close()} on shutdown.
+ */
+public class StagedHBaseAdapter implements AuditLogAdapter, Flushable, Closeable {
+    private static final AtomicInteger instanceCounter = new AtomicInteger();
+    private static final long POLL_MILLIS = 100;
+
+    private final HBaseAdapter adapter;
+    private final BlockingQueue<Queued<LogEntry>> serializeQueue;
+    private final BlockingQueue<Queued<SerializedEntry>> writeQueue;
+    private final int writeBatchSize;
+    private final FailureHandler failureHandler;
+
+    private final StageMetrics serializeStage;
+    private final StageMetrics writeStage;
+    private final List<Thread> serializers = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final AtomicInteger runningSerializers;
+    private final AtomicInteger runningWriters;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final Object completionLock = new Object();
+    private long completed = 0;
+
+    private final AtomicLong failedEntries = new AtomicLong();
+    private final AtomicReference<Exception> unreportedFailure = new AtomicReference<>();
+
+    // Held for reading while an entry is queued, and for writing while closing, so no entry is queued after the
+    // serializers may have seen the queue empty and stopped.
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    StagedHBaseAdapter(HBaseAdapter adapter,
+                       int serializerThreads,
+                       int serializeQueueCapacity,
+                       int writerThreads,
+                       int writeQueueCapacity,
+                       int writeBatchSize,
+                       FailureHandler failureHandler) {
+        this.adapter = adapter;
+        this.serializeQueue = new ArrayBlockingQueue<>(serializeQueueCapacity);
+        this.writeQueue = new ArrayBlockingQueue<>(writeQueueCapacity);
+        this.writeBatchSize = writeBatchSize;
+        this.failureHandler = failureHandler;
+        this.serializeStage = new StageMetrics("serialize", serializeQueue, serializeQueueCapacity, serializerThreads);
+        this.writeStage = new StageMetrics("write", writeQueue, writeQueueCapacity, writerThreads);
+        this.runningSerializers = new AtomicInteger(serializerThreads);
+        this.runningWriters = new AtomicInteger(writerThreads);
+
+        int instance = instanceCounter.incrementAndGet();
+        for (int i = 0; i < serializerThreads; i++) {
+            serializers.add(start("audit-log-serialize-" + instance + "-" + i, this::serialize));
+        }
+        for (int i = 0; i < writerThreads; i++) {
+            writers.add(start("audit-log-write-" + instance + "-" + i, this::write));
+        }
+    }
+
+    /**
+     * Start building a staged adapter.
+     *
+     * @param adapter The adapter that defines how entries are converted to {@link Put}s, and where they go.
+     * @return A builder for chaining.
+     */
+    public static Builder define(HBaseAdapter adapter) {
+        return new Builder(adapter);
+    }
+
+    /**
+     * Queue a log entry. This blocks while the serialization queue is full.
+     *
+     * @param logEntry Audit log entry to process.
+     * @throws IOException Thrown when this adapter is closed, when its worker threads have stopped, or when
+     *                     interrupted while waiting for room in the queue.
+     */
+    @Override
+    public void record(LogEntry logEntry) throws IOException {
+        if (logEntry == null) return;
+
+        Queued<LogEntry> queued = new Queued<>(logEntry);
+        shutdownLock.readLock().lock();
+        try {
+            if (closed) throw new IOException("Staged audit log adapter is closed.");
+
+            if (workersStopped()) throw stoppedException();
+
+            submitted.incrementAndGet();
+            try {
+                while (!serializeQueue.offer(queued, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (workersStopped()) throw stoppedException();
+                }
+            } catch (InterruptedException e) {
+                submitted.decrementAndGet();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing an audit log entry.");
+            } catch (IOException e) {
+                submitted.decrementAndGet();
+                throw e;
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Wait until all log entries recorded before this call was made have been handed to the put consumer.
+     *
+     * @throws IOException Thrown when writing one or more entries failed since the previous flush, and no
+     *                     {@link FailureHandler} was configured, or when the worker threads stopped before all
+     *                     entries were written.
+     */
+    @Override
+    public void flush() throws IOException {
+        long target = submitted.get();
+        synchronized (completionLock) {
+            while (completed < target) {
+                // Entries still queued are never written once the workers have stopped. After a regular close, all
+                // queued entries have been written before the writers stop.
+                if (runningWriters.get() == 0 || runningSerializers.get() == 0 && !serializeQueue.isEmpty()) {
+                    throw stoppedException();
+                }
+                try {
+                    completionLock.wait(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the audit log pipeline.");
+                }
+            }
+        }
+
+        throwUnreportedFailure();
+    }
+
+    /**
+     * Stop accepting new log entries, write all queued entries, and stop the worker threads.
+     *
+     * @throws IOException Thrown when writing one or more entries failed since the previous flush, and no
+     *                     {@link FailureHandler} was configured.
+     */
+    @Override
+    public void close() throws IOException {
+        shutdownLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+
+        try {
+            for (Thread serializer : serializers) {
+                serializer.join();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the audit log pipeline.");
+        }
+
+        throwUnreportedFailure();
+    }
+
+    /**
+     * @return Metrics of the serialization stage.
+     */
+    public StageMetrics getSerializationStage() {
+        return serializeStage;
+    }
+
+    /**
+     * @return Metrics of the write stage.
+     */
+    public StageMetrics getWriteStage() {
+        return writeStage;
+    }
+
+    /**
+     * @return Total number of log entries that could not be serialized or written.
+     */
+    public long getFailedCount() {
+        return failedEntries.get();
+    }
+
+    void serialize() {
+        try {
+            while (true) {
+                Queued<LogEntry> queued = serializeQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (queued == null) {
+                    if (closed && serializeQueue.isEmpty()) return;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                LogEntry logEntry = queued.item;
+                SerializedEntry serialized;
+                try {
+                    serialized = new SerializedEntry(logEntry, adapter.tableFor(logEntry), adapter.toPut(logEntry));
+                } catch (IOException | RuntimeException e) {
+                    reportFailure(Collections.singletonList(logEntry), e);
+                    markCompleted(1);
+                    continue;
+                } finally {
+                    serializeStage.record(start - queued.enqueuedAt, System.nanoTime() - start, 1);
+                }
+
+                try {
+                    writeQueue.put(new Queued<>(serialized));
+                } catch (InterruptedException e) {
+                    reportFailure(Collections.singletonList(logEntry),
+                            new InterruptedIOException("Interrupted while queueing a serialized audit log entry."));
+                    markCompleted(1);
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runningSerializers.decrementAndGet();
+        }
+    }
+
+    void write() {
+        List<Queued<SerializedEntry>> batch = new ArrayList<>(writeBatchSize);
+        try {
+            while (true) {
+                Queued<SerializedEntry> first = writeQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && runningSerializers.get() == 0 && writeQueue.isEmpty()) return;
+                    continue;
+                }
+
+                batch.clear();
+                batch.add(first);
+                writeQueue.drainTo(batch, writeBatchSize - 1);
+
+                long start = System.nanoTime();
+                long queueWait = 0;
+                Map<TableName, List<SerializedEntry>> perTable = new LinkedHashMap<>();
+                for (Queued<SerializedEntry> queued : batch) {
+                    queueWait += start - queued.enqueuedAt;
+                    perTable.computeIfAbsent(queued.item.tableName, ignored -> new ArrayList<>()).add(queued.item);
+                }
+
+                for (Map.Entry<TableName, List<SerializedEntry>> entry : perTable.entrySet()) {
+                    List<Put> puts = new ArrayList<>(entry.getValue().size());
+                    for (SerializedEntry serialized : entry.getValue()) {
+                        puts.add(serialized.put);
+                    }
+                    try {
+                        adapter.write(entry.getKey(), puts);
+                    } catch (RuntimeException e) {
+                        List<LogEntry> failed = new ArrayList<>(puts.size());
+                        for (SerializedEntry serialized : entry.getValue()) {
+                            failed.add(serialized.logEntry);
+                        }
+                        reportFailure(failed, e);
+                    }
+                }
+
+                writeStage.record(queueWait / batch.size(), System.nanoTime() - start, batch.size());
+                markCompleted(batch.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runningWriters.decrementAndGet();
+        }
+    }
+
+    void reportFailure(List<LogEntry> failed, Exception failure) {
+        failedEntries.addAndGet(failed.size());
+        if (failureHandler != null) {
+            try {
+                failureHandler.onFailure(failed, failure);
+            } catch (RuntimeException e) {
+                unreportedFailure.compareAndSet(null, e);
+            }
+        } else {
+            unreportedFailure.compareAndSet(null, failure);
+        }
+    }
+
+    void markCompleted(int count) {
+        synchronized (completionLock) {
+            completed += count;
+            completionLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return True if all serializers or all writers have stopped. Until closed, that only happens when they are
+     * interrupted or die; entries still queued then can no longer be written.
+     */
+    boolean workersStopped() {
+        return runningSerializers.get() == 0 || runningWriters.get() == 0;
+    }
+
+    static IOException stoppedException() {
+        return new IOException("The worker threads of the staged audit log adapter have stopped.");
+    }
+
+    void throwUnreportedFailure() throws IOException {
+        Exception failure = unreportedFailure.getAndSet(null);
+        if (failure == null) return;
+        if (failure instanceof IOException) throw (IOException) failure;
+        // Put consumers can only throw unchecked exceptions.
+        if (failure instanceof UncheckedIOException) throw ((UncheckedIOException) failure).getCause();
+        throw new IOException(failure);
+    }
+
+    static Thread start(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    static class Queued<T> {
+        final T item;
+        final long enqueuedAt = System.nanoTime();
+
+        Queued(T item) {
+            this.item = item;
+        }
+    }
+
+    static class SerializedEntry {
+        final LogEntry logEntry;
+        final TableName tableName;
+        final Put put;
+
+        SerializedEntry(LogEntry logEntry, TableName tableName, Put put) {
+            this.logEntry = logEntry;
+            this.tableName = tableName;
+            this.put = put;
+        }
+    }
+
+    /**
+     * Live statistics of one stage of the pipeline.
+     */
+    public static class StageMetrics {
+        private final String name;
+        private final Queue<?> queue;
+        private final int queueCapacity;
+        private final int threads;
+
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong queueWaitNanos = new AtomicLong();
+        private final AtomicLong processingNanos = new AtomicLong();
+        private final AtomicLong maxProcessingNanos = new AtomicLong();
+
+        StageMetrics(String name, Queue<?> queue, int queueCapacity, int threads) {
+            this.name = name;
+            this.queue = queue;
+            this.queueCapacity = queueCapacity;
+            this.threads = threads;
+        }
+
+        void record(long queueWait, long processing, int items) {
+            processed.addAndGet(items);
+            calls.incrementAndGet();
+            queueWaitNanos.addAndGet(queueWait);
+            processingNanos.addAndGet(processing);
+            maxProcessingNanos.accumulateAndGet(processing, Math::max);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Number of items waiting in the queue of this stage.
+         */
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return Number of log entries processed by this stage.
+         */
+        public long getProcessedCount() {
+            return processed.get();
+        }
+
+        /**
+         * @return Mean time an item waited in the queue before being processed.
+         */
+        public Duration getMeanQueueWait() {
+            long count = calls.get();
+            return Duration.ofNanos(count == 0 ? 0 : queueWaitNanos.get() / count);
+        }
+
+        /**
+         * @return Mean time taken per unit of work; a single entry for serialization, a batch for writing.
+         */
+        public Duration getMeanProcessingTime() {
+            long count = calls.get();
+            return Duration.ofNanos(count == 0 ? 0 : processingNanos.get() / count);
+        }
+
+        /**
+         * @return Longest time taken by a single unit of work.
+         */
+        public Duration getMaxProcessingTime() {
+            return Duration.ofNanos(maxProcessingNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return name + ": queue " + getQueueDepth() + "/" + queueCapacity + ", " + threads + " thread(s), " +
+                    getProcessedCount() + " processed, mean wait " + getMeanQueueWait().toNanos() / 1000 + " µs, " +
+                    "mean processing " + getMeanProcessingTime().toNanos() / 1000 + " µs, " +
+                    "max processing " + getMaxProcessingTime().toNanos() / 1000 + " µs";
+        }
+    }
+
+    public static class Builder {
+        private final HBaseAdapter adapter;
+        private int serializerThreads = Runtime.getRuntime().availableProcessors();
+        private int serializeQueueCapacity = 4096;
+        private int writerThreads = 1;
+        private int writeQueueCapacity = 4096;
+        private int writeBatchSize = 256;
+        private FailureHandler failureHandler;
+
+        Builder(HBaseAdapter adapter) {
+            parameterMayNotBeNull("adapter", adapter);
+            this.adapter = adapter;
+        }
+
+        /**
+         * Set the number of serializer threads. Defaults to the number of available processors.
+         *
+         * @param serializerThreads Number of threads.
+         */
+        public Builder withSerializerThreads(int serializerThreads) {
+            this.serializerThreads = positive("serializerThreads", serializerThreads);
+            return this;
+        }
+
+        /**
+         * Set the number of log entries that may wait for serialization. Defaults to 4096.
+         *
+         * @param serializeQueueCapacity Queue capacity.
+         */
+        public Builder withSerializeQueueCapacity(int serializeQueueCapacity) {
+            this.serializeQueueCapacity = positive("serializeQueueCapacity", serializeQueueCapacity);
+            return this;
+        }
+
+        /**
+         * Set the number of writer threads. Defaults to one.
+         *
+         * @param writerThreads Number of threads.
+         */
+        public Builder withWriterThreads(int writerThreads) {
+            this.writerThreads = positive("writerThreads", writerThreads);
+            return this;
+        }
+
+        /**
+         * Set the number of serialized entries that may wait to be written. Defaults to 4096.
+         *
+         * @param writeQueueCapacity Queue capacity.
+         */
+        public Builder withWriteQueueCapacity(int writeQueueCapacity) {
+            this.writeQueueCapacity = positive("writeQueueCapacity", writeQueueCapacity);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of entries a writer hands to the put consumer at once. Defaults to 256.
+         *
+         * @param writeBatchSize Batch size.
+         */
+        public Builder withWriteBatchSize(int writeBatchSize) {
+            this.writeBatchSize = positive("writeBatchSize", writeBatchSize);
+            return this;
+        }
+
+        /**
+         * Set a handler for log entries that could not be serialized or written. Without one, the first failure is
+         * thrown by the next call to {@link #flush()} or {@link #close()}.
+         *
+         * @param failureHandler Failure handler.
+         */
+        public Builder withFailureHandler(FailureHandler failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        public StagedHBaseAdapter build() {
+            return new StagedHBaseAdapter(
+                    adapter,
+                    serializerThreads,
+                    serializeQueueCapacity,
+                    writerThreads,
+                    writeQueueCapacity,
+                    writeBatchSize,
+                    failureHandler
+            );
+        }
+
+        static int positive(String name, int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException("Parameter " + name + " must be positive (" + value + " passed).");
+            }
+            return value;
+        }
+    }
+}
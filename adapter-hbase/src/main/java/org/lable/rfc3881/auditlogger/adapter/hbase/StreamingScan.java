@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.lable.rfc3881.auditlogger.adapter.hbase.HBaseReader.ScannedEntry;
+import org.lable.rfc3881.auditlogger.adapter.hbase.HBaseReader.TableRange;
+import org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayout.KeyRange;
+import org.lable.rfc3881.auditlogger.api.AuditLogReader.QueryLogger;
+import org.lable.rfc3881.auditlogger.api.LogEntry;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics.Stage;
+import org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Iterates over the entries matching a query, decoding rows as the scanners advance. Tables are read one after the
+ * other, newest first; the key ranges of a table are scanned side by side and merged by row key. Only the current
+ * row of each key range is held, so memory use does not depend on the number of entries read.
+ * <p>
+ * Not thread-safe. Must be closed after use.
+ */
+final class StreamingScan implements Iterator<LogEntry>, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingScan.class);
+
+    private final HBaseReader reader;
+    private final Connection connection;
+    private final Iterator<TableName> tables;
+    private final List<KeyRange> ranges;
+    private final AuditLogQuery query;
+    private final byte[] cf;
+    private final long maxResults;
+    private final AuditLogMetrics metrics;
+    private final QueryLogger queryLogger;
+    private final String tableDescription;
+
+    private final PriorityQueue<RangeScanner> heads =
+            new PriorityQueue<>((a, b) -> ScannedEntry.KEY_ORDER.compare(a.head, b.head));
+    private final List<RangeScanner> open = new ArrayList<>();
+    private final AtomicLong scanned = new AtomicLong();
+    private final long start = System.nanoTime();
+    private long returned = 0;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    StreamingScan(HBaseReader reader,
+                  Connection connection,
+                  List<TableName> tables,
+                  List<KeyRange> ranges,
+                  AuditLogQuery query,
+                  byte[] cf,
+                  long maxResults,
+                  AuditLogMetrics metrics,
+                  QueryLogger queryLogger,
+                  String tableDescription) {
+        this.reader = reader;
+        this.connection = connection;
+        this.tables = tables.iterator();
+        this.ranges = ranges;
+        this.query = query;
+        this.cf = cf;
+        this.maxResults = maxResults;
+        this.metrics = metrics;
+        this.queryLogger = queryLogger;
+        this.tableDescription = tableDescription;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException Thrown when scanning failed.
+     */
+    @Override
+    public boolean hasNext() {
+        if (closed || returned >= maxResults) return false;
+        try {
+            if (heads.isEmpty()) openNextTable();
+            return !heads.isEmpty();
+        } catch (IOException e) {
+            failed(e);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException Thrown when scanning failed.
+     */
+    @Override
+    public LogEntry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        RangeScanner scanner = heads.poll();
+        LogEntry logEntry = scanner.head.logEntry;
+        returned++;
+        try {
+            // Don't read past the limit.
+            if (returned < maxResults && scanner.advance()) heads.add(scanner);
+        } catch (RuntimeException e) {
+            failed(e);
+            throw e;
+        }
+        return logEntry;
+    }
+
+    /**
+     * Open the scanners of the tables in turn, until one with a matching row is found or the tables run out.
+     */
+    void openNextTable() throws IOException {
+        while (heads.isEmpty() && tables.hasNext()) {
+            closeScanners();
+            TableName tableName = tables.next();
+            List<RangeScanner> scanners;
+            try {
+                scanners = reader.inParallel(
+                        TableRange.of(Collections.singletonList(tableName), ranges),
+                        this::openRange
+                );
+            } catch (IOException e) {
+                // A partition dropped since the partitions were listed holds no entries any more.
+                if (!reader.partitionDropped(e)) throw e;
+                continue;
+            }
+            for (RangeScanner scanner : scanners) {
+                if (scanner.head != null) heads.add(scanner);
+            }
+        }
+    }
+
+    /**
+     * Open a scanner for a key range, and read its first entry. May be called from the scan executor.
+     */
+    RangeScanner openRange(TableRange tableRange) throws IOException {
+        Scan scan = HBaseReader.scanFor(tableRange.range, query, cf, true);
+        long opening = System.nanoTime();
+        Table table = connection.getTable(tableRange.tableName);
+        ResultScanner resultScanner;
+        try {
+            resultScanner = table.getScanner(scan);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(table);
+            throw e;
+        }
+        metrics.recordLatency(Stage.SCAN_OPEN, System.nanoTime() - opening);
+
+        RangeScanner scanner = new RangeScanner(table, resultScanner, opening);
+        synchronized (open) {
+            open.add(scanner);
+            // Closed while this scanner was being opened.
+            if (closed) throw new IOException("Scan closed.");
+        }
+        scanner.advance();
+        return scanner;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        synchronized (open) {
+            closed = true;
+        }
+        closeScanners();
+
+        long took = System.nanoTime() - start;
+        metrics.recordLatency(Stage.QUERY, took);
+        metrics.recordRows(scanned.get(), returned);
+        if (queryLogger != null && !failed) {
+            queryLogger.log(
+                    "Streaming from " + tableDescription + ":\n"
+                            + query + "\n" +
+                            "Got " + HBaseReader.describeCount(returned) + "; took: " + took / 1_000_000 + " ms."
+            );
+        }
+    }
+
+    void failed(Exception e) {
+        if (failed) return;
+        failed = true;
+        metrics.recordFailure(Stage.QUERY);
+        if (queryLogger != null) {
+            queryLogger.log("Streaming from " + tableDescription + " failed:\n" + query + "\nError: " + e.getMessage());
+        }
+    }
+
+    void closeScanners() {
+        heads.clear();
+        synchronized (open) {
+            for (RangeScanner scanner : open) {
+                scanner.resultScanner.close();
+                closeQuietly(scanner.table);
+            }
+            open.clear();
+        }
+    }
+
+    static void closeQuietly(Table table) {
+        try {
+            table.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close table {}.", table.getName(), e);
+        }
+    }
+
+    /**
+     * The scanner of a single key range, and the entry it is at.
+     */
+    final class RangeScanner {
+        final Table table;
+        final ResultScanner resultScanner;
+        final Iterator<Result> results;
+        final long openedAt;
+        long rows = 0;
+        ScannedEntry head;
+
+        RangeScanner(Table table, ResultScanner resultScanner, long openedAt) {
+            this.table = table;
+            this.resultScanner = resultScanner;
+            this.results = resultScanner.iterator();
+            this.openedAt = openedAt;
+        }
+
+        /**
+         * Move to the next entry that could be decoded.
+         *
+         * @return False if the scanner is exhausted.
+         */
+        boolean advance() {
+            head = null;
+            while (results.hasNext()) {
+                Result result = results.next();
+                scanned.incrementAndGet();
+                if (rows++ == 0) metrics.recordLatency(Stage.FIRST_ROW, System.nanoTime() - openedAt);
+
+                Optional<LogEntry> logEntry = reader.decode(result, cf, metrics, query);
+                if (logEntry.isEmpty()) continue;
+                head = new ScannedEntry(result.getRow(), logEntry.get());
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.lable.rfc3881.auditlogger.api.LogEntry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Splits the audit log over one table per day or month, based on the time each event happened (in UTC).
+ * <p>
+ * Partitions are named after the start of the period they cover, e.g. {@code audit:log_20210826} for a daily
+ * partition, or {@code audit:log_202108} for a monthly one. Pass {@link #tableDecider()} to {@link HBaseAdapter} to
+ * route writes to the right partition, and pass this partitioning to {@link HBaseReader#setTimePartitioning} to
+ * have queries read only the partitions that overlap their time window. Old data is removed by dropping whole
+ * partitions ({@link #dropPartitionsBefore(Admin, Instant)}) rather than by deleting rows.
+ * <p>
+ * Partitions are not created on write; create them ahead of time with
+ * {@link #createPartitions(Admin, String, Instant, Instant)}.
+ */
+public final class TimePartitioning {
+    private final Granularity granularity;
+    private final String namespace;
+    private final String prefix;
+    private final Pattern namePattern;
+
+    private final Map<Long, Partition> partitions = new ConcurrentHashMap<>();
+    private volatile Partition current;
+
+    private TimePartitioning(Granularity granularity, String namespace, String prefix) {
+        parameterMayNotBeNull("namespace", namespace);
+        parameterMayNotBeNull("prefix", prefix);
+        this.granularity = granularity;
+        this.namespace = namespace;
+        this.prefix = prefix;
+        // Tables in the default namespace are listed without it.
+        this.namePattern = Pattern.compile("(?:" + Pattern.quote(namespace) + ":)?"
+                + Pattern.quote(prefix) + "_\\d{" + granularity.pattern.length() + "}");
+    }
+
+    /**
+     * Partition by day.
+     *
+     * @param namespace Namespace of the tables.
+     * @param prefix    Table name prefix; the date is appended to this.
+     * @return A daily partitioning.
+     */
+    public static TimePartitioning daily(String namespace, String prefix) {
+        return new TimePartitioning(Granularity.DAILY, namespace, prefix);
+    }
+
+    /**
+     * Partition by month.
+     *
+     * @param namespace Namespace of the tables.
+     * @param prefix    Table name prefix; the month is appended to this.
+     * @return A monthly partitioning.
+     */
+    public static TimePartitioning monthly(String namespace, String prefix) {
+        return new TimePartitioning(Granularity.MONTHLY, namespace, prefix);
+    }
+
+    /**
+     * @return A table decider for {@link HBaseAdapter} that routes each entry to the partition of its event time.
+     */
+    public Function<LogEntry, TableName> tableDecider() {
+        return logEntry -> tableFor(logEntry.getEvent().getHappenedAt());
+    }
+
+    /**
+     * Get the partition a timestamp falls in.
+     *
+     * @param happenedAt Timestamp, in milliseconds since the epoch.
+     * @return The table of the partition.
+     */
+    public TableName tableFor(long happenedAt) {
+        return partitionFor(happenedAt).getTableName();
+    }
+
+    Partition partitionFor(long happenedAt) {
+        // Nearly all writes fall in the current partition.
+        Partition partition = current;
+        if (partition != null && partition.contains(happenedAt)) return partition;
+
+        partition = lookup(happenedAt);
+        current = partition;
+        return partition;
+    }
+
+    Partition lookup(long happenedAt) {
+        LocalDate start = granularity.startOf(
+                Instant.ofEpochMilli(happenedAt).atOffset(ZoneOffset.UTC).toLocalDate()
+        );
+        return partitions.computeIfAbsent(toEpochMilli(start), ignored -> partitionStarting(start));
+    }
+
+    Partition partitionStarting(LocalDate start) {
+        TableName tableName = TableName.valueOf(namespace, prefix + "_" + start.format(granularity.formatter));
+        return new Partition(tableName, toEpochMilli(start), toEpochMilli(granularity.next(start)));
+    }
+
+    /**
+     * List the partitions that exist.
+     *
+     * @param admin HBase admin.
+     * @return The partitions, newest first.
+     * @throws IOException Thrown when the tables could not be listed.
+     */
+    public List<Partition> existingPartitions(Admin admin) throws IOException {
+        List<Partition> existing = new ArrayList<>();
+        for (TableName tableName : admin.listTableNames(namePattern)) {
+            Partition partition = parse(tableName);
+            if (partition != null) existing.add(partition);
+        }
+        existing.sort(Comparator.comparingLong(Partition::getStart).reversed());
+        return existing;
+    }
+
+    /**
+     * List the partitions that exist and overlap a time window.
+     *
+     * @param admin HBase admin.
+     * @param from  Start of the window (inclusive), in milliseconds since the epoch; null for no lower bound.
+     * @param to    End of the window (inclusive), in milliseconds since the epoch; null for no upper bound.
+     * @return The partitions, newest first.
+     * @throws IOException Thrown when the tables could not be listed.
+     */
+    public List<Partition> existingPartitions(Admin admin, Long from, Long to) throws IOException {
+        List<Partition> overlapping = new ArrayList<>();
+        for (Partition partition : existingPartitions(admin)) {
+            if (partition.overlaps(from, to)) overlapping.add(partition);
+        }
+        return overlapping;
+    }
+
+    /**
+     * Create the partitions covering a period that do not exist yet.
+     *
+     * @param admin        HBase admin.
+     * @param columnFamily Column family to store the audit log in.
+     * @param from         Start of the period.
+     * @param to           End of the period.
+     * @return The tables created.
+     * @throws IOException Thrown when a table could not be created.
+     */
+    public List<TableName> createPartitions(Admin admin, String columnFamily, Instant from, Instant to)
+            throws IOException {
+        List<TableName> created = new ArrayList<>();
+        Partition partition = lookup(from.toEpochMilli());
+        while (partition.start <= to.toEpochMilli()) {
+            if (!admin.tableExists(partition.tableName)) {
+                admin.createTable(TableDescriptorBuilder.newBuilder(partition.tableName)
+                        .setColumnFamily(ColumnFamilyDescriptorBuilder.of(
+                                columnFamily.getBytes(StandardCharsets.UTF_8)
+                        ))
+                        .build());
+                created.add(partition.tableName);
+            }
+            partition = lookup(partition.end);
+        }
+        return created;
+    }
+
+    /**
+     * Enforce a retention period by dropping the partitions that only hold events from before a cut-off time.
+     *
+     * @param admin  HBase admin.
+     * @param cutOff Cut-off time. The partition this falls in is kept.
+     * @return The tables dropped.
+     * @throws IOException Thrown when a table could not be dropped.
+     */
+    public List<TableName> dropPartitionsBefore(Admin admin, Instant cutOff) throws IOException {
+        List<TableName> dropped = new ArrayList<>();
+        for (Partition partition : existingPartitions(admin)) {
+            if (partition.end > cutOff.toEpochMilli()) continue;
+            if (admin.isTableEnabled(partition.tableName)) admin.disableTable(partition.tableName);
+            admin.deleteTable(partition.tableName);
+            partitions.remove(partition.start);
+            dropped.add(partition.tableName);
+        }
+        return dropped;
+    }
+
+    Partition parse(TableName tableName) {
+        String qualifier = tableName.getQualifierAsString();
+        if (!tableName.getNamespaceAsString().equals(namespace) || !qualifier.startsWith(prefix + "_")) return null;
+        try {
+            LocalDate start = granularity.parse(qualifier.substring(prefix.length() + 1));
+            return partitionStarting(start);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return granularity.name().toLowerCase() + " partitions " + namespace + ":" + prefix + "_" + granularity.pattern;
+    }
+
+    static long toEpochMilli(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /**
+     * A single partition, covering events that happened from its start time up to its end time.
+     */
+    public static final class Partition {
+        final TableName tableName;
+        final long start;
+        final long end;
+
+        Partition(TableName tableName, long start, long end) {
+            this.tableName = tableName;
+            this.start = start;
+            this.end = end;
+        }
+
+        public TableName getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return Start of the partition (inclusive), in milliseconds since the epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return End of the partition (exclusive), in milliseconds since the epoch.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        boolean contains(long happenedAt) {
+            return happenedAt >= start && happenedAt < end;
+        }
+
+        boolean overlaps(Long from, Long to) {
+            return (from == null || end > from) && (to == null || start <= to);
+        }
+
+        @Override
+        public String toString() {
+            return tableName.getNameAsString();
+        }
+    }
+
+    enum Granularity {
+        DAILY("yyyyMMdd") {
+            @Override
+            LocalDate startOf(LocalDate date) {
+                return date;
+            }
+
+            @Override
+            LocalDate next(LocalDate start) {
+                return start.plusDays(1);
+            }
+
+            @Override
+            LocalDate parse(String formatted) {
+                return LocalDate.parse(formatted, formatter);
+            }
+        },
+        MONTHLY("yyyyMM") {
+            @Override
+            LocalDate startOf(LocalDate date) {
+                return date.withDayOfMonth(1);
+            }
+
+            @Override
+            LocalDate next(LocalDate start) {
+                return start.plusMonths(1);
+            }
+
+            @Override
+            LocalDate parse(String formatted) {
+                return LocalDate.parse(formatted + "01", DAILY.formatter);
+            }
+        };
+
+        final String pattern;
+        final DateTimeFormatter formatter;
+
+        Granularity(String pattern) {
+            this.pattern = pattern;
+            this.formatter = DateTimeFormatter.ofPattern(pattern);
+        }
+
+        abstract LocalDate startOf(LocalDate date);
+
+        abstract LocalDate next(LocalDate start);
+
+        abstract LocalDate parse(String formatted);
+    }
+}
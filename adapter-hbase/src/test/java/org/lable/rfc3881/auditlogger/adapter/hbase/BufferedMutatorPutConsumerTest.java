@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BufferedMutatorPutConsumerTest {
+    @Test
+    public void flushOnThresholdTest() throws IOException {
+        Connection connection = mock(Connection.class);
+        BufferedMutator mutator = mock(BufferedMutator.class);
+        when(connection.getBufferedMutator(any(BufferedMutatorParams.class))).thenReturn(mutator);
+
+        BufferedMutatorPutConsumer consumer = BufferedMutatorPutConsumer.define(() -> connection)
+                .withFlushThreshold(1)
+                .withFlushInterval(Duration.ofHours(1))
+                .build();
+
+        consumer.accept(TableName.valueOf("a"), Collections.singletonList(put("1")));
+        consumer.accept(TableName.valueOf("a"), Collections.singletonList(put("2")));
+
+        verify(connection, times(1)).getBufferedMutator(any(BufferedMutatorParams.class));
+        verify(mutator, times(2)).mutate(anyList());
+        verify(mutator, times(2)).flush();
+        assertThat(consumer.getMetrics().getFlushCount(), is(2L));
+        assertThat(consumer.getMetrics().getBufferedBytes(), is(0L));
+
+        consumer.close();
+        verify(mutator).close();
+    }
+
+    @Test
+    public void noFlushBelowThresholdTest() throws IOException {
+        Connection connection = mock(Connection.class);
+        BufferedMutator mutator = mock(BufferedMutator.class);
+        when(connection.getBufferedMutator(any(BufferedMutatorParams.class))).thenReturn(mutator);
+
+        BufferedMutatorPutConsumer consumer = BufferedMutatorPutConsumer.define(() -> connection)
+                .withFlushThreshold(1024 * 1024)
+                .withFlushInterval(Duration.ofHours(1))
+                .build();
+
+        consumer.accept(TableName.valueOf("a"), Arrays.asList(put("1"), put("2")));
+
+        verify(mutator, never()).flush();
+        assertThat(consumer.getMetrics().getBufferedBytes() > 0, is(true));
+
+        consumer.close();
+        verify(mutator).flush();
+    }
+
+    @Test
+    public void retryThenGiveUpTest() throws IOException {
+        Connection connection = mock(Connection.class);
+        BufferedMutator mutator = mock(BufferedMutator.class);
+        ArgumentCaptor<BufferedMutatorParams> params = ArgumentCaptor.forClass(BufferedMutatorParams.class);
+        when(connection.getBufferedMutator(params.capture())).thenReturn(mutator);
+
+        List<Put> failed = new CopyOnWriteArrayList<>();
+        BufferedMutatorPutConsumer consumer = BufferedMutatorPutConsumer.define(() -> connection)
+                .withFlushThreshold(1024 * 1024)
+                .withFlushInterval(Duration.ofHours(1))
+                .withMaxRetries(1)
+                .withFailedMutationListener((tableName, puts, cause) -> failed.addAll(puts))
+                .build();
+
+        Put put = put("1");
+        consumer.accept(TableName.valueOf("a"), Collections.singletonList(put));
+        BufferedMutator.ExceptionListener listener = params.getValue().getListener();
+
+        // First rejection: queued for a retry on the next flush.
+        listener.onException(rejected(put), mutator);
+        assertThat(failed.isEmpty(), is(true));
+        assertThat(consumer.bufferFor(TableName.valueOf("a")).retries.peek().attempts, is(1));
+        // Retries are counted client-side; put attributes are sent to the region servers.
+        assertThat(put.getAttributesMap().isEmpty(), is(true));
+        consumer.flush();
+        verify(mutator, times(2)).mutate(anyList());
+
+        // Second rejection: retries are exhausted.
+        listener.onException(rejected(put), mutator);
+        assertThat(failed, is(Collections.singletonList(put)));
+        assertThat(consumer.getMetrics().getRetriedMutations(), is(1L));
+        assertThat(consumer.getMetrics().getFailedMutations(), is(1L));
+
+        consumer.close();
+    }
+
+    @Test
+    public void acceptAfterCloseTest() throws IOException {
+        Connection connection = mock(Connection.class);
+        BufferedMutator mutator = mock(BufferedMutator.class);
+        when(connection.getBufferedMutator(any(BufferedMutatorParams.class))).thenReturn(mutator);
+
+        BufferedMutatorPutConsumer consumer = BufferedMutatorPutConsumer.define(() -> connection)
+                .withFlushInterval(Duration.ofHours(1))
+                .build();
+        consumer.accept(TableName.valueOf("a"), Collections.singletonList(put("1")));
+        consumer.close();
+
+        try {
+            consumer.accept(TableName.valueOf("b"), Collections.singletonList(put("2")));
+            fail("Expected an UncheckedIOException.");
+        } catch (UncheckedIOException e) {
+            assertThat(e.getCause().getMessage(), is("Put consumer is closed."));
+        }
+        // No mutator was created for the second table.
+        verify(connection, times(1)).getBufferedMutator(any(BufferedMutatorParams.class));
+        consumer.flush();
+    }
+
+    static Put put(String row) {
+        Put put = new Put(Bytes.toBytes(row));
+        put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("value"));
+        return put;
+    }
+
+    static RetriesExhaustedWithDetailsException rejected(Put put) {
+        return new RetriesExhaustedWithDetailsException(
+                Collections.singletonList(new IOException("Region unavailable.")),
+                Collections.singletonList(put),
+                Collections.singletonList("localhost:16020")
+        );
+    }
+}
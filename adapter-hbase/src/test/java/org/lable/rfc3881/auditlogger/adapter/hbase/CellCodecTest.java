@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.hbase.TableName;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+import org.lable.rfc3881.auditlogger.serialization.CodeSystemDictionary;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+import org.lable.rfc3881.auditlogger.serialization.EntryEncoding;
+import org.lable.rfc3881.auditlogger.serialization.ObjectMapperFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+public class CellCodecTest {
+    static final TableName TABLE = TableName.valueOf("audit", "log");
+
+    @Test
+    public void plainTest() throws IOException {
+        byte[] value = json(entry(1).getEvent());
+
+        assertThat(CellCodec.plain().encode(value), is(sameInstance(value)));
+        assertThat(CellCodec.plain().decode(value), is(sameInstance(value)));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        CellCodec codec = CellCodec.define().withDictionary(dictionary()).build();
+
+        for (int i = 0; i < 20; i++) {
+            byte[] value = json(entry(i).getParticipantObjects());
+            byte[] encoded = codec.encode(value);
+
+            assertThat(encoded[0], is(CellCodec.DEFLATED_MARKER));
+            assertThat(encoded.length, is(lessThan(value.length)));
+            assertThat(codec.decode(encoded), is(value));
+        }
+    }
+
+    @Test
+    public void dictionaryHelpsTest() {
+        CellCodec withoutDictionary = CellCodec.define().withMinimumSize(0).build();
+        CellCodec withDictionary = CellCodec.define().withMinimumSize(0).withDictionary(dictionary()).build();
+
+        byte[] value = json(entry(100).getEvent());
+        assertThat(withDictionary.encode(value).length, is(lessThan(withoutDictionary.encode(value).length)));
+    }
+
+    @Test
+    public void smallOrIncompressibleValuesAreStoredAsIsTest() throws IOException {
+        CellCodec codec = CellCodec.define().build();
+
+        byte[] small = "\"small\"".getBytes(StandardCharsets.UTF_8);
+        assertThat(codec.encode(small), is(sameInstance(small)));
+
+        byte[] random = new byte[200];
+        new Random(42).nextBytes(random);
+        random[0] = '"';
+        assertThat(codec.encode(random), is(sameInstance(random)));
+        assertThat(codec.decode(random), is(sameInstance(random)));
+    }
+
+    @Test
+    public void previousDictionaryTest() throws IOException {
+        byte[] oldDictionary = dictionary();
+        byte[] value = json(entry(1).getParticipantObjects());
+        byte[] encoded = CellCodec.define().withDictionary(oldDictionary).build().encode(value);
+
+        CellCodec rotated = CellCodec.define()
+                .withDictionary("{\"cs\":\"something else entirely\"}".getBytes(StandardCharsets.UTF_8))
+                .withPreviousDictionary(oldDictionary)
+                .build();
+        assertThat(rotated.decode(encoded), is(value));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownDictionaryTest() throws IOException {
+        byte[] encoded = CellCodec.define().withDictionary(dictionary()).build()
+                .encode(json(entry(1).getParticipantObjects()));
+
+        CellCodec.plain().decode(encoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptValueTest() throws IOException {
+        CellCodec codec = CellCodec.define().withDictionary(dictionary()).build();
+        byte[] encoded = codec.encode(json(entry(1).getParticipantObjects()));
+
+        codec.decode(Arrays.copyOf(encoded, encoded.length - 4));
+    }
+
+    @Test
+    public void implausibleLengthTest() throws IOException {
+        CellCodec codec = CellCodec.define().withDictionary(dictionary()).withMaxDecodedSize(1024).build();
+        byte[] value = json(entry(1).getParticipantObjects());
+        byte[] encoded = codec.encode(value);
+        assertThat(codec.decode(encoded), is(value));
+
+        // Larger than the configured maximum.
+        byte[] tooLarge = encoded.clone();
+        CellCodec.writeInt(tooLarge, 1, 1025);
+        assertDecodeFails(codec, tooLarge, "maximum decoded size");
+
+        // More than the compressed bytes can expand to.
+        byte[] header = new byte[CellCodec.HEADER_LENGTH + 1];
+        header[0] = CellCodec.DEFLATED_MARKER;
+        CellCodec.writeInt(header, 1, Integer.MAX_VALUE);
+        assertDecodeFails(CellCodec.plain(), header, "maximum decoded size");
+        CellCodec.writeInt(header, 1, CellCodec.MAX_DEFLATE_RATIO + 1);
+        assertDecodeFails(CellCodec.plain(), header, "cannot produce");
+    }
+
+    static void assertDecodeFails(CellCodec codec, byte[] value, String message) {
+        try {
+            codec.decode(value);
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage().contains(message), is(true));
+        }
+    }
+
+    @Test
+    public void writeAndReadTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        CellCodec codec = CellCodec.define().withDictionary(dictionary()).build();
+
+        AtomicLong uid = new AtomicLong();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                hBase.putConsumer(), logEntry -> TABLE, () -> "a", uid::getAndIncrement
+        );
+        // Older entries were written uncompressed.
+        for (int i = 0; i < 10; i++) {
+            if (i == 5) adapter.setCellCodec(codec);
+            adapter.record(entry(i));
+        }
+
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        reader.setCellCodec(codec);
+        List<LogEntry> logEntries = reader.defineQuery().execute();
+
+        assertThat(logEntries.size(), is(10));
+        for (LogEntry logEntry : logEntries) {
+            int i = (int) (logEntry.getEvent().getHappenedAt() - 1000L);
+            LogEntry expected = entry(i);
+            assertThat(logEntry.getRequestor(), is(expected.getRequestor()));
+            assertThat(logEntry.getParticipantObjects(), is(expected.getParticipantObjects()));
+        }
+
+        // Without the dictionary the compressed entries cannot be read.
+        HBaseReader plainReader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        List<LogEntry> readable = plainReader.defineQuery().execute();
+        assertThat(readable.size(), is(not(10)));
+    }
+
+    @Test
+    public void mixedEncodingTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+
+        AtomicLong uid = new AtomicLong();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                hBase.putConsumer(), logEntry -> TABLE, () -> "a", uid::getAndIncrement
+        );
+        CodeSystemDictionary dictionary = CodeSystemDictionary.define()
+                .withCodeSystem("events")
+                .withReference(new CodeReference("roles", "administrator"))
+                .build();
+        // Older entries were written as JSON, newer ones as Smile, then compressed as well, and the newest in the
+        // binary encoding.
+        for (int i = 0; i < 16; i++) {
+            if (i == 4) adapter.setEncoding(EntryEncoding.SMILE);
+            if (i == 8) adapter.setCellCodec(CellCodec.define().withMinimumSize(16).build());
+            if (i == 12) {
+                adapter.setEncoding(EntryEncoding.BINARY);
+                adapter.setCodeSystemDictionary(dictionary);
+            }
+            adapter.record(entry(i));
+        }
+
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        reader.setEntryCodecs(EntryCodecs.getDefault().withDictionary(dictionary));
+        List<LogEntry> logEntries = reader.defineQuery().execute();
+
+        assertThat(logEntries.size(), is(16));
+        for (LogEntry logEntry : logEntries) {
+            int i = (int) (logEntry.getEvent().getHappenedAt() - 1000L);
+            LogEntry expected = entry(i);
+            assertThat(logEntry.getEvent().getId(), is(expected.getEvent().getId()));
+            assertThat(logEntry.getRequestor(), is(expected.getRequestor()));
+            assertThat(logEntry.getParticipantObjects(), is(expected.getParticipantObjects()));
+        }
+    }
+
+    static byte[] dictionary() {
+        CellDictionaryTrainer trainer = new CellDictionaryTrainer(4096);
+        for (int i = 0; i < 50; i++) {
+            LogEntry logEntry = entry(i * 7);
+            trainer.addSample(json(logEntry.getEvent()));
+            trainer.addSample(json(logEntry.getRequestor()));
+            trainer.addSample(json(logEntry.getParticipantObjects()));
+        }
+        return trainer.train();
+    }
+
+    static byte[] json(Object value) {
+        ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static LogEntry entry(int i) {
+        return new LogEntry(
+                new Event(new CodeReference("events", "event-" + (i % 5)), EventAction.READ, 1000L + i,
+                        EventOutcome.SUCCESS),
+                new Principal("user-" + i, Collections.singletonList("alt-" + i), "User " + i,
+                        Collections.singletonList(new CodeReference("roles", "administrator"))),
+                null,
+                null,
+                null,
+                null,
+                Collections.singletonList(new ParticipantObject(
+                        "document-" + i,
+                        new CodeReference("object-types", "document"),
+                        new CodeReference("object-id-types", "internal-id"),
+                        new CodeReference("object-roles", "report"),
+                        new CodeReference("life-cycles", "access"),
+                        null,
+                        "Quarterly report " + i,
+                        null
+                )),
+                null
+        );
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class CellDictionaryTrainerTest {
+    @Test
+    public void tokenizeTest() {
+        assertThat(
+                CellDictionaryTrainer.tokenize("{\"cs\":\"IETF/RFC3881.5.1.2\",\"code\":\"R\"}"),
+                is(Arrays.asList("{", "\"cs", "\":", "\"IETF/RFC3881.5.1.2", "\",", "\"code", "\":", "\"R", "\"}"))
+        );
+    }
+
+    @Test
+    public void trainTest() {
+        CellDictionaryTrainer trainer = new CellDictionaryTrainer(1024);
+        for (int i = 0; i < 100; i++) {
+            trainer.addSample(bytes("{\"cs\":\"IETF/RFC3881.5.1.2\",\"code\":\"R\",\"id\":\"" + i + "\"}"));
+            if (i % 10 == 0) trainer.addSample(bytes("{\"name\":\"rare\"}"));
+        }
+        assertThat(trainer.getSampleCount(), is(110));
+
+        String dictionary = new String(trainer.train(), StandardCharsets.ISO_8859_1);
+        assertThat(dictionary, containsString("IETF/RFC3881.5.1.2"));
+        assertThat(dictionary, containsString("\"rare"));
+        // The most common strings go last, where deflate reaches them most cheaply.
+        assertThat(dictionary.lastIndexOf("IETF/RFC3881.5.1.2") > dictionary.indexOf("\"rare"), is(true));
+        // Unique values are left out.
+        assertThat(dictionary, not(containsString("\"42")));
+    }
+
+    @Test
+    public void maxSizeTest() {
+        CellDictionaryTrainer trainer = new CellDictionaryTrainer(16);
+        for (int i = 0; i < 10; i++) {
+            trainer.addSample(bytes("{\"cs\":\"IETF/RFC3881.5.1.2\",\"code\":\"R\"}"));
+        }
+        assertThat(trainer.train().length, is(lessThanOrEqualTo(16)));
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+import org.lable.rfc3881.auditlogger.serialization.EntryEncoding;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.apache.hadoop.hbase.util.Bytes.toBytes;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CellTemplatesTest {
+    static final AuditSource SOURCE =
+            new AuditSource("servercluster1", "tomcat1", false, AuditSourceType.WEB_SERVER_PROCESS);
+    static final NetworkAccessPoint ACCESS_POINT = NetworkAccessPoint.byIPAddress("127.0.0.1");
+    static final byte[] SOURCE_QUALIFIER = toBytes("source");
+    static final byte[] REQUESTOR_QUALIFIER = toBytes("requestor");
+
+    @Test
+    public void sameCellsTest() throws IOException {
+        HBaseAdapter plain = adapter();
+        HBaseAdapter templated = adapter();
+        templated.setCellTemplates(templates());
+
+        for (int i = 0; i < 10; i++) {
+            LogEntry logEntry = entry(i, i % 3);
+            // Twice, to compare both freshly made and cached cells.
+            assertThat(cells(templated.toPut(logEntry)), is(cells(plain.toPut(logEntry))));
+            assertThat(cells(templated.toPut(logEntry)), is(cells(plain.toPut(logEntry))));
+        }
+    }
+
+    @Test
+    public void cellsAreReusedTest() throws IOException {
+        CellTemplates templates = templates();
+        EntryCodecs codecs = EntryCodecs.getDefault();
+        CellCodec cellCodec = CellCodec.plain();
+
+        CellTemplates.Template source = templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec);
+        assertThat(templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec), is(sameInstance(source)));
+        // Equal, but not the same instance.
+        AuditSource equalSource =
+                new AuditSource("servercluster1", "tomcat1", false, AuditSourceType.WEB_SERVER_PROCESS);
+        assertThat(templates.cellFor(SOURCE_QUALIFIER, equalSource, codecs, cellCodec), is(sameInstance(source)));
+
+        CellTemplates.Template requestor =
+                templates.cellFor(REQUESTOR_QUALIFIER, new Principal("bob"), codecs, cellCodec);
+        assertThat(templates.cellFor(REQUESTOR_QUALIFIER, new Principal("bob"), codecs, cellCodec),
+                is(sameInstance(requestor)));
+        assertThat(templates.cacheSize(), is(1));
+
+        // Other audit sources and participant objects are not cached.
+        AuditSource otherSource = new AuditSource("servercluster1", "tomcat2", AuditSourceType.WEB_SERVER_PROCESS);
+        assertThat(templates.cellFor(SOURCE_QUALIFIER, otherSource, codecs, cellCodec), is(nullValue()));
+        assertThat(templates.cellFor(toBytes("object"), object(1), codecs, cellCodec), is(nullValue()));
+    }
+
+    @Test
+    public void reconfigurationTest() throws IOException {
+        CellTemplates templates = templates();
+        EntryCodecs codecs = EntryCodecs.getDefault();
+        CellCodec cellCodec = CellCodec.plain();
+
+        CellTemplates.Template json = templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec);
+        CellTemplates.Template smile =
+                templates.cellFor(SOURCE_QUALIFIER, SOURCE, EntryCodecs.getDefault(EntryEncoding.SMILE), cellCodec);
+        assertThat(EntryEncoding.detect(json.value), is(EntryEncoding.JSON));
+        assertThat(EntryEncoding.detect(smile.value), is(EntryEncoding.SMILE));
+
+        CellCodec deflating = CellCodec.define().withMinimumSize(0).build();
+        CellTemplates.Template deflated = templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, deflating);
+        assertThat(deflated.value[0], is(CellCodec.DEFLATED_MARKER));
+
+        // Through the adapter.
+        HBaseAdapter templated = adapter();
+        templated.setCellTemplates(templates);
+        HBaseAdapter plain = adapter();
+        assertThat(cells(templated.toPut(entry(1, 1))), is(cells(plain.toPut(entry(1, 1)))));
+        templated.setEncoding(EntryEncoding.SMILE);
+        plain.setEncoding(EntryEncoding.SMILE);
+        assertThat(cells(templated.toPut(entry(2, 1))), is(cells(plain.toPut(entry(2, 1)))));
+        templated.setCellCodec(deflating);
+        plain.setCellCodec(deflating);
+        assertThat(cells(templated.toPut(entry(3, 1))), is(cells(plain.toPut(entry(3, 1)))));
+    }
+
+    @Test
+    public void boundedCacheTest() throws IOException {
+        CellTemplates templates = CellTemplates.define().withTemplate(SOURCE).withCacheCapacity(4).build();
+        EntryCodecs codecs = EntryCodecs.getDefault();
+        CellCodec cellCodec = CellCodec.plain();
+
+        CellTemplates.Template source = templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec);
+        for (int i = 0; i < 10; i++) {
+            templates.cellFor(REQUESTOR_QUALIFIER, new Principal("user-" + i), codecs, cellCodec);
+            assertThat(templates.cacheSize() <= 4, is(true));
+        }
+        // Templates outlast the principals.
+        assertThat(templates.cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec), is(sameInstance(source)));
+    }
+
+    @Test
+    public void noneTest() throws IOException {
+        EntryCodecs codecs = EntryCodecs.getDefault();
+        CellCodec cellCodec = CellCodec.plain();
+
+        assertThat(CellTemplates.none().cellFor(SOURCE_QUALIFIER, SOURCE, codecs, cellCodec), is(nullValue()));
+        assertThat(CellTemplates.none().cellFor(REQUESTOR_QUALIFIER, new Principal("bob"), codecs, cellCodec),
+                is(nullValue()));
+        CellTemplates templatesOnly = CellTemplates.define().withTemplate(SOURCE).withCacheCapacity(0).build();
+        assertThat(templatesOnly.cellFor(REQUESTOR_QUALIFIER, new Principal("bob"), codecs, cellCodec),
+                is(nullValue()));
+    }
+
+    static HBaseAdapter adapter() {
+        return HBaseAdapter.withMultiPutConsumer((tableName, puts) -> {}, null, () -> "a", () -> 5L);
+    }
+
+    static CellTemplates templates() {
+        return CellTemplates.define()
+                .withTemplate(SOURCE)
+                .withTemplate(ACCESS_POINT)
+                .build();
+    }
+
+    static LogEntry entry(int i, int user) {
+        return new LogEntry(
+                event(i),
+                new Principal("user-" + user),
+                null,
+                null,
+                ACCESS_POINT,
+                Collections.singletonList(SOURCE),
+                Collections.singletonList(object(i)),
+                null
+        );
+    }
+
+    static ParticipantObject object(int i) {
+        return new ParticipantObject(
+                "object-" + i,
+                ParticipantObjectType.PERSON,
+                ParticipantObjectIDType.ACCOUNT_NUMBER,
+                ParticipantObjectTypeRole.USER,
+                DataLifeCycle.ACCESS_OR_USE,
+                null,
+                "Object " + i,
+                null
+        );
+    }
+
+    static Event event(int i) {
+        return new Event(new CodeReference("events", "view"), EventAction.READ, 1000L + i, EventOutcome.SUCCESS);
+    }
+
+    static List<String> cells(Put put) {
+        List<String> cells = new ArrayList<>();
+        for (List<Cell> family : put.getFamilyCellMap().values()) {
+            for (Cell cell : family) {
+                cells.add(Bytes.toStringBinary(CellUtil.cloneQualifier(cell)) + "=" +
+                        Bytes.toStringBinary(CellUtil.cloneValue(cell)));
+            }
+        }
+        return cells;
+    }
+}
@@ -26,11 +26,14 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.lable.codesystem.codereference.CodeReference;
+import org.lable.codesystem.codereference.Identifiable;
+import org.lable.oss.bitsandbytes.ByteConversion;
 import org.lable.oss.bitsandbytes.ByteMangler;
 import org.lable.rfc3881.auditlogger.api.*;
 import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -39,6 +42,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.NULL_BYTE;
 import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.columnQualifierSuffixFor;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.rowKeyFor;
 
 public class HBaseAdapterTest {
     Random random = new Random();
@@ -55,6 +59,165 @@ public class HBaseAdapterTest {
         assertThat(suffix, is(ByteMangler.add(asBytes, NULL_BYTE, asBytes)));
     }
 
+    @Test
+    public void columnQualifierSuffixForNullPartsTest() {
+        // Skipped null parts still leave their separator behind, as trailing null bytes.
+        AuditSource source = new AuditSource(null, "a", true);
+        assertThat(columnQualifierSuffixFor(source), is(new byte[]{'a', 0x00}));
+
+        Identifiable allNull = () -> Arrays.asList(null, null, null);
+        assertThat(columnQualifierSuffixFor(allNull), is(new byte[]{0x00, 0x00}));
+    }
+
+    @Test
+    public void columnQualifierSuffixForUtf8Test() {
+        // Supplementary characters, and an unpaired surrogate.
+        Identifiable identifiable = () -> Arrays.asList("\uD83D\uDE00 ü €", "x\uD83D");
+        byte[] expected = ByteMangler.add(toBytes("\uD83D\uDE00 ü €"), NULL_BYTE, toBytes("x\uD83D"));
+        assertThat(columnQualifierSuffixFor(identifiable), is(expected));
+    }
+
+    @Test
+    public void rowKeyForTest() {
+        for (long happenedAt : new long[]{0L, 1L, -1L, 1630008292944L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            Event.EventId eventId = new Event.EventId(new CodeReference("cs", "cödé"), happenedAt, 42L);
+            byte[] expected = Bytes.add(
+                    ByteMangler.flip(ByteMangler.flipTheFirstBit(toBytes(happenedAt))),
+                    ByteConversion.fromLong(42L),
+                    Bytes.add(toBytes("cs"), NULL_BYTE, toBytes("cödé"))
+            );
+            assertThat(rowKeyFor(eventId), is(expected));
+        }
+    }
+
+    @Test
+    public void toPutTest() throws IOException {
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer((tableName, puts) -> {}, null, () -> "a", () -> 5L);
+        LogEntry logEntry = new LogEntry(
+                randomEvent(1000L),
+                new Principal("bob"),
+                null,
+                null,
+                null,
+                Collections.singletonList(new AuditSource("site", "server", false)),
+                null,
+                null
+        );
+
+        Put put = adapter.toPut(logEntry);
+
+        assertThat(put.has(toBytes("a"), toBytes("event")), is(true));
+        assertThat(put.has(toBytes("a"), ByteMangler.add(toBytes("requestor"), NULL_BYTE, toBytes("bob"))), is(true));
+        assertThat(put.has(toBytes("a"), ByteMangler.add(
+                HBaseAdapter.INCOMPLETE_MARKER, toBytes("source"), NULL_BYTE, toBytes("site"), NULL_BYTE, toBytes("server")
+        )), is(true));
+    }
+
+    @Test
+    public void recordAllGroupsPutsPerTableTest() throws IOException {
+        TableName tableA = TableName.valueOf("ns", "a");
+        TableName tableB = TableName.valueOf("ns", "b");
+        Map<TableName, List<List<Put>>> calls = new HashMap<>();
+        AtomicLong uid = new AtomicLong();
+
+        AuditLogAdapter auditLogAdapter = HBaseAdapter.withMultiPutConsumer(
+                (tableName, puts) -> calls.computeIfAbsent(tableName, ignored -> new ArrayList<>()).add(puts),
+                logEntry -> logEntry.getEvent().getAction().equals(EventAction.READ.toCodeReference())
+                        ? tableA
+                        : tableB,
+                () -> "a",
+                uid::getAndIncrement
+        );
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            logEntries.add(new LogEntry(
+                    new Event(
+                            new CodeReference("events", "e"),
+                            i < 7 ? EventAction.READ : EventAction.UPDATE,
+                            1000L + i,
+                            EventOutcome.SUCCESS
+                    ),
+                    randomPrincipal(),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null
+            ));
+        }
+
+        auditLogAdapter.recordAll(logEntries);
+
+        assertThat(calls.get(tableA).size(), is(1));
+        assertThat(calls.get(tableA).get(0).size(), is(7));
+        assertThat(calls.get(tableB).size(), is(1));
+        assertThat(calls.get(tableB).get(0).size(), is(3));
+
+        // Every entry has been assigned a unique ID.
+        for (LogEntry logEntry : logEntries) {
+            assertThat(logEntry.getEvent() instanceof UniqueEvent, is(true));
+        }
+    }
+
+    @Test
+    public void recordAllPartialFailureTest() throws IOException {
+        TableName tableA = TableName.valueOf("ns", "a");
+        TableName tableB = TableName.valueOf("ns", "b");
+        Map<TableName, List<Put>> written = new HashMap<>();
+        AtomicLong uid = new AtomicLong();
+
+        AuditLogAdapter auditLogAdapter = HBaseAdapter.withMultiPutConsumer(
+                (tableName, puts) -> {
+                    if (tableName.equals(tableA)) throw new IllegalStateException("Table a is unavailable.");
+                    written.put(tableName, puts);
+                },
+                logEntry -> {
+                    if (logEntry.getEvent().getHappenedAt() == 1003L) {
+                        throw new IllegalArgumentException("No table for this entry.");
+                    }
+                    return logEntry.getEvent().getAction().equals(EventAction.READ.toCodeReference())
+                            ? tableA
+                            : tableB;
+                },
+                () -> "a",
+                uid::getAndIncrement
+        );
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            logEntries.add(new LogEntry(
+                    new Event(
+                            new CodeReference("events", "e"),
+                            i % 2 == 0 ? EventAction.READ : EventAction.UPDATE,
+                            1000L + i,
+                            EventOutcome.SUCCESS
+                    ),
+                    randomPrincipal(),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null
+            ));
+        }
+
+        try {
+            auditLogAdapter.recordAll(logEntries);
+            throw new AssertionError("Expected a PartialFailureException.");
+        } catch (PartialFailureException e) {
+            // The entries for table a, and the entry no table could be decided for; in the order offered.
+            assertThat(e.getFailedEntries(), is(Arrays.asList(
+                    logEntries.get(0), logEntries.get(2), logEntries.get(3), logEntries.get(4)
+            )));
+            assertThat(e.getCause() instanceof IllegalArgumentException, is(true));
+            assertThat(e.getCause().getSuppressed().length, is(1));
+        }
+        assertThat(written.get(tableB).size(), is(2));
+    }
+
     @Test
     @Ignore
     public void cursorTest() throws IOException {
@@ -308,6 +471,48 @@ public class HBaseAdapterTest {
         }
     }
 
+    @Test
+    @Ignore
+    public void toPutBenchmark() throws IOException {
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer((tableName, puts) -> {}, null, () -> "a", () -> 5L);
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            logEntries.add(new LogEntry(
+                    randomEvent(1000L + i),
+                    randomPrincipal(),
+                    null,
+                    null,
+                    NetworkAccessPoint.byIPAddress("127.0.0.1", false),
+                    Arrays.asList(
+                            new AuditSource("servercluster1", "tomcat1", false, AuditSourceType.WEB_SERVER_PROCESS),
+                            new AuditSource("servercluster1", "authserver", AuditSourceType.SECURITY_SERVER)
+                    ),
+                    Collections.singletonList(randomClient()),
+                    null,
+                    new CodeReference("version", "1", "1")
+            ));
+        }
+
+        for (int round = 0; round < 20; round++) {
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (LogEntry logEntry : logEntries) {
+                adapter.toPut(logEntry);
+            }
+            long took = System.nanoTime() - start;
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            System.out.printf("Round %2d: %,8.0f entries/s, %,6d bytes allocated per entry.%n",
+                    round,
+                    logEntries.size() / (took / 1e9),
+                    allocated / logEntries.size());
+        }
+    }
+
     private ParticipantObject randomClient() {
         return new ParticipantObject(
                 "xxx-xxx-prod//" + random8idIsh(),
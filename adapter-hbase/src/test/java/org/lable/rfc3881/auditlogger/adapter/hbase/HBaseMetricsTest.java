@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.api.metrics.AuditLogMetrics.Stage;
+import org.lable.rfc3881.auditlogger.api.metrics.InMemoryAuditLogMetrics;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.fail;
+
+public class HBaseMetricsTest {
+    static final TableName TABLE = TableName.valueOf("audit", "log");
+
+    @Test
+    public void writeMetricsTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        InMemoryAuditLogMetrics metrics = new InMemoryAuditLogMetrics();
+        HBaseAdapter adapter = adapter(hBase);
+        adapter.setMetrics(metrics);
+
+        for (int i = 0; i < 10; i++) {
+            adapter.record(entry(i));
+        }
+        adapter.recordAll(Arrays.asList(entry(10), entry(11)));
+
+        assertThat(metrics.getLatency(Stage.ROW_KEY).getCount(), is(12L));
+        assertThat(metrics.getLatency(Stage.SERIALIZE).getCount(), is(12L));
+        // One put per record call, one for the single table in the recordAll call.
+        assertThat(metrics.getLatency(Stage.PUT).getCount(), is(11L));
+        // Event, requestor, and the (empty) list of details.
+        assertThat(metrics.getCellsPerRow().getMax(), is(3L));
+        assertThat(metrics.getEntrySize().getMin(), is(greaterThan(0L)));
+        assertThat(metrics.getFailures(Stage.PUT), is(0L));
+    }
+
+    @Test
+    public void putFailureTest() throws IOException {
+        InMemoryAuditLogMetrics metrics = new InMemoryAuditLogMetrics();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                (tableName, puts) -> {
+                    throw new UncheckedIOException(new IOException("Region unavailable."));
+                },
+                logEntry -> TABLE,
+                () -> "a",
+                new AtomicLong()::getAndIncrement
+        );
+        adapter.setMetrics(metrics);
+
+        try {
+            adapter.record(entry(0));
+            fail("Expected an exception.");
+        } catch (UncheckedIOException e) {
+            assertThat(metrics.getFailures(Stage.PUT), is(1L));
+        }
+    }
+
+    @Test
+    public void readMetricsTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseAdapter adapter = adapter(hBase);
+        for (int i = 0; i < 10; i++) {
+            adapter.record(entry(i));
+        }
+        // A row that cannot be parsed.
+        Put broken = new Put(HBaseAdapter.rowKeyFor(new Event.EventId(new CodeReference("events", "e"), 999L, 99L)));
+        broken.addColumn(Bytes.toBytes("a"), Bytes.toBytes("event"), Bytes.toBytes("{not json"));
+        hBase.put(TABLE, broken);
+
+        InMemoryAuditLogMetrics metrics = new InMemoryAuditLogMetrics();
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        reader.setMetrics(metrics);
+
+        assertThat(reader.defineQuery().execute().size(), is(10));
+
+        assertThat(metrics.getLatency(Stage.QUERY).getCount(), is(1L));
+        assertThat(metrics.getLatency(Stage.SCAN_OPEN).getCount(), is(1L));
+        assertThat(metrics.getLatency(Stage.FIRST_ROW).getCount(), is(1L));
+        assertThat(metrics.getLatency(Stage.DECODE).getCount(), is(11L));
+        assertThat(metrics.getFailures(Stage.DECODE), is(1L));
+        assertThat(metrics.getRowsScanned(), is(11L));
+        assertThat(metrics.getRowsReturned(), is(10L));
+
+        reader.findFirst().execute();
+        assertThat(metrics.getLatency(Stage.QUERY).getCount(), is(2L));
+    }
+
+    static HBaseAdapter adapter(InMemoryHBase hBase) {
+        AtomicLong uid = new AtomicLong();
+        return HBaseAdapter.withMultiPutConsumer(hBase.putConsumer(), logEntry -> TABLE, () -> "a", uid::getAndIncrement);
+    }
+
+    static LogEntry entry(int i) {
+        return new LogEntry(
+                new Event(new CodeReference("events", "e"), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                new Principal("bob"),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
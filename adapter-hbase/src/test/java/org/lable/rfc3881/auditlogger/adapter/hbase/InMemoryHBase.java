@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Minimal stand-in for a HBase cluster, for unit tests. Scans honour the start and stop rows and the scan direction;
+ * filters are ignored. Tables consist of a single region, unless split. Scanning a table deleted through the admin
+ * throws a {@link TableNotFoundException}.
+ */
+class InMemoryHBase {
+    final Map<TableName, NavigableMap<byte[], Result>> tables = new ConcurrentHashMap<>();
+    final List<ResultScanner> scanners = new CopyOnWriteArrayList<>();
+    final Map<TableName, byte[][]> regionStartKeys = new ConcurrentHashMap<>();
+    final Set<TableName> deleted = ConcurrentHashMap.newKeySet();
+    final Connection connection;
+
+    InMemoryHBase() throws IOException {
+        connection = mock(Connection.class);
+        when(connection.getConfiguration()).thenReturn(new Configuration(false));
+        when(connection.getTable(any(TableName.class))).thenAnswer(invocation -> {
+            TableName tableName = invocation.getArgument(0);
+            return tableFor(tableName);
+        });
+        when(connection.getAdmin()).thenAnswer(invocation -> admin());
+        when(connection.getRegionLocator(any(TableName.class))).thenAnswer(invocation -> {
+            TableName tableName = invocation.getArgument(0);
+            RegionLocator regionLocator = mock(RegionLocator.class);
+            when(regionLocator.getStartKeys()).thenAnswer(ignored ->
+                    regionStartKeys.getOrDefault(tableName, new byte[][]{HConstants.EMPTY_START_ROW})
+            );
+            return regionLocator;
+        });
+    }
+
+    /**
+     * Split a table into regions.
+     *
+     * @param tableName Table.
+     * @param splitKeys Start keys of the regions following the first, in order.
+     */
+    void split(TableName tableName, byte[]... splitKeys) {
+        byte[][] startKeys = new byte[splitKeys.length + 1][];
+        startKeys[0] = HConstants.EMPTY_START_ROW;
+        System.arraycopy(splitKeys, 0, startKeys, 1, splitKeys.length);
+        regionStartKeys.put(tableName, startKeys);
+    }
+
+    Admin admin() throws IOException {
+        Admin admin = mock(Admin.class);
+        when(admin.listTableNames(any(Pattern.class))).thenAnswer(invocation -> {
+            Pattern pattern = invocation.getArgument(0);
+            return tables.keySet().stream()
+                    .filter(tableName -> pattern.matcher(tableName.getNameAsString()).matches())
+                    .toArray(TableName[]::new);
+        });
+        when(admin.tableExists(any(TableName.class)))
+                .thenAnswer(invocation -> tables.containsKey(invocation.<TableName>getArgument(0)));
+        when(admin.isTableEnabled(any(TableName.class))).thenReturn(true);
+        doAnswer(invocation -> {
+            TableName tableName = invocation.<TableDescriptor>getArgument(0).getTableName();
+            deleted.remove(tableName);
+            return rows(tableName);
+        }).when(admin).createTable(any(TableDescriptor.class));
+        doAnswer(invocation -> {
+            TableName tableName = invocation.getArgument(0);
+            deleted.add(tableName);
+            return tables.remove(tableName);
+        }).when(admin).deleteTable(any(TableName.class));
+        return admin;
+    }
+
+    BiConsumer<TableName, List<Put>> putConsumer() {
+        return (tableName, puts) -> puts.forEach(put -> put(tableName, put));
+    }
+
+    void put(TableName tableName, Put put) {
+        List<Cell> cells = new ArrayList<>();
+        put.getFamilyCellMap().values().forEach(cells::addAll);
+        cells.sort(CellComparator.getInstance());
+        rows(tableName).put(put.getRow(), Result.create(cells));
+    }
+
+    NavigableMap<byte[], Result> rows(TableName tableName) {
+        return tables.computeIfAbsent(tableName, ignored -> new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR));
+    }
+
+    Table tableFor(TableName tableName) throws IOException {
+        Table table = mock(Table.class);
+        when(table.getName()).thenReturn(tableName);
+        when(table.getScanner(any(Scan.class))).thenAnswer(invocation -> {
+            Scan scan = invocation.getArgument(0);
+            if (deleted.contains(tableName)) throw new TableNotFoundException(tableName);
+            ResultScanner scanner = scanner(select(rows(tableName), scan));
+            scanners.add(scanner);
+            return scanner;
+        });
+        return table;
+    }
+
+    static List<Result> select(NavigableMap<byte[], Result> rows, Scan scan) {
+        byte[] start = scan.getStartRow();
+        byte[] stop = scan.getStopRow();
+        boolean hasStart = start != null && start.length > 0;
+        boolean hasStop = stop != null && stop.length > 0;
+
+        NavigableMap<byte[], Result> selection = rows;
+        if (scan.isReversed()) {
+            if (hasStart) selection = selection.headMap(start, scan.includeStartRow());
+            if (hasStop) selection = selection.tailMap(stop, scan.includeStopRow());
+            selection = selection.descendingMap();
+        } else {
+            if (hasStart) selection = selection.tailMap(start, scan.includeStartRow());
+            if (hasStop) selection = selection.headMap(stop, scan.includeStopRow());
+        }
+
+        List<Result> results = new ArrayList<>(selection.values());
+        if (scan.getLimit() > 0 && results.size() > scan.getLimit()) {
+            results = results.subList(0, scan.getLimit());
+        }
+        return results;
+    }
+
+    static ResultScanner scanner(List<Result> results) throws IOException {
+        ResultScanner scanner = mock(ResultScanner.class);
+        Iterator<Result> iterator = results.iterator();
+        when(scanner.iterator()).thenReturn(iterator);
+        when(scanner.next()).thenAnswer(invocation -> iterator.hasNext() ? iterator.next() : null);
+        return scanner;
+    }
+}
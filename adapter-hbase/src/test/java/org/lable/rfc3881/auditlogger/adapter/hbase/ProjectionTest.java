@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.MultipleColumnPrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
+import org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQuery;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ProjectionTest {
+    static final TableName TABLE = TableName.valueOf("audit", "log");
+
+    @Test
+    public void scanTest() {
+        byte[] cf = Bytes.toBytes("a");
+        AuditLogQuery query = new AuditLogQuery();
+        assertThat(prefixesOf(HBaseReader.scanFor(RowKeyLayout.unsalted().ranges().get(0), query, cf)), is(nullValue()));
+
+        query.setProjection(EnumSet.of(Field.REQUESTOR));
+        assertThat(
+                prefixesOf(HBaseReader.scanFor(RowKeyLayout.unsalted().ranges().get(0), query, cf)),
+                is(new TreeSet<>(Arrays.asList("event", "X-event", "requestor", "X-requestor")))
+        );
+
+        // Columns inspected by the filters are fetched too.
+        query.setFilter(LogFilter.define().filterOnPrincipalInvolved("bob").build());
+        assertThat(
+                prefixesOf(HBaseReader.scanFor(RowKeyLayout.unsalted().ranges().get(0), query, cf)),
+                is(new TreeSet<>(Arrays.asList(
+                        "event", "X-event", "requestor", "X-requestor", "delegator", "X-delegator",
+                        "principal", "X-principal"
+                )))
+        );
+    }
+
+    @Test
+    public void projectedReadTest() throws IOException {
+        HBaseReader reader = populate(new InMemoryHBase());
+
+        List<LogEntry> all = reader.defineQuery().execute();
+        List<LogEntry> projected = reader.defineQuery().withProjection(Field.REQUESTOR, Field.VERSION).execute();
+        assertThat(projected.size(), is(all.size()));
+
+        for (int i = 0; i < all.size(); i++) {
+            LogEntry full = all.get(i);
+            LogEntry logEntry = projected.get(i);
+            assertThat(logEntry.getEvent(), is(full.getEvent()));
+            assertThat(logEntry.getRequestor(), is(full.getRequestor()));
+            assertThat(logEntry.getVersion(), is(full.getVersion()));
+            assertThat(logEntry.getNetworkAccessPoint(), is(nullValue()));
+            assertThat(logEntry.getAuditSources().isEmpty(), is(true));
+            assertThat(logEntry.getParticipantObjects().isEmpty(), is(true));
+            assertThat(logEntry.getDetails().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void lazyReadTest() throws IOException {
+        HBaseReader reader = populate(new InMemoryHBase());
+
+        List<LogEntry> eager = reader.defineQuery().execute();
+        List<LogEntry> lazy = reader.defineQuery().withLazyDecoding().execute();
+
+        LazyLogEntry first = (LazyLogEntry) lazy.get(0);
+        assertThat(first.isDecoded(Field.PARTICIPANT_OBJECTS), is(false));
+        assertThat(first.getParticipantObjects(), is(eager.get(0).getParticipantObjects()));
+        assertThat(first.isDecoded(Field.PARTICIPANT_OBJECTS), is(true));
+        assertThat(first.isDecoded(Field.DETAILS), is(false));
+
+        assertThat(lazy, is(eager));
+
+        // Lazy and projected.
+        List<LogEntry> both = reader.defineQuery()
+                .withProjection(Field.REQUESTOR)
+                .withLazyDecoding()
+                .execute();
+        assertThat(both.get(0), is(instanceOf(LazyLogEntry.class)));
+        assertThat(both.get(0).getRequestor(), is(eager.get(0).getRequestor()));
+        assertThat(both.get(0).getAuditSources().isEmpty(), is(true));
+    }
+
+    static HBaseReader populate(InMemoryHBase hBase) throws IOException {
+        AtomicLong uid = new AtomicLong();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                hBase.putConsumer(), logEntry -> TABLE, () -> "a", uid::getAndIncrement
+        );
+        for (int i = 0; i < 10; i++) {
+            adapter.record(new LogEntry(
+                    new Event(new CodeReference("events", "e"), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                    new Principal("user-" + i),
+                    null,
+                    null,
+                    NetworkAccessPoint.byIPAddress("127.0.0.1"),
+                    Collections.singletonList(
+                            new AuditSource("cluster", "tomcat1", AuditSourceType.WEB_SERVER_PROCESS)
+                    ),
+                    Collections.singletonList(new ParticipantObject(
+                            "object-" + i,
+                            ParticipantObjectType.PERSON,
+                            ParticipantObjectIDType.ACCOUNT_NUMBER,
+                            ParticipantObjectTypeRole.USER,
+                            DataLifeCycle.ACCESS_OR_USE,
+                            null,
+                            "Object " + i,
+                            null
+                    )),
+                    Collections.singletonList(new Detail(new CodeReference("dt", "d"), "X" + i)),
+                    new CodeReference("version", "1")
+            ));
+        }
+        return new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+    }
+
+    static Set<String> prefixesOf(Scan scan) {
+        if (scan.getFilter() == null) return null;
+        for (Filter filter : ((FilterList) scan.getFilter()).getFilters()) {
+            if (filter instanceof MultipleColumnPrefixFilter) {
+                return Arrays.stream(((MultipleColumnPrefixFilter) filter).getPrefix())
+                        .map(Bytes::toString)
+                        .collect(Collectors.toCollection(TreeSet::new));
+            }
+        }
+        return null;
+    }
+}
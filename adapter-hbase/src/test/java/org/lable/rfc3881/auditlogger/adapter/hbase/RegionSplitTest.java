@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lable.rfc3881.auditlogger.adapter.hbase.HBaseReader.TableRange;
+import org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayout.KeyRange;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.hadoop.hbase.util.Bytes.toBytes;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayoutTest.TABLE;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayoutTest.expected;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayoutTest.populate;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayoutTest.timestamps;
+
+public class RegionSplitTest {
+    @Test
+    public void splitAtTest() throws IOException {
+        TableRange tableRange = new TableRange(TABLE, KeyRange.UNSALTED);
+        byte[][] startKeys = {HConstants.EMPTY_START_ROW, toBytes("d"), toBytes("m")};
+
+        Scan full = new Scan().withStartRow(toBytes("a"), true).withStopRow(toBytes("z"), false);
+        List<TableRange> parts = tableRange.splitAt(startKeys, full);
+        assertThat(parts.size(), is(3));
+        assertThat(rowsOf(parts.get(0).narrow(new Scan(full))), is("[a, d)"));
+        assertThat(rowsOf(parts.get(1).narrow(new Scan(full))), is("[d, m)"));
+        assertThat(rowsOf(parts.get(2).narrow(new Scan(full))), is("[m, z)"));
+
+        // Stopping right at a region boundary.
+        Scan upToM = new Scan().withStartRow(toBytes("a"), true).withStopRow(toBytes("m"), false);
+        assertThat(tableRange.splitAt(startKeys, upToM).size(), is(2));
+        Scan throughM = new Scan().withStartRow(toBytes("a"), true).withStopRow(toBytes("m"), true);
+        assertThat(tableRange.splitAt(startKeys, throughM).size(), is(3));
+
+        // Within a single region.
+        Scan inner = new Scan().withStartRow(toBytes("e"), true).withStopRow(toBytes("f"), false);
+        assertThat(tableRange.splitAt(startKeys, inner), is(List.of(tableRange)));
+
+        // A reversed scan starts at the high end.
+        Scan reversed = new Scan().setReversed(true).withStartRow(toBytes("z"), false).withStopRow(toBytes("a"), true);
+        parts = tableRange.splitAt(startKeys, reversed);
+        assertThat(parts.size(), is(3));
+        assertThat(rowsOf(parts.get(0).narrow(new Scan(reversed))), is("(d, a]"));
+        assertThat(rowsOf(parts.get(2).narrow(new Scan(reversed))), is("(z, m]"));
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+        splitEvery(hBase, 7);
+        reader.setSplitByRegion(true);
+
+        int before = hBase.scanners.size();
+        assertThat(timestamps(reader.defineQuery().execute()), is(expected(100, 0)));
+        // More scanners than the five key ranges of the table.
+        assertThat(hBase.scanners.size() - before > 5, is(true));
+
+        List<Long> between = timestamps(reader.defineQuery()
+                .withFrom(Instant.ofEpochMilli(1020), true)
+                .withTo(Instant.ofEpochMilli(1060), false)
+                .execute());
+        assertThat(between, is(expected(60, 20)));
+
+        // Reversed scan.
+        List<Long> fromOnly = timestamps(reader.defineQuery()
+                .withFrom(Instant.ofEpochMilli(1050), true)
+                .execute());
+        assertThat(fromOnly, is(expected(100, 50)));
+
+        List<Long> toOnly = timestamps(reader.defineQuery()
+                .withTo(Instant.ofEpochMilli(1030), true)
+                .execute());
+        assertThat(toOnly, is(expected(31, 0)));
+    }
+
+    @Test
+    public void limitTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+        splitEvery(hBase, 7);
+        reader.setSplitByRegion(true);
+
+        // Queries with a limit are not split.
+        int before = hBase.scanners.size();
+        assertThat(timestamps(reader.defineQuery().withLimit(10L).execute()), is(expected(100, 90)));
+        assertThat(hBase.scanners.size() - before, is(5));
+
+        List<Long> fromOnly = timestamps(reader.defineQuery()
+                .withFrom(Instant.ofEpochMilli(1050), true)
+                .withLimit(5L)
+                .execute());
+        assertThat(fromOnly, is(expected(55, 50)));
+    }
+
+    @Test
+    public void maxParallelScansTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+        splitEvery(hBase, 3);
+        reader.setSplitByRegion(true);
+        reader.setMaxParallelScans(2);
+
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        try {
+            reader.setScanExecutor(executor);
+            int before = hBase.scanners.size();
+            assertThat(timestamps(reader.defineQuery().execute()), is(expected(100, 0)));
+            assertThat(hBase.scanners.size() - before > 30, is(true));
+            // All key ranges were scanned by two workers.
+            assertThat(executor.getTaskCount(), is(2L));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxParallelScansInvalidTest() throws IOException {
+        populate(new InMemoryHBase()).setMaxParallelScans(0);
+    }
+
+    /**
+     * Split the table at every n-th row.
+     */
+    static void splitEvery(InMemoryHBase hBase, int n) {
+        List<byte[]> splitKeys = new ArrayList<>();
+        int i = 0;
+        for (byte[] row : hBase.rows(TABLE).keySet()) {
+            if (i++ % n == n - 1) splitKeys.add(row);
+        }
+        hBase.split(TABLE, splitKeys.toArray(new byte[0][]));
+    }
+
+    /**
+     * @return The start and stop rows of a scan, with brackets marking them inclusive and parentheses exclusive.
+     */
+    static String rowsOf(Scan scan) {
+        return (scan.includeStartRow() ? "[" : "(") + Bytes.toString(scan.getStartRow()) + ", "
+                + Bytes.toString(scan.getStopRow()) + (scan.includeStopRow() ? "]" : ")");
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.oss.bitsandbytes.ByteComparison;
+import org.lable.oss.bitsandbytes.ByteMangler;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+import org.lable.rfc3881.auditlogger.serialization.EntryCodecs;
+import org.lable.rfc3881.auditlogger.serialization.ObjectMapperFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.apache.hadoop.hbase.util.Bytes.toBytes;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RowDecoderTest {
+    static final byte[] CF = toBytes("a");
+    static final EntryCodecs CODECS = EntryCodecs.getDefault();
+
+    @Test
+    public void decodeTest() throws IOException {
+        LogEntry logEntry = logEntry(3);
+        Result result = toResult(logEntry);
+
+        RowDecoder decoder = new RowDecoder(CODECS, CellCodec.plain(), result, CF);
+        assertThat(decoder.uid(), is(42L));
+        assertThat(UniqueEvent.fromEvent(decoder.event(), decoder.uid()), is(logEntry.getEvent()));
+        assertThat(decoder.decode(Field.REQUESTOR), is(logEntry.getRequestor()));
+        assertThat(decoder.decode(Field.DELEGATOR), is(nullValue()));
+        assertThat(decoder.decode(Field.PARTICIPATING_PRINCIPALS), is(logEntry.getParticipatingPrincipals()));
+        assertThat(decoder.decode(Field.NETWORK_ACCESS_POINT), is(logEntry.getNetworkAccessPoint()));
+        // Stored in a column marked as incomplete.
+        assertThat(decoder.decode(Field.AUDIT_SOURCES), is(logEntry.getAuditSources()));
+        assertThat(decoder.decode(Field.PARTICIPANT_OBJECTS), is(logEntry.getParticipantObjects()));
+        assertThat(decoder.decode(Field.DETAILS), is(logEntry.getDetails()));
+        assertThat(decoder.decode(Field.VERSION), is(logEntry.getVersion()));
+
+        Optional<LogEntry> parsed = HBaseReader.parseEntry(CODECS, CellCodec.plain(), result, CF);
+        assertThat(parsed.isPresent(), is(true));
+        assertThat(parsed.get(), is(logEntry));
+    }
+
+    @Test
+    public void otherColumnsTest() throws IOException {
+        LogEntry logEntry = logEntry(1);
+        Result result = toResult(logEntry);
+
+        List<Cell> cells = new ArrayList<>(Arrays.asList(result.rawCells()));
+        byte[] row = result.getRow();
+        // Unknown columns, columns of another family, and columns that merely share a first byte are ignored.
+        cells.add(new KeyValue(row, CF, toBytes("dx"), 1L, toBytes("?")));
+        cells.add(new KeyValue(row, CF, toBytes("zzz"), 1L, toBytes("?")));
+        cells.add(new KeyValue(row, CF, toBytes("X-"), 1L, toBytes("?")));
+        cells.add(new KeyValue(row, CF, toBytes("X-details"), 1L, toBytes("?")));
+        cells.add(new KeyValue(row, toBytes("b"), toBytes("requestor"), 1L, toBytes("?")));
+        // An older version of a column is ignored.
+        for (Cell cell : result.rawCells()) {
+            if (RowDecoder.fieldOf(cell) == Field.VERSION) {
+                cells.add(new KeyValue(row, CF, CellUtil.cloneQualifier(cell), 0L, toBytes("?")));
+            }
+        }
+        cells.sort(CellComparator.getInstance());
+
+        RowDecoder decoder = new RowDecoder(CODECS, CellCodec.plain(), Result.create(cells), CF);
+        assertThat(UniqueEvent.fromEvent(decoder.event(), decoder.uid()), is(logEntry.getEvent()));
+        assertThat(decoder.decode(Field.REQUESTOR), is(logEntry.getRequestor()));
+        assertThat(decoder.decode(Field.DELEGATOR), is(nullValue()));
+        assertThat(decoder.decode(Field.DETAILS), is(logEntry.getDetails()));
+        assertThat(decoder.decode(Field.VERSION), is(logEntry.getVersion()));
+        assertThat(decoder.decode(Field.PARTICIPANT_OBJECTS), is(logEntry.getParticipantObjects()));
+
+        assertThat(RowDecoder.fieldOf(new KeyValue(row, CF, toBytes("X-object\0x"), toBytes("?"))),
+                is(Field.PARTICIPANT_OBJECTS));
+        assertThat(RowDecoder.fieldOf(new KeyValue(row, CF, toBytes("details"), toBytes("?"))), is(Field.DETAILS));
+        assertThat(RowDecoder.fieldOf(new KeyValue(row, CF, toBytes("detail"), toBytes("?"))), is(nullValue()));
+    }
+
+    @Test
+    public void noEventTest() throws IOException {
+        Result result = toResult(logEntry(1));
+        List<Cell> cells = new ArrayList<>();
+        for (Cell cell : result.rawCells()) {
+            if (RowDecoder.fieldOf(cell) != Field.EVENT) cells.add(cell);
+        }
+
+        assertThat(new RowDecoder(CODECS, CellCodec.plain(), Result.create(cells), CF).event(), is(nullValue()));
+        assertThat(HBaseReader.parseEntry(CODECS, CellCodec.plain(), Result.create(cells), CF).isPresent(), is(false));
+    }
+
+    @Test
+    public void mapperReadersAreReusedTest() throws IOException {
+        ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+        EntryCodecs codecs = HBaseReader.entryCodecsFor(objectMapper);
+        assertThat(codecs.getObjectMapper(), is(sameInstance(objectMapper)));
+        assertThat(HBaseReader.entryCodecsFor(objectMapper), is(sameInstance(codecs)));
+        assertThat(HBaseReader.entryCodecsFor(null), is(sameInstance(EntryCodecs.getDefault())));
+
+        LogEntry logEntry = logEntry(2);
+        @SuppressWarnings("deprecation")
+        Optional<LogEntry> parsed = HBaseReader.parseEntry(objectMapper, CellCodec.plain(), toResult(logEntry), CF);
+        assertThat(parsed.get().getRequestor(), is(logEntry.getRequestor()));
+    }
+
+    @Ignore
+    @Test
+    public void benchmark() throws IOException {
+        Result result = toResult(logEntry(500));
+        System.out.printf("%d cells per row%n", result.size());
+
+        for (int round = 0; round < 4; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 2_000; i++) {
+                HBaseReader.parseEntry(CODECS, CellCodec.plain(), result, CF);
+            }
+            long singlePass = System.nanoTime();
+            for (int i = 0; i < 2_000; i++) {
+                rescanningParse(result);
+            }
+            long rescanning = System.nanoTime();
+
+            System.out.printf("single pass: %5d ms, rescanning: %5d ms%n",
+                    (singlePass - start) / 1_000_000,
+                    (rescanning - singlePass) / 1_000_000);
+        }
+    }
+
+    /**
+     * Decode a row the way it was done before {@link RowDecoder}: by walking all columns once for each field.
+     */
+    static void rescanningParse(Result result) throws IOException {
+        NavigableMap<byte[], byte[]> columns = result.getFamilyMap(CF);
+        Map<String, Class<?>> prefixes = new LinkedHashMap<>();
+        prefixes.put("event", Event.class);
+        prefixes.put("requestor", Principal.class);
+        prefixes.put("delegator", Principal.class);
+        prefixes.put("principal", Principal.class);
+        prefixes.put("access_point", NetworkAccessPoint.class);
+        prefixes.put("source", AuditSource.class);
+        prefixes.put("object", ParticipantObject.class);
+        prefixes.put("version", CodeReference.class);
+        for (Map.Entry<String, Class<?>> prefix : prefixes.entrySet()) {
+            byte[] prefixBytes = toBytes(prefix.getKey());
+            byte[] incompletePrefixBytes = ByteMangler.add(HBaseAdapter.INCOMPLETE_MARKER, prefixBytes);
+            for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
+                byte[] key = entry.getKey();
+                if (ByteComparison.startsWith(key, prefixBytes)
+                        || ByteComparison.startsWith(key, incompletePrefixBytes)) {
+                    CODECS.read(entry.getValue(), prefix.getValue());
+                }
+            }
+        }
+        byte[] details = columns.get(toBytes("details"));
+        if (details != null) CODECS.readDetails(details);
+    }
+
+    static Result toResult(LogEntry logEntry) throws IOException {
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer((tableName, puts) -> {}, null, () -> "a", () -> 42L);
+        Put put = adapter.toPut(logEntry);
+        List<Cell> cells = new ArrayList<>();
+        put.getFamilyCellMap().values().forEach(cells::addAll);
+        cells.sort(CellComparator.getInstance());
+        return Result.create(cells);
+    }
+
+    static LogEntry logEntry(int objects) {
+        List<ParticipantObject> participantObjects = new ArrayList<>();
+        for (int i = 0; i < objects; i++) {
+            participantObjects.add(new ParticipantObject(
+                    "object-" + i,
+                    ParticipantObjectType.PERSON,
+                    ParticipantObjectIDType.ACCOUNT_NUMBER,
+                    ParticipantObjectTypeRole.USER,
+                    DataLifeCycle.ACCESS_OR_USE,
+                    null,
+                    "Object " + i,
+                    null
+            ));
+        }
+        // Keep the order the columns are stored in.
+        participantObjects.sort(Comparator.comparing(ParticipantObject::getId));
+
+        return new LogEntry(
+                new Event(new CodeReference("events", "e"), EventAction.READ, 1000L, EventOutcome.SUCCESS),
+                new Principal("bob"),
+                null,
+                Arrays.asList(new Principal("alice"), new Principal("carol")),
+                NetworkAccessPoint.byIPAddress("127.0.0.1"),
+                Collections.singletonList(new AuditSource("site", "server", false)),
+                participantObjects,
+                Collections.singletonList(new Detail(new CodeReference("dt", "d"), "X")),
+                new CodeReference("version", "1")
+        );
+    }
+}
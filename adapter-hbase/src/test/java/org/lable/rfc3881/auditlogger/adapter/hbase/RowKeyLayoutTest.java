@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.adapter.hbase.RowKeyLayout.KeyRange;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.HBaseAdapter.rowKeyFor;
+
+public class RowKeyLayoutTest {
+    static final TableName TABLE = TableName.valueOf("audit", "log");
+
+    @Test
+    public void saltedRowKeyTest() {
+        RowKeyLayout layout = RowKeyLayout.salted(16);
+        Event.EventId eventId = new Event.EventId(new CodeReference("cs", "code"), 1630008292944L, 42L);
+
+        byte[] unsalted = rowKeyFor(eventId);
+        byte[] salted = rowKeyFor(eventId, layout);
+
+        assertThat(salted.length, is(unsalted.length + 2));
+        assertThat(salted[0], is(RowKeyLayout.SALTED_KEY_MARKER));
+        assertThat(salted[1] & 0xFF, is(layout.bucketFor(42L)));
+        assertThat(Arrays.copyOfRange(salted, 2, salted.length), is(unsalted));
+
+        assertThat(RowKeyLayout.keyOffset(salted), is(2));
+        assertThat(RowKeyLayout.keyOffset(unsalted), is(0));
+    }
+
+    @Test
+    public void bucketsAreSpreadTest() {
+        RowKeyLayout layout = RowKeyLayout.salted(8);
+        int[] counts = new int[8];
+        for (long uid = 0; uid < 8000; uid++) {
+            counts[layout.bucketFor(uid)]++;
+        }
+        for (int count : counts) {
+            assertThat(count > 800, is(true));
+        }
+    }
+
+    @Test
+    public void rangesTest() {
+        List<KeyRange> ranges = RowKeyLayout.salted(256).ranges();
+        assertThat(ranges.size(), is(257));
+
+        // Ranges are contiguous, and the unsalted range follows the last bucket.
+        for (int i = 0; i < 255; i++) {
+            assertThat(ranges.get(i).upperBound(), is(ranges.get(i + 1).lowerBound()));
+        }
+        assertThat(ranges.get(255).upperBound(), is(ranges.get(256).lowerBound()));
+        assertThat(ranges.get(256).upperBound() == null, is(true));
+
+        assertThat(RowKeyLayout.unsalted().ranges().size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyBucketsTest() {
+        RowKeyLayout.salted(257);
+    }
+
+    @Test
+    public void saltedReadTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+
+        List<Long> all = timestamps(reader.defineQuery().execute());
+        assertThat(all, is(expected(100, 0)));
+
+        List<Long> limited = timestamps(reader.defineQuery().withLimit(10L).execute());
+        assertThat(limited, is(expected(100, 90)));
+
+        // Reversed scan.
+        List<Long> fromOnly = timestamps(reader.defineQuery()
+                .withFrom(Instant.ofEpochMilli(1050), true)
+                .withLimit(5L)
+                .execute());
+        assertThat(fromOnly, is(expected(55, 50)));
+
+        List<Long> between = timestamps(reader.defineQuery()
+                .withFrom(Instant.ofEpochMilli(1020), true)
+                .withTo(Instant.ofEpochMilli(1030), false)
+                .execute());
+        assertThat(between, is(expected(30, 20)));
+
+        Optional<LogEntry> first = reader.findFirst().withFrom(Instant.ofEpochMilli(1070)).execute();
+        assertThat(first.isPresent(), is(true));
+        assertThat(first.get().getEvent().getHappenedAt(), is(1071L));
+    }
+
+    @Test
+    public void unsaltedReaderSkipsSaltedRowsTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        populate(hBase);
+
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        List<LogEntry> logEntries = reader.defineQuery().execute();
+
+        // Only the entries written before the table was salted.
+        assertThat(timestamps(logEntries), is(expected(20, 0)));
+    }
+
+    /**
+     * Write 100 entries, one per millisecond. The oldest 20 are written with the unsalted layout.
+     */
+    static HBaseReader populate(InMemoryHBase hBase) throws IOException {
+        AtomicLong uid = new AtomicLong();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                hBase.putConsumer(), logEntry -> TABLE, () -> "a", uid::getAndIncrement
+        );
+        for (int i = 0; i < 100; i++) {
+            if (i == 20) adapter.setRowKeyLayout(RowKeyLayout.salted(4));
+            adapter.record(new LogEntry(
+                    new Event(new CodeReference("events", "e"), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                    new Principal("bob"),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null
+            ));
+        }
+
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE, () -> "a");
+        reader.setRowKeyLayout(RowKeyLayout.salted(4));
+        return reader;
+    }
+
+    static List<Long> timestamps(List<LogEntry> logEntries) {
+        return logEntries.stream().map(logEntry -> logEntry.getEvent().getHappenedAt()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return Timestamps of the entries with index [from, to), newest first.
+     */
+    static List<Long> expected(int to, int from) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = to - 1; i >= from; i--) {
+            timestamps.add(1000L + i);
+        }
+        return timestamps;
+    }
+}
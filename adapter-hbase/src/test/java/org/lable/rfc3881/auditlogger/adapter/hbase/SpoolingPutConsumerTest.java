@@ -0,0 +1,352 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SpoolingPutConsumerTest {
+    static final TableName TABLE = TableName.valueOf("audit", "log");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void passThroughTest() throws IOException {
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> delivered.addAll(puts)).build()) {
+            consumer.accept(TABLE, Collections.singletonList(put("1")));
+
+            assertThat(delivered.size(), is(1));
+            assertThat(consumer.isSpooling(), is(false));
+            assertThat(consumer.getSpooledCount(), is(0L));
+        }
+    }
+
+    @Test
+    public void spoolAndReplayTest() throws IOException {
+        AtomicBoolean down = new AtomicBoolean(true);
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        BiConsumer<TableName, List<Put>> backend = (tableName, puts) -> {
+            if (down.get()) throw new UncheckedIOException(new IOException("Region moving."));
+            delivered.addAll(puts);
+        };
+
+        try (SpoolingPutConsumer consumer = define(backend).build()) {
+            for (int i = 0; i < 10; i++) {
+                consumer.accept(TABLE, Collections.singletonList(put(String.valueOf(i))));
+            }
+            assertThat(consumer.isSpooling(), is(true));
+            assertThat(consumer.getPendingCount(), is(10L));
+
+            // Still down, nothing lost.
+            consumer.replayQuietly();
+            assertThat(consumer.getPendingCount(), is(10L));
+
+            down.set(false);
+            consumer.replay();
+
+            assertThat(consumer.isSpooling(), is(false));
+            assertThat(consumer.getPendingCount(), is(0L));
+            assertThat(consumer.getReplayedCount(), is(10L));
+            assertThat(rows(delivered), is(rows("0", "1", "2", "3", "4", "5", "6", "7", "8", "9")));
+
+            // Cells survive the round trip.
+            Put replayed = delivered.get(0);
+            assertThat(replayed.has(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("value-0")), is(true));
+        }
+    }
+
+    @Test
+    public void rejectedRecordIsDeadLetteredTest() throws IOException {
+        AtomicBoolean down = new AtomicBoolean(true);
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        BiConsumer<TableName, List<Put>> backend = (tableName, puts) -> {
+            if (down.get()) throw new UncheckedIOException(new IOException("Region moving."));
+            for (Put put : puts) {
+                if (Bytes.toString(put.getRow()).equals("3")) throw new IllegalArgumentException("Cell too large.");
+            }
+            delivered.addAll(puts);
+        };
+
+        try (SpoolingPutConsumer consumer = define(backend).withMaxReplayAttempts(2).build()) {
+            for (int i = 0; i < 5; i++) {
+                consumer.accept(TABLE, Collections.singletonList(put(String.valueOf(i))));
+            }
+
+            // Failures caused by I/O errors never count.
+            for (int i = 0; i < 3; i++) {
+                consumer.replayQuietly();
+            }
+            assertThat(consumer.getPendingCount(), is(5L));
+            assertThat(consumer.getDeadLetterCount(), is(0L));
+
+            down.set(false);
+            // The records ahead of the rejected one are replayed.
+            consumer.replayQuietly();
+            assertThat(rows(delivered), is(rows("0", "1", "2")));
+            assertThat(consumer.isSpooling(), is(true));
+
+            // The second rejection moves it aside, so the records behind it are replayed.
+            consumer.replayQuietly();
+            assertThat(rows(delivered), is(rows("0", "1", "2", "4")));
+            assertThat(consumer.getDeadLetterCount(), is(1L));
+            assertThat(consumer.getPendingCount(), is(0L));
+            assertThat(consumer.isSpooling(), is(false));
+        }
+
+        Path deadLetterFile = folder.getRoot().toPath().resolve("spool").resolve(PutSpool.DEAD_LETTER_FILE);
+        byte[] deadLetter = Files.readAllBytes(deadLetterFile);
+        byte[] payload = Arrays.copyOfRange(deadLetter, PutSpool.RECORD_HEADER_LENGTH, deadLetter.length);
+        assertThat(rows(PutSpool.decode(payload).puts), is(rows("3")));
+    }
+
+    @Test
+    public void slowCallOpensCircuitTest() throws IOException {
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> sleep(50))
+                .withSlowCallThreshold(Duration.ofMillis(10))
+                .build()) {
+            consumer.accept(TABLE, Collections.singletonList(put("1")));
+            assertThat(consumer.isSpooling(), is(true));
+
+            // Spooled, and not slowed down by the backend.
+            long start = System.nanoTime();
+            consumer.accept(TABLE, Collections.singletonList(put("2")));
+            assertThat(System.nanoTime() - start < Duration.ofMillis(50).toNanos(), is(true));
+            // The call that timed out was spooled too.
+            assertThat(consumer.getSpooledCount(), is(2L));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void saturationDoesNotOpenCircuitTest() throws IOException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.addAll(puts);
+        }).withSlowCallThreshold(Duration.ofSeconds(5)).withMaxConcurrentCalls(1).build()) {
+            Thread busy = new Thread(() -> consumer.accept(TABLE, Collections.singletonList(put("1"))));
+            busy.start();
+            Thread.sleep(50);
+
+            // Waits for the call in progress to finish, rather than spooling or opening the circuit.
+            Thread waiting = new Thread(() -> consumer.accept(TABLE, Collections.singletonList(put("2"))));
+            waiting.start();
+            Thread.sleep(50);
+            release.countDown();
+            busy.join();
+            waiting.join();
+
+            assertThat(consumer.isSpooling(), is(false));
+            assertThat(consumer.getSpooledCount(), is(0L));
+            assertThat(rows(delivered), is(rows("1", "2")));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void hungCallTest() throws IOException {
+        CountDownLatch release = new CountDownLatch(1);
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).withSlowCallThreshold(Duration.ofMillis(20)).build()) {
+            // Does not wait for the backend to return.
+            consumer.accept(TABLE, Collections.singletonList(put("1")));
+
+            assertThat(consumer.isSpooling(), is(true));
+            assertThat(consumer.getPendingCount(), is(1L));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void putDetailsSurviveSpoolingTest() throws IOException {
+        Put put = put("1");
+        put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("r"), 42L, Bytes.toBytes("value"));
+        put.setAttribute("origin", Bytes.toBytes("test"));
+        put.setDurability(Durability.ASYNC_WAL);
+
+        Put replayed = PutSpool.decode(PutSpool.encode(TABLE, Collections.singletonList(put))).puts.get(0);
+
+        assertThat(replayed.getDurability(), is(Durability.ASYNC_WAL));
+        assertThat(Bytes.toString(replayed.getAttribute("origin")), is("test"));
+        assertThat(replayed.has(Bytes.toBytes("a"), Bytes.toBytes("r"), 42L, Bytes.toBytes("value")), is(true));
+        for (Cell cell : replayed.get(Bytes.toBytes("a"), Bytes.toBytes("q"))) {
+            assertThat(cell.getType(), is(Cell.Type.Put));
+        }
+    }
+
+    @Test
+    public void formatVersion1Test() throws IOException {
+        // A record as written before durability, attributes and cell types were kept.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PutSpool.FORMAT_VERSION_1);
+        PutSpool.writeBytes(out, TABLE.getName());
+        out.writeInt(1);
+        PutSpool.writeBytes(out, Bytes.toBytes("1"));
+        out.writeInt(1);
+        PutSpool.writeBytes(out, Bytes.toBytes("a"));
+        PutSpool.writeBytes(out, Bytes.toBytes("q"));
+        out.writeLong(42L);
+        PutSpool.writeBytes(out, Bytes.toBytes("value-1"));
+        out.flush();
+
+        PutSpool.SpooledPuts record = PutSpool.decode(bytes.toByteArray());
+        assertThat(record.tableName, is(TABLE));
+        assertThat(record.puts.get(0).has(Bytes.toBytes("a"), Bytes.toBytes("q"), 42L, Bytes.toBytes("value-1")),
+                is(true));
+    }
+
+    @Test
+    public void recoverAfterRestartTest() throws IOException {
+        try (SpoolingPutConsumer consumer = define(failing()).withSegmentSize(256).build()) {
+            for (int i = 0; i < 10; i++) {
+                consumer.accept(TABLE, Collections.singletonList(put(String.valueOf(i))));
+            }
+        }
+        assertThat(segments().size() > 1, is(true));
+
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> delivered.addAll(puts))
+                .withSegmentSize(256)
+                .build()) {
+            assertThat(consumer.isSpooling(), is(true));
+            consumer.replay();
+
+            assertThat(delivered.size(), is(10));
+            assertThat(consumer.isSpooling(), is(false));
+        }
+
+        // Drained segments are removed, except for the one still being written to.
+        assertThat(segments().size(), is(1));
+    }
+
+    @Test
+    public void damagedRecordTest() throws IOException {
+        try (SpoolingPutConsumer consumer = define(failing()).build()) {
+            for (int i = 0; i < 3; i++) {
+                consumer.accept(TABLE, Collections.singletonList(put(String.valueOf(i))));
+            }
+        }
+
+        // Corrupt the payload of the last record.
+        Path segment = segments().get(0);
+        long recordLength = PutSpool.RECORD_HEADER_LENGTH
+                + PutSpool.encode(TABLE, Collections.singletonList(put("2"))).length;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(3 * recordLength - 1);
+            file.write(0xFF);
+        }
+
+        List<Put> delivered = new CopyOnWriteArrayList<>();
+        try (SpoolingPutConsumer consumer = define((tableName, puts) -> delivered.addAll(puts)).build()) {
+            consumer.replay();
+        }
+
+        assertThat(rows(delivered), is(rows("0", "1")));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void spoolFullTest() throws IOException {
+        try (SpoolingPutConsumer consumer = define(failing())
+                .withSegmentSize(256)
+                .withMaxSpoolSize(512)
+                .build()) {
+            for (int i = 0; i < 100; i++) {
+                consumer.accept(TABLE, Collections.singletonList(put(String.valueOf(i))));
+            }
+        }
+    }
+
+    SpoolingPutConsumer.Builder define(BiConsumer<TableName, List<Put>> backend) {
+        return SpoolingPutConsumer.define(backend, folder.getRoot().toPath().resolve("spool"))
+                .withReplayInterval(Duration.ofHours(1))
+                .withSegmentSize(4096);
+    }
+
+    List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("spool"))) {
+            return files.filter(path -> PutSpool.segmentId(path) >= 0).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static BiConsumer<TableName, List<Put>> failing() {
+        return (tableName, puts) -> {
+            throw new UncheckedIOException(new IOException("HBase unavailable."));
+        };
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static Put put(String row) {
+        Put put = new Put(Bytes.toBytes(row));
+        put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("value-" + row));
+        return put;
+    }
+
+    static List<String> rows(List<Put> puts) {
+        return puts.stream().map(put -> Bytes.toString(put.getRow())).collect(Collectors.toList());
+    }
+
+    static List<String> rows(String... rows) {
+        return List.of(rows);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StagedHBaseAdapterTest {
+    static final TableName TABLE_A = TableName.valueOf("audit", "a");
+    static final TableName TABLE_B = TableName.valueOf("audit", "b");
+
+    @Test
+    public void pipelineTest() throws IOException, InterruptedException {
+        Map<TableName, List<Put>> written = new ConcurrentHashMap<>();
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter(
+                (tableName, puts) -> written.computeIfAbsent(tableName, t -> new CopyOnWriteArrayList<>()).addAll(puts)
+        ))
+                .withSerializerThreads(4)
+                .withSerializeQueueCapacity(16)
+                .withWriterThreads(2)
+                .withWriteQueueCapacity(16)
+                .withWriteBatchSize(10)
+                .build();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    try {
+                        staged.record(entry(i));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        staged.flush();
+
+        assertThat(written.get(TABLE_A).size(), is(500));
+        assertThat(written.get(TABLE_B).size(), is(500));
+        assertThat(staged.getSerializationStage().getProcessedCount(), is(1000L));
+        assertThat(staged.getWriteStage().getProcessedCount(), is(1000L));
+        assertThat(staged.getSerializationStage().getQueueDepth(), is(0));
+
+        staged.close();
+    }
+
+    @Test
+    public void closeWritesEverythingTest() throws IOException {
+        List<Put> written = new CopyOnWriteArrayList<>();
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> written.addAll(puts)))
+                .withSerializerThreads(2)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            staged.record(entry(i));
+        }
+        staged.close();
+
+        assertThat(written.size(), is(100));
+    }
+
+    @Test
+    public void failureReportedOnFlushTest() throws IOException {
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> {
+            throw new UncheckedIOException(new IOException("Region unavailable."));
+        })).build();
+
+        staged.record(entry(0));
+        try {
+            staged.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Region unavailable."));
+        }
+
+        assertThat(staged.getFailedCount(), is(1L));
+        staged.close();
+    }
+
+    @Test
+    public void failureHandlerTest() throws IOException {
+        List<LogEntry> failed = new CopyOnWriteArrayList<>();
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> {
+            throw new UncheckedIOException(new IOException("Region unavailable."));
+        })).withFailureHandler((logEntries, cause) -> failed.addAll(logEntries)).build();
+
+        staged.record(entry(0));
+        staged.record(entry(1));
+        staged.flush();
+
+        assertThat(failed.size(), is(2));
+        staged.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void recordAfterCloseTest() throws IOException {
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> {})).build();
+        staged.close();
+        staged.record(entry(0));
+    }
+
+    @Test
+    public void recordRacingCloseTest() throws IOException, InterruptedException {
+        List<Put> written = new CopyOnWriteArrayList<>();
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> written.addAll(puts)))
+                .withSerializerThreads(2)
+                .withSerializeQueueCapacity(4)
+                .build();
+
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        staged.record(entry(i));
+                        accepted.incrementAndGet();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        Thread.sleep(50);
+        staged.close();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Every entry accepted before the adapter was closed is written.
+        assertThat(written.size(), is(accepted.get()));
+    }
+
+    @Test(timeout = 10_000)
+    public void stoppedWorkersTest() throws IOException {
+        StagedHBaseAdapter staged = StagedHBaseAdapter.define(adapter((tableName, puts) -> {
+            // Kills the writer thread.
+            throw new StackOverflowError();
+        })).withWriterThreads(1).build();
+
+        staged.record(entry(0));
+        try {
+            staged.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("The worker threads of the staged audit log adapter have stopped."));
+        }
+        try {
+            staged.record(entry(1));
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("The worker threads of the staged audit log adapter have stopped."));
+        }
+    }
+
+    static HBaseAdapter adapter(BiConsumer<TableName, List<Put>> putConsumer) {
+        AtomicLong uid = new AtomicLong();
+        return HBaseAdapter.withMultiPutConsumer(
+                putConsumer,
+                logEntry -> logEntry.getEvent().getHappenedAt() % 2 == 0 ? TABLE_A : TABLE_B,
+                () -> "a",
+                uid::getAndIncrement
+        );
+    }
+
+    static LogEntry entry(int i) {
+        return new LogEntry(
+                new Event(new CodeReference("events", "event-" + i), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                new Principal("bob"),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.junit.Test;
+import org.lable.rfc3881.auditlogger.api.LogEntry;
+import org.lable.rfc3881.auditlogger.api.metrics.InMemoryAuditLogMetrics;
+import org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQueryBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.lable.rfc3881.auditlogger.adapter.hbase.TimePartitioningTest.at;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamingScanTest {
+    @Test
+    public void sameAsReadSaltedTest() throws IOException {
+        HBaseReader reader = RowKeyLayoutTest.populate(new InMemoryHBase());
+
+        List<Function<AuditLogQueryBuilder, AuditLogQueryBuilder>> queries = Arrays.asList(
+                query -> query,
+                query -> query.withLimit(10L),
+                query -> query.withFrom(Instant.ofEpochMilli(1050), true),
+                query -> query.withFrom(Instant.ofEpochMilli(1050), false),
+                query -> query.withFrom(Instant.ofEpochMilli(1050), true).withLimit(5L),
+                query -> query.withTo(Instant.ofEpochMilli(1030), true).withLimit(15L),
+                query -> query.withFrom(Instant.ofEpochMilli(1020), true).withTo(Instant.ofEpochMilli(1030), false)
+        );
+        for (Function<AuditLogQueryBuilder, AuditLogQueryBuilder> query : queries) {
+            List<Long> read = RowKeyLayoutTest.timestamps(query.apply(reader.defineQuery()).execute());
+            try (Stream<LogEntry> stream = query.apply(reader.defineQuery()).stream()) {
+                assertThat(RowKeyLayoutTest.timestamps(stream.collect(Collectors.toList())), is(read));
+            }
+        }
+    }
+
+    @Test
+    public void sameAsReadPartitionedTest() throws IOException {
+        HBaseReader reader = TimePartitioningTest.populate(new InMemoryHBase());
+
+        List<Function<AuditLogQueryBuilder, AuditLogQueryBuilder>> queries = Arrays.asList(
+                query -> query,
+                query -> query.withLimit(5L),
+                query -> query.withFrom(at(2), true),
+                query -> query.withFrom(at(5), true).withTo(at(7), true)
+        );
+        for (Function<AuditLogQueryBuilder, AuditLogQueryBuilder> query : queries) {
+            List<Long> read = TimePartitioningTest.timestamps(query.apply(reader.defineQuery()).execute());
+            try (Stream<LogEntry> stream = query.apply(reader.defineQuery()).stream()) {
+                assertThat(TimePartitioningTest.timestamps(stream.collect(Collectors.toList())), is(read));
+            }
+        }
+    }
+
+    @Test
+    public void lazyTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = RowKeyLayoutTest.populate(hBase);
+        InMemoryAuditLogMetrics metrics = new InMemoryAuditLogMetrics();
+        reader.setMetrics(metrics);
+
+        try (Stream<LogEntry> stream = reader.defineQuery().stream()) {
+            List<Long> newest = RowKeyLayoutTest.timestamps(stream.limit(5).collect(Collectors.toList()));
+            assertThat(newest, is(RowKeyLayoutTest.expected(100, 95)));
+        }
+
+        // At most one row ahead in each of the five key ranges (four buckets, and the unsalted rows).
+        assertThat(metrics.getRowsScanned(), is(lessThan(11L)));
+        assertThat(metrics.getRowsReturned(), is(5L));
+        for (ResultScanner scanner : hBase.scanners) {
+            verify(scanner, atLeastOnce()).close();
+        }
+    }
+
+    @Test
+    public void partitionsAreOpenedInTurnTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = TimePartitioningTest.populate(hBase);
+
+        try (Stream<LogEntry> stream = reader.defineQuery().stream()) {
+            List<Long> newest = TimePartitioningTest.timestamps(stream.limit(3).collect(Collectors.toList()));
+            assertThat(newest, is(TimePartitioningTest.expected(12, 9)));
+            // Only the newest partition was needed.
+            assertThat(hBase.scanners.size(), is(1));
+        }
+    }
+
+    @Test
+    public void publishTest() throws Exception {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = RowKeyLayoutTest.populate(hBase);
+
+        List<LogEntry> received = new CopyOnWriteArrayList<>();
+        CountDownLatch firstBatch = new CountDownLatch(5);
+        AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        reader.defineQuery().publish().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+                s.request(5);
+            }
+
+            @Override
+            public void onNext(LogEntry item) {
+                received.add(item);
+                firstBatch.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        assertThat(firstBatch.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(RowKeyLayoutTest.timestamps(received), is(RowKeyLayoutTest.expected(100, 95)));
+
+        // Cancelling closes the scanners.
+        subscription.get().cancel();
+        for (ResultScanner scanner : hBase.scanners) {
+            verify(scanner, timeout(10_000).atLeastOnce()).close();
+        }
+        assertThat(received.size(), is(5));
+    }
+
+    @Test
+    public void publishFailureTest() throws Exception {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = RowKeyLayoutTest.populate(hBase);
+        when(hBase.connection.getTable(RowKeyLayoutTest.TABLE)).thenThrow(new IOException("Region unavailable."));
+
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        reader.defineQuery().publish().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(LogEntry item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                failure.complete(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                failure.complete(null);
+            }
+        });
+
+        assertThat(failure.get(10, TimeUnit.SECONDS), is(instanceOf(IOException.class)));
+    }
+
+    @Test(expected = IOException.class)
+    public void openFailureTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = RowKeyLayoutTest.populate(hBase);
+        when(hBase.connection.getTable(RowKeyLayoutTest.TABLE)).thenThrow(new IOException("Region unavailable."));
+
+        reader.defineQuery().stream();
+    }
+
+    @Test
+    public void emptyTest() throws IOException {
+        HBaseReader reader = new HBaseReader(() -> {
+            try {
+                return new InMemoryHBase().connection;
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }, () -> TableName.valueOf("audit", "log"), () -> "a");
+
+        try (Stream<LogEntry> stream = reader.defineQuery().stream()) {
+            assertThat(stream.count(), is(0L));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.adapter.hbase;
+
+import org.apache.hadoop.hbase.TableName;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.api.metrics.InMemoryAuditLogMetrics;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TimePartitioningTest {
+    static final Instant DAY_1 = Instant.parse("2021-08-26T00:00:00Z");
+    static final Duration SIX_HOURS = Duration.ofHours(6);
+
+    static final TableName TABLE_DAY_1 = TableName.valueOf("audit", "log_20210826");
+    static final TableName TABLE_DAY_2 = TableName.valueOf("audit", "log_20210827");
+    static final TableName TABLE_DAY_3 = TableName.valueOf("audit", "log_20210828");
+
+    @Test
+    public void dailyRoutingTest() {
+        TimePartitioning partitioning = TimePartitioning.daily("audit", "log");
+
+        assertThat(partitioning.tableFor(DAY_1.toEpochMilli()), is(TABLE_DAY_1));
+        assertThat(partitioning.tableFor(DAY_1.plus(Duration.ofDays(1)).toEpochMilli() - 1), is(TABLE_DAY_1));
+        assertThat(partitioning.tableFor(DAY_1.plus(Duration.ofDays(1)).toEpochMilli()), is(TABLE_DAY_2));
+
+        // Table names are cached.
+        TableName tableName = partitioning.tableFor(DAY_1.toEpochMilli() + 1000);
+        assertThat(partitioning.tableFor(DAY_1.toEpochMilli() + 2000), is(sameInstance(tableName)));
+    }
+
+    @Test
+    public void monthlyRoutingTest() {
+        TimePartitioning partitioning = TimePartitioning.monthly("audit", "log");
+
+        assertThat(partitioning.tableFor(DAY_1.toEpochMilli()), is(TableName.valueOf("audit", "log_202108")));
+        assertThat(
+                partitioning.tableFor(Instant.parse("2021-12-31T23:59:59Z").toEpochMilli()),
+                is(TableName.valueOf("audit", "log_202112"))
+        );
+        assertThat(
+                partitioning.tableFor(Instant.parse("2022-01-01T00:00:00Z").toEpochMilli()),
+                is(TableName.valueOf("audit", "log_202201"))
+        );
+    }
+
+    @Test
+    public void existingPartitionsTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        TimePartitioning partitioning = TimePartitioning.daily("audit", "log");
+        List<TableName> created = partitioning.createPartitions(
+                hBase.admin(), "a", DAY_1, DAY_1.plus(Duration.ofDays(2))
+        );
+        assertThat(created, is(List.of(TABLE_DAY_1, TABLE_DAY_2, TABLE_DAY_3)));
+        // Not a partition.
+        hBase.rows(TableName.valueOf("audit", "log_other"));
+
+        List<TableName> existing = partitioning.existingPartitions(hBase.admin()).stream()
+                .map(TimePartitioning.Partition::getTableName)
+                .collect(Collectors.toList());
+        assertThat(existing, is(List.of(TABLE_DAY_3, TABLE_DAY_2, TABLE_DAY_1)));
+
+        List<TableName> overlapping = partitioning.existingPartitions(
+                hBase.admin(),
+                DAY_1.plus(Duration.ofHours(30)).toEpochMilli(),
+                DAY_1.plus(Duration.ofHours(40)).toEpochMilli()
+        ).stream().map(TimePartitioning.Partition::getTableName).collect(Collectors.toList());
+        assertThat(overlapping, is(List.of(TABLE_DAY_2)));
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+
+        assertThat(timestamps(reader.defineQuery().execute()), is(expected(12, 0)));
+        assertThat(timestamps(reader.defineQuery().withLimit(5L).execute()), is(expected(12, 7)));
+
+        // Reversed scan, starting in the first partition and continuing in the second.
+        List<Long> fromOnly = timestamps(reader.defineQuery()
+                .withFrom(at(2), true)
+                .withLimit(4L)
+                .execute());
+        assertThat(fromOnly, is(expected(6, 2)));
+
+        List<Long> between = timestamps(reader.defineQuery()
+                .withFrom(at(5), true)
+                .withTo(at(7), true)
+                .execute());
+        assertThat(between, is(expected(8, 5)));
+
+        Optional<LogEntry> first = reader.findFirst().withFrom(at(3).plusMillis(1)).execute();
+        assertThat(first.get().getEvent().getHappenedAt(), is(at(4).toEpochMilli()));
+
+        Optional<LogEntry> oldest = reader.findFirst().execute();
+        assertThat(oldest.get().getEvent().getHappenedAt(), is(at(0).toEpochMilli()));
+    }
+
+    @Test
+    public void pruneTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+
+        List<Long> lastDay = timestamps(reader.defineQuery()
+                .withFrom(at(9), true)
+                .withTo(at(11), true)
+                .execute());
+        assertThat(lastDay, is(expected(12, 9)));
+
+        verify(hBase.connection, never()).getTable(TABLE_DAY_1);
+        verify(hBase.connection, never()).getTable(TABLE_DAY_2);
+    }
+
+    @Test
+    public void retentionTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+        TimePartitioning partitioning = TimePartitioning.daily("audit", "log");
+
+        // The partition holding the cut-off time is kept.
+        List<TableName> dropped = partitioning.dropPartitionsBefore(hBase.admin(), at(5));
+        assertThat(dropped, is(Collections.singletonList(TABLE_DAY_1)));
+
+        assertThat(timestamps(reader.defineQuery().execute()), is(expected(12, 4)));
+    }
+
+    @Test
+    public void partitionCacheTest() throws IOException {
+        InMemoryHBase hBase = new InMemoryHBase();
+        HBaseReader reader = populate(hBase);
+
+        assertThat(timestamps(reader.defineQuery().execute()), is(expected(12, 0)));
+        assertThat(timestamps(reader.defineQuery().withLimit(5L).execute()), is(expected(12, 7)));
+        assertThat(reader.findFirst().execute().isPresent(), is(true));
+        // The partitions are listed once.
+        verify(hBase.connection, times(1)).getAdmin();
+
+        // The cached list still holds the dropped partition; finding it missing lists the partitions again.
+        TimePartitioning partitioning = TimePartitioning.daily("audit", "log");
+        partitioning.dropPartitionsBefore(hBase.admin(), at(5));
+        InMemoryAuditLogMetrics metrics = new InMemoryAuditLogMetrics();
+        reader.setMetrics(metrics);
+        assertThat(timestamps(reader.defineQuery().withLimit(12L).execute()), is(expected(12, 4)));
+        verify(hBase.connection, times(2)).getAdmin();
+        // The rows scanned by the attempt that found the partition missing are not counted.
+        assertThat(metrics.getRowsScanned(), is(8L));
+
+        partitioning.dropPartitionsBefore(hBase.admin(), at(9));
+        try (Stream<LogEntry> stream = reader.defineQuery().stream()) {
+            assertThat(timestamps(stream.collect(Collectors.toList())), is(expected(12, 8)));
+        }
+        Optional<LogEntry> oldest = reader.findFirst().execute();
+        assertThat(oldest.get().getEvent().getHappenedAt(), is(at(8).toEpochMilli()));
+
+        // Without caching, the partitions are listed for every query.
+        reader.setPartitionCacheTtl(Duration.ZERO);
+        reader.defineQuery().execute();
+        reader.defineQuery().execute();
+        verify(hBase.connection, times(5)).getAdmin();
+    }
+
+    /**
+     * Write 12 entries, six hours apart, spread over three daily partitions.
+     */
+    static HBaseReader populate(InMemoryHBase hBase) throws IOException {
+        TimePartitioning partitioning = TimePartitioning.daily("audit", "log");
+        partitioning.createPartitions(hBase.admin(), "a", at(0), at(11));
+
+        AtomicLong uid = new AtomicLong();
+        HBaseAdapter adapter = HBaseAdapter.withMultiPutConsumer(
+                hBase.putConsumer(), partitioning.tableDecider(), () -> "a", uid::getAndIncrement
+        );
+        for (int i = 0; i < 12; i++) {
+            adapter.record(new LogEntry(
+                    new Event(new CodeReference("events", "e"), EventAction.READ, at(i).toEpochMilli(),
+                            EventOutcome.SUCCESS),
+                    new Principal("bob"),
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null
+            ));
+        }
+        assertThat(hBase.rows(TABLE_DAY_2).size(), is(4));
+
+        HBaseReader reader = new HBaseReader(() -> hBase.connection, () -> TABLE_DAY_1, () -> "a");
+        reader.setTimePartitioning(TimePartitioning.daily("audit", "log"));
+        return reader;
+    }
+
+    static Instant at(int i) {
+        return DAY_1.plus(SIX_HOURS.multipliedBy(i));
+    }
+
+    static List<Long> timestamps(List<LogEntry> logEntries) {
+        return logEntries.stream().map(logEntry -> logEntry.getEvent().getHappenedAt()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return Timestamps of the entries with index [from, to), newest first.
+     */
+    static List<Long> expected(int to, int from) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = to - 1; i >= from; i--) {
+            timestamps.add(at(i).toEpochMilli());
+        }
+        return timestamps;
+    }
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Decorates another {@link AuditLogAdapter} and hands log entries to it asynchronously.
+ * <p>
+ * Calls to {@link #record(LogEntry)} place the entry in a bounded ring buffer and return immediately. One or more
+ * consumer threads drain the buffer in batches and pass them on to the wrapped adapter. A batch is handed over once
+ * it reaches the configured batch size, or once the oldest entry in it has waited for the maximum linger time, through
+ * {@link AuditLogAdapter#recordAll(java.util.Collection)}.
+ * <p>
+ * What happens when the buffer is full is decided by the {@link OverflowPolicy}. Call {@link #flush()} to wait for
+ * all entries recorded so far to be delivered, and {@link #close()} on shutdown to deliver all outstanding entries
+ * and stop the consumer threads.
+ */
+public class AsyncAuditLogAdapter implements AuditLogAdapter, Flushable, Closeable {
+    private static final AtomicInteger adapterCounter = new AtomicInteger();
+
+    private final AuditLogAdapter delegate;
+    private final AuditLogAdapter spillAdapter;
+    private final OverflowPolicy overflowPolicy;
+    private final FailureHandler failureHandler;
+    private final int batchSize;
+    private final long maxLingerNanos;
+
+    private final RingBuffer<LogEntry> buffer;
+    final List<Thread> consumers = new ArrayList<>();
+
+    // Only one consumer at a time assembles a batch, so every batch covers a contiguous range of buffer positions.
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final ReentrantLock signalLock = new ReentrantLock();
+    private final Condition notEmpty = signalLock.newCondition();
+    private final Condition notFull = signalLock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    // Completion bookkeeping; all buffer positions below completedUpTo have been delivered (or have failed).
+    private final Object completionLock = new Object();
+    private final Map<Long, Long> completedOutOfOrder = new TreeMap<>();
+    private long completedUpTo = 0;
+    private final AtomicLong flushTarget = new AtomicLong();
+
+    private final AtomicReference<Exception> unreportedFailure = new AtomicReference<>();
+    private final AtomicLong failedEntries = new AtomicLong();
+
+    // Held for reading while an entry is placed in the buffer, and for writing while closing, so no entry is placed
+    // in the buffer after close() drained it.
+    private final ReentrantReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private final AtomicInteger runningConsumers = new AtomicInteger();
+
+    private volatile boolean closed = false;
+
+    AsyncAuditLogAdapter(AuditLogAdapter delegate,
+                         AuditLogAdapter spillAdapter,
+                         OverflowPolicy overflowPolicy,
+                         FailureHandler failureHandler,
+                         int capacity,
+                         int batchSize,
+                         Duration maxLinger,
+                         int consumerThreads) {
+        this.delegate = delegate;
+        this.spillAdapter = spillAdapter == null ? delegate : spillAdapter;
+        this.overflowPolicy = overflowPolicy;
+        this.failureHandler = failureHandler;
+        this.batchSize = batchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.buffer = new RingBuffer<>(capacity);
+
+        int adapterNumber = adapterCounter.incrementAndGet();
+        runningConsumers.set(consumerThreads);
+        for (int i = 0; i < consumerThreads; i++) {
+            Thread thread = new Thread(this::consume, "audit-log-async-" + adapterNumber + "-" + i);
+            thread.setDaemon(true);
+            consumers.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Start building an asynchronous adapter.
+     *
+     * @param delegate The adapter log entries are handed to.
+     * @return A builder for chaining.
+     */
+    public static Builder define(AuditLogAdapter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Place a log entry in the buffer. This method returns as soon as the entry is buffered, unless the buffer is
+     * full, in which case the {@link OverflowPolicy} determines what happens.
+     *
+     * @param logEntry Audit log entry to process.
+     * @throws IOException Thrown when this adapter was closed, when its consumer threads have stopped, when the
+     *                     buffer is full and the overflow policy is {@link OverflowPolicy#FAIL_FAST}, or when spilling
+     *                     the entry failed.
+     */
+    @Override
+    public void record(LogEntry logEntry) throws IOException {
+        if (logEntry == null) return;
+
+        shutdownLock.readLock().lock();
+        try {
+            if (closed) throw new IOException("Asynchronous audit log adapter is closed.");
+            if (runningConsumers.get() == 0) {
+                throw new IOException("The consumer threads of the asynchronous audit log adapter have stopped.");
+            }
+
+            if (buffer.offer(logEntry)) {
+                signalConsumers();
+                return;
+            }
+
+            switch (overflowPolicy) {
+                case BLOCK:
+                    while (!buffer.offer(logEntry)) {
+                        if (runningConsumers.get() == 0) {
+                            throw new IOException(
+                                    "The consumer threads of the asynchronous audit log adapter have stopped."
+                            );
+                        }
+                        awaitNotFull();
+                    }
+                    signalConsumers();
+                    break;
+                case SPILL:
+                    spillAdapter.record(logEntry);
+                    break;
+                case FAIL_FAST:
+                default:
+                    throw new IOException("Audit log buffer is full (capacity " + buffer.capacity() + ").");
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Wait until all log entries recorded before this call was made have been handed to the wrapped adapter.
+     *
+     * @throws IOException Thrown when delivery of one or more entries failed since the previous flush, and no
+     *                     {@link FailureHandler} was configured.
+     */
+    @Override
+    public void flush() throws IOException {
+        long target = buffer.tailPosition();
+        flushTarget.accumulateAndGet(target, Math::max);
+        signalAllConsumers();
+
+        synchronized (completionLock) {
+            while (completedUpTo < target) {
+                try {
+                    completionLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the audit log buffer.");
+                }
+                if (consumersStopped() && completedUpTo < target) {
+                    throw new IOException("Consumer threads stopped before the audit log buffer was flushed.");
+                }
+            }
+        }
+
+        throwUnreportedFailure();
+    }
+
+    /**
+     * Stop accepting new log entries, deliver all buffered entries, and stop the consumer threads.
+     *
+     * @throws IOException Thrown when delivery of one or more entries failed since the previous flush, and no
+     *                     {@link FailureHandler} was configured.
+     */
+    @Override
+    public void close() throws IOException {
+        // Wait for producers placing an entry in the buffer, so their entries are delivered below.
+        shutdownLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        signalAllConsumers();
+        signalAllProducers();
+
+        for (Thread consumer : consumers) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while closing the audit log buffer.");
+            }
+        }
+
+        // Deliver anything left behind by consumers that stopped early.
+        long first = buffer.headPosition();
+        List<LogEntry> remainder = new ArrayList<>();
+        LogEntry logEntry;
+        while ((logEntry = buffer.poll()) != null) {
+            remainder.add(logEntry);
+        }
+        if (!remainder.isEmpty()) {
+            deliver(remainder);
+            markCompleted(first, first + remainder.size());
+        }
+
+        throwUnreportedFailure();
+    }
+
+    /**
+     * @return Approximate number of log entries waiting in the buffer.
+     */
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    /**
+     * @return Total number of log entries that could not be delivered to the wrapped adapter.
+     */
+    public long getFailedCount() {
+        return failedEntries.get();
+    }
+
+    void consume() {
+        try {
+            while (true) {
+                long first;
+                List<LogEntry> batch;
+                drainLock.lock();
+                try {
+                    first = buffer.headPosition();
+                    batch = assembleBatch(first);
+                } finally {
+                    drainLock.unlock();
+                }
+
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                    markCompleted(first, first + batch.size());
+                }
+
+                // Empty when closed and drained. An interrupted consumer stops; close() delivers what it left.
+                if (batch.isEmpty() || Thread.currentThread().isInterrupted()) {
+                    signalAllConsumers();
+                    return;
+                }
+            }
+        } finally {
+            runningConsumers.decrementAndGet();
+            signalAllProducers();
+        }
+    }
+
+    List<LogEntry> assembleBatch(long first) {
+        List<LogEntry> batch = new ArrayList<>(batchSize);
+        long deadline = 0;
+
+        while (batch.size() < batchSize) {
+            LogEntry logEntry = buffer.poll();
+            if (logEntry != null) {
+                if (batch.isEmpty()) deadline = System.nanoTime() + maxLingerNanos;
+                batch.add(logEntry);
+                signalProducers();
+                continue;
+            }
+
+            if (batch.isEmpty()) {
+                if (closed && buffer.isEmpty()) return batch;
+                if (!awaitNotEmpty(maxLingerNanos)) return batch;
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed || flushTarget.get() > first) break;
+                if (!awaitNotEmpty(remaining)) break;
+            }
+        }
+
+        return batch;
+    }
+
+    void deliver(List<LogEntry> batch) {
+        try {
+            delegate.recordAll(batch);
+        } catch (PartialFailureException e) {
+            // Only report the entries that failed; the others were delivered.
+            reportFailure(e.getFailedEntries(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        } catch (Exception e) {
+            reportFailure(batch, e);
+        }
+    }
+
+    void reportFailure(List<LogEntry> failed, Exception failure) {
+        failedEntries.addAndGet(failed.size());
+        if (failureHandler != null) {
+            try {
+                failureHandler.onFailure(failed, failure);
+            } catch (RuntimeException e) {
+                unreportedFailure.compareAndSet(null, e);
+            }
+        } else {
+            unreportedFailure.compareAndSet(null, failure);
+        }
+    }
+
+    void markCompleted(long from, long to) {
+        synchronized (completionLock) {
+            completedOutOfOrder.put(from, to);
+            Long end;
+            while ((end = completedOutOfOrder.remove(completedUpTo)) != null) {
+                completedUpTo = end;
+            }
+            completionLock.notifyAll();
+        }
+    }
+
+    void throwUnreportedFailure() throws IOException {
+        Exception failure = unreportedFailure.getAndSet(null);
+        if (failure == null) return;
+        if (failure instanceof IOException) throw (IOException) failure;
+        throw new IOException("Failed to deliver audit log entries.", failure);
+    }
+
+    boolean consumersStopped() {
+        for (Thread consumer : consumers) {
+            if (consumer.isAlive()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for an entry to be placed in the buffer, or for the adapter to be closed.
+     *
+     * @return False if the consumer thread was interrupted, and should stop waiting.
+     */
+    boolean awaitNotEmpty(long nanos) {
+        if (Thread.currentThread().isInterrupted()) return false;
+        signalLock.lock();
+        try {
+            waitingConsumers.incrementAndGet();
+            try {
+                if (buffer.isEmpty() && !closed) {
+                    notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            signalLock.unlock();
+        }
+        return true;
+    }
+
+    void awaitNotFull() throws InterruptedIOException {
+        signalLock.lock();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                if (buffer.size() >= buffer.capacity() && !closed) {
+                    notFull.await(10, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for space in the audit log buffer.");
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    void signalConsumers() {
+        if (waitingConsumers.get() == 0) return;
+        signalLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    void signalAllConsumers() {
+        signalLock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    void signalProducers() {
+        if (waitingProducers.get() == 0) return;
+        signalAllProducers();
+    }
+
+    void signalAllProducers() {
+        signalLock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    /**
+     * Determines what happens when a log entry is recorded while the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the calling thread until space becomes available.
+         */
+        BLOCK,
+        /**
+         * Hand the log entry to the spill adapter on the calling thread. Unless a separate spill adapter is
+         * configured, this is the wrapped adapter itself, meaning the entry is recorded synchronously.
+         */
+        SPILL,
+        /**
+         * Reject the log entry by throwing an {@link IOException}.
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * Called by a consumer thread when log entries could not be handed to the wrapped adapter.
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        /**
+         * @param logEntries Log entries that were not recorded.
+         * @param cause      Exception thrown by the wrapped adapter.
+         */
+        void onFailure(List<LogEntry> logEntries, Exception cause);
+    }
+
+    public static class Builder {
+        private final AuditLogAdapter delegate;
+        private AuditLogAdapter spillAdapter;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private FailureHandler failureHandler;
+        private int capacity = 8192;
+        private int batchSize = 256;
+        private Duration maxLinger = Duration.ofMillis(50);
+        private int consumerThreads = 1;
+
+        Builder(AuditLogAdapter delegate) {
+            parameterMayNotBeNull("delegate", delegate);
+            this.delegate = delegate;
+        }
+
+        /**
+         * Set the number of log entries the buffer can hold. This is rounded up to the nearest power of two.
+         * Defaults to 8192.
+         *
+         * @param capacity Capacity.
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of log entries handed to the wrapped adapter in one go. Defaults to 256.
+         *
+         * @param batchSize Batch size.
+         */
+        public Builder withBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be at least 1 (" + batchSize + " passed).");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a log entry waits for its batch to fill up. Defaults to 50 ms.
+         *
+         * @param maxLinger Maximum linger time.
+         */
+        public Builder withMaxLinger(Duration maxLinger) {
+            parameterMayNotBeNull("maxLinger", maxLinger);
+            this.maxLinger = maxLinger;
+            return this;
+        }
+
+        /**
+         * Set the number of threads delivering batches to the wrapped adapter. Defaults to 1.
+         *
+         * @param consumerThreads Number of consumer threads.
+         */
+        public Builder withConsumerThreads(int consumerThreads) {
+            if (consumerThreads < 1) {
+                throw new IllegalArgumentException(
+                        "At least one consumer thread is required (" + consumerThreads + " passed).");
+            }
+            this.consumerThreads = consumerThreads;
+            return this;
+        }
+
+        /**
+         * Set the {@link OverflowPolicy}. Defaults to {@link OverflowPolicy#BLOCK}.
+         *
+         * @param overflowPolicy Overflow policy.
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            parameterMayNotBeNull("overflowPolicy", overflowPolicy);
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Set the adapter that receives log entries when the buffer is full and the overflow policy is
+         * {@link OverflowPolicy#SPILL}. Defaults to the wrapped adapter.
+         *
+         * @param spillAdapter Spill adapter.
+         */
+        public Builder withSpillAdapter(AuditLogAdapter spillAdapter) {
+            this.spillAdapter = spillAdapter;
+            return this;
+        }
+
+        /**
+         * Set the {@link FailureHandler}. If none is set, delivery failures are reported by the next call to
+         * {@link AsyncAuditLogAdapter#flush()} or {@link AsyncAuditLogAdapter#close()}.
+         *
+         * @param failureHandler Failure handler.
+         */
+        public Builder withFailureHandler(FailureHandler failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        /**
+         * Create the adapter and start its consumer threads.
+         */
+        public AsyncAuditLogAdapter build() {
+            return new AsyncAuditLogAdapter(
+                    delegate,
+                    spillAdapter,
+                    overflowPolicy,
+                    failureHandler,
+                    capacity,
+                    batchSize,
+                    maxLinger,
+                    consumerThreads
+            );
+        }
+    }
+}
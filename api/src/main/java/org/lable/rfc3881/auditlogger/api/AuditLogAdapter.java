@@ -16,6 +16,9 @@
 package org.lable.rfc3881.auditlogger.api;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Implementing classes handle audit events and persist them to database or file, or show them in logging output.
@@ -28,4 +31,40 @@ public interface AuditLogAdapter {
      * @throws IOException Thrown when persisting the audit message failed.
      */
     void record(LogEntry logEntry) throws IOException;
+
+    /**
+     * Handle (e.g. persist or display) several audit events at once. Implementations that can amortize the cost of
+     * persisting entries (e.g., by sending them to a database in a single request) should override this method; the
+     * default implementation calls {@link #record(LogEntry)} for each entry, including those following an entry that
+     * failed.
+     * <p>
+     * Implementations that know which entries failed throw a {@link PartialFailureException} listing them, so callers
+     * retrying the failed entries don't record the others twice.
+     *
+     * @param logEntries Audit log entries to process.
+     * @throws PartialFailureException Thrown when some of the audit messages could not be persisted.
+     * @throws IOException             Thrown when persisting the audit messages failed.
+     */
+    default void recordAll(Collection<LogEntry> logEntries) throws IOException {
+        if (logEntries == null) return;
+
+        List<LogEntry> failed = new ArrayList<>();
+        Exception failure = null;
+        for (LogEntry logEntry : logEntries) {
+            try {
+                record(logEntry);
+            } catch (IOException | RuntimeException e) {
+                failed.add(logEntry);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new PartialFailureException(failed, logEntries.size(), failure);
+        }
+    }
 }
@@ -23,6 +23,10 @@ import org.lable.rfc3881.auditlogger.api.querybuilder.FindFirstQueryBuilder;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Read log entries from the audit log.
@@ -48,6 +52,68 @@ public interface AuditLogReader {
      */
     List<LogEntry> read(AuditLogQuery query, QueryLogger queryLogger) throws IOException;
 
+    /**
+     * Stream log entries from the audit log. The stream must be closed after use.
+     *
+     * @param query The {@link AuditLogQuery}.
+     * @return Log entries, in the same order {@link #read(AuditLogQuery)} returns them.
+     */
+    default Stream<LogEntry> stream(AuditLogQuery query) throws IOException {
+        return stream(query, null);
+    }
+
+    /**
+     * Stream log entries from the audit log. The stream must be closed after use; use it in a try-with-resources
+     * block. Implementations that can read entries as they are consumed do so, keeping memory use independent of
+     * the number of entries read; the default implementation reads them all up front.
+     * <p>
+     * Failures to read entries past the first are thrown as {@link java.io.UncheckedIOException}.
+     *
+     * @param query       The {@link AuditLogQuery}.
+     * @param queryLogger Target for a log line describing the query performed.
+     * @return Log entries, in the same order {@link #read(AuditLogQuery, QueryLogger)} returns them.
+     */
+    default Stream<LogEntry> stream(AuditLogQuery query, QueryLogger queryLogger) throws IOException {
+        return read(query, queryLogger).stream();
+    }
+
+    /**
+     * Publish log entries from the audit log, reading them as subscribers signal demand.
+     *
+     * @param query The {@link AuditLogQuery}.
+     * @return A publisher of the log entries, in the same order {@link #read(AuditLogQuery)} returns them.
+     */
+    default Flow.Publisher<LogEntry> publish(AuditLogQuery query) {
+        return publish(query, null);
+    }
+
+    /**
+     * Publish log entries from the audit log, reading them as subscribers signal demand. Each subscriber runs the
+     * query anew. Entries are read and delivered on the common fork-join pool by default; implementations may use an
+     * executor of their own.
+     *
+     * @param query       The {@link AuditLogQuery}.
+     * @param queryLogger Target for a log line describing the query performed.
+     * @return A publisher of the log entries, in the same order {@link #read(AuditLogQuery)} returns them.
+     */
+    default Flow.Publisher<LogEntry> publish(AuditLogQuery query, QueryLogger queryLogger) {
+        return publish(query, queryLogger, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Publish log entries from the audit log, reading them as subscribers signal demand. Each subscriber runs the
+     * query anew, through {@link #stream(AuditLogQuery, QueryLogger)}. Cancelling a subscription closes its stream.
+     * Failures are signalled through {@link Flow.Subscriber#onError(Throwable)}.
+     *
+     * @param query       The {@link AuditLogQuery}.
+     * @param queryLogger Target for a log line describing the query performed.
+     * @param executor    Executor to read and deliver the entries on. Reading blocks.
+     * @return A publisher of the log entries, in the same order {@link #read(AuditLogQuery)} returns them.
+     */
+    default Flow.Publisher<LogEntry> publish(AuditLogQuery query, QueryLogger queryLogger, Executor executor) {
+        return new StreamPublisher<>(() -> stream(query, queryLogger), executor);
+    }
+
     /**
      * Start defining the query.
      */
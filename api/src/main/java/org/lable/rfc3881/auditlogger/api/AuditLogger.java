@@ -16,17 +16,42 @@
 package org.lable.rfc3881.auditlogger.api;
 
 import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Audit logger.
+ * <p>
+ * To log asynchronously, either pass an {@link AsyncAuditLogAdapter} wrapping the adapter that persists the entries
+ * (and call {@link #close()} on shutdown), or use {@link #logAsync(LogEntry)} to learn when and under which
+ * {@link Event.EventId} each entry was persisted.
  */
-public class AuditLogger {
+public class AuditLogger implements Flushable, Closeable {
     private final AuditLogAdapter auditLogAdapter;
+    private final Executor executor;
 
     @Inject
     public AuditLogger(AuditLogAdapter auditLogAdapter) {
+        this(auditLogAdapter, null);
+    }
+
+    /**
+     * Create an audit logger that runs {@link #logAsync(LogEntry)} on the given executor.
+     *
+     * @param auditLogAdapter Adapter that persists the log entries.
+     * @param executor        Executor for asynchronous logging. If null, a virtual thread is started per entry when
+     *                        running on Java 21 or newer, and a shared pool of daemon threads is used otherwise.
+     */
+    public AuditLogger(AuditLogAdapter auditLogAdapter, Executor executor) {
         this.auditLogAdapter = auditLogAdapter;
+        this.executor = executor;
     }
 
     /**
@@ -38,4 +63,82 @@ public class AuditLogger {
     public void log(LogEntry logEntry) throws IOException {
         auditLogAdapter.record(logEntry);
     }
+
+    /**
+     * Log an audit event without blocking the calling thread.
+     * <p>
+     * The returned future completes once the {@link AuditLogAdapter} has accepted the entry, with the identifier of
+     * the event. Adapters that assign a unique identifier to each entry while recording it (such as the HBase adapter)
+     * do so before completion, so the identifier returned can be used to look the entry up later. A buffering
+     * adapter, such as {@link AsyncAuditLogAdapter}, accepts an entry before persisting it, and any unique identifier
+     * is assigned only then; the identifier returned has no unique identifier (see {@link Event.EventId#hasUid()})
+     * and cannot be used to look up the entry.
+     *
+     * @param logEntry Audit log entry to log.
+     * @return A future that completes with the identifier of the event, or exceptionally with the
+     * {@link IOException} (wrapped in a {@link CompletionException}) thrown when persisting the audit message failed.
+     */
+    public CompletableFuture<Event.EventId> logAsync(LogEntry logEntry) {
+        if (logEntry == null) return CompletableFuture.completedFuture(null);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                log(logEntry);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return idOf(logEntry.getEvent());
+        }, executor == null ? DefaultExecutor.INSTANCE : executor);
+    }
+
+    /**
+     * Wait until all audit events logged so far have been persisted. This only has an effect if the
+     * {@link AuditLogAdapter} used buffers log entries.
+     *
+     * @throws IOException Thrown when persisting buffered audit messages failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (auditLogAdapter instanceof Flushable) {
+            ((Flushable) auditLogAdapter).flush();
+        }
+    }
+
+    /**
+     * Persist all buffered audit events and release the resources held by the {@link AuditLogAdapter}. This only has
+     * an effect if the adapter used is {@link Closeable}.
+     *
+     * @throws IOException Thrown when persisting buffered audit messages failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (auditLogAdapter instanceof Closeable) {
+            ((Closeable) auditLogAdapter).close();
+        }
+    }
+
+    static Event.EventId idOf(Event event) {
+        if (event == null) return null;
+        if (event instanceof UniqueEvent) return ((UniqueEvent) event).toId();
+        return new Event.EventId(event.getId(), event.getHappenedAt(), null);
+    }
+
+    static class DefaultExecutor {
+        static final Executor INSTANCE = create();
+
+        static Executor create() {
+            try {
+                // Available from Java 21. Looked up reflectively, because this library targets Java 11.
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) factory.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                AtomicInteger counter = new AtomicInteger();
+                return Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "audit-logger-async-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
 }
@@ -0,0 +1,535 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapter.FailureHandler;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Merges identical log entries recorded within a short window into a single entry.
+ * <p>
+ * Two entries are identical when they differ only in the time their event happened. The first entry of a run of
+ * identical entries is held back for the duration of the window; every identical entry recorded in the meantime only
+ * increases its occurrence count. When the window closes, a single entry is handed to the wrapped adapter. Its event
+ * carries the time of the first occurrence, and three {@link Detail}s are added to it (see {@link CoalescedDetail}):
+ * the first and last time the event happened, and the number of occurrences. An entry that did not recur within its
+ * window is passed on unchanged.
+ * <p>
+ * By default only {@link EventAction#READ} events are merged; entries for other actions, and for the event types
+ * excluded through {@link Builder#withExcludedEventType(Referenceable)}, are passed on immediately.
+ * <p>
+ * Entries are held in memory until their window closes, so call {@link #flush()} to hand over all pending entries,
+ * and {@link #close()} on shutdown.
+ * <p>
+ * Held-back entries are handed over by whichever thread happens to close their window, so a failure of the wrapped
+ * adapter to record them is not thrown at that thread. The entries go to the {@link FailureHandler} if one was set.
+ * Otherwise they are kept, and handed over again when the next window closes or on {@link #flush()}, which throws
+ * if they still cannot be recorded. At most the maximum number of pending entries is kept this way; beyond that the
+ * oldest are dropped, and reported by the next call to {@link #flush()}.
+ */
+public class CoalescingAuditLogAdapter implements AuditLogAdapter, Flushable, Closeable {
+    private static final AtomicInteger adapterCounter = new AtomicInteger();
+
+    private final AuditLogAdapter delegate;
+    private final long windowMillis;
+    private final int maxPending;
+    private final Set<CodeReference> actions;
+    private final Set<CodeReference> excludedEventTypes;
+    private final FailureHandler failureHandler;
+
+    private final Map<List<Object>, Run> pending = new LinkedHashMap<>();
+    // Merged entries the wrapped adapter failed to record; guarded by pending.
+    private final Deque<LogEntry> undelivered = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> sweeper;
+
+    private final AtomicReference<IOException> unreportedFailure = new AtomicReference<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong failedEntries = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    CoalescingAuditLogAdapter(AuditLogAdapter delegate,
+                              Duration window,
+                              int maxPending,
+                              Set<CodeReference> actions,
+                              Set<CodeReference> excludedEventTypes,
+                              FailureHandler failureHandler) {
+        this.delegate = delegate;
+        this.windowMillis = window.toMillis();
+        this.maxPending = maxPending;
+        this.actions = actions;
+        this.excludedEventTypes = excludedEventTypes;
+        this.failureHandler = failureHandler;
+
+        String name = "audit-log-coalescing-" + adapterCounter.incrementAndGet();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(windowMillis / 4, 1);
+        this.sweeper = scheduler.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start building a coalescing adapter.
+     *
+     * @param delegate The adapter log entries are handed to.
+     * @return A builder for chaining.
+     */
+    public static Builder define(AuditLogAdapter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Record a log entry. Entries that may be merged are held back until their window closes; all others are passed
+     * on immediately.
+     *
+     * @param logEntry Audit log entry to process.
+     * @throws IOException Thrown when this adapter was closed, or when the wrapped adapter failed to record an entry
+     *                     that was passed on immediately.
+     */
+    @Override
+    public void record(LogEntry logEntry) throws IOException {
+        recordAll(Collections.singletonList(logEntry));
+    }
+
+    @Override
+    public void recordAll(Collection<LogEntry> logEntries) throws IOException {
+        if (logEntries == null || logEntries.isEmpty()) return;
+
+        List<LogEntry> passedOn = new ArrayList<>();
+        List<LogEntry> completed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (pending) {
+            // Checked under the lock close() sets it with, so no run is added after close() drained them.
+            if (closed) throw new IOException("Coalescing audit log adapter is closed.");
+            for (LogEntry logEntry : logEntries) {
+                if (logEntry == null) continue;
+                if (!mayCoalesce(logEntry)) {
+                    passedOn.add(logEntry);
+                    continue;
+                }
+
+                List<Object> key = keyOf(logEntry);
+                long happenedAt = logEntry.getEvent().getHappenedAt();
+                Run run = pending.get(key);
+                if (run != null && happenedAt >= run.first && happenedAt < run.first + windowMillis) {
+                    run.add(happenedAt);
+                    coalescedCount.incrementAndGet();
+                    continue;
+                }
+                if (run != null) {
+                    // Outside the window of the pending run; that run is complete.
+                    pending.remove(key);
+                    completed.add(run.toLogEntry());
+                }
+                if (pending.size() >= maxPending) {
+                    // Bound the memory held; the oldest run is complete soonest anyway.
+                    Iterator<Run> oldest = pending.values().iterator();
+                    completed.add(oldest.next().toLogEntry());
+                    oldest.remove();
+                }
+                pending.put(key, new Run(logEntry, now + windowMillis));
+            }
+        }
+        // Runs completed here were recorded by other callers; their failures are not thrown at this one.
+        deliverCompleted(completed);
+        deliver(passedOn);
+    }
+
+    /**
+     * Hand all pending entries to the wrapped adapter, regardless of their window, and flush it if it supports that.
+     *
+     * @throws IOException Thrown when the wrapped adapter failed to record the pending entries and no
+     *                     {@link FailureHandler} was set; the entries are kept, and handed over again later. Also
+     *                     thrown when entries were dropped since the previous flush.
+     */
+    @Override
+    public void flush() throws IOException {
+        IOException failure = deliverCompleted(drain(Long.MAX_VALUE));
+        if (failure != null) throw failure;
+        if (delegate instanceof Flushable) ((Flushable) delegate).flush();
+        throwUnreportedFailure();
+    }
+
+    /**
+     * Stop accepting new log entries and hand all pending entries to the wrapped adapter. The wrapped adapter is not
+     * closed.
+     *
+     * @throws IOException Thrown when the wrapped adapter failed. Entries it failed to record are lost, unless a
+     *                     {@link FailureHandler} was set.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (pending) {
+            closed = true;
+        }
+        sweeper.cancel(false);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(windowMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * @return Number of entries held back, waiting for their window to close.
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return Total number of entries merged into an earlier entry, and therefore not written on their own.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return Number of held-back entries the wrapped adapter failed to record, and that are kept to be handed over
+     * again.
+     */
+    public int getUndeliveredCount() {
+        synchronized (pending) {
+            return undelivered.size();
+        }
+    }
+
+    /**
+     * @return Total number of held-back entries handed to the {@link FailureHandler}, or dropped.
+     */
+    public long getFailedCount() {
+        return failedEntries.get();
+    }
+
+    boolean mayCoalesce(LogEntry logEntry) {
+        Event event = logEntry.getEvent();
+        if (event == null || !actions.contains(event.getAction())) return false;
+        if (excludedEventTypes.isEmpty()) return true;
+        if (excludedEventTypes.contains(event.getId().toCodeReference())) return false;
+        for (CodeReference type : event.getTypes()) {
+            if (excludedEventTypes.contains(type)) return false;
+        }
+        return true;
+    }
+
+    static List<Object> keyOf(LogEntry logEntry) {
+        // Everything but the time the event happened.
+        Event event = logEntry.getEvent();
+        return Arrays.asList(
+                event.getId().toCodeReference(),
+                event.getAction(),
+                event.getOutcome(),
+                event.getTypes(),
+                logEntry.getRequestor(),
+                logEntry.getDelegator(),
+                logEntry.getParticipatingPrincipals(),
+                logEntry.getNetworkAccessPoint(),
+                logEntry.getAuditSources(),
+                logEntry.getParticipantObjects(),
+                logEntry.getDetails(),
+                logEntry.getVersion()
+        );
+    }
+
+    List<LogEntry> drain(long now) {
+        List<LogEntry> ready = new ArrayList<>();
+        synchronized (pending) {
+            // Retry entries that failed before, ahead of newer ones.
+            ready.addAll(undelivered);
+            undelivered.clear();
+            Iterator<Run> runs = pending.values().iterator();
+            while (runs.hasNext()) {
+                Run run = runs.next();
+                // Runs are kept in the order they were started, so the first that is still open ends the sweep.
+                if (run.closesAt > now) break;
+                ready.add(run.toLogEntry());
+                runs.remove();
+            }
+        }
+        return ready;
+    }
+
+    void sweep() {
+        deliverCompleted(drain(System.currentTimeMillis()));
+    }
+
+    /**
+     * Hand entries that were held back to the wrapped adapter. Entries it fails to record go to the failure handler,
+     * or are kept to be handed over again.
+     *
+     * @param completed Merged entries.
+     * @return The failure, if entries were kept to be handed over again; null otherwise.
+     */
+    IOException deliverCompleted(List<LogEntry> completed) {
+        try {
+            deliver(completed);
+            return null;
+        } catch (PartialFailureException e) {
+            return handleFailure(e.getFailedEntries(), e);
+        } catch (IOException e) {
+            return handleFailure(completed, e);
+        } catch (RuntimeException e) {
+            return handleFailure(completed, new IOException(e));
+        }
+    }
+
+    IOException handleFailure(List<LogEntry> failed, IOException failure) {
+        if (failureHandler != null) {
+            failedEntries.addAndGet(failed.size());
+            try {
+                failureHandler.onFailure(failed, failure);
+            } catch (RuntimeException e) {
+                unreportedFailure.compareAndSet(null, new IOException(e));
+            }
+            return null;
+        }
+
+        int dropped = 0;
+        synchronized (pending) {
+            undelivered.addAll(failed);
+            while (undelivered.size() > maxPending) {
+                undelivered.removeFirst();
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            failedEntries.addAndGet(dropped);
+            unreportedFailure.compareAndSet(null, new IOException(
+                    "Dropped " + dropped + " held-back audit log entries the wrapped adapter failed to record.",
+                    failure
+            ));
+        }
+        return failure;
+    }
+
+    void deliver(List<LogEntry> logEntries) throws IOException {
+        if (logEntries.isEmpty()) return;
+        if (logEntries.size() == 1) {
+            delegate.record(logEntries.get(0));
+        } else {
+            delegate.recordAll(logEntries);
+        }
+    }
+
+    void throwUnreportedFailure() throws IOException {
+        IOException failure = unreportedFailure.getAndSet(null);
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * The details added to a merged log entry.
+     */
+    public enum CoalescedDetail implements Referenceable {
+        /**
+         * Time the event first happened, as an ISO-8601 instant.
+         */
+        FIRST_OCCURRENCE("first", "First occurrence"),
+        /**
+         * Time the event last happened, as an ISO-8601 instant.
+         */
+        LAST_OCCURRENCE("last", "Last occurrence"),
+        /**
+         * Number of times the event happened.
+         */
+        OCCURRENCES("count", "Occurrences");
+
+        static final String CODE_SYSTEM = "rfc3881auditlogger/coalesced";
+
+        private final String code;
+        private final String displayName;
+
+        CoalescedDetail(String code, String displayName) {
+            this.code = code;
+            this.displayName = displayName;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public CodeReference toCodeReference() {
+            return new CodeReference(CODE_SYSTEM, "Coalesced audit events", getCode(), getDisplayName(), name());
+        }
+
+        @Override
+        public String toString() {
+            return toCodeReference().toString();
+        }
+    }
+
+    static class Run {
+        final LogEntry logEntry;
+        final long first;
+        final long closesAt;
+        long last;
+        int count = 1;
+
+        Run(LogEntry logEntry, long closesAt) {
+            this.logEntry = logEntry;
+            this.first = logEntry.getEvent().getHappenedAt();
+            this.last = first;
+            this.closesAt = closesAt;
+        }
+
+        void add(long happenedAt) {
+            last = Math.max(last, happenedAt);
+            count++;
+        }
+
+        LogEntry toLogEntry() {
+            if (count == 1) return logEntry;
+
+            List<Detail> details = new ArrayList<>(logEntry.getDetails());
+            details.add(new Detail(CoalescedDetail.FIRST_OCCURRENCE, Instant.ofEpochMilli(first).toString()));
+            details.add(new Detail(CoalescedDetail.LAST_OCCURRENCE, Instant.ofEpochMilli(last).toString()));
+            details.add(new Detail(CoalescedDetail.OCCURRENCES, String.valueOf(count)));
+            return new LogEntry(
+                    logEntry.getEvent(),
+                    logEntry.getRequestor(),
+                    logEntry.getDelegator(),
+                    logEntry.getParticipatingPrincipals(),
+                    logEntry.getNetworkAccessPoint(),
+                    logEntry.getAuditSources(),
+                    logEntry.getParticipantObjects(),
+                    details,
+                    logEntry.getVersion()
+            );
+        }
+    }
+
+    public static class Builder {
+        private final AuditLogAdapter delegate;
+        private Duration window = Duration.ofSeconds(10);
+        private int maxPending = 10_000;
+        private final Set<CodeReference> actions = new HashSet<>();
+        private final Set<CodeReference> excludedEventTypes = new HashSet<>();
+        private FailureHandler failureHandler;
+
+        Builder(AuditLogAdapter delegate) {
+            parameterMayNotBeNull("delegate", delegate);
+            this.delegate = delegate;
+        }
+
+        /**
+         * Set the window within which identical entries are merged, counted from the first occurrence. Defaults to
+         * ten seconds.
+         *
+         * @param window Window.
+         */
+        public Builder withWindow(Duration window) {
+            parameterMayNotBeNull("window", window);
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("Window must be positive (" + window + " passed).");
+            }
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of entries held back at any time. When this is reached, the oldest pending entry is
+         * passed on early. Defaults to 10,000.
+         *
+         * @param maxPending Maximum number of pending entries.
+         */
+        public Builder withMaxPending(int maxPending) {
+            if (maxPending < 1) {
+                throw new IllegalArgumentException("Maximum must be positive (" + maxPending + " passed).");
+            }
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        /**
+         * Merge entries for events with this action. When not called, only {@link EventAction#READ} events are merged.
+         *
+         * @param action Event action.
+         */
+        public Builder withAction(EventAction action) {
+            parameterMayNotBeNull("action", action);
+            actions.add(action.toCodeReference());
+            return this;
+        }
+
+        /**
+         * Never merge entries for this event. Matches both the identifier and the types of an event.
+         *
+         * @param eventType Event identifier or event type.
+         */
+        public Builder withExcludedEventType(Referenceable eventType) {
+            parameterMayNotBeNull("eventType", eventType);
+            excludedEventTypes.add(eventType.toCodeReference());
+            return this;
+        }
+
+        /**
+         * Set the {@link FailureHandler} that receives held-back entries the wrapped adapter failed to record. If
+         * none is set, those entries are kept and handed over again later.
+         *
+         * @param failureHandler Failure handler.
+         */
+        public Builder withFailureHandler(FailureHandler failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        /**
+         * Create the adapter and start its background thread.
+         */
+        public CoalescingAuditLogAdapter build() {
+            Set<CodeReference> actions = new HashSet<>(this.actions);
+            if (actions.isEmpty()) actions.add(EventAction.READ.toCodeReference());
+            return new CoalescingAuditLogAdapter(
+                    delegate,
+                    window,
+                    maxPending,
+                    actions,
+                    new HashSet<>(excludedEventTypes),
+                    failureHandler
+            );
+        }
+    }
+}
@@ -304,6 +304,13 @@ public class Event implements Serializable, Comparable<Event> {
             return uid;
         }
 
+        /**
+         * @return True if this identifier carries a unique identifier, as assigned by adapters that need one.
+         */
+        public boolean hasUid() {
+            return uid != null;
+        }
+
         @Override
         public String toString() {
             return Instant.ofEpochMilli(happenedAt).toString() + " / " + (uid == null ? "-" : uid) + " / " + id.toCodeReference().toString();
@@ -0,0 +1,295 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapter.OverflowPolicy;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Hands each log entry to several adapters, concurrently.
+ * <p>
+ * Every backend adapter is wrapped in its own {@link AsyncAuditLogAdapter}, with its own bounded buffer, consumer
+ * threads, overflow policy and failure handler. Recording an entry only places it in each of those buffers, so a
+ * backend that stalls (say, a log appender blocked on a full disk) does not slow down the others.
+ * <p>
+ * Unless configured otherwise, each backend uses {@link OverflowPolicy#FAIL_FAST}, so a backend with a full buffer
+ * rejects the entry rather than block the caller. A rejection does not stop the entry from reaching the other
+ * backends; once the entry has been offered to all of them, the rejection is reported by throwing an
+ * {@link IOException}. The same goes for {@link #flush()} and {@link #close()}.
+ * <p>
+ * Adapters that assign a unique identifier to an entry (such as the HBase adapter) set it on the entry, from their
+ * own consumer threads. To keep the backends from racing each other, configure a
+ * {@link Builder#withUniqueIDGenerator(Supplier) unique ID generator}: entries are then assigned their identifier
+ * once, before they are handed to the backends, and all backends share the same entry and identifier. Without one,
+ * an entry whose event has no unique identifier yet is copied for each backend, and identifiers assigned by a backend
+ * are not visible to the caller or the other backends.
+ */
+public class FanOutAuditLogAdapter implements AuditLogAdapter, Flushable, Closeable {
+    private final List<AsyncAuditLogAdapter> backends;
+    private final Supplier<Long> uniqueIDGenerator;
+
+    FanOutAuditLogAdapter(List<AsyncAuditLogAdapter> backends, Supplier<Long> uniqueIDGenerator) {
+        this.backends = backends;
+        this.uniqueIDGenerator = uniqueIDGenerator;
+    }
+
+    /**
+     * Start building a fan-out adapter.
+     *
+     * @return A builder for chaining.
+     */
+    public static Builder define() {
+        return new Builder();
+    }
+
+    /**
+     * Place a log entry in the buffer of each backend.
+     *
+     * @param logEntry Audit log entry to process.
+     * @throws IOException Thrown when one or more backends rejected the entry. The other backends did accept it.
+     */
+    @Override
+    public void record(LogEntry logEntry) throws IOException {
+        if (logEntry == null) return;
+
+        LogEntry[] perBackend = prepare(logEntry);
+        List<IOException> failures = null;
+        for (int i = 0; i < backends.size(); i++) {
+            try {
+                backends.get(i).record(perBackend[i]);
+            } catch (IOException e) {
+                if (failures == null) failures = new ArrayList<>(1);
+                failures.add(e);
+            }
+        }
+        throwIfFailed(failures, "Recording the audit log entry failed");
+    }
+
+    /**
+     * Place log entries in the buffer of each backend. Every entry is offered to every backend, even after a backend
+     * rejected one of them.
+     *
+     * @param logEntries Audit log entries to process.
+     * @throws PartialFailureException Thrown when a single backend rejected one or more entries; lists the entries it
+     *                                 rejected.
+     * @throws IOException             Thrown when several backends rejected entries. The exception of each backend
+     *                                 (a {@link PartialFailureException}) is the cause or a suppressed exception.
+     */
+    @Override
+    public void recordAll(Collection<LogEntry> logEntries) throws IOException {
+        if (logEntries == null || logEntries.isEmpty()) return;
+
+        List<LogEntry[]> prepared = new ArrayList<>(logEntries.size());
+        for (LogEntry logEntry : logEntries) {
+            if (logEntry != null) prepared.add(prepare(logEntry));
+        }
+
+        List<IOException> failures = null;
+        for (int i = 0; i < backends.size(); i++) {
+            AsyncAuditLogAdapter backend = backends.get(i);
+            List<LogEntry> rejected = null;
+            IOException failure = null;
+            for (LogEntry[] perBackend : prepared) {
+                try {
+                    backend.record(perBackend[i]);
+                } catch (IOException e) {
+                    if (rejected == null) {
+                        rejected = new ArrayList<>();
+                        failure = e;
+                    }
+                    // Report the entry the caller passed in, not the copy made for this backend.
+                    rejected.add(perBackend[backends.size()]);
+                }
+            }
+            if (rejected != null) {
+                if (failures == null) failures = new ArrayList<>(1);
+                failures.add(new PartialFailureException(rejected, prepared.size(), failure));
+            }
+        }
+        throwIfFailed(failures, "Recording the audit log entries failed");
+    }
+
+    /**
+     * Wait until all log entries recorded so far have been handed to every backend. The backends are flushed
+     * one after the other, but they all deliver concurrently.
+     *
+     * @throws IOException Thrown when delivery to one or more backends failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        List<IOException> failures = null;
+        for (AsyncAuditLogAdapter backend : backends) {
+            try {
+                backend.flush();
+            } catch (IOException e) {
+                if (failures == null) failures = new ArrayList<>(1);
+                failures.add(e);
+            }
+        }
+        throwIfFailed(failures, "Flushing the audit log failed");
+    }
+
+    /**
+     * Deliver all buffered log entries, and stop the consumer threads of every backend.
+     *
+     * @throws IOException Thrown when delivery to one or more backends failed.
+     */
+    @Override
+    public void close() throws IOException {
+        List<IOException> failures = null;
+        for (AsyncAuditLogAdapter backend : backends) {
+            try {
+                backend.close();
+            } catch (IOException e) {
+                if (failures == null) failures = new ArrayList<>(1);
+                failures.add(e);
+            }
+        }
+        throwIfFailed(failures, "Closing the audit log failed");
+    }
+
+    /**
+     * @return The asynchronous adapter of each backend, in the order they were added. Use these to monitor the
+     * buffers and failures of each backend.
+     */
+    public List<AsyncAuditLogAdapter> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Prepare a log entry for the backends. If a unique ID generator was configured, the entry is assigned an
+     * identifier if it has none yet, and is shared by all backends. Otherwise, unless it already has an identifier,
+     * each backend gets a copy of the entry, so a backend assigning an identifier does not affect the others.
+     *
+     * @param logEntry Audit log entry.
+     * @return The entry for each backend, followed by the entry passed in.
+     */
+    LogEntry[] prepare(LogEntry logEntry) {
+        int count = backends.size();
+        LogEntry[] perBackend = new LogEntry[count + 1];
+        perBackend[count] = logEntry;
+
+        Event event = logEntry.getEvent();
+        if (uniqueIDGenerator != null && event != null && !(event instanceof UniqueEvent)) {
+            logEntry.setEvent(UniqueEvent.fromEvent(event, uniqueIDGenerator.get()));
+            event = logEntry.getEvent();
+        }
+
+        boolean shared = count == 1 || event instanceof UniqueEvent;
+        for (int i = 0; i < count; i++) {
+            perBackend[i] = shared ? logEntry : copyOf(logEntry);
+        }
+        return perBackend;
+    }
+
+    static LogEntry copyOf(LogEntry logEntry) {
+        return new LogEntry(
+                logEntry.getEvent(),
+                logEntry.getRequestor(),
+                logEntry.getDelegator(),
+                logEntry.getParticipatingPrincipals(),
+                logEntry.getNetworkAccessPoint(),
+                logEntry.getAuditSources(),
+                logEntry.getParticipantObjects(),
+                logEntry.getDetails(),
+                logEntry.getVersion()
+        );
+    }
+
+    static void throwIfFailed(List<IOException> failures, String message) throws IOException {
+        if (failures == null) return;
+        if (failures.size() == 1) throw failures.get(0);
+
+        IOException e = new IOException(message + " for " + failures.size() + " backends.", failures.get(0));
+        for (int i = 1; i < failures.size(); i++) {
+            e.addSuppressed(failures.get(i));
+        }
+        throw e;
+    }
+
+    public static class Builder {
+        private final List<AsyncAuditLogAdapter.Builder> backends = new ArrayList<>();
+        private Supplier<Long> uniqueIDGenerator = null;
+
+        Builder() {
+        }
+
+        /**
+         * Assign each log entry a unique identifier before handing it to the backends, so all backends store it
+         * under the same identifier. Entries whose event already has one keep it.
+         *
+         * @param uniqueIDGenerator Unique ID generator, e.g. a
+         *                          {@link org.lable.rfc3881.auditlogger.api.util.SnowflakeUidGenerator}.
+         */
+        public Builder withUniqueIDGenerator(Supplier<Long> uniqueIDGenerator) {
+            parameterMayNotBeNull("uniqueIDGenerator", uniqueIDGenerator);
+            this.uniqueIDGenerator = uniqueIDGenerator;
+            return this;
+        }
+
+        /**
+         * Add a backend, with the default buffer settings of {@link AsyncAuditLogAdapter} and
+         * {@link OverflowPolicy#FAIL_FAST}.
+         *
+         * @param adapter Backend adapter.
+         */
+        public Builder withBackend(AuditLogAdapter adapter) {
+            return withBackend(adapter, UnaryOperator.identity());
+        }
+
+        /**
+         * Add a backend, and configure its buffer.
+         *
+         * @param adapter    Backend adapter.
+         * @param configurer Configures the {@link AsyncAuditLogAdapter} that wraps the backend, e.g.
+         *                   {@code async -> async.withCapacity(1024).withFailureHandler(handler)}. The overflow policy
+         *                   is preset to {@link OverflowPolicy#FAIL_FAST}.
+         */
+        public Builder withBackend(AuditLogAdapter adapter,
+                                   UnaryOperator<AsyncAuditLogAdapter.Builder> configurer) {
+            parameterMayNotBeNull("adapter", adapter);
+            parameterMayNotBeNull("configurer", configurer);
+            backends.add(configurer.apply(
+                    AsyncAuditLogAdapter.define(adapter).withOverflowPolicy(OverflowPolicy.FAIL_FAST)
+            ));
+            return this;
+        }
+
+        /**
+         * Create the adapter and start the consumer threads of all backends.
+         */
+        public FanOutAuditLogAdapter build() {
+            if (backends.isEmpty()) throw new IllegalStateException("At least one backend is required.");
+
+            List<AsyncAuditLogAdapter> built = new ArrayList<>(backends.size());
+            for (AsyncAuditLogAdapter.Builder backend : backends) {
+                built.add(backend.build());
+            }
+            return new FanOutAuditLogAdapter(Collections.unmodifiableList(built), uniqueIDGenerator);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.lable.codesystem.codereference.Referenceable;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Log entry whose parts are decoded when first asked for, rather than when it is read. Meant for listings that show
+ * only a few parts of each entry. The event is always known up front.
+ * <p>
+ * Fields that were not read at all are null, or empty lists; see
+ * {@link org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQuery#setProjection}. A lazy entry equals the entry
+ * it would have been if decoded right away.
+ */
+public class LazyLogEntry extends LogEntry {
+    private static final int ALL_DECODED = (1 << Field.values().length) - 1;
+
+    private final Set<Field> fields;
+    private volatile int decoded;
+    private FieldDecoder decoder;
+
+    /**
+     * Create a new lazily decoded log entry.
+     *
+     * @param event   The event.
+     * @param fields  The fields the decoder can provide; other fields are left empty.
+     * @param decoder Decodes the fields when they are first asked for. Dropped once all fields are decoded.
+     */
+    public LazyLogEntry(Event event, Set<Field> fields, FieldDecoder decoder) {
+        super(event, null, null, null, null, null, null, null, null);
+        parameterMayNotBeNull("fields", fields);
+        parameterMayNotBeNull("decoder", decoder);
+        this.fields = fields.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(fields);
+        this.decoded = 1 << Field.EVENT.ordinal();
+        this.decoder = decoder;
+    }
+
+    /**
+     * @param field Field.
+     * @return True if the field has been decoded, or was not read at all.
+     */
+    public boolean isDecoded(Field field) {
+        return (decoded & (1 << field.ordinal())) != 0;
+    }
+
+    @Override
+    public Principal getRequestor() {
+        decode(Field.REQUESTOR);
+        return requestor;
+    }
+
+    @Override
+    public Principal getDelegator() {
+        decode(Field.DELEGATOR);
+        return delegator;
+    }
+
+    @Override
+    public List<Principal> getParticipatingPrincipals() {
+        decode(Field.PARTICIPATING_PRINCIPALS);
+        return participatingPrincipals;
+    }
+
+    @Override
+    public NetworkAccessPoint getNetworkAccessPoint() {
+        decode(Field.NETWORK_ACCESS_POINT);
+        return networkAccessPoint;
+    }
+
+    @Override
+    public List<AuditSource> getAuditSources() {
+        decode(Field.AUDIT_SOURCES);
+        return auditSources;
+    }
+
+    @Override
+    public List<ParticipantObject> getParticipantObjects() {
+        decode(Field.PARTICIPANT_OBJECTS);
+        return participantObjects;
+    }
+
+    @Override
+    public List<Detail> getDetails() {
+        decode(Field.DETAILS);
+        return details;
+    }
+
+    @Override
+    public Referenceable getVersion() {
+        decode(Field.VERSION);
+        return version;
+    }
+
+    @SuppressWarnings("unchecked")
+    void decode(Field field) {
+        int bit = 1 << field.ordinal();
+        if ((decoded & bit) != 0) return;
+
+        synchronized (this) {
+            if ((decoded & bit) != 0) return;
+
+            Object value = fields.contains(field) ? decoder.decode(field) : null;
+            switch (field) {
+                case REQUESTOR:
+                    requestor = (Principal) value;
+                    break;
+                case DELEGATOR:
+                    delegator = (Principal) value;
+                    break;
+                case PARTICIPATING_PRINCIPALS:
+                    participatingPrincipals = orEmpty((List<Principal>) value);
+                    break;
+                case NETWORK_ACCESS_POINT:
+                    networkAccessPoint = (NetworkAccessPoint) value;
+                    break;
+                case AUDIT_SOURCES:
+                    auditSources = orEmpty((List<AuditSource>) value);
+                    break;
+                case PARTICIPANT_OBJECTS:
+                    participantObjects = orEmpty((List<ParticipantObject>) value);
+                    break;
+                case DETAILS:
+                    details = orEmpty((List<Detail>) value);
+                    break;
+                case VERSION:
+                    version = (Referenceable) value;
+                    break;
+                default:
+                    break;
+            }
+
+            // Publishes the field written above to readers that see the bit set.
+            decoded |= bit;
+            if (decoded == ALL_DECODED) decoder = null;
+        }
+    }
+
+    static <T> List<T> orEmpty(List<T> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * Decodes a single field of a log entry.
+     */
+    @FunctionalInterface
+    public interface FieldDecoder {
+        /**
+         * @param field Field.
+         * @return The value of the field: a {@link Principal}, {@link NetworkAccessPoint}, {@link Referenceable}, or
+         * list of the type of the field. May be null.
+         */
+        Object decode(Field field);
+    }
+}
@@ -222,25 +222,26 @@ public class LogEntry implements Comparable<LogEntry> {
     @Override
     public boolean equals(Object other) {
         if (this == other) return true;
-        if (other == null || getClass() != other.getClass()) return false;
+        if (!(other instanceof LogEntry)) return false;
 
+        // Through the getters, so a lazily decoded entry equals its eagerly decoded counterpart.
         LogEntry that = (LogEntry) other;
-        return Objects.equals(this.event, that.event) &&
-                Objects.equals(this.requestor, that.requestor) &&
-                Objects.equals(this.delegator, that.delegator) &&
-                Objects.equals(this.participatingPrincipals, that.participatingPrincipals) &&
-                Objects.equals(this.networkAccessPoint, that.networkAccessPoint) &&
-                Objects.equals(this.auditSources, that.auditSources) &&
-                Objects.equals(this.participantObjects, that.participantObjects) &&
-                Objects.equals(this.details, that.details) &&
-                Objects.equals(this.version, that.version);
+        return Objects.equals(this.getEvent(), that.getEvent()) &&
+                Objects.equals(this.getRequestor(), that.getRequestor()) &&
+                Objects.equals(this.getDelegator(), that.getDelegator()) &&
+                Objects.equals(this.getParticipatingPrincipals(), that.getParticipatingPrincipals()) &&
+                Objects.equals(this.getNetworkAccessPoint(), that.getNetworkAccessPoint()) &&
+                Objects.equals(this.getAuditSources(), that.getAuditSources()) &&
+                Objects.equals(this.getParticipantObjects(), that.getParticipantObjects()) &&
+                Objects.equals(this.getDetails(), that.getDetails()) &&
+                Objects.equals(this.getVersion(), that.getVersion());
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(
-                event, requestor, delegator, participatingPrincipals, networkAccessPoint,
-                auditSources, participantObjects, details, version
+                getEvent(), getRequestor(), getDelegator(), getParticipatingPrincipals(), getNetworkAccessPoint(),
+                getAuditSources(), getParticipantObjects(), getDetails(), getVersion()
         );
     }
 
@@ -305,4 +306,19 @@ public class LogEntry implements Comparable<LogEntry> {
     public enum ToStringOptions {
         TRUNCATE_PARTICIPANT_OBJECTS
     }
+
+    /**
+     * The fields of a log entry, for selecting which to read.
+     */
+    public enum Field {
+        EVENT,
+        REQUESTOR,
+        DELEGATOR,
+        PARTICIPATING_PRINCIPALS,
+        NETWORK_ACCESS_POINT,
+        AUDIT_SOURCES,
+        PARTICIPANT_OBJECTS,
+        DETAILS,
+        VERSION
+    }
 }
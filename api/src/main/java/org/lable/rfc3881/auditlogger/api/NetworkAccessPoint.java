@@ -74,6 +74,19 @@ public class NetworkAccessPoint implements EntryPart, Identifiable, Serializable
         this(type.toCodeReference(), id, complete);
     }
 
+    /**
+     * Define a network access point by an arbitrary type. Prefer the specific factory methods, such as
+     * {@link #byIPAddress(String)}; this one is meant for deserializers.
+     *
+     * @param type     Type of network access point, see {@link NetworkAccessPointType}.
+     * @param id       Identifier.
+     * @param complete Mark this data as complete, or in need of further refinement.
+     * @return Network access point definition.
+     */
+    public static NetworkAccessPoint byType(Referenceable type, String id, boolean complete) {
+        return new NetworkAccessPoint(type == null ? null : type.toCodeReference(), id, complete);
+    }
+
     /**
      * Define a network access point by its hostname.
      *
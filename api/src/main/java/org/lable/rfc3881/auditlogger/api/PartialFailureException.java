@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link AuditLogAdapter#recordAll(java.util.Collection)} when some of the log entries could not be
+ * recorded. The other entries were recorded, and should not be recorded again.
+ * <p>
+ * The cause is the failure of the first failed entry; the failures of the others are added as suppressed exceptions.
+ */
+public class PartialFailureException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<LogEntry> failedEntries;
+
+    /**
+     * Create a new exception.
+     *
+     * @param failedEntries Log entries that could not be recorded.
+     * @param total         Number of log entries that were to be recorded.
+     * @param cause         Failure of the first failed entry.
+     */
+    public PartialFailureException(List<LogEntry> failedEntries, int total, Throwable cause) {
+        super("Failed to record " + failedEntries.size() + " of " + total + " audit log entries.", cause);
+        this.failedEntries = Collections.unmodifiableList(failedEntries);
+    }
+
+    /**
+     * @return The log entries that could not be recorded, in the order they were offered.
+     */
+    public List<LogEntry> getFailedEntries() {
+        return failedEntries;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer multi-consumer ring buffer.
+ * <p>
+ * Every slot carries a sequence number that tells producers and consumers whether the slot is free to be written to
+ * or ready to be read. Producers and consumers claim positions by a compare-and-set on the tail and head counters
+ * respectively, so neither side ever takes a lock.
+ *
+ * @param <E> Element type.
+ */
+class RingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Create a new ring buffer.
+     *
+     * @param capacity Requested capacity. This is rounded up to the nearest power of two, with a minimum of two;
+     *                 with a single slot the sequence numbers for 'published' and 'free' would coincide.
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1 (" + capacity + " passed).");
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element to the buffer.
+     *
+     * @param element Element to add.
+     * @return True if the element was added, false if the buffer is full.
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    // Publish the element to consumers.
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds an element from the previous lap.
+                return false;
+            } else {
+                // Another producer claimed this position.
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest element from the buffer.
+     *
+     * @return An element, or null if the buffer is empty.
+     */
+    E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.set(index, null);
+                    // Free the slot for the next lap of producers.
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // Nothing published at this position yet.
+                return null;
+            } else {
+                // Another consumer claimed this position.
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return Position of the next element to be read. This equals the total number of elements taken so far.
+     */
+    long headPosition() {
+        return head.get();
+    }
+
+    /**
+     * @return Position of the next element to be written. This equals the total number of elements added so far.
+     */
+    long tailPosition() {
+        return tail.get();
+    }
+
+    /**
+     * @return Approximate number of elements in the buffer.
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return True if the buffer appears to be empty.
+     */
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * @return Capacity of this buffer.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
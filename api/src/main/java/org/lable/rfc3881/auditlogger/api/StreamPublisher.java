@@ -0,0 +1,199 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Publishes the elements of a stream to each subscriber, pulling them from the stream only as the subscriber signals
+ * demand. Once demand is met, the stream is asked whether it has more, so completion can be signalled right away;
+ * for most streams that reads one element ahead.
+ * <p>
+ * Each subscriber gets a stream of its own, opened when it first requests elements. Elements are pulled and
+ * delivered on the executor, never on the thread calling {@link Flow.Subscription#request(long)}, so pulling may
+ * block. Cancelling a subscription closes its stream, after the element being delivered at that moment, if any.
+ * Failures to open or read the stream are signalled through {@link Flow.Subscriber#onError(Throwable)}; an
+ * {@link UncheckedIOException} is unwrapped to its cause.
+ *
+ * @param <T> Type of the elements.
+ */
+public class StreamPublisher<T> implements Flow.Publisher<T> {
+    private final StreamSource<T> source;
+    private final Executor executor;
+
+    /**
+     * Create a new publisher.
+     *
+     * @param source   Opens the stream for a subscriber.
+     * @param executor Executor to pull and deliver the elements on.
+     */
+    public StreamPublisher(StreamSource<T> source, Executor executor) {
+        parameterMayNotBeNull("source", source);
+        parameterMayNotBeNull("executor", executor);
+        this.source = source;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        parameterMayNotBeNull("subscriber", subscriber);
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Opens a stream.
+     *
+     * @param <T> Type of the elements.
+     */
+    @FunctionalInterface
+    public interface StreamSource<T> {
+        /**
+         * @return A new stream, to be closed by the caller.
+         * @throws IOException Thrown when the stream could not be opened.
+         */
+        Stream<T> open() throws IOException;
+    }
+
+    class StreamSubscription implements Flow.Subscription {
+        final Flow.Subscriber<? super T> subscriber;
+        final AtomicLong requested = new AtomicLong();
+        // Number of drain requests pending; only the thread that raises it from zero drains.
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean cancelled = false;
+        // Signalled through onError once the subscription is cancelled, if set.
+        volatile Throwable terminalError;
+
+        // Only accessed while draining.
+        Stream<T> stream;
+        Iterator<T> iterator;
+        boolean done = false;
+
+        StreamSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " elements; must be positive."));
+            } else {
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        void fail(Throwable error) {
+            if (terminalError == null) terminalError = error;
+            cancelled = true;
+        }
+
+        void schedule() {
+            if (pending.getAndIncrement() != 0) return;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // This thread holds the drain now. Once cancelled, draining pulls no more elements, only closes the
+                // stream and signals the failure, so it is done here, serialized with any other drain.
+                if (!cancelled) fail(e);
+                drain();
+            }
+        }
+
+        void drain() {
+            int missed = 1;
+            while (true) {
+                if (!done) emit();
+
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        /**
+         * Deliver elements until demand runs out, the stream ends, or the subscription is cancelled.
+         */
+        void emit() {
+            try {
+                long emitted = 0;
+                long demand = requested.get();
+                while (true) {
+                    if (cancelled) {
+                        Throwable error = terminalError;
+                        finish();
+                        if (error != null) subscriber.onError(error);
+                        return;
+                    }
+                    if (emitted == demand) {
+                        demand = requested.addAndGet(-emitted);
+                        emitted = 0;
+                        if (demand == 0) {
+                            // Signal completion without waiting for further demand, if it is known already.
+                            if (iterator != null && !iterator.hasNext()) {
+                                finish();
+                                subscriber.onComplete();
+                            }
+                            return;
+                        }
+                    }
+
+                    if (iterator == null) {
+                        stream = source.open();
+                        iterator = stream.iterator();
+                    }
+                    if (!iterator.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    T element = iterator.next();
+                    subscriber.onNext(element);
+                    emitted++;
+                }
+            } catch (IOException | RuntimeException e) {
+                Throwable error = e instanceof UncheckedIOException ? e.getCause() : e;
+                finish();
+                subscriber.onError(error);
+            }
+        }
+
+        void finish() {
+            done = true;
+            cancelled = true;
+            if (stream != null) {
+                stream.close();
+                stream = null;
+                iterator = null;
+            }
+        }
+    }
+}
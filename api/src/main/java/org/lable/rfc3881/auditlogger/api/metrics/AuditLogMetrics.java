@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api.metrics;
+
+/**
+ * Receives measurements from the write and read paths of audit log adapters and readers.
+ * <p>
+ * Implementations are called on the hot path, from many threads at once, so they must be thread-safe and cheap. All
+ * methods do nothing by default, so implementations only need to override what they are interested in. Use
+ * {@link InMemoryAuditLogMetrics} to collect histograms in-process, or implement this interface to forward the
+ * measurements to a metrics library.
+ */
+public interface AuditLogMetrics {
+    /**
+     * Metrics implementation that discards all measurements. This is the default.
+     */
+    AuditLogMetrics NOOP = new AuditLogMetrics() {
+        @Override
+        public String toString() {
+            return "No metrics";
+        }
+    };
+
+    /**
+     * @return Metrics implementation that discards all measurements.
+     */
+    static AuditLogMetrics noop() {
+        return NOOP;
+    }
+
+    /**
+     * Record the time a stage took.
+     *
+     * @param stage Stage.
+     * @param nanos Duration in nanoseconds.
+     */
+    default void recordLatency(Stage stage, long nanos) {
+    }
+
+    /**
+     * Record the size of a single log entry as written.
+     *
+     * @param bytes Total size of the values stored for the entry, in bytes.
+     */
+    default void recordEntrySize(long bytes) {
+    }
+
+    /**
+     * Record the number of cells a single log entry was written as.
+     *
+     * @param cells Number of cells.
+     */
+    default void recordCellsPerRow(int cells) {
+    }
+
+    /**
+     * Record the outcome of a query.
+     *
+     * @param scanned  Number of rows read from storage.
+     * @param returned Number of log entries returned.
+     */
+    default void recordRows(long scanned, long returned) {
+    }
+
+    /**
+     * Record a failure.
+     *
+     * @param stage Stage that failed.
+     */
+    default void recordFailure(Stage stage) {
+    }
+
+    /**
+     * Stages of writing and reading log entries.
+     */
+    enum Stage {
+        /**
+         * Serializing the parts of a log entry (write path).
+         */
+        SERIALIZE,
+        /**
+         * Building the row key of a log entry (write path).
+         */
+        ROW_KEY,
+        /**
+         * Handing the serialized entries to storage (write path).
+         */
+        PUT,
+        /**
+         * Running a query, from start to finish (read path).
+         */
+        QUERY,
+        /**
+         * Opening a scanner (read path).
+         */
+        SCAN_OPEN,
+        /**
+         * Opening a scanner up to receiving its first row (read path).
+         */
+        FIRST_ROW,
+        /**
+         * Deserializing a single row into a log entry (read path).
+         */
+        DECODE
+    }
+}
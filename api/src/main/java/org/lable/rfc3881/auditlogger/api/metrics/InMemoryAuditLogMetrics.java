@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects audit log metrics in memory, as {@link Histogram}s and counters. Poll the getters periodically (e.g., from
+ * a health check or a metrics exporter) to alert on latency regressions.
+ */
+public class InMemoryAuditLogMetrics implements AuditLogMetrics {
+    private final Map<Stage, Histogram> latencies = new EnumMap<>(Stage.class);
+    private final Map<Stage, LongAdder> failures = new EnumMap<>(Stage.class);
+    private final Histogram entrySize = new Histogram();
+    private final Histogram cellsPerRow = new Histogram();
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+
+    public InMemoryAuditLogMetrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new Histogram());
+            failures.put(stage, new LongAdder());
+        }
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    @Override
+    public void recordEntrySize(long bytes) {
+        entrySize.record(bytes);
+    }
+
+    @Override
+    public void recordCellsPerRow(int cells) {
+        cellsPerRow.record(cells);
+    }
+
+    @Override
+    public void recordRows(long scanned, long returned) {
+        rowsScanned.add(scanned);
+        rowsReturned.add(returned);
+    }
+
+    @Override
+    public void recordFailure(Stage stage) {
+        failures.get(stage).increment();
+    }
+
+    /**
+     * @param stage Stage.
+     * @return Latencies of the stage, in nanoseconds.
+     */
+    public Histogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    /**
+     * @param stage Stage.
+     * @return Number of failures of the stage.
+     */
+    public long getFailures(Stage stage) {
+        return failures.get(stage).sum();
+    }
+
+    /**
+     * @return Sizes of the log entries written, in bytes.
+     */
+    public Histogram getEntrySize() {
+        return entrySize;
+    }
+
+    /**
+     * @return Number of cells per log entry written.
+     */
+    public Histogram getCellsPerRow() {
+        return cellsPerRow;
+    }
+
+    /**
+     * @return Total number of rows read by queries.
+     */
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    /**
+     * @return Total number of log entries returned by queries.
+     */
+    public long getRowsReturned() {
+        return rowsReturned.sum();
+    }
+
+    /**
+     * Discard everything collected so far.
+     */
+    public void reset() {
+        latencies.values().forEach(Histogram::reset);
+        failures.values().forEach(LongAdder::reset);
+        entrySize.reset();
+        cellsPerRow.reset();
+        rowsScanned.reset();
+        rowsReturned.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Histogram latency = latencies.get(stage);
+            long failed = getFailures(stage);
+            if (latency.getCount() == 0 && failed == 0) continue;
+            sb.append(stage).append(" (ns): ").append(latency);
+            if (failed > 0) sb.append(" failures=").append(failed);
+            sb.append('\n');
+        }
+        if (entrySize.getCount() > 0) {
+            sb.append("Entry size (bytes): ").append(entrySize).append('\n');
+            sb.append("Cells per row: ").append(cellsPerRow).append('\n');
+        }
+        if (getRowsScanned() > 0) {
+            sb.append("Rows scanned: ").append(getRowsScanned())
+                    .append(", returned: ").append(getRowsReturned()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -17,17 +17,26 @@
 package org.lable.rfc3881.auditlogger.api.querybuilder;
 
 import org.lable.rfc3881.auditlogger.api.Event.EventId;
+import org.lable.rfc3881.auditlogger.api.LazyLogEntry;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
 import org.lable.rfc3881.auditlogger.api.LogFilter;
 
 import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class AuditLogQuery {
+    private static final Set<Field> ALL_FIELDS = Collections.unmodifiableSet(EnumSet.allOf(Field.class));
+
     private Object from;
     private Object to;
     private boolean toInclusive = false;
     private boolean fromInclusive = true;
     private Long limit;
     private LogFilter filter;
+    private Set<Field> projection = ALL_FIELDS;
+    private boolean lazyDecoding = false;
 
     public void setFrom(Instant from, boolean inclusive) {
         this.from = from;
@@ -57,6 +66,31 @@ public class AuditLogQuery {
         this.filter = filter;
     }
 
+    /**
+     * Read only some fields of the log entries; the others are left empty. The event is always read.
+     *
+     * @param projection Fields to read, or null to read all.
+     */
+    public void setProjection(Set<Field> projection) {
+        if (projection == null) {
+            this.projection = ALL_FIELDS;
+            return;
+        }
+        EnumSet<Field> fields = EnumSet.of(Field.EVENT);
+        fields.addAll(projection);
+        this.projection = Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * Decode the fields of the log entries other than the event when they are first asked for; see
+     * {@link LazyLogEntry}.
+     *
+     * @param lazyDecoding Whether to decode lazily.
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
     public boolean hasFrom() {
         return from != null;
     }
@@ -97,12 +131,32 @@ public class AuditLogQuery {
         return filter;
     }
 
+    /**
+     * @return The fields to read.
+     */
+    public Set<Field> getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return True if only some fields are to be read.
+     */
+    public boolean hasProjection() {
+        return projection.size() < ALL_FIELDS.size();
+    }
+
+    public boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
     @Override
     public String toString() {
         return "Query:\n" +
                 "    from: " + (from == null ? "-" : from) + "\n" +
                 "      to: " + (to == null ? "-" : to) + "\n" +
                 "   limit: " + (limit == null ? "-" : limit) + "\n" +
-                "  filter: " + (filter == null ? "-" : filter);
+                "  filter: " + (filter == null ? "-" : filter) +
+                (hasProjection() ? "\n  fields: " + projection : "") +
+                (lazyDecoding ? "\n    lazy: yes" : "");
     }
 }
@@ -24,7 +24,11 @@ import org.lable.rfc3881.auditlogger.api.LogFilter;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 public class AuditLogQueryBuilder {
     private final AuditLogQuery query;
@@ -150,6 +154,26 @@ public class AuditLogQueryBuilder {
         return this;
     }
 
+    /**
+     * Read only some fields of the log entries; the others are left empty. The event is always read. Cuts down on
+     * the data transferred and decoded for listings that show only a few fields.
+     *
+     * @param fields Fields to read.
+     */
+    public AuditLogQueryBuilder withProjection(LogEntry.Field... fields) {
+        query.setProjection(new HashSet<>(Arrays.asList(fields)));
+        return this;
+    }
+
+    /**
+     * Decode the fields of the log entries other than the event when they are first asked for, rather than when the
+     * entries are read; see {@link org.lable.rfc3881.auditlogger.api.LazyLogEntry}.
+     */
+    public AuditLogQueryBuilder withLazyDecoding() {
+        query.setLazyDecoding(true);
+        return this;
+    }
+
     /**
      * Get the {@link AuditLogQuery}.
      */
@@ -163,4 +187,18 @@ public class AuditLogQueryBuilder {
     public List<LogEntry> execute() throws IOException {
         return reader.read(query, queryLogger);
     }
+
+    /**
+     * Execute the query, reading the entries as the stream is consumed. The stream must be closed after use.
+     */
+    public Stream<LogEntry> stream() throws IOException {
+        return reader.stream(query, queryLogger);
+    }
+
+    /**
+     * Publish the results of the query, reading the entries as subscribers signal demand.
+     */
+    public Flow.Publisher<LogEntry> publish() {
+        return reader.publish(query, queryLogger);
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Generates unique 64-bit identifiers without coordination, suitable as the {@code uid-generator} for the HBase
+ * adapter.
+ * <p>
+ * Each identifier is composed of:
+ * <pre>
+ *     [0 (1 bit)][milliseconds since 2015-01-01 (41 bits)][node ID (10 bits)][sequence (12 bits)]
+ * </pre>
+ * As long as every process generating identifiers for the same table is given its own node ID, identifiers never
+ * collide. No shared service is contacted.
+ * <p>
+ * Generation is lock-free: the last issued timestamp and sequence are held in a single atomic long that is advanced by
+ * compare-and-set. When the 4096 identifiers available for a millisecond run out, or when the system clock moves
+ * backwards, the generator continues with the next millisecond rather than waiting, so the timestamp embedded in an
+ * identifier may briefly run ahead of the clock.
+ * <p>
+ * With many cores hammering a single generator, the compare-and-set on the shared state becomes the bottleneck. The
+ * {@link #striped(int, int) striped} variant splits the sequence space into stripes, each with its own state, and
+ * assigns threads to stripes.
+ */
+public class SnowflakeUidGenerator implements Supplier<Long> {
+    /**
+     * 2015-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = 1420070400000L;
+    public static final int NODE_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+    public static final int MAX_STRIPES = 64;
+
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * Stripe states are spaced this many longs apart, to keep them on separate cache lines.
+     */
+    static final int PADDING = 8;
+
+    private final long nodeBits;
+    private final int stripeMask;
+    private final int localSequenceBits;
+    private final long localSequenceMask;
+    private final AtomicLongArray states;
+    private final LongSupplier clock;
+
+    SnowflakeUidGenerator(int nodeId, int stripes, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException(
+                    "Node ID must be between 0 and " + MAX_NODE_ID + " (" + nodeId + " passed).");
+        }
+        if (stripes < 1 || stripes > MAX_STRIPES || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException(
+                    "Number of stripes must be a power of two no larger than " + MAX_STRIPES +
+                            " (" + stripes + " passed).");
+        }
+        ParameterValidation.parameterMayNotBeNull("clock", clock);
+
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.stripeMask = stripes - 1;
+        this.localSequenceBits = SEQUENCE_BITS - Integer.numberOfTrailingZeros(stripes);
+        this.localSequenceMask = (1L << localSequenceBits) - 1;
+        this.states = new AtomicLongArray(stripes * PADDING);
+        this.clock = clock;
+    }
+
+    /**
+     * Create a generator.
+     *
+     * @param nodeId Node ID, between 0 and {@link #MAX_NODE_ID}. This must be unique among all processes writing to
+     *               the same table.
+     */
+    public SnowflakeUidGenerator(int nodeId) {
+        this(nodeId, 1, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a generator that spreads its threads over several independent stripes. Each stripe can hand out
+     * {@code 4096 / stripes} identifiers per millisecond.
+     *
+     * @param nodeId  Node ID, between 0 and {@link #MAX_NODE_ID}. This must be unique among all processes writing to
+     *                the same table.
+     * @param stripes Number of stripes; a power of two no larger than {@link #MAX_STRIPES}.
+     * @return A generator.
+     */
+    public static SnowflakeUidGenerator striped(int nodeId, int stripes) {
+        return new SnowflakeUidGenerator(nodeId, stripes, System::currentTimeMillis);
+    }
+
+    /**
+     * @return A new unique identifier.
+     */
+    @Override
+    public Long get() {
+        return next();
+    }
+
+    /**
+     * @return A new unique identifier.
+     */
+    public long next() {
+        int stripe = stripeMask == 0 ? 0 : (int) Thread.currentThread().getId() & stripeMask;
+        int index = stripe * PADDING;
+
+        // The state holds the last timestamp handed out by this stripe, shifted left, and the local sequence.
+        while (true) {
+            long last = states.get(index);
+            long lastTimestamp = last >>> localSequenceBits;
+            long now = clock.getAsLong() - EPOCH;
+
+            long next;
+            if (now > lastTimestamp) {
+                next = now << localSequenceBits;
+            } else if ((last & localSequenceMask) == localSequenceMask) {
+                // Sequence exhausted for this millisecond (or the clock went backwards); borrow the next one.
+                next = (lastTimestamp + 1) << localSequenceBits;
+            } else {
+                next = last + 1;
+            }
+
+            if (states.compareAndSet(index, last, next)) {
+                long timestamp = next >>> localSequenceBits;
+                long sequence = ((long) stripe << localSequenceBits) | (next & localSequenceMask);
+                return (timestamp << (NODE_ID_BITS + SEQUENCE_BITS)) | nodeBits | sequence;
+            }
+        }
+    }
+
+    /**
+     * @param uid Identifier generated by this class.
+     * @return The timestamp embedded in the identifier, in milliseconds since the Unix epoch.
+     */
+    public static long timestampOf(long uid) {
+        return (uid >>> (NODE_ID_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * @param uid Identifier generated by this class.
+     * @return The node ID embedded in the identifier.
+     */
+    public static int nodeIdOf(long uid) {
+        return (int) (uid >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+
+    /**
+     * @param uid Identifier generated by this class.
+     * @return The sequence number embedded in the identifier.
+     */
+    public static int sequenceOf(long uid) {
+        return (int) (uid & SEQUENCE_MASK);
+    }
+}
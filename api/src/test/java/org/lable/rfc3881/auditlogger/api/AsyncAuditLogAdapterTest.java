@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapter.OverflowPolicy;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AsyncAuditLogAdapterTest {
+    @Test
+    public void flushDeliversEverythingTest() throws IOException, InterruptedException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(recorded::add)
+                .withCapacity(64)
+                .withBatchSize(10)
+                .withMaxLinger(Duration.ofSeconds(10))
+                .withConsumerThreads(3)
+                .build();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    try {
+                        adapter.record(entry(i));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Despite the long linger time, flush should not have to wait for it.
+        adapter.flush();
+        assertThat(recorded.size(), is(1000));
+
+        adapter.close();
+    }
+
+    @Test
+    public void closeDeliversEverythingTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(recorded::add)
+                .withBatchSize(7)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            adapter.record(entry(i));
+        }
+        adapter.close();
+
+        assertThat(recorded.size(), is(100));
+    }
+
+    @Test(expected = IOException.class)
+    public void recordAfterCloseTest() throws IOException {
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(logEntry -> {}).build();
+        adapter.close();
+        adapter.record(entry(0));
+    }
+
+    @Test
+    public void recordRacingCloseTest() throws IOException, InterruptedException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(recorded::add)
+                .withBatchSize(5)
+                .withConsumerThreads(2)
+                .build();
+
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        adapter.record(entry(i));
+                    } catch (IOException e) {
+                        // Closed.
+                        return;
+                    }
+                    accepted.incrementAndGet();
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        Thread.sleep(50);
+        adapter.close();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Every entry accepted was delivered.
+        assertThat(recorded.size(), is(accepted.get()));
+    }
+
+    @Test
+    public void interruptedConsumerTest() throws IOException, InterruptedException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(recorded::add).build();
+
+        // An idle consumer that is interrupted stops, rather than spinning.
+        Thread consumer = adapter.consumers.get(0);
+        consumer.interrupt();
+        consumer.join(5000);
+        assertThat(consumer.isAlive(), is(false));
+
+        try {
+            adapter.record(entry(0));
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("The consumer threads of the asynchronous audit log adapter have stopped."));
+        }
+        adapter.close();
+    }
+
+    @Test
+    public void failFastTest() throws IOException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(logEntry -> await(release))
+                .withCapacity(2)
+                .withBatchSize(1)
+                .withOverflowPolicy(OverflowPolicy.FAIL_FAST)
+                .build();
+
+        // One entry is held by the blocked consumer, two fill up the buffer.
+        adapter.record(entry(0));
+        Thread.sleep(100);
+        adapter.record(entry(1));
+        adapter.record(entry(2));
+
+        try {
+            adapter.record(entry(3));
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        release.countDown();
+        adapter.close();
+    }
+
+    @Test
+    public void spillTest() throws IOException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<LogEntry> spilled = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(logEntry -> await(release))
+                .withCapacity(2)
+                .withBatchSize(1)
+                .withOverflowPolicy(OverflowPolicy.SPILL)
+                .withSpillAdapter(spilled::add)
+                .build();
+
+        // One entry is held by the blocked consumer, two fill up the buffer.
+        adapter.record(entry(0));
+        Thread.sleep(100);
+        adapter.record(entry(1));
+        adapter.record(entry(2));
+        adapter.record(entry(3));
+
+        assertThat(spilled, is(Collections.singletonList(entry(3))));
+
+        release.countDown();
+        adapter.close();
+    }
+
+    @Test
+    public void failureReportedOnFlushTest() throws IOException {
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(logEntry -> {
+            throw new IOException("Backend down.");
+        }).build();
+
+        adapter.record(entry(0));
+        try {
+            adapter.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Backend down."));
+        }
+
+        assertThat(adapter.getFailedCount(), is(1L));
+        adapter.close();
+    }
+
+    @Test
+    public void failureHandlerTest() throws IOException {
+        List<LogEntry> failed = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(logEntry -> {
+            throw new IOException("Backend down.");
+        }).withFailureHandler((logEntries, cause) -> failed.addAll(logEntries)).build();
+
+        adapter.record(entry(0));
+        adapter.record(entry(1));
+        adapter.flush();
+
+        assertThat(failed.size(), is(2));
+        adapter.close();
+    }
+
+    @Test
+    public void partialFailureTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        AuditLogAdapter delegate = logEntry -> {
+            if (logEntry.equals(entry(2))) throw new IOException("Rejected.");
+            recorded.add(logEntry);
+        };
+
+        // The default recordAll tries every entry, and lists the ones that failed.
+        try {
+            delegate.recordAll(List.of(entry(0), entry(1), entry(2), entry(3), entry(4)));
+            fail("Expected a PartialFailureException.");
+        } catch (PartialFailureException e) {
+            assertThat(e.getFailedEntries(), is(List.of(entry(2))));
+            assertThat(e.getCause().getMessage(), is("Rejected."));
+        }
+        assertThat(recorded, is(List.of(entry(0), entry(1), entry(3), entry(4))));
+
+        // Only the entry that failed is reported, so retrying it doesn't write the others twice.
+        recorded.clear();
+        List<LogEntry> failed = new CopyOnWriteArrayList<>();
+        AsyncAuditLogAdapter adapter = AsyncAuditLogAdapter.define(delegate)
+                .withBatchSize(5)
+                .withMaxLinger(Duration.ofSeconds(10))
+                .withFailureHandler((logEntries, cause) -> failed.addAll(logEntries))
+                .build();
+        for (int i = 0; i < 5; i++) {
+            adapter.record(entry(i));
+        }
+        adapter.flush();
+
+        assertThat(recorded, is(List.of(entry(0), entry(1), entry(3), entry(4))));
+        assertThat(failed, is(List.of(entry(2))));
+        assertThat(adapter.getFailedCount(), is(1L));
+        adapter.close();
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static LogEntry entry(int i) {
+        return new LogEntry(
+                new Event(new CodeReference("events", "event-" + i), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                new Principal("bob"),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
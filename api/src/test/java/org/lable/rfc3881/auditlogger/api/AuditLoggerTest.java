@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AuditLoggerTest {
+    @Test
+    public void logAsyncTest() throws ExecutionException, InterruptedException {
+        AtomicLong uid = new AtomicLong(100);
+        // Assigns a unique identifier, like the HBase adapter does.
+        AuditLogger auditLogger = new AuditLogger(
+                logEntry -> logEntry.setEvent(UniqueEvent.fromEvent(logEntry.getEvent(), uid.getAndIncrement()))
+        );
+
+        List<CompletableFuture<Event.EventId>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(auditLogger.logAsync(entry(i)));
+        }
+
+        long uidSum = 0;
+        for (int i = 0; i < 100; i++) {
+            Event.EventId id = futures.get(i).get();
+            assertThat(id.getHappenedAt(), is(1000L + i));
+            assertThat(id.getId(), is(new CodeReference("events", "event-" + i)));
+            assertThat(id.hasUid(), is(true));
+            uidSum += id.getUid();
+        }
+        // Every entry got its own uid.
+        assertThat(uidSum, is((100L + 199L) * 100 / 2));
+    }
+
+    @Test
+    public void logAsyncWithoutUidTest() throws ExecutionException, InterruptedException {
+        AuditLogger auditLogger = new AuditLogger(logEntry -> {});
+
+        Event.EventId id = auditLogger.logAsync(entry(1)).get();
+        assertThat(id.getHappenedAt(), is(1001L));
+        assertThat(id.hasUid(), is(false));
+    }
+
+    @Test
+    public void logAsyncNullTest() throws ExecutionException, InterruptedException {
+        AuditLogger auditLogger = new AuditLogger(logEntry -> fail("Null entries should not be recorded."));
+
+        assertThat(auditLogger.logAsync(null).get(), is(nullValue()));
+    }
+
+    @Test
+    public void logAsyncFailureTest() throws InterruptedException {
+        AuditLogger auditLogger = new AuditLogger(logEntry -> {
+            throw new IOException("Storage unavailable.");
+        });
+
+        try {
+            auditLogger.logAsync(entry(1)).get();
+            fail("Expected an ExecutionException.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+            assertThat(e.getCause().getMessage(), is("Storage unavailable."));
+        }
+    }
+
+    @Test
+    public void logAsyncCustomExecutorTest() throws ExecutionException, InterruptedException {
+        AtomicInteger executed = new AtomicInteger();
+        AuditLogger auditLogger = new AuditLogger(logEntry -> {}, runnable -> {
+            executed.incrementAndGet();
+            runnable.run();
+        });
+
+        CompletableFuture<Event.EventId> future = auditLogger.logAsync(entry(1));
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get().getHappenedAt(), is(1001L));
+        assertThat(executed.get(), is(1));
+    }
+
+    static LogEntry entry(int i) {
+        return new LogEntry(
+                new Event(new CodeReference("events", "event-" + i), EventAction.READ, 1000L + i, EventOutcome.SUCCESS),
+                new Principal("bob"),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.CoalescingAuditLogAdapter.CoalescedDetail;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CoalescingAuditLogAdapterTest {
+    @Test
+    public void identicalEntriesAreMergedTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMinutes(1))
+                .build();
+
+        adapter.record(entry("view", EventAction.READ, 1000L, "bob"));
+        adapter.record(entry("view", EventAction.READ, 1500L, "bob"));
+        adapter.record(entry("view", EventAction.READ, 2000L, "bob"));
+        assertThat(recorded.size(), is(0));
+        assertThat(adapter.getPendingCount(), is(1));
+
+        adapter.flush();
+
+        assertThat(recorded.size(), is(1));
+        LogEntry merged = recorded.get(0);
+        assertThat(merged.getEvent().getHappenedAt(), is(1000L));
+        assertThat(merged.getDetails(), is(Arrays.asList(
+                new Detail(CoalescedDetail.FIRST_OCCURRENCE, "1970-01-01T00:00:01Z"),
+                new Detail(CoalescedDetail.LAST_OCCURRENCE, "1970-01-01T00:00:02Z"),
+                new Detail(CoalescedDetail.OCCURRENCES, "3")
+        )));
+        assertThat(adapter.getCoalescedCount(), is(2L));
+        adapter.close();
+    }
+
+    @Test
+    public void differentEntriesAreNotMergedTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMinutes(1))
+                .build();
+
+        LogEntry first = entry("view", EventAction.READ, 1000L, "bob");
+        LogEntry second = entry("view", EventAction.READ, 1000L, "alice");
+        adapter.record(first);
+        adapter.record(second);
+        adapter.flush();
+
+        // Single occurrences are passed on unchanged.
+        assertThat(recorded, is(Arrays.asList(first, second)));
+        adapter.close();
+    }
+
+    @Test
+    public void windowTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofSeconds(10))
+                .build();
+
+        adapter.record(entry("view", EventAction.READ, 1000L, "bob"));
+        adapter.record(entry("view", EventAction.READ, 5000L, "bob"));
+        // Outside the window of the first occurrence, so the first run is passed on.
+        adapter.record(entry("view", EventAction.READ, 11000L, "bob"));
+        assertThat(recorded.size(), is(1));
+        assertThat(recorded.get(0).getDetails().get(2).getValue(), is("2"));
+
+        adapter.close();
+        assertThat(recorded.size(), is(2));
+        assertThat(recorded.get(1).getEvent().getHappenedAt(), is(11000L));
+    }
+
+    @Test
+    public void windowClosesInBackgroundTest() throws IOException, InterruptedException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMillis(50))
+                .build();
+
+        long now = System.currentTimeMillis();
+        adapter.record(entry("view", EventAction.READ, now, "bob"));
+        adapter.record(entry("view", EventAction.READ, now + 1, "bob"));
+
+        for (int i = 0; i < 100 && recorded.isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(recorded.size(), is(1));
+        assertThat(adapter.getPendingCount(), is(0));
+        adapter.close();
+    }
+
+    @Test
+    public void exclusionsTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMinutes(1))
+                .withExcludedEventType(new CodeReference("events", "export"))
+                .build();
+
+        // Excluded event type, and an action not merged by default.
+        adapter.record(entry("export", EventAction.READ, 1000L, "bob"));
+        adapter.record(entry("export", EventAction.READ, 1001L, "bob"));
+        adapter.record(entry("view", EventAction.UPDATE, 1000L, "bob"));
+        adapter.record(entry("view", EventAction.UPDATE, 1001L, "bob"));
+
+        assertThat(recorded.size(), is(4));
+        assertThat(adapter.getPendingCount(), is(0));
+        adapter.close();
+    }
+
+    @Test
+    public void maxPendingTest() throws IOException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMinutes(1))
+                .withMaxPending(2)
+                .build();
+
+        adapter.recordAll(Arrays.asList(
+                entry("view", EventAction.READ, 1000L, "alice"),
+                entry("view", EventAction.READ, 1000L, "bob"),
+                entry("view", EventAction.READ, 1000L, "carol")
+        ));
+
+        assertThat(recorded.size(), is(1));
+        assertThat(recorded.get(0).getRequestor(), is(new Principal("alice")));
+        assertThat(adapter.getPendingCount(), is(2));
+        adapter.close();
+    }
+
+    @Test
+    public void undeliveredRunsAreKeptTest() throws IOException {
+        AtomicBoolean down = new AtomicBoolean(true);
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(logEntry -> {
+            if (down.get()) throw new IOException("Backend down.");
+            recorded.add(logEntry);
+        })
+                .withWindow(Duration.ofMinutes(1))
+                .withMaxPending(2)
+                .build();
+
+        adapter.record(entry("view", EventAction.READ, 1000L, "alice"));
+        adapter.record(entry("view", EventAction.READ, 1000L, "bob"));
+        // Pushes out the entry of alice, which fails; not this caller's problem.
+        adapter.record(entry("view", EventAction.READ, 1000L, "carol"));
+        assertThat(adapter.getUndeliveredCount(), is(1));
+
+        try {
+            adapter.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("Failed to record 3 of 3 audit log entries."));
+        }
+        // No more than the maximum number of pending entries are kept; the oldest was dropped.
+        assertThat(adapter.getUndeliveredCount(), is(2));
+        assertThat(adapter.getFailedCount(), is(1L));
+
+        down.set(false);
+        try {
+            adapter.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(),
+                    is("Dropped 1 held-back audit log entries the wrapped adapter failed to record."));
+        }
+        assertThat(recorded.size(), is(2));
+        assertThat(recorded.get(0).getRequestor(), is(new Principal("bob")));
+        assertThat(adapter.getUndeliveredCount(), is(0));
+        adapter.close();
+    }
+
+    @Test
+    public void failureHandlerTest() throws IOException {
+        List<LogEntry> failed = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(logEntry -> {
+            if (logEntry.getRequestor().getUserId().equals("alice")) throw new IOException("Backend down.");
+        })
+                .withWindow(Duration.ofMinutes(1))
+                .withMaxPending(1)
+                .withFailureHandler((logEntries, cause) -> failed.addAll(logEntries))
+                .build();
+
+        adapter.record(entry("view", EventAction.READ, 1000L, "alice"));
+        adapter.record(entry("view", EventAction.READ, 1000L, "bob"));
+        adapter.flush();
+
+        assertThat(failed.size(), is(1));
+        assertThat(failed.get(0).getRequestor(), is(new Principal("alice")));
+        assertThat(adapter.getFailedCount(), is(1L));
+        assertThat(adapter.getUndeliveredCount(), is(0));
+        adapter.close();
+    }
+
+    @Test
+    public void recordRacingCloseTest() throws IOException, InterruptedException {
+        List<LogEntry> recorded = new CopyOnWriteArrayList<>();
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(recorded::add)
+                .withWindow(Duration.ofMinutes(1))
+                .build();
+
+        // Every entry is held back in a run of its own.
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String user = "user-" + t + "-";
+            Thread producer = new Thread(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        adapter.record(entry("view", EventAction.READ, 1000L, user + i));
+                    } catch (IOException e) {
+                        // Closed.
+                        return;
+                    }
+                    accepted.incrementAndGet();
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        Thread.sleep(50);
+        adapter.close();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Every entry accepted was delivered.
+        assertThat(recorded.size(), is(accepted.get()));
+        assertThat(adapter.getPendingCount(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void recordAfterCloseTest() throws IOException {
+        CoalescingAuditLogAdapter adapter = CoalescingAuditLogAdapter.define(logEntry -> {}).build();
+        adapter.close();
+        adapter.recordAll(Collections.singletonList(entry("view", EventAction.READ, 1000L, "bob")));
+    }
+
+    static LogEntry entry(String event, EventAction action, long happenedAt, String user) {
+        return new LogEntry(
+                new Event(new CodeReference("events", event), action, happenedAt, EventOutcome.SUCCESS),
+                new Principal(user),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapterTest.await;
+import static org.lable.rfc3881.auditlogger.api.AsyncAuditLogAdapterTest.entry;
+
+public class FanOutAuditLogAdapterTest {
+    @Test
+    public void deliversToAllBackendsTest() throws IOException {
+        List<LogEntry> first = new CopyOnWriteArrayList<>();
+        List<LogEntry> second = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(first::add)
+                .withBackend(second::add, async -> async.withBatchSize(3).withConsumerThreads(2))
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            adapter.record(entry(i));
+        }
+        adapter.flush();
+
+        assertThat(first.size(), is(100));
+        assertThat(second.size(), is(100));
+        adapter.close();
+    }
+
+    @Test
+    public void stalledBackendDoesNotBlockOthersTest() throws IOException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<LogEntry> healthy = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(logEntry -> await(release), async -> async.withCapacity(1000))
+                .withBackend(healthy::add)
+                .build();
+
+        for (int i = 0; i < 50; i++) {
+            adapter.record(entry(i));
+        }
+        adapter.getBackends().get(1).flush();
+
+        assertThat(healthy.size(), is(50));
+
+        release.countDown();
+        adapter.close();
+    }
+
+    @Test
+    public void rejectionReachesOtherBackendsTest() throws IOException, InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<LogEntry> healthy = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(logEntry -> await(release), async -> async.withCapacity(2).withBatchSize(1))
+                .withBackend(healthy::add)
+                .build();
+
+        // One entry is held by the blocked consumer, two fill up the buffer.
+        adapter.record(entry(0));
+        Thread.sleep(100);
+        adapter.record(entry(1));
+        adapter.record(entry(2));
+
+        try {
+            adapter.record(entry(3));
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        adapter.getBackends().get(1).flush();
+        assertThat(healthy.size(), is(4));
+
+        release.countDown();
+        adapter.close();
+    }
+
+    @Test
+    public void failuresAreCombinedTest() throws IOException {
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(logEntry -> {
+                    throw new IOException("First down.");
+                })
+                .withBackend(logEntry -> {
+                    throw new IOException("Second down.");
+                })
+                .build();
+
+        adapter.record(entry(0));
+        try {
+            adapter.flush();
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertThat(e.getCause().getMessage(), is("First down."));
+            assertThat(e.getSuppressed()[0].getMessage(), is("Second down."));
+        }
+        adapter.close();
+    }
+
+    @Test
+    public void uniqueIDAssignedOnceTest() throws IOException {
+        AtomicLong uid = new AtomicLong(1);
+        List<LogEntry> first = new CopyOnWriteArrayList<>();
+        List<LogEntry> second = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(assigningUid(first, new AtomicLong(100)))
+                .withBackend(assigningUid(second, new AtomicLong(200)))
+                .withUniqueIDGenerator(uid::getAndIncrement)
+                .build();
+
+        LogEntry logEntry = entry(0);
+        adapter.record(logEntry);
+        adapter.flush();
+
+        assertThat(((UniqueEvent) logEntry.getEvent()).getUid(), is(1L));
+        assertThat(first.get(0), is(sameInstance(logEntry)));
+        assertThat(second.get(0), is(sameInstance(logEntry)));
+        adapter.close();
+    }
+
+    @Test
+    public void backendsGetTheirOwnCopyTest() throws IOException {
+        List<LogEntry> first = new CopyOnWriteArrayList<>();
+        List<LogEntry> second = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(assigningUid(first, new AtomicLong(100)))
+                .withBackend(assigningUid(second, new AtomicLong(200)))
+                .build();
+
+        LogEntry logEntry = entry(0);
+        adapter.record(logEntry);
+        adapter.flush();
+
+        // Neither backend sees the identifier assigned by the other.
+        assertThat(((UniqueEvent) first.get(0).getEvent()).getUid(), is(100L));
+        assertThat(((UniqueEvent) second.get(0).getEvent()).getUid(), is(200L));
+        assertThat(first.get(0), is(not(sameInstance(second.get(0)))));
+        assertThat(logEntry.getEvent() instanceof UniqueEvent, is(false));
+        adapter.close();
+    }
+
+    @Test
+    public void recordAllOffersEveryEntryTest() throws IOException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<LogEntry> healthy = new CopyOnWriteArrayList<>();
+        FanOutAuditLogAdapter adapter = FanOutAuditLogAdapter.define()
+                .withBackend(logEntry -> await(release), async -> async.withCapacity(2).withBatchSize(1))
+                .withBackend(healthy::add)
+                .build();
+
+        List<LogEntry> logEntries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            logEntries.add(entry(i));
+        }
+        try {
+            adapter.recordAll(logEntries);
+            fail("Expected a PartialFailureException.");
+        } catch (PartialFailureException e) {
+            // The stalled backend took at most three entries (one held by its consumer, two buffered).
+            List<LogEntry> rejected = e.getFailedEntries();
+            assertThat(rejected.size() >= 3, is(true));
+            assertThat(rejected.get(rejected.size() - 1), is(sameInstance(logEntries.get(5))));
+        }
+
+        adapter.getBackends().get(1).flush();
+        assertThat(healthy.size(), is(6));
+
+        release.countDown();
+        adapter.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noBackendsTest() {
+        FanOutAuditLogAdapter.define().build();
+    }
+
+    /**
+     * A backend that assigns identifiers to the entries it receives, as the HBase adapter does.
+     */
+    static AuditLogAdapter assigningUid(List<LogEntry> recorded, AtomicLong uid) {
+        return logEntry -> {
+            if (!(logEntry.getEvent() instanceof UniqueEvent)) {
+                logEntry.setEvent(UniqueEvent.fromEvent(logEntry.getEvent(), uid.getAndIncrement()));
+            }
+            recorded.add(logEntry);
+        };
+    }
+}
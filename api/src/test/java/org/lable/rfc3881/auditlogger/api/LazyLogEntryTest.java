@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.LogEntry.Field;
+import org.lable.rfc3881.auditlogger.api.querybuilder.AuditLogQuery;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.AuditSourceType;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LazyLogEntryTest {
+    static final LogEntry ENTRY = new LogEntry(
+            new Event(new CodeReference("events", "logon"), EventAction.EXECUTE, 1000L, EventOutcome.SUCCESS),
+            new Principal("bob"),
+            new Principal("alice"),
+            Collections.singletonList(new Principal("carol")),
+            NetworkAccessPoint.byIPAddress("127.0.0.1"),
+            Collections.singletonList(new AuditSource("cluster", "tomcat1", AuditSourceType.WEB_SERVER_PROCESS)),
+            null,
+            Collections.singletonList(new Detail(new CodeReference("dt", "d"), "X")),
+            new CodeReference("version", "1")
+    );
+
+    @Test
+    public void decodedOnDemandTest() {
+        List<Field> asked = new ArrayList<>();
+        LazyLogEntry lazy = new LazyLogEntry(ENTRY.getEvent(), EnumSet.allOf(Field.class), field -> {
+            asked.add(field);
+            return valueOf(field);
+        });
+
+        assertThat(lazy.getEvent(), is(ENTRY.getEvent()));
+        assertThat(asked.isEmpty(), is(true));
+        assertThat(lazy.isDecoded(Field.REQUESTOR), is(false));
+
+        assertThat(lazy.getRequestor(), is(ENTRY.getRequestor()));
+        assertThat(lazy.getRequestor(), is(ENTRY.getRequestor()));
+        assertThat(asked, is(Collections.singletonList(Field.REQUESTOR)));
+        assertThat(lazy.isDecoded(Field.REQUESTOR), is(true));
+
+        // Equality decodes the rest.
+        assertThat(lazy, is(ENTRY));
+        assertThat(ENTRY, is(lazy));
+        assertThat(lazy.hashCode(), is(ENTRY.hashCode()));
+        assertThat(asked.size(), is(Field.values().length - 1));
+    }
+
+    @Test
+    public void projectionTest() {
+        LazyLogEntry lazy = new LazyLogEntry(
+                ENTRY.getEvent(),
+                EnumSet.of(Field.EVENT, Field.REQUESTOR),
+                field -> {
+                    if (field != Field.REQUESTOR) throw new AssertionError("Not projected: " + field);
+                    return valueOf(field);
+                }
+        );
+
+        assertThat(lazy.getRequestor(), is(ENTRY.getRequestor()));
+        assertThat(lazy.getDelegator(), is(nullValue()));
+        assertThat(lazy.getParticipatingPrincipals().isEmpty(), is(true));
+        assertThat(lazy.getAuditSources().isEmpty(), is(true));
+        assertThat(lazy.getDetails().isEmpty(), is(true));
+        assertThat(lazy.getVersion(), is(nullValue()));
+    }
+
+    @Test
+    public void queryProjectionTest() {
+        AuditLogQuery query = new AuditLogQuery();
+        assertThat(query.hasProjection(), is(false));
+        assertThat(query.getProjection(), is(EnumSet.allOf(Field.class)));
+
+        // The event is always read.
+        query.setProjection(EnumSet.of(Field.REQUESTOR));
+        assertThat(query.hasProjection(), is(true));
+        assertThat(query.getProjection(), is(EnumSet.of(Field.EVENT, Field.REQUESTOR)));
+
+        query.setProjection(null);
+        assertThat(query.hasProjection(), is(false));
+    }
+
+    static Object valueOf(Field field) {
+        switch (field) {
+            case REQUESTOR:
+                return ENTRY.getRequestor();
+            case DELEGATOR:
+                return ENTRY.getDelegator();
+            case PARTICIPATING_PRINCIPALS:
+                return ENTRY.getParticipatingPrincipals();
+            case NETWORK_ACCESS_POINT:
+                return ENTRY.getNetworkAccessPoint();
+            case AUDIT_SOURCES:
+                return ENTRY.getAuditSources();
+            case PARTICIPANT_OBJECTS:
+                return null;
+            case DETAILS:
+                return ENTRY.getDetails();
+            case VERSION:
+                return ENTRY.getVersion();
+            default:
+                throw new AssertionError("Unexpected field: " + field);
+        }
+    }
+}
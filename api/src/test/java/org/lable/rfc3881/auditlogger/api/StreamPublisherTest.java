@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StreamPublisherTest {
+    static final Executor DIRECT = Runnable::run;
+
+    @Test
+    public void demandTest() {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger pulled = new AtomicInteger();
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> {
+            opened.incrementAndGet();
+            return IntStream.range(0, 10).boxed().peek(i -> pulled.incrementAndGet());
+        }, DIRECT);
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        assertThat(opened.get(), is(0));
+
+        // One element is read ahead, to learn whether the stream has ended.
+        subscriber.subscription.request(3);
+        assertThat(subscriber.received, is(List.of(0, 1, 2)));
+        assertThat(pulled.get(), is(4));
+
+        subscriber.subscription.request(2);
+        assertThat(subscriber.received, is(List.of(0, 1, 2, 3, 4)));
+        assertThat(pulled.get(), is(6));
+        assertThat(subscriber.completed, is(false));
+
+        // Each subscriber gets a stream of its own.
+        RecordingSubscriber<Integer> other = new RecordingSubscriber<>();
+        publisher.subscribe(other);
+        other.subscription.request(1);
+        assertThat(other.received, is(List.of(0)));
+        assertThat(opened.get(), is(2));
+    }
+
+    @Test
+    public void completeTest() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> Stream.of(1, 2, 3), DIRECT);
+
+        RecordingSubscriber<Integer> unbounded = new RecordingSubscriber<>();
+        publisher.subscribe(unbounded);
+        unbounded.subscription.request(Long.MAX_VALUE);
+        assertThat(unbounded.received, is(List.of(1, 2, 3)));
+        assertThat(unbounded.completed, is(true));
+
+        // Completion is signalled without further demand once the end is known.
+        RecordingSubscriber<Integer> exact = new RecordingSubscriber<>();
+        publisher.subscribe(exact);
+        exact.subscription.request(3);
+        assertThat(exact.received, is(List.of(1, 2, 3)));
+        assertThat(exact.completed, is(true));
+        assertThat(exact.error, is(nullValue()));
+    }
+
+    @Test
+    public void cancelTest() {
+        AtomicBoolean closed = new AtomicBoolean();
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(
+                () -> IntStream.range(0, 10).boxed().onClose(() -> closed.set(true)),
+                DIRECT
+        );
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertThat(closed.get(), is(false));
+
+        subscriber.subscription.cancel();
+        assertThat(closed.get(), is(true));
+        subscriber.subscription.request(5);
+        assertThat(subscriber.received, is(List.of(0, 1)));
+        assertThat(subscriber.completed, is(false));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void openFailureTest() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> {
+            throw new IOException("Region unavailable.");
+        }, DIRECT);
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertThat(subscriber.error, is(instanceOf(IOException.class)));
+    }
+
+    @Test
+    public void readFailureTest() {
+        AtomicBoolean closed = new AtomicBoolean();
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> Stream.of(1, 2, 3)
+                .peek(i -> {
+                    if (i == 2) throw new UncheckedIOException(new IOException("Scanner timeout."));
+                })
+                .onClose(() -> closed.set(true)), DIRECT);
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(10);
+        assertThat(subscriber.received, is(List.of(1)));
+        assertThat(subscriber.error, is(instanceOf(IOException.class)));
+        assertThat(closed.get(), is(true));
+    }
+
+    @Test
+    public void invalidRequestTest() {
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> Stream.of(1, 2, 3), DIRECT);
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+    }
+
+    @Test
+    public void rejectedExecutionTest() {
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicBoolean shutDown = new AtomicBoolean();
+        Executor executor = runnable -> {
+            if (shutDown.get()) throw new RejectedExecutionException("Shut down.");
+            runnable.run();
+        };
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(
+                () -> IntStream.range(0, 10).boxed().onClose(() -> closed.set(true)),
+                executor
+        );
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(2);
+
+        // The failure is signalled, and the stream closed, through the same drain as the elements.
+        shutDown.set(true);
+        subscriber.subscription.request(1);
+        assertThat(subscriber.received, is(List.of(0, 1)));
+        assertThat(subscriber.error, is(instanceOf(RejectedExecutionException.class)));
+        assertThat(closed.get(), is(true));
+
+        subscriber.error = null;
+        subscriber.subscription.request(1);
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void requestFromOnNextTest() {
+        // Requesting more from within onNext must not recurse.
+        StreamPublisher<Integer> publisher = new StreamPublisher<>(() -> IntStream.range(0, 100_000).boxed(), DIRECT);
+
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>() {
+            @Override
+            public void onNext(Integer item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertThat(subscriber.received.size(), is(100_000));
+        assertThat(subscriber.completed, is(true));
+    }
+
+    @Test
+    public void executorTest() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            StreamPublisher<Integer> publisher =
+                    new StreamPublisher<>(() -> IntStream.range(0, 1000).boxed(), executor);
+
+            RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+            publisher.subscribe(subscriber);
+            for (int i = 0; i < 100; i++) {
+                subscriber.subscription.request(10);
+            }
+
+            assertThat(subscriber.done.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(subscriber.received, is(IntStream.range(0, 1000).boxed().collect(Collectors.toList())));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final List<T> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile boolean completed = false;
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HistogramTest {
+    @Test
+    public void indexTest() {
+        assertThat(Histogram.indexOf(0), is(0));
+        assertThat(Histogram.indexOf(127), is(127));
+        assertThat(Histogram.indexOf(128), is(128));
+        assertThat(Histogram.indexOf(129), is(128));
+        assertThat(Histogram.indexOf(Long.MAX_VALUE), is(Histogram.BUCKETS - 1));
+
+        // Every bucket maps back onto itself.
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertThat(Histogram.indexOf(Histogram.lowestValueAt(i)), is(i));
+            assertThat(Histogram.indexOf(Histogram.highestValueAt(i)), is(i));
+        }
+    }
+
+    @Test
+    public void emptyTest() {
+        Histogram histogram = new Histogram();
+
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMin(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(histogram.getValueAtPercentile(99), is(0L));
+    }
+
+    @Test
+    public void exactBelow128Test() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMin(), is(1L));
+        assertThat(histogram.getMax(), is(100L));
+        assertThat(histogram.getMean(), is(50.5));
+        assertThat(histogram.getValueAtPercentile(50), is(50L));
+        assertThat(histogram.getValueAtPercentile(99), is(99L));
+        assertThat(histogram.getValueAtPercentile(100), is(100L));
+    }
+
+    @Test
+    public void precisionTest() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            // Latencies between 10 µs and 1 s.
+            long value = (long) Math.pow(10, 4 + random.nextDouble() * 5);
+            values.add(value);
+            histogram.record(value);
+        }
+        values.sort(Long::compare);
+
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values.get((int) Math.ceil(percentile / 100 * values.size()) - 1);
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertThat((double) reported, is(closeTo(exact, exact / 64.0)));
+        }
+        assertThat(histogram.getValueAtPercentile(100), is(lessThanOrEqualTo(values.get(values.size() - 1))));
+    }
+
+    @Test
+    public void resetTest() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.record(-5);
+        assertThat(histogram.getMin(), is(0L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(histogram.getValueAtPercentile(50), is(0L));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.api.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SnowflakeUidGeneratorTest {
+    static final long NOW = 1630008292944L;
+
+    @Test
+    public void compositionTest() {
+        SnowflakeUidGenerator generator = new SnowflakeUidGenerator(513, 1, () -> NOW);
+
+        long first = generator.next();
+        long second = generator.next();
+
+        assertThat(SnowflakeUidGenerator.timestampOf(first), is(NOW));
+        assertThat(SnowflakeUidGenerator.nodeIdOf(first), is(513));
+        assertThat(SnowflakeUidGenerator.sequenceOf(first), is(0));
+        assertThat(SnowflakeUidGenerator.sequenceOf(second), is(1));
+        assertThat(first > 0, is(true));
+    }
+
+    @Test
+    public void sequenceOverflowBorrowsNextMillisecondTest() {
+        SnowflakeUidGenerator generator = new SnowflakeUidGenerator(1, 1, () -> NOW);
+
+        long last = 0;
+        for (int i = 0; i < 4097; i++) {
+            long uid = generator.next();
+            assertThat(uid > last, is(true));
+            last = uid;
+        }
+
+        assertThat(SnowflakeUidGenerator.timestampOf(last), is(NOW + 1));
+        assertThat(SnowflakeUidGenerator.sequenceOf(last), is(0));
+    }
+
+    @Test
+    public void clockMovingBackwardsTest() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeUidGenerator generator = new SnowflakeUidGenerator(1, 1, clock::get);
+
+        long before = generator.next();
+        clock.set(NOW - 1000);
+        long after = generator.next();
+
+        assertThat(after > before, is(true));
+    }
+
+    @Test
+    public void noCollisionsAcrossThreadsAndNodesTest() throws InterruptedException {
+        // Use a frozen clock, to make the generators exhaust their sequences.
+        LongSupplier clock = () -> NOW;
+        List<SnowflakeUidGenerator> generators = Arrays.asList(
+                new SnowflakeUidGenerator(1, 1, clock),
+                new SnowflakeUidGenerator(2, 1, clock),
+                new SnowflakeUidGenerator(3, 8, clock)
+        );
+
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        AtomicLong duplicates = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (SnowflakeUidGenerator generator : generators) {
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        if (!seen.add(generator.next())) duplicates.incrementAndGet();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(duplicates.get(), is(0L));
+        assertThat(seen.size(), is(12 * 20_000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeIdOutOfRangeTest() {
+        new SnowflakeUidGenerator(1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stripesNotAPowerOfTwoTest() {
+        SnowflakeUidGenerator.striped(1, 3);
+    }
+
+    @Test
+    @Ignore
+    public void contentionBenchmark() throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int perThread = 2_000_000;
+
+        Object lock = new Object();
+        long[] lastIssued = new long[1];
+        LongSupplier synchronizedBaseline = () -> {
+            synchronized (lock) {
+                return ++lastIssued[0];
+            }
+        };
+
+        for (int round = 0; round < 5; round++) {
+            SnowflakeUidGenerator single = new SnowflakeUidGenerator(1);
+            SnowflakeUidGenerator striped = SnowflakeUidGenerator.striped(1, 16);
+
+            System.out.printf("Round %d, %d threads:%n", round, threads);
+            System.out.printf("  synchronized: %,12.0f ids/s%n", measure(threads, perThread, synchronizedBaseline));
+            System.out.printf("  CAS:          %,12.0f ids/s%n", measure(threads, perThread, single::next));
+            System.out.printf("  striped CAS:  %,12.0f ids/s%n", measure(threads, perThread, striped::next));
+        }
+    }
+
+    static double measure(int threadCount, int perThread, LongSupplier generator) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        long[] sinks = new long[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int index = t;
+            threads.add(new Thread(() -> {
+                long sink = 0;
+                for (int i = 0; i < perThread; i++) {
+                    sink ^= generator.getAsLong();
+                }
+                sinks[index] = sink;
+            }));
+        }
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long took = System.nanoTime() - start;
+
+        return (double) threadCount * perThread / (took / 1e9);
+    }
+}
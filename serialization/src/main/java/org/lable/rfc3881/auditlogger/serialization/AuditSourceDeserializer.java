@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.AuditSource;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Deserialize {@link AuditSource} from JSON.
+ */
+class AuditSourceDeserializer extends EntryPartDeserializer<AuditSource> {
+    private static final long serialVersionUID = 1569425306937405824L;
+
+    AuditSourceDeserializer(CodeReferenceDeserializer codeReferenceDeserializer) {
+        super(AuditSource.class, codeReferenceDeserializer);
+    }
+
+    @Override
+    public AuditSource deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        String enterpriseSiteId = null;
+        String id = null;
+        boolean complete = true;
+        List<CodeReference> typeCodes = null;
+
+        for (String field = firstField(parser, context); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "enterpriseSiteId":
+                    enterpriseSiteId = readString(parser, context);
+                    break;
+                case "id":
+                    id = readString(parser, context);
+                    break;
+                case "complete":
+                    complete = readComplete(parser, context);
+                    break;
+                case "typeCodes":
+                    typeCodes = readReferences(parser, context);
+                    break;
+                default:
+                    unknownField(parser, context, field);
+            }
+        }
+
+        try {
+            return new AuditSource(enterpriseSiteId, id, complete,
+                    typeCodes == null ? null : typeCodes.toArray(new CodeReference[0]));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw invalid(context, e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.AuditSource;
+
+import java.io.IOException;
+
+/**
+ * Serialize {@link AuditSource} to JSON.
+ */
+class AuditSourceSerializer extends EntryPartSerializer<AuditSource> {
+    private static final long serialVersionUID = -1846709263325105866L;
+
+    AuditSourceSerializer(JsonSerializer<Referenceable> referenceableSerializer) {
+        super(AuditSource.class, referenceableSerializer);
+    }
+
+    @Override
+    void writeFields(AuditSource value, JsonGenerator generator, SerializerProvider provider, Inclusion inclusion)
+            throws IOException {
+        writeString(generator, "enterpriseSiteId", value.getEnterpriseSiteId(), inclusion);
+        writeString(generator, "id", value.getId(), inclusion);
+        writeComplete(generator, value);
+        writeReferences(generator, provider, "typeCodes", value.getTypeCodes(), inclusion);
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and writes the parts of a log entry in {@link EntryEncoding#BINARY}.
+ * <p>
+ * Values are stored as:
+ * <pre>
+ *     [0x02][format version][type][fields]
+ * </pre>
+ * Fields are written in a fixed order per type, without names. Numbers, lengths and counts are written as
+ * variable-length integers; strings as their UTF-8 length plus one (zero being null) followed by their bytes.
+ * A code reference is written as a single number if the {@link CodeSystemDictionary} knows it, as the number of its
+ * code system followed by its code if it knows only the code system, or as two strings otherwise. Like the default
+ * JSON encoding, only the code system and code of code references are kept.
+ */
+final class BinaryEntryCodec {
+    static final byte MARKER = 0x02;
+    static final byte FORMAT_VERSION = 0x01;
+    static final int HEADER_LENGTH = 3;
+
+    static final byte EVENT = 1;
+    static final byte PRINCIPAL = 2;
+    static final byte NETWORK_ACCESS_POINT = 3;
+    static final byte AUDIT_SOURCE = 4;
+    static final byte PARTICIPANT_OBJECT = 5;
+    static final byte DETAILS = 6;
+    static final byte DETAIL = 7;
+    static final byte CODE_REFERENCE = 8;
+
+    /**
+     * Bit set in the flags of an entry part if it is not complete.
+     */
+    static final int INCOMPLETE = 1;
+
+    private final CodeSystemDictionary dictionary;
+    private final ThreadLocal<Output> buffers = ThreadLocal.withInitial(() -> new Output(256));
+
+    BinaryEntryCodec(CodeSystemDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    CodeSystemDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @param value Value.
+     * @return True if the value can be written by this codec. Lists can be written if they hold only details.
+     */
+    static boolean supports(Object value) {
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!(element instanceof Detail)) return false;
+            }
+            return true;
+        }
+        return value instanceof Event
+                || value instanceof Principal
+                || value instanceof NetworkAccessPoint
+                || value instanceof AuditSource
+                || value instanceof ParticipantObject
+                || value instanceof Detail
+                || value instanceof CodeReference;
+    }
+
+    @SuppressWarnings("unchecked")
+    byte[] write(Object value) {
+        Output out = buffers.get();
+        try {
+            out.writeByte(MARKER);
+            out.writeByte(FORMAT_VERSION);
+            if (value instanceof Event) {
+                out.writeByte(EVENT);
+                writeEvent(out, (Event) value);
+            } else if (value instanceof Principal) {
+                out.writeByte(PRINCIPAL);
+                writePrincipal(out, (Principal) value);
+            } else if (value instanceof NetworkAccessPoint) {
+                out.writeByte(NETWORK_ACCESS_POINT);
+                writeNetworkAccessPoint(out, (NetworkAccessPoint) value);
+            } else if (value instanceof AuditSource) {
+                out.writeByte(AUDIT_SOURCE);
+                writeAuditSource(out, (AuditSource) value);
+            } else if (value instanceof ParticipantObject) {
+                out.writeByte(PARTICIPANT_OBJECT);
+                writeParticipantObject(out, (ParticipantObject) value);
+            } else if (value instanceof List) {
+                out.writeByte(DETAILS);
+                writeDetails(out, (List<Detail>) value);
+            } else if (value instanceof Detail) {
+                out.writeByte(DETAIL);
+                writeDetail(out, (Detail) value);
+            } else if (value instanceof CodeReference) {
+                out.writeByte(CODE_REFERENCE);
+                writeReference(out, (CodeReference) value);
+            } else {
+                throw new IllegalArgumentException("Type not supported: " + value.getClass().getName() + ".");
+            }
+            return out.toByteArray();
+        } finally {
+            if (out.capacity() > EntryCodecs.MAX_RETAINED_BUFFER) {
+                buffers.remove();
+            } else {
+                out.reset();
+            }
+        }
+    }
+
+    /**
+     * Read a value.
+     *
+     * @param value Serialized value.
+     * @param type  Type to read. Details lists can be read as {@link List} or {@link ArrayList}.
+     * @param <T>   Type to read.
+     * @return The value.
+     * @throws IOException Thrown when the value is not of the type requested, when it is corrupt, or when it refers
+     *                     to code systems or references the dictionary does not know.
+     */
+    <T> T read(byte[] value, Class<T> type) throws IOException {
+        Input in = new Input(value);
+        byte tag = in.readHeader();
+        Object result;
+        try {
+            switch (tag) {
+                case EVENT:
+                    result = readEvent(in);
+                    break;
+                case PRINCIPAL:
+                    result = readPrincipal(in);
+                    break;
+                case NETWORK_ACCESS_POINT:
+                    result = readNetworkAccessPoint(in);
+                    break;
+                case AUDIT_SOURCE:
+                    result = readAuditSource(in);
+                    break;
+                case PARTICIPANT_OBJECT:
+                    result = readParticipantObject(in);
+                    break;
+                case DETAILS:
+                    result = readDetails(in);
+                    break;
+                case DETAIL:
+                    result = readDetail(in);
+                    break;
+                case CODE_REFERENCE:
+                    result = readReference(in);
+                    break;
+                default:
+                    throw new IOException("Binary value has an unknown type (" + tag + ").");
+            }
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IOException("Binary value holds an invalid entry part.", e);
+        }
+
+        if (result != null && !type.isInstance(result)) {
+            throw new IOException("Binary value holds a " + result.getClass().getSimpleName() +
+                    ", not a " + type.getSimpleName() + ".");
+        }
+        return type.cast(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Detail> readDetails(byte[] value) throws IOException {
+        return read(value, List.class);
+    }
+
+    void writeEvent(Output out, Event event) {
+        writeReference(out, event.getId());
+        out.writeVarLong(event.getHappenedAt());
+        writeReference(out, event.getAction());
+        writeReference(out, event.getOutcome());
+        writeReferences(out, event.getTypes());
+    }
+
+    Event readEvent(Input in) throws IOException {
+        CodeReference id = readReference(in);
+        long happenedAt = in.readVarLong();
+        CodeReference action = readReference(in);
+        CodeReference outcome = readReference(in);
+        List<CodeReference> types = readReferences(in);
+        return new Event(id, action, happenedAt, outcome, types);
+    }
+
+    void writePrincipal(Output out, Principal principal) {
+        out.writeVarInt(flags(principal));
+        out.writeString(principal.getUserId());
+        out.writeStrings(principal.getAlternateUserId());
+        out.writeString(principal.getName());
+        writeReferences(out, principal.getRelevantRoles());
+    }
+
+    Principal readPrincipal(Input in) throws IOException {
+        int flags = in.readVarInt();
+        String userId = in.readString();
+        List<String> alternateUserId = in.readStrings();
+        String name = in.readString();
+        List<CodeReference> relevantRoles = readReferences(in);
+        return new Principal(userId, alternateUserId, name, isComplete(flags), relevantRoles);
+    }
+
+    void writeNetworkAccessPoint(Output out, NetworkAccessPoint accessPoint) {
+        out.writeVarInt(flags(accessPoint));
+        writeReference(out, accessPoint.getType());
+        out.writeString(accessPoint.getId());
+    }
+
+    NetworkAccessPoint readNetworkAccessPoint(Input in) throws IOException {
+        int flags = in.readVarInt();
+        CodeReference type = readReference(in);
+        String id = in.readString();
+        return NetworkAccessPoint.byType(type, id, isComplete(flags));
+    }
+
+    void writeAuditSource(Output out, AuditSource auditSource) {
+        out.writeVarInt(flags(auditSource));
+        out.writeString(auditSource.getEnterpriseSiteId());
+        out.writeString(auditSource.getId());
+        writeReferences(out, auditSource.getTypeCodes());
+    }
+
+    AuditSource readAuditSource(Input in) throws IOException {
+        int flags = in.readVarInt();
+        String enterpriseSiteId = in.readString();
+        String id = in.readString();
+        List<CodeReference> typeCodes = readReferences(in);
+        return new AuditSource(enterpriseSiteId, id, isComplete(flags), typeCodes.toArray(new CodeReference[0]));
+    }
+
+    void writeParticipantObject(Output out, ParticipantObject object) {
+        out.writeVarInt(flags(object));
+        out.writeString(object.getId());
+        writeReference(out, object.getType());
+        writeReference(out, object.getIdType());
+        writeReference(out, object.getTypeRole());
+        writeReference(out, object.getDataLifeCycle());
+        writeReference(out, object.getSensitivity());
+        out.writeString(object.getName());
+        out.writeString(object.getQuery());
+        writeDetails(out, object.getDetails());
+    }
+
+    ParticipantObject readParticipantObject(Input in) throws IOException {
+        int flags = in.readVarInt();
+        String id = in.readString();
+        CodeReference type = readReference(in);
+        CodeReference idType = readReference(in);
+        CodeReference typeRole = readReference(in);
+        CodeReference dataLifeCycle = readReference(in);
+        CodeReference sensitivity = readReference(in);
+        String name = in.readString();
+        String query = in.readString();
+        List<Detail> details = readDetails(in);
+        return new ParticipantObject(id, type, idType, typeRole, dataLifeCycle, sensitivity, name, query,
+                isComplete(flags), details.toArray(new Detail[0]));
+    }
+
+    void writeDetails(Output out, List<Detail> details) {
+        if (details == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(details.size());
+        for (Detail detail : details) {
+            writeDetail(out, detail);
+        }
+    }
+
+    List<Detail> readDetails(Input in) throws IOException {
+        int count = in.readCount();
+        List<Detail> details = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            details.add(readDetail(in));
+        }
+        return details;
+    }
+
+    void writeDetail(Output out, Detail detail) {
+        writeReference(out, detail.getType());
+        out.writeString(detail.getValue());
+    }
+
+    Detail readDetail(Input in) throws IOException {
+        CodeReference type = readReference(in);
+        String value = in.readString();
+        return new Detail(type, value);
+    }
+
+    /**
+     * Write a code reference as 0 if null; as 1 followed by its code system and code if the dictionary knows
+     * neither; as {@code 2 + 2 × id} for a known reference; or as {@code 3 + 2 × id} for a known code system,
+     * followed by the code.
+     */
+    void writeReference(Output out, Referenceable referenceable) {
+        if (referenceable == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        CodeReference reference = referenceable.toCodeReference();
+        int id = dictionary.referenceId(reference);
+        if (id >= 0) {
+            out.writeVarInt(2 + 2 * id);
+            return;
+        }
+        int codeSystemId = dictionary.codeSystemId(reference.getCodeSystem());
+        if (codeSystemId >= 0) {
+            out.writeVarInt(3 + 2 * codeSystemId);
+        } else {
+            out.writeVarInt(1);
+            out.writeString(reference.getCodeSystem());
+        }
+        out.writeString(reference.getCode());
+    }
+
+    CodeReference readReference(Input in) throws IOException {
+        int tag = in.readVarInt();
+        if (tag == 0) return null;
+        if (tag == 1) return new CodeReference(in.readString(), in.readString());
+
+        int id = (tag - 2) / 2;
+        if (tag % 2 == 0) {
+            CodeReference reference = dictionary.reference(id);
+            if (reference == null) {
+                throw new IOException("Binary value refers to an unknown code reference (" + id + ").");
+            }
+            return reference;
+        }
+        String codeSystem = dictionary.codeSystem(id);
+        if (codeSystem == null) {
+            throw new IOException("Binary value refers to an unknown code system (" + id + ").");
+        }
+        return new CodeReference(codeSystem, in.readString());
+    }
+
+    void writeReferences(Output out, List<? extends Referenceable> references) {
+        if (references == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(references.size());
+        for (Referenceable reference : references) {
+            writeReference(out, reference);
+        }
+    }
+
+    List<CodeReference> readReferences(Input in) throws IOException {
+        int count = in.readCount();
+        if (count == 0) return Collections.emptyList();
+        List<CodeReference> references = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CodeReference reference = readReference(in);
+            if (reference != null) references.add(reference);
+        }
+        return references;
+    }
+
+    static int flags(EntryPart entryPart) {
+        return entryPart.isComplete() ? 0 : INCOMPLETE;
+    }
+
+    static boolean isComplete(int flags) {
+        return (flags & INCOMPLETE) == 0;
+    }
+
+    static boolean isBinary(byte[] value) {
+        return value != null && value.length >= HEADER_LENGTH && value[0] == MARKER;
+    }
+
+    /**
+     * Growable output buffer.
+     */
+    static final class Output {
+        private byte[] bytes;
+        private int length;
+
+        Output(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Write a zig-zag encoded variable-length long, so timestamps take six bytes rather than eight.
+         */
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            long zigZag = (value << 1) ^ (value >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            bytes[length++] = (byte) zigZag;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length + 1);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        void writeStrings(List<String> values) {
+            if (values == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    /**
+     * Input cursor, failing with an {@link IOException} on truncated values.
+     */
+    static final class Input {
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readHeader() throws IOException {
+            if (!isBinary(bytes)) throw new IOException("Not a binary value.");
+            if (bytes[1] != FORMAT_VERSION) {
+                throw new IOException("Binary value has an unsupported format version (" + bytes[1] + ").");
+            }
+            position = HEADER_LENGTH;
+            return bytes[2];
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Binary value holds a malformed number.");
+        }
+
+        long readVarLong() throws IOException {
+            long zigZag = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                zigZag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+            throw new IOException("Binary value holds a malformed number.");
+        }
+
+        /**
+         * Read the number of elements of a list, which can be no more than the bytes remaining.
+         */
+        int readCount() throws IOException {
+            int count = readVarInt();
+            if (count < 0 || count > bytes.length - position) throw truncated();
+            return count;
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length == -1) return null;
+            if (length < 0 || length > bytes.length - position) throw truncated();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        List<String> readStrings() throws IOException {
+            int count = readCount();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private byte readByte() throws IOException {
+            if (position >= bytes.length) throw truncated();
+            return bytes[position++];
+        }
+
+        private static IOException truncated() {
+            return new IOException("Binary value is truncated or corrupt.");
+        }
+    }
+}
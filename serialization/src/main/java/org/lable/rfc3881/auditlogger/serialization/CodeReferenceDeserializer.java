@@ -16,40 +16,97 @@
 package org.lable.rfc3881.auditlogger.serialization;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import org.lable.codesystem.codereference.CodeReference;
 
 import java.io.IOException;
 
 /**
  * Deserialize CodeReference representations from JSON.
+ * <p>
+ * Fields are read straight off the parser. Optionally, identical code references are interned, so the many copies
+ * of the same few code references found in a large result set share a single instance.
  */
 public class CodeReferenceDeserializer extends JsonDeserializer<CodeReference> {
+    /**
+     * Number of distinct code references interned by default by the object-mappers of {@link ObjectMapperFactory}.
+     */
+    public static final int DEFAULT_INTERN_CAPACITY = 4096;
+
+    private final CodeReferenceInterner interner;
+
+    /**
+     * Create a deserializer that does not intern code references.
+     */
+    public CodeReferenceDeserializer() {
+        this(0);
+    }
+
+    /**
+     * Create a deserializer that interns code references.
+     *
+     * @param internCapacity Maximum number of distinct code references to intern. When more are encountered, all are
+     *                       forgotten and interning starts over. Pass 0 to disable interning.
+     */
+    public CodeReferenceDeserializer(int internCapacity) {
+        this.interner = internCapacity > 0 ? new CodeReferenceInterner(internCapacity) : null;
+    }
+
     @Override
     public CodeReference deserialize(JsonParser parser, DeserializationContext context) throws IOException {
-        ObjectCodec oc = parser.getCodec();
-        JsonNode node = oc.readTree(parser);
-
-        // Required fields.
-        if (!node.has("cs") || !node.has("code")) {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME) {
+            parser.skipChildren();
             return null;
         }
 
-        String codeSystem = node.get("cs").asText();
-        String code = node.get("code").asText();
+        String codeSystem = null;
+        String code = null;
+        String codeSystemName = null;
+        String originalText = null;
+        String displayName = null;
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "cs":
+                    codeSystem = text(parser, value);
+                    break;
+                case "code":
+                    code = text(parser, value);
+                    break;
+                case "csn":
+                    codeSystemName = text(parser, value);
+                    break;
+                case "ot":
+                    originalText = text(parser, value);
+                    break;
+                case "dn":
+                    displayName = text(parser, value);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
 
-        // Optional fields, can be null.
-        String codeSystemName = node.has("csn") ? asTextNull(node.get("csn")) : null;
-        String originalText = node.has("ot") ? asTextNull(node.get("ot")) : null;
-        String displayName = node.has("dn") ? asTextNull(node.get("dn")) : null;
+        // Required fields.
+        if (codeSystem == null || code == null) {
+            return null;
+        }
 
-        return new CodeReference(codeSystem, codeSystemName, code, displayName, originalText);
+        return interner == null
+                ? new CodeReference(codeSystem, codeSystemName, code, displayName, originalText)
+                : interner.intern(codeSystem, codeSystemName, code, displayName, originalText);
     }
 
-    static String asTextNull(JsonNode node) {
-        return node.isNull() ? null : node.asText();
+    static String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) return null;
+        if (token.isScalarValue()) return parser.getText();
+        parser.skipChildren();
+        return null;
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import org.lable.codesystem.codereference.CodeReference;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded, thread-safe cache of immutable {@link CodeReference} instances.
+ * <p>
+ * Instances are looked up by code system and code first, so a hit does not require constructing a code reference.
+ * Because {@link CodeReference#equals(Object)} only compares those two, a cached instance is only returned if its
+ * optional fields match as well. Once the capacity is reached the cache is cleared, rather than tracking which
+ * entries were used least recently; the set of code references in use is normally small and stable.
+ */
+final class CodeReferenceInterner {
+    private final int capacity;
+    private final Map<String, Map<String, CodeReference>> codeSystems = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    CodeReferenceInterner(int capacity) {
+        this.capacity = capacity;
+    }
+
+    CodeReference intern(String codeSystem,
+                         String codeSystemName,
+                         String code,
+                         String displayName,
+                         String originalText) {
+        Map<String, CodeReference> codes = codeSystems.get(codeSystem);
+        if (codes != null) {
+            CodeReference cached = codes.get(code);
+            if (cached != null
+                    && Objects.equals(cached.getCodeSystemName(), codeSystemName)
+                    && Objects.equals(cached.getDisplayName(), displayName)
+                    && Objects.equals(cached.getOriginalText(), originalText)) {
+                return cached;
+            }
+        }
+
+        CodeReference codeReference = new CodeReference(codeSystem, codeSystemName, code, displayName, originalText);
+        if (size.get() >= capacity) {
+            codeSystems.clear();
+            size.set(0);
+        }
+        // If another variant of this code reference is cached already, that one stays.
+        if (codeSystems.computeIfAbsent(codeSystem, key -> new ConcurrentHashMap<>())
+                .putIfAbsent(code, codeReference) == null) {
+            size.incrementAndGet();
+        }
+        return codeReference;
+    }
+
+    int size() {
+        return size.get();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.CoalescingAuditLogAdapter;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.eventtypes.AuditAdministrationEventType;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.eventtypes.SecurityAdministrationEventType;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.eventtypes.UserAccessEventType;
+
+import java.util.*;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Assigns small numeric identifiers to code systems and code references, for {@link EntryEncoding#BINARY}.
+ * <p>
+ * The code systems and codes defined by this library (see {@link org.lable.rfc3881.auditlogger.definition.rfc3881})
+ * are always known. Custom code systems, and custom code references that recur often (such as the event IDs of an
+ * application), can be added to a dictionary kept per table. Identifiers are assigned in the order code systems and
+ * references are added, so a dictionary may only ever be appended to: values written with it can be read with the
+ * same dictionary or any later version of it. Values referring to an identifier a dictionary does not know cannot be
+ * read with it.
+ * <p>
+ * The identifiers of the well-known code systems and references are written to storage, so they are pinned: the code
+ * systems by the {@link #WELL_KNOWN_CODE_SYSTEMS} table, the references by the position of their enumeration in
+ * {@link #WELL_KNOWN} and their position within it. Both may only be appended to; constants may be added to the end of
+ * a well-known enumeration, but never reordered or removed.
+ */
+public final class CodeSystemDictionary {
+    /**
+     * The enumerations whose constants are well-known references. Each gets a block of {@link #ENUM_BLOCK}
+     * identifiers, in this order; new enumerations may only be appended.
+     */
+    static final List<Class<? extends Referenceable>> WELL_KNOWN = List.of(
+            EventAction.class,
+            EventOutcome.class,
+            AuditAdministrationEventType.class,
+            SecurityAdministrationEventType.class,
+            UserAccessEventType.class,
+            NetworkAccessPointType.class,
+            AuditSourceType.class,
+            ParticipantObjectType.class,
+            ParticipantObjectTypeRole.class,
+            ParticipantObjectIDType.class,
+            DataLifeCycle.class,
+            CoalescingAuditLogAdapter.CoalescedDetail.class
+    );
+
+    /**
+     * The code systems of the well-known references. The identifier of each is its position in this list; new code
+     * systems may only be appended.
+     */
+    static final List<String> WELL_KNOWN_CODE_SYSTEMS = List.of(
+            "IETF/RFC3881.5.1.2",
+            "IETF/RFC3881.5.1.4",
+            "IETF/RFC3881.4.1",
+            "IETF/RFC3881.5.3.1",
+            "IETF/RFC3881.5.4.3",
+            "IETF/RFC3881.5.5.1",
+            "IETF/RFC3881.5.5.2",
+            "IETF/RFC3881.5.5.4",
+            "IETF/RFC3881.5.5.3",
+            "rfc3881auditlogger/coalesced"
+    );
+
+    static final int ENUM_BLOCK = 64;
+    static final int FIRST_CUSTOM_CODE_SYSTEM = 64;
+    static final int FIRST_CUSTOM_REFERENCE = 1024;
+
+    private static final CodeSystemDictionary STANDARD = new CodeSystemDictionary(
+            Collections.emptyList(), Collections.emptyList()
+    );
+
+    private final String[] codeSystems;
+    private final CodeReference[] references;
+    private final Map<String, Integer> codeSystemIds = new HashMap<>();
+    private final Map<CodeReference, Integer> referenceIds = new HashMap<>();
+
+    private CodeSystemDictionary(List<String> customCodeSystems, List<CodeReference> customReferences) {
+        CodeReference[] wellKnownReferences = wellKnownReferences();
+
+        codeSystems = new String[FIRST_CUSTOM_CODE_SYSTEM + customCodeSystems.size()];
+        for (int i = 0; i < WELL_KNOWN_CODE_SYSTEMS.size(); i++) {
+            codeSystems[i] = WELL_KNOWN_CODE_SYSTEMS.get(i);
+        }
+        for (int i = 0; i < customCodeSystems.size(); i++) {
+            codeSystems[FIRST_CUSTOM_CODE_SYSTEM + i] = customCodeSystems.get(i);
+        }
+
+        references = Arrays.copyOf(wellKnownReferences, FIRST_CUSTOM_REFERENCE + customReferences.size());
+        for (int i = 0; i < customReferences.size(); i++) {
+            references[FIRST_CUSTOM_REFERENCE + i] = customReferences.get(i);
+        }
+
+        for (int i = 0; i < codeSystems.length; i++) {
+            if (codeSystems[i] != null) codeSystemIds.putIfAbsent(codeSystems[i], i);
+        }
+        for (int i = 0; i < references.length; i++) {
+            if (references[i] != null) referenceIds.putIfAbsent(references[i], i);
+        }
+    }
+
+    /**
+     * Collect the well-known references, each at the position of its identifier.
+     *
+     * @return The well-known references; null where an identifier is unused.
+     * @throws IllegalStateException Thrown when the well-known references no longer fit their identifier ranges, or
+     *                               when their code system is missing from {@link #WELL_KNOWN_CODE_SYSTEMS}.
+     */
+    static CodeReference[] wellKnownReferences() {
+        if (WELL_KNOWN.size() * ENUM_BLOCK > FIRST_CUSTOM_REFERENCE) {
+            throw new IllegalStateException("Too many well-known enumerations (" + WELL_KNOWN.size() +
+                    ") to fit below the first custom reference identifier (" + FIRST_CUSTOM_REFERENCE + ").");
+        }
+        if (WELL_KNOWN_CODE_SYSTEMS.size() > FIRST_CUSTOM_CODE_SYSTEM) {
+            throw new IllegalStateException("Too many well-known code systems (" + WELL_KNOWN_CODE_SYSTEMS.size() +
+                    ") to fit below the first custom code system identifier (" + FIRST_CUSTOM_CODE_SYSTEM + ").");
+        }
+
+        CodeReference[] wellKnownReferences = new CodeReference[WELL_KNOWN.size() * ENUM_BLOCK];
+        for (int i = 0; i < WELL_KNOWN.size(); i++) {
+            Referenceable[] constants = WELL_KNOWN.get(i).getEnumConstants();
+            if (constants.length > ENUM_BLOCK) {
+                throw new IllegalStateException("Well-known enumeration " + WELL_KNOWN.get(i).getName() + " has " +
+                        constants.length + " constants; no more than " + ENUM_BLOCK + " fit in its block.");
+            }
+            for (int j = 0; j < constants.length; j++) {
+                CodeReference reference = compact(constants[j]);
+                if (!WELL_KNOWN_CODE_SYSTEMS.contains(reference.getCodeSystem())) {
+                    throw new IllegalStateException("Code system " + reference.getCodeSystem() + " of well-known " +
+                            "enumeration " + WELL_KNOWN.get(i).getName() + " is not a well-known code system.");
+                }
+                wellKnownReferences[i * ENUM_BLOCK + j] = reference;
+            }
+        }
+        return wellKnownReferences;
+    }
+
+    /**
+     * Get the dictionary that holds only the code systems and codes defined by this library.
+     *
+     * @return The standard dictionary.
+     */
+    public static CodeSystemDictionary standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Start defining a dictionary with custom code systems and references, on top of those defined by this library.
+     *
+     * @return A builder for chaining.
+     */
+    public static Builder define() {
+        return new Builder();
+    }
+
+    /**
+     * @param codeReference Code reference.
+     * @return The identifier of the code reference, or -1 if it has none.
+     */
+    int referenceId(CodeReference codeReference) {
+        Integer id = referenceIds.get(codeReference);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id Identifier.
+     * @return The code reference, holding only its code system and code, or null if the identifier is unknown.
+     */
+    CodeReference reference(int id) {
+        return id >= 0 && id < references.length ? references[id] : null;
+    }
+
+    /**
+     * @param codeSystem Code system.
+     * @return The identifier of the code system, or -1 if it has none.
+     */
+    int codeSystemId(String codeSystem) {
+        Integer id = codeSystemIds.get(codeSystem);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id Identifier.
+     * @return The code system, or null if the identifier is unknown.
+     */
+    String codeSystem(int id) {
+        return id >= 0 && id < codeSystems.length ? codeSystems[id] : null;
+    }
+
+    static CodeReference compact(Referenceable referenceable) {
+        CodeReference reference = referenceable.toCodeReference();
+        return new CodeReference(reference.getCodeSystem(), reference.getCode());
+    }
+
+    public static class Builder {
+        private final List<String> codeSystems = new ArrayList<>();
+        private final List<CodeReference> references = new ArrayList<>();
+
+        Builder() {
+        }
+
+        /**
+         * Add a custom code system. Codes in it are written as-is, but the code system itself is written as a number.
+         *
+         * @param codeSystem Code system.
+         */
+        public Builder withCodeSystem(String codeSystem) {
+            parameterMayNotBeNull("codeSystem", codeSystem);
+            codeSystems.add(codeSystem);
+            return this;
+        }
+
+        /**
+         * Add custom code references, such as the constants of an enumeration of event IDs. These are written as a
+         * single number each.
+         *
+         * @param references Code references.
+         */
+        public Builder withReference(Referenceable... references) {
+            parameterMayNotBeNull("references", references);
+            for (Referenceable reference : references) {
+                parameterMayNotBeNull("reference", reference);
+                this.references.add(compact(reference));
+            }
+            return this;
+        }
+
+        /**
+         * @return The dictionary.
+         */
+        public CodeSystemDictionary build() {
+            return new CodeSystemDictionary(new ArrayList<>(codeSystems), new ArrayList<>(references));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lable.rfc3881.auditlogger.api.util.ParameterValidation.parameterMayNotBeNull;
+
+/**
+ * Thread-safe registry of the {@link ObjectWriter}s and {@link ObjectReader}s used to (de)serialize the parts of a
+ * {@link LogEntry}.
+ * <p>
+ * Writers and readers for the entry parts are resolved once, up front, so serializing a value does not have to look
+ * up its serializer again. Values are written into a per-thread buffer that is reused from one value to the next,
+ * leaving a single exactly-sized byte array per value as the only allocation of note.
+ * <p>
+ * Values are written in the {@link EntryEncoding} of the registry, but read in whichever encoding they turn out to
+ * have, so values written before and after switching encodings can be read side by side. Values in
+ * {@link EntryEncoding#BINARY} are read and written with the {@link CodeSystemDictionary} of the registry; see
+ * {@link #withDictionary(CodeSystemDictionary)}.
+ */
+public final class EntryCodecs {
+    /**
+     * Types resolved up front.
+     */
+    static final List<Class<?>> ENTRY_PART_TYPES = List.of(
+            Event.class,
+            UniqueEvent.class,
+            Principal.class,
+            NetworkAccessPoint.class,
+            AuditSource.class,
+            ParticipantObject.class,
+            Detail.class,
+            CodeReference.class,
+            ArrayList.class
+    );
+
+    /**
+     * Buffers larger than this are not kept around after use.
+     */
+    static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final EntryEncoding encoding;
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final Readers jsonReaders;
+    private final Readers smileReaders;
+    private final BinaryEntryCodec binary;
+    private final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(512));
+
+    private EntryCodecs(ObjectMapper objectMapper,
+                        EntryEncoding encoding,
+                        Readers jsonReaders,
+                        Readers smileReaders,
+                        BinaryEntryCodec binary) {
+        this.objectMapper = objectMapper;
+        this.encoding = encoding;
+        for (Class<?> type : ENTRY_PART_TYPES) {
+            writers.put(type, objectMapper.writerFor(type));
+        }
+        this.jsonReaders = jsonReaders;
+        this.smileReaders = smileReaders;
+        this.binary = binary;
+    }
+
+    /**
+     * Get the registry for the default {@link ObjectMapper} of this library, as created by
+     * {@link ObjectMapperFactory#getObjectMapper()}.
+     *
+     * @return The default registry.
+     */
+    public static EntryCodecs getDefault() {
+        return DefaultHolder.JSON;
+    }
+
+    /**
+     * Get the registry for the default {@link ObjectMapper} of this library for an encoding, as created by
+     * {@link ObjectMapperFactory#getObjectMapper(EntryEncoding)}.
+     *
+     * @param encoding Encoding values are written in.
+     * @return The default registry for that encoding.
+     */
+    public static EntryCodecs getDefault(EntryEncoding encoding) {
+        if (encoding == EntryEncoding.SMILE) return DefaultHolder.SMILE;
+        if (encoding == EntryEncoding.BINARY) return DefaultHolder.BINARY;
+        return DefaultHolder.JSON;
+    }
+
+    /**
+     * Create a registry for a custom {@link ObjectMapper}. Registries are relatively expensive to create; create one
+     * per object-mapper and hold on to it.
+     * <p>
+     * Values in the encoding of the object-mapper are read with it; values in the other encoding are read with the
+     * default object-mapper for that encoding.
+     *
+     * @param objectMapper Object-mapper.
+     * @return A new registry.
+     */
+    public static EntryCodecs forMapper(ObjectMapper objectMapper) {
+        parameterMayNotBeNull("objectMapper", objectMapper);
+        BinaryEntryCodec binary = DefaultHolder.JSON.binary;
+        if (objectMapper.getFactory() instanceof SmileFactory) {
+            return new EntryCodecs(
+                    objectMapper, EntryEncoding.SMILE, DefaultHolder.JSON.jsonReaders, new Readers(objectMapper), binary
+            );
+        }
+        return new EntryCodecs(
+                objectMapper, EntryEncoding.JSON, new Readers(objectMapper), DefaultHolder.SMILE.smileReaders, binary
+        );
+    }
+
+    /**
+     * Derive a registry that reads and writes {@link EntryEncoding#BINARY} values with a custom dictionary. Writers
+     * and readers of a table must use the same dictionary, or a later version of it.
+     *
+     * @param dictionary Dictionary.
+     * @return A registry using the dictionary, or this registry if it already does.
+     */
+    public EntryCodecs withDictionary(CodeSystemDictionary dictionary) {
+        parameterMayNotBeNull("dictionary", dictionary);
+        if (dictionary == binary.getDictionary()) return this;
+        return new EntryCodecs(objectMapper, encoding, jsonReaders, smileReaders, new BinaryEntryCodec(dictionary));
+    }
+
+    /**
+     * @return The object-mapper the writers were derived from.
+     */
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * @return The encoding values are written in.
+     */
+    public EntryEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return The dictionary used for values in {@link EntryEncoding#BINARY}.
+     */
+    public CodeSystemDictionary getDictionary() {
+        return binary.getDictionary();
+    }
+
+    /**
+     * Get the writer for a type.
+     *
+     * @param type Type of the values to write.
+     * @return The writer.
+     */
+    public ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        return writer != null ? writer : writers.computeIfAbsent(type, objectMapper::writerFor);
+    }
+
+    /**
+     * Get the reader for a type, for values in the encoding of this registry (or JSON, if the registry writes
+     * {@link EntryEncoding#BINARY}).
+     *
+     * @param type Type of the values to read.
+     * @return The reader.
+     */
+    public ObjectReader readerFor(Class<?> type) {
+        return readers(encoding).readerFor(type);
+    }
+
+    /**
+     * Serialize a value, using the writer for its runtime type.
+     *
+     * @param value Value.
+     * @return The serialized value.
+     * @throws IOException Thrown when serialization failed.
+     */
+    public byte[] write(Object value) throws IOException {
+        if (encoding == EntryEncoding.BINARY && BinaryEntryCodec.supports(value)) return binary.write(value);
+
+        ByteArrayBuilder buffer = buffers.get();
+        try {
+            writerFor(value.getClass()).writeValue(buffer, value);
+            return buffer.toByteArray();
+        } finally {
+            if (buffer.getCurrentSegment().length > MAX_RETAINED_BUFFER) {
+                buffers.remove();
+            } else {
+                buffer.reset();
+            }
+        }
+    }
+
+    /**
+     * Deserialize a value, in either encoding.
+     *
+     * @param value Serialized value.
+     * @param type  Type to read.
+     * @param <T>   Type to read.
+     * @return The value.
+     * @throws IOException Thrown when deserialization failed.
+     */
+    public <T> T read(byte[] value, Class<T> type) throws IOException {
+        EntryEncoding valueEncoding = EntryEncoding.detect(value);
+        if (valueEncoding == EntryEncoding.BINARY) return binary.read(value, type);
+        return readers(valueEncoding).readerFor(type).readValue(value);
+    }
+
+    /**
+     * Deserialize a list of details, in either encoding.
+     *
+     * @param value Serialized list.
+     * @return The details.
+     * @throws IOException Thrown when deserialization failed.
+     */
+    public List<Detail> readDetails(byte[] value) throws IOException {
+        EntryEncoding valueEncoding = EntryEncoding.detect(value);
+        if (valueEncoding == EntryEncoding.BINARY) return binary.readDetails(value);
+        return readers(valueEncoding).detailsReader.readValue(value);
+    }
+
+    Readers readers(EntryEncoding encoding) {
+        return encoding == EntryEncoding.SMILE ? smileReaders : jsonReaders;
+    }
+
+    /**
+     * The readers derived from a single object-mapper.
+     */
+    static final class Readers {
+        private final ObjectMapper objectMapper;
+        private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+        private final ObjectReader detailsReader;
+
+        Readers(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+            for (Class<?> type : ENTRY_PART_TYPES) {
+                readers.put(type, objectMapper.readerFor(type));
+            }
+            this.detailsReader = objectMapper.readerFor(new TypeReference<List<Detail>>() {});
+        }
+
+        ObjectReader readerFor(Class<?> type) {
+            ObjectReader reader = readers.get(type);
+            return reader != null ? reader : readers.computeIfAbsent(type, objectMapper::readerFor);
+        }
+    }
+
+    static final class DefaultHolder {
+        static final EntryCodecs JSON;
+        static final EntryCodecs SMILE;
+        static final EntryCodecs BINARY;
+
+        static {
+            Readers jsonReaders = new Readers(ObjectMapperFactory.getObjectMapper(EntryEncoding.JSON));
+            Readers smileReaders = new Readers(ObjectMapperFactory.getObjectMapper(EntryEncoding.SMILE));
+            BinaryEntryCodec binary = new BinaryEntryCodec(CodeSystemDictionary.standard());
+            JSON = new EntryCodecs(jsonReaders.objectMapper, EntryEncoding.JSON, jsonReaders, smileReaders, binary);
+            SMILE = new EntryCodecs(smileReaders.objectMapper, EntryEncoding.SMILE, jsonReaders, smileReaders, binary);
+            BINARY = new EntryCodecs(jsonReaders.objectMapper, EntryEncoding.BINARY, jsonReaders, smileReaders, binary);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+/**
+ * Formats the parts of a log entry can be serialized to.
+ */
+public enum EntryEncoding {
+    /**
+     * Textual JSON. This is the default.
+     */
+    JSON,
+    /**
+     * Jackson's binary JSON format, Smile. Smile refers back to field names and short string values already written
+     * earlier in the same value instead of repeating them, and needs no escaping or number formatting, so it is both
+     * smaller and faster to parse than JSON.
+     */
+    SMILE,
+    /**
+     * A compact binary format specific to this library. Fields are written in a fixed order without names, and code
+     * references known to the {@link CodeSystemDictionary} in use are written as small numbers instead of strings.
+     * This makes values several times smaller than their JSON form, and fast to read. Values can only be read with
+     * the dictionary they were written with, or a later version of it.
+     */
+    BINARY;
+
+    /**
+     * Every Smile document starts with this header (followed by a version and flags byte).
+     */
+    static final byte[] SMILE_HEADER = {':', ')', '\n'};
+
+    /**
+     * Detect the encoding of a serialized value.
+     *
+     * @param value Serialized value.
+     * @return {@link #SMILE} if the value starts with the Smile header, {@link #BINARY} if it starts with the marker
+     * of the binary format, {@link #JSON} otherwise.
+     */
+    public static EntryEncoding detect(byte[] value) {
+        if (value != null
+                && value.length > SMILE_HEADER.length
+                && value[0] == SMILE_HEADER[0]
+                && value[1] == SMILE_HEADER[1]
+                && value[2] == SMILE_HEADER[2]) {
+            return SMILE;
+        }
+        if (BinaryEntryCodec.isBinary(value)) return BINARY;
+        return JSON;
+    }
+}
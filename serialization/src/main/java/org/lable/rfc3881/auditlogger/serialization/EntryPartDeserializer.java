@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import org.lable.codesystem.codereference.CodeReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Base class for the deserializers of the parts of a log entry. These read fields straight off the parser and pass
+ * them to the public constructors of the entry parts, instead of buffering them for the bean deserializer's creator.
+ * <p>
+ * Fields may appear in any order; absent fields take the same defaults as they do through the
+ * {@link com.fasterxml.jackson.annotation.JsonCreator} of each type. Unknown fields are handled as configured on the
+ * object-mapper.
+ *
+ * @param <T> Type deserialized.
+ */
+abstract class EntryPartDeserializer<T> extends StdDeserializer<T> {
+    private static final long serialVersionUID = 2590563425563102386L;
+
+    final CodeReferenceDeserializer codeReferenceDeserializer;
+
+    EntryPartDeserializer(Class<T> type, CodeReferenceDeserializer codeReferenceDeserializer) {
+        super(type);
+        this.codeReferenceDeserializer = codeReferenceDeserializer;
+    }
+
+    /**
+     * Move the parser onto the first field of an object.
+     *
+     * @return The name of the first field, or null if the object is empty.
+     */
+    String firstField(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) return parser.nextFieldName();
+        if (token == JsonToken.FIELD_NAME) return parser.currentName();
+        if (token == JsonToken.END_OBJECT) return null;
+        context.handleUnexpectedToken(handledType(), parser);
+        return null;
+    }
+
+    /**
+     * Skip the value of an unknown field, or fail, depending on the configuration of the object-mapper.
+     */
+    void unknownField(JsonParser parser, DeserializationContext context, String name) throws IOException {
+        context.handleUnknownProperty(parser, this, handledType(), name);
+    }
+
+    /**
+     * Report a value rejected by the constructor of the entry part the way the bean deserializer would.
+     */
+    JsonMappingException invalid(DeserializationContext context, RuntimeException cause) {
+        return context.instantiationException(handledType(), cause);
+    }
+
+    static String readString(JsonParser parser, DeserializationContext context) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NULL:
+                return null;
+            default:
+                return context.readValue(parser, String.class);
+        }
+    }
+
+    /**
+     * Read the {@code complete} field, which defaults to true.
+     */
+    boolean readComplete(JsonParser parser, DeserializationContext context) throws IOException {
+        Boolean complete = _parseBoolean(parser, context, Boolean.class);
+        return complete == null || complete;
+    }
+
+    long readLong(JsonParser parser, DeserializationContext context) throws IOException {
+        return _parseLongPrimitive(parser, context);
+    }
+
+    CodeReference readReference(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) return null;
+        return codeReferenceDeserializer.deserialize(parser, context);
+    }
+
+    List<String> readStrings(JsonParser parser, DeserializationContext context) throws IOException {
+        return readList(parser, context, EntryPartDeserializer::readString);
+    }
+
+    /**
+     * Read a list of code references. Null elements are dropped, as the constructors of the entry parts do not
+     * accept them.
+     */
+    List<CodeReference> readReferences(JsonParser parser, DeserializationContext context) throws IOException {
+        List<CodeReference> references = readList(parser, context, this::readReference);
+        if (references != null) references.removeIf(Objects::isNull);
+        return references;
+    }
+
+    <E> List<E> readList(JsonParser parser, DeserializationContext context, ElementReader<E> reader)
+            throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) return null;
+        if (token != JsonToken.START_ARRAY) {
+            if (context.isEnabled(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)) {
+                List<E> list = new ArrayList<>(1);
+                list.add(reader.read(parser, context));
+                return list;
+            }
+            context.handleUnexpectedToken(List.class, parser);
+            return Collections.emptyList();
+        }
+
+        List<E> list = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            list.add(reader.read(parser, context));
+        }
+        return list;
+    }
+
+    /**
+     * Reads a single element of a list, with the parser positioned on its first token.
+     */
+    @FunctionalInterface
+    interface ElementReader<E> {
+        E read(JsonParser parser, DeserializationContext context) throws IOException;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.Detail;
+import org.lable.rfc3881.auditlogger.api.EntryPart;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Base class for the serializers of the parts of a log entry. These write their fields straight to the generator,
+ * in the same order and with the same omissions as bean serialization through {@link LogFilter} would, but without
+ * the introspection and per-property filter calls.
+ * <p>
+ * The property inclusion configured on the object-mapper is honoured for {@link JsonInclude.Include#NON_NULL},
+ * {@link JsonInclude.Include#NON_EMPTY}, and {@link JsonInclude.Include#ALWAYS}; other settings are treated as
+ * the latter.
+ *
+ * @param <T> Type serialized.
+ */
+abstract class EntryPartSerializer<T> extends StdSerializer<T> {
+    private static final long serialVersionUID = -2313140424950446102L;
+
+    final JsonSerializer<Referenceable> referenceableSerializer;
+
+    EntryPartSerializer(Class<T> type, JsonSerializer<Referenceable> referenceableSerializer) {
+        super(type);
+        this.referenceableSerializer = referenceableSerializer;
+    }
+
+    @Override
+    public void serialize(T value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject(value);
+        writeFields(value, generator, provider, Inclusion.of(provider));
+        generator.writeEndObject();
+    }
+
+    abstract void writeFields(T value, JsonGenerator generator, SerializerProvider provider, Inclusion inclusion)
+            throws IOException;
+
+    static void writeComplete(JsonGenerator generator, EntryPart value) throws IOException {
+        // See LogFilter; complete is the default, so it is only written when false.
+        if (!value.isComplete()) generator.writeBooleanField("complete", false);
+    }
+
+    static void writeString(JsonGenerator generator, String name, String value, Inclusion inclusion)
+            throws IOException {
+        if (value == null) {
+            if (inclusion == Inclusion.ALWAYS) generator.writeNullField(name);
+            return;
+        }
+        if (value.isEmpty() && inclusion == Inclusion.NON_EMPTY) return;
+        generator.writeStringField(name, value);
+    }
+
+    static void writeStrings(JsonGenerator generator, String name, List<String> values, Inclusion inclusion)
+            throws IOException {
+        if (skip(generator, name, values, inclusion)) return;
+
+        generator.writeFieldName(name);
+        generator.writeStartArray(values, values.size());
+        for (String value : values) {
+            if (value == null) {
+                generator.writeNull();
+            } else {
+                generator.writeString(value);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    void writeReference(JsonGenerator generator,
+                        SerializerProvider provider,
+                        String name,
+                        Referenceable value,
+                        Inclusion inclusion) throws IOException {
+        if (value == null) {
+            if (inclusion == Inclusion.ALWAYS) generator.writeNullField(name);
+            return;
+        }
+        generator.writeFieldName(name);
+        referenceableSerializer.serialize(value, generator, provider);
+    }
+
+    void writeReferences(JsonGenerator generator,
+                         SerializerProvider provider,
+                         String name,
+                         List<? extends Referenceable> values,
+                         Inclusion inclusion) throws IOException {
+        if (skip(generator, name, values, inclusion)) return;
+
+        generator.writeFieldName(name);
+        generator.writeStartArray(values, values.size());
+        for (Referenceable value : values) {
+            if (value == null) {
+                generator.writeNull();
+            } else {
+                referenceableSerializer.serialize(value, generator, provider);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    void writeDetails(JsonGenerator generator,
+                      SerializerProvider provider,
+                      String name,
+                      List<Detail> values,
+                      Inclusion inclusion) throws IOException {
+        if (skip(generator, name, values, inclusion)) return;
+
+        generator.writeFieldName(name);
+        generator.writeStartArray(values, values.size());
+        for (Detail value : values) {
+            if (value == null) {
+                generator.writeNull();
+            } else {
+                writeDetail(generator, provider, value, inclusion);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    void writeDetail(JsonGenerator generator, SerializerProvider provider, Detail value, Inclusion inclusion)
+            throws IOException {
+        generator.writeStartObject(value);
+        writeDetailFields(generator, provider, value, inclusion);
+        generator.writeEndObject();
+    }
+
+    void writeDetailFields(JsonGenerator generator, SerializerProvider provider, Detail value, Inclusion inclusion)
+            throws IOException {
+        writeReference(generator, provider, "type", value.getType(), inclusion);
+        writeString(generator, "value", value.getValue(), inclusion);
+    }
+
+    /**
+     * @return True if the list should not be written. A null list is written as a null field if all values are
+     * included.
+     */
+    static boolean skip(JsonGenerator generator, String name, List<?> values, Inclusion inclusion)
+            throws IOException {
+        if (values == null) {
+            if (inclusion == Inclusion.ALWAYS) generator.writeNullField(name);
+            return true;
+        }
+        return values.isEmpty() && inclusion == Inclusion.NON_EMPTY;
+    }
+
+    /**
+     * The property inclusion settings supported.
+     */
+    enum Inclusion {
+        ALWAYS,
+        NON_NULL,
+        NON_EMPTY;
+
+        static Inclusion of(SerializerProvider provider) {
+            switch (provider.getConfig().getDefaultPropertyInclusion().getValueInclusion()) {
+                case NON_NULL:
+                case NON_ABSENT:
+                    return NON_NULL;
+                case NON_EMPTY:
+                    return NON_EMPTY;
+                default:
+                    return ALWAYS;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.Event;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Deserialize {@link Event} from JSON.
+ */
+class EventDeserializer extends EntryPartDeserializer<Event> {
+    private static final long serialVersionUID = 4108937560312865095L;
+
+    EventDeserializer(CodeReferenceDeserializer codeReferenceDeserializer) {
+        super(Event.class, codeReferenceDeserializer);
+    }
+
+    @Override
+    public Event deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        CodeReference id = null;
+        long happenedAt = 0;
+        List<CodeReference> types = null;
+        CodeReference action = null;
+        CodeReference outcome = null;
+
+        for (String field = firstField(parser, context); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = readReference(parser, context);
+                    break;
+                case "happenedAt":
+                    happenedAt = readLong(parser, context);
+                    break;
+                case "types":
+                    types = readReferences(parser, context);
+                    break;
+                case "action":
+                    action = readReference(parser, context);
+                    break;
+                case "outcome":
+                    outcome = readReference(parser, context);
+                    break;
+                default:
+                    unknownField(parser, context, field);
+            }
+        }
+
+        try {
+            return new Event(id, action, happenedAt, outcome, types);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw invalid(context, e);
+        }
+    }
+}
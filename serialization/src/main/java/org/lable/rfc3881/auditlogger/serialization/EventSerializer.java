@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.Event;
+import org.lable.rfc3881.auditlogger.api.UniqueEvent;
+
+import java.io.IOException;
+
+/**
+ * Serialize {@link Event} and {@link UniqueEvent} to JSON.
+ */
+class EventSerializer extends EntryPartSerializer<Event> {
+    private static final long serialVersionUID = -4496213373505930233L;
+
+    EventSerializer(JsonSerializer<Referenceable> referenceableSerializer) {
+        super(Event.class, referenceableSerializer);
+    }
+
+    @Override
+    void writeFields(Event value, JsonGenerator generator, SerializerProvider provider, Inclusion inclusion)
+            throws IOException {
+        writeReference(generator, provider, "id", value.getId(), inclusion);
+        generator.writeNumberField("happenedAt", value.getHappenedAt());
+        if (value instanceof UniqueEvent) {
+            // UniqueEvent has no creator of its own, so its properties were always written in declaration order
+            // rather than in the parameter order of the creator of Event.
+            writeReferences(generator, provider, "types", value.getTypes(), inclusion);
+            writeReference(generator, provider, "action", value.getAction(), inclusion);
+            writeReference(generator, provider, "outcome", value.getOutcome(), inclusion);
+        } else {
+            writeReference(generator, provider, "outcome", value.getOutcome(), inclusion);
+            writeReference(generator, provider, "action", value.getAction(), inclusion);
+            writeReferences(generator, provider, "types", value.getTypes(), inclusion);
+        }
+    }
+}
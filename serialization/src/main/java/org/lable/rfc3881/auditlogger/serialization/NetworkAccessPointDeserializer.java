@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.NetworkAccessPoint;
+
+import java.io.IOException;
+
+/**
+ * Deserialize {@link NetworkAccessPoint} from JSON.
+ */
+class NetworkAccessPointDeserializer extends EntryPartDeserializer<NetworkAccessPoint> {
+    private static final long serialVersionUID = 3349290412436263457L;
+
+    NetworkAccessPointDeserializer(CodeReferenceDeserializer codeReferenceDeserializer) {
+        super(NetworkAccessPoint.class, codeReferenceDeserializer);
+    }
+
+    @Override
+    public NetworkAccessPoint deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        CodeReference type = null;
+        String id = null;
+        boolean complete = true;
+
+        for (String field = firstField(parser, context); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "type":
+                    type = readReference(parser, context);
+                    break;
+                case "id":
+                    id = readString(parser, context);
+                    break;
+                case "complete":
+                    complete = readComplete(parser, context);
+                    break;
+                default:
+                    unknownField(parser, context, field);
+            }
+        }
+
+        return NetworkAccessPoint.byType(type, id, complete);
+    }
+}
@@ -19,6 +19,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
 
 /**
  * Creates new instances of {@link ObjectMapper}.
@@ -26,12 +28,37 @@ import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 public class ObjectMapperFactory {
     /**
      * Configures an {@link ObjectMapper} instance with the serialization strategies needed for this project.
+     * Identical code references read by it share a single instance.
      *
      * @return An object-mapper.
      */
     public static ObjectMapper getObjectMapper() {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new RFC3881Module(true));
+        return configure(new ObjectMapper());
+    }
+
+    /**
+     * Configures an {@link ObjectMapper} instance with the serialization strategies needed for this project, writing
+     * and reading the given encoding. {@link EntryEncoding#BINARY} is not a Jackson format; for it, the JSON
+     * object-mapper is returned.
+     *
+     * @param encoding Encoding.
+     * @return An object-mapper.
+     */
+    public static ObjectMapper getObjectMapper(EntryEncoding encoding) {
+        if (encoding == EntryEncoding.SMILE) {
+            SmileFactory smileFactory = SmileFactory.builder()
+                    // Code systems and codes recur often within a single value.
+                    .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                    .build();
+            return configure(new ObjectMapper(smileFactory));
+        }
+        return getObjectMapper();
+    }
+
+    static ObjectMapper configure(ObjectMapper objectMapper) {
+        objectMapper.registerModule(
+                new RFC3881Module(true, true, CodeReferenceDeserializer.DEFAULT_INTERN_CAPACITY)
+        );
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
         objectMapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.Detail;
+import org.lable.rfc3881.auditlogger.api.ParticipantObject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Deserialize {@link ParticipantObject} from JSON.
+ */
+class ParticipantObjectDeserializer extends EntryPartDeserializer<ParticipantObject>
+        implements ContextualDeserializer {
+    private static final long serialVersionUID = -5025938046361174339L;
+
+    static final JavaType DETAILS_TYPE =
+            TypeFactory.defaultInstance().constructCollectionType(List.class, Detail.class);
+
+    /**
+     * Deserializer for the details, resolved once per object-mapper by {@link #createContextual}.
+     */
+    private final JsonDeserializer<Object> detailsDeserializer;
+
+    ParticipantObjectDeserializer(CodeReferenceDeserializer codeReferenceDeserializer) {
+        this(codeReferenceDeserializer, null);
+    }
+
+    private ParticipantObjectDeserializer(CodeReferenceDeserializer codeReferenceDeserializer,
+                                          JsonDeserializer<Object> detailsDeserializer) {
+        super(ParticipantObject.class, codeReferenceDeserializer);
+        this.detailsDeserializer = detailsDeserializer;
+    }
+
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext context, BeanProperty property)
+            throws JsonMappingException {
+        if (detailsDeserializer != null) return this;
+        return new ParticipantObjectDeserializer(
+                codeReferenceDeserializer, context.findRootValueDeserializer(DETAILS_TYPE));
+    }
+
+    @Override
+    public ParticipantObject deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        String id = null;
+        CodeReference type = null;
+        CodeReference idType = null;
+        CodeReference typeRole = null;
+        CodeReference dataLifeCycle = null;
+        CodeReference sensitivity = null;
+        String name = null;
+        String query = null;
+        boolean complete = true;
+        Detail[] details = null;
+
+        for (String field = firstField(parser, context); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = readString(parser, context);
+                    break;
+                case "type":
+                    type = readReference(parser, context);
+                    break;
+                case "idType":
+                    idType = readReference(parser, context);
+                    break;
+                case "typeRole":
+                    typeRole = readReference(parser, context);
+                    break;
+                case "dataLifeCycle":
+                    dataLifeCycle = readReference(parser, context);
+                    break;
+                case "sensitivity":
+                    sensitivity = readReference(parser, context);
+                    break;
+                case "name":
+                    name = readString(parser, context);
+                    break;
+                case "query":
+                    query = readString(parser, context);
+                    break;
+                case "complete":
+                    complete = readComplete(parser, context);
+                    break;
+                case "details":
+                    details = readDetails(parser, context);
+                    break;
+                default:
+                    unknownField(parser, context, field);
+            }
+        }
+
+        try {
+            return new ParticipantObject(
+                    id, type, idType, typeRole, dataLifeCycle, sensitivity, name, query, complete, details);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw invalid(context, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Detail[] readDetails(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) return null;
+        List<Detail> details = (List<Detail>) detailsDeserializer.deserialize(parser, context);
+        return details.toArray(new Detail[0]);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.lable.codesystem.codereference.Referenceable;
+import org.lable.rfc3881.auditlogger.api.ParticipantObject;
+
+import java.io.IOException;
+
+/**
+ * Serialize {@link ParticipantObject} to JSON.
+ */
+class ParticipantObjectSerializer extends EntryPartSerializer<ParticipantObject> {
+    private static final long serialVersionUID = 7804127620931565284L;
+
+    ParticipantObjectSerializer(JsonSerializer<Referenceable> referenceableSerializer) {
+        super(ParticipantObject.class, referenceableSerializer);
+    }
+
+    @Override
+    void writeFields(ParticipantObject value,
+                     JsonGenerator generator,
+                     SerializerProvider provider,
+                     Inclusion inclusion) throws IOException {
+        writeString(generator, "id", value.getId(), inclusion);
+        writeReference(generator, provider, "type", value.getType(), inclusion);
+        writeReference(generator, provider, "idType", value.getIdType(), inclusion);
+        writeReference(generator, provider, "typeRole", value.getTypeRole(), inclusion);
+        writeReference(generator, provider, "dataLifeCycle", value.getDataLifeCycle(), inclusion);
+        writeReference(generator, provider, "sensitivity", value.getSensitivity(), inclusion);
+        writeString(generator, "name", value.getName(), inclusion);
+        writeString(generator, "query", value.getQuery(), inclusion);
+        writeComplete(generator, value);
+        writeDetails(generator, provider, "details", value.getDetails(), inclusion);
+    }
+}
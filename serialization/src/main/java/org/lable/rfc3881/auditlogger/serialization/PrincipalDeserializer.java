@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.Principal;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Deserialize {@link Principal} from JSON.
+ */
+class PrincipalDeserializer extends EntryPartDeserializer<Principal> {
+    private static final long serialVersionUID = -7371904946571432178L;
+
+    PrincipalDeserializer(CodeReferenceDeserializer codeReferenceDeserializer) {
+        super(Principal.class, codeReferenceDeserializer);
+    }
+
+    @Override
+    public Principal deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        String userId = null;
+        List<String> alternateUserId = null;
+        String name = null;
+        boolean complete = true;
+        List<CodeReference> relevantRoles = null;
+
+        for (String field = firstField(parser, context); field != null; field = parser.nextFieldName()) {
+            parser.nextToken();
+            switch (field) {
+                case "userId":
+                    userId = readString(parser, context);
+                    break;
+                case "alternateUserId":
+                    alternateUserId = readStrings(parser, context);
+                    break;
+                case "name":
+                    name = readString(parser, context);
+                    break;
+                case "complete":
+                    complete = readComplete(parser, context);
+                    break;
+                case "relevantRoles":
+                    relevantRoles = readReferences(parser, context);
+                    break;
+                default:
+                    unknownField(parser, context, field);
+            }
+        }
+
+        try {
+            return new Principal(userId, alternateUserId, name, complete, relevantRoles);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw invalid(context, e);
+        }
+    }
+}
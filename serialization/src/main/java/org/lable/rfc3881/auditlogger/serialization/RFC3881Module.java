@@ -16,27 +16,76 @@
 package org.lable.rfc3881.auditlogger.serialization;
 
 import com.fasterxml.jackson.core.Version;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.lable.codesystem.codereference.CodeReference;
 import org.lable.codesystem.codereference.Referenceable;
-import org.lable.rfc3881.auditlogger.api.Principal;
+import org.lable.rfc3881.auditlogger.api.*;
 
 /**
  * JSON serialization and deserialization for types related to this project.
+ * <p>
+ * The parts of a log entry can be (de)serialized by dedicated streaming serializers and deserializers, by passing
+ * {@code streaming = true}. These produce the same output as Jackson's bean serialization of these types, but do not
+ * consult the filter provider (such as the {@code "logFilter"} filter) or mix-ins registered with the object-mapper.
+ * {@link ObjectMapperFactory} enables them; otherwise bean serialization is used.
  */
 public class RFC3881Module extends SimpleModule {
     private static final long serialVersionUID = 1844370161677549243L;
 
+    /**
+     * Create the module, using bean (de)serialization for the parts of a log entry.
+     *
+     * @param compact If true, only the code system and code of code references are written.
+     */
     public RFC3881Module(boolean compact) {
+        this(compact, false);
+    }
+
+    /**
+     * Create the module.
+     *
+     * @param compact   If true, only the code system and code of code references are written.
+     * @param streaming If true, use the streaming (de)serializers for the parts of a log entry, rather than bean
+     *                  (de)serialization.
+     */
+    public RFC3881Module(boolean compact, boolean streaming) {
+        this(compact, streaming, 0);
+    }
+
+    /**
+     * Create the module.
+     *
+     * @param compact        If true, only the code system and code of code references are written.
+     * @param streaming      If true, use the streaming (de)serializers for the parts of a log entry, rather than bean
+     *                       (de)serialization.
+     * @param internCapacity Maximum number of distinct code references to intern when deserializing, or 0 to not
+     *                       intern them. See {@link CodeReferenceDeserializer#CodeReferenceDeserializer(int)}.
+     */
+    public RFC3881Module(boolean compact, boolean streaming, int internCapacity) {
         super("IETF/RFC 3881 JSON module", new Version(1, 0, 0, null, null, null));
 
-        if (compact) {
-            addSerializer(Referenceable.class, new CompactReferenceableSerializer());
-        } else {
-            addSerializer(Referenceable.class, new ReferenceableSerializer());
-        }
+        JsonSerializer<Referenceable> referenceableSerializer = compact
+                ? new CompactReferenceableSerializer()
+                : new ReferenceableSerializer();
+        CodeReferenceDeserializer codeReferenceDeserializer = new CodeReferenceDeserializer(internCapacity);
+
+        addSerializer(Referenceable.class, referenceableSerializer);
+        addDeserializer(CodeReference.class, codeReferenceDeserializer);
 
-        addDeserializer(CodeReference.class, new CodeReferenceDeserializer());
+        if (streaming) {
+            addSerializer(Event.class, new EventSerializer(referenceableSerializer));
+            addSerializer(Principal.class, new PrincipalSerializer(referenceableSerializer));
+            addSerializer(NetworkAccessPoint.class, new NetworkAccessPointSerializer(referenceableSerializer));
+            addSerializer(AuditSource.class, new AuditSourceSerializer(referenceableSerializer));
+            addSerializer(ParticipantObject.class, new ParticipantObjectSerializer(referenceableSerializer));
+            addSerializer(Detail.class, new DetailSerializer(referenceableSerializer));
+
+            addDeserializer(Event.class, new EventDeserializer(codeReferenceDeserializer));
+            addDeserializer(Principal.class, new PrincipalDeserializer(codeReferenceDeserializer));
+            addDeserializer(NetworkAccessPoint.class, new NetworkAccessPointDeserializer(codeReferenceDeserializer));
+            addDeserializer(AuditSource.class, new AuditSourceDeserializer(codeReferenceDeserializer));
+            addDeserializer(ParticipantObject.class, new ParticipantObjectDeserializer(codeReferenceDeserializer));
+        }
     }
 }
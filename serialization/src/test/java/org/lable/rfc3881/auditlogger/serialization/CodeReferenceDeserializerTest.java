@@ -22,7 +22,7 @@ import org.lable.codesystem.codereference.CodeReference;
 
 import java.io.IOException;
 
-import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class CodeReferenceDeserializerTest {
@@ -69,11 +69,58 @@ public class CodeReferenceDeserializerTest {
         assertThat(output.getDisplayName(), is(expected.getDisplayName()));
     }
 
+    @Test
+    public void unknownAndMissingFieldsTest() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new CodeReferenceDeserializerModule());
+
+        String json = "{" +
+                "\"x\":{\"cs\":\"NESTED\",\"y\":[1,2]}," +
+                "\"cs\":\"CS\"," +
+                "\"z\":[{\"code\":\"NESTED\"}]," +
+                "\"code\":1" +
+                "}";
+
+        CodeReference output = objectMapper.readValue(json, CodeReference.class);
+        assertThat(output, is(new CodeReference("CS", "1")));
+        assertThat(output.getDisplayName(), is(nullValue()));
+
+        assertThat(objectMapper.readValue("{\"cs\":\"CS\"}", CodeReference.class), is(nullValue()));
+    }
+
+    @Test
+    public void internTest() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new CodeReferenceDeserializerModule(2));
+
+        CodeReference a = objectMapper.readValue("{\"cs\":\"CS\",\"code\":\"A\"}", CodeReference.class);
+        CodeReference a2 = objectMapper.readValue("{\"code\":\"A\",\"cs\":\"CS\"}", CodeReference.class);
+        assertThat(a2, is(sameInstance(a)));
+
+        // Equal, but with a different display name; not interchangeable.
+        CodeReference aNamed = objectMapper.readValue(
+                "{\"cs\":\"CS\",\"code\":\"A\",\"dn\":\"Ay\"}", CodeReference.class
+        );
+        assertThat(aNamed, is(not(sameInstance(a))));
+        assertThat(aNamed.getDisplayName(), is("Ay"));
+
+        // Reaching the capacity starts over.
+        objectMapper.readValue("{\"cs\":\"CS\",\"code\":\"B\"}", CodeReference.class);
+        objectMapper.readValue("{\"cs\":\"CS\",\"code\":\"C\"}", CodeReference.class);
+        CodeReference a3 = objectMapper.readValue("{\"cs\":\"CS\",\"code\":\"A\"}", CodeReference.class);
+        assertThat(a3, is(not(sameInstance(a))));
+        assertThat(a3, is(a));
+    }
+
     public static class CodeReferenceDeserializerModule extends SimpleModule {
         private static final long serialVersionUID = 1L;
 
         public CodeReferenceDeserializerModule() {
-            addDeserializer(CodeReference.class, new CodeReferenceDeserializer());
+            this(0);
+        }
+
+        public CodeReferenceDeserializerModule(int internCapacity) {
+            addDeserializer(CodeReference.class, new CodeReferenceDeserializer(internCapacity));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.CoalescingAuditLogAdapter.CoalescedDetail;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventAction;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.EventOutcome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CodeSystemDictionaryTest {
+    /**
+     * The identifiers of the well-known references are stored; they may never change. When a well-known enumeration
+     * gains a constant, append its line to the golden file.
+     */
+    @Test
+    public void wellKnownReferencesArePinnedTest() throws IOException {
+        TreeMap<Integer, String> golden = new TreeMap<>();
+        try (InputStream in = getClass().getResourceAsStream("/well-known-code-references.txt");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\t");
+                golden.put(Integer.parseInt(parts[0]), parts[1] + "\t" + parts[2]);
+            }
+        }
+
+        TreeMap<Integer, String> actual = new TreeMap<>();
+        CodeSystemDictionary dictionary = CodeSystemDictionary.standard();
+        for (int id = 0; id < CodeSystemDictionary.FIRST_CUSTOM_REFERENCE; id++) {
+            CodeReference reference = dictionary.reference(id);
+            if (reference != null) actual.put(id, reference.getCodeSystem() + "\t" + reference.getCode());
+        }
+
+        assertThat(actual, is(golden));
+    }
+
+    @Test
+    public void wellKnownCodeSystemsArePinnedTest() {
+        CodeSystemDictionary dictionary = CodeSystemDictionary.standard();
+        assertThat(dictionary.codeSystemId("IETF/RFC3881.5.1.2"), is(0));
+        assertThat(dictionary.codeSystemId("IETF/RFC3881.5.1.4"), is(1));
+        assertThat(dictionary.codeSystemId("IETF/RFC3881.5.5.3"), is(8));
+        assertThat(dictionary.codeSystemId("rfc3881auditlogger/coalesced"), is(9));
+        assertThat(dictionary.codeSystem(10), is((String) null));
+    }
+
+    @Test
+    public void byteEncodingTest() {
+        BinaryEntryCodec codec = new BinaryEntryCodec(CodeSystemDictionary.standard());
+
+        // Reference 1: tag 2 + 2 × 1.
+        assertThat(codec.write(EventAction.READ.toCodeReference()), is(bytes(0x02, 0x01, 0x08, 0x04)));
+        // Reference 64, the first of the second block: tag 130, as a two-byte varint.
+        assertThat(codec.write(EventOutcome.SUCCESS.toCodeReference()), is(bytes(0x02, 0x01, 0x08, 0x82, 0x01)));
+        // Reference 706: tag 1414.
+        assertThat(codec.write(CoalescedDetail.OCCURRENCES.toCodeReference()), is(bytes(0x02, 0x01, 0x08, 0x86, 0x0B)));
+        // Code system 1 with an unknown code: tag 3 + 2 × 1, followed by the code.
+        assertThat(codec.write(new CodeReference("IETF/RFC3881.5.1.4", "99")),
+                is(bytes(0x02, 0x01, 0x08, 0x05, 0x03, '9', '9')));
+        // Unknown code system: tag 1, followed by the code system and code.
+        assertThat(codec.write(new CodeReference("cs", "c")),
+                is(bytes(0x02, 0x01, 0x08, 0x01, 0x03, 'c', 's', 0x02, 'c')));
+    }
+
+    @Test
+    public void blocksFitTest() {
+        // Throws if a well-known enumeration outgrew its block.
+        assertThat(CodeSystemDictionary.wellKnownReferences().length,
+                is(CodeSystemDictionary.WELL_KNOWN.size() * CodeSystemDictionary.ENUM_BLOCK));
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.eventtypes.UserAccessEventType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+public class EntryCodecsTest {
+    static List<Object> entryParts() {
+        return Arrays.asList(
+                UniqueEvent.fromEvent(new Event(
+                        new CodeReference("events", "logon", "log-on"),
+                        EventAction.EXECUTE,
+                        1000L,
+                        EventOutcome.SUCCESS
+                ), 42L),
+                new Principal("bob", (String) null, "Bob Jones", new CodeReference("roles", "user", "authenticated user")),
+                NetworkAccessPoint.byIPAddress("127.0.0.1"),
+                new AuditSource("servercluster1", "tomcat1", AuditSourceType.WEB_SERVER_PROCESS),
+                new ParticipantObject(
+                        "id",
+                        ParticipantObjectType.SYSTEM_OBJECT,
+                        new CodeReference("cr", "id"),
+                        ParticipantObjectTypeRole.JOB,
+                        DataLifeCycle.ACCESS_OR_USE,
+                        new CodeReference("sens", "very"),
+                        "name",
+                        "GET",
+                        new Detail(new CodeReference("dt", "d"), "XXX")
+                ),
+                new ArrayList<>(Collections.singletonList(new Detail(new CodeReference("dt", "d"), "XXX"))),
+                new CodeReference("version", "1", "1")
+        );
+    }
+
+    @Test
+    public void writeMatchesObjectMapperTest() throws IOException {
+        ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+        EntryCodecs codecs = EntryCodecs.getDefault();
+
+        for (Object part : entryParts()) {
+            assertThat(new String(codecs.write(part)), is(objectMapper.writeValueAsString(part)));
+            // Once more, to check the reused buffer was reset.
+            assertThat(new String(codecs.write(part)), is(objectMapper.writeValueAsString(part)));
+        }
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        EntryCodecs codecs = EntryCodecs.getDefault();
+
+        Principal principal = new Principal("bob", (String) null, "Bob Jones");
+        assertThat(codecs.read(codecs.write(principal), Principal.class), is(principal));
+
+        List<Detail> details = Arrays.asList(
+                new Detail(new CodeReference("dt", "a"), "A"),
+                new Detail(new CodeReference("dt", "b"), "B")
+        );
+        assertThat(codecs.readDetails(codecs.write(details)), is(details));
+
+        CodeReference version = new CodeReference("version", "1", "1");
+        assertThat(codecs.read(codecs.write(version), CodeReference.class), is(version));
+    }
+
+    @Test
+    public void smileTest() throws IOException {
+        EntryCodecs json = EntryCodecs.getDefault();
+        EntryCodecs smile = EntryCodecs.getDefault(EntryEncoding.SMILE);
+        assertThat(smile.getEncoding(), is(EntryEncoding.SMILE));
+
+        for (Object part : entryParts()) {
+            byte[] jsonValue = json.write(part);
+            byte[] smileValue = smile.write(part);
+            assertThat(EntryEncoding.detect(jsonValue), is(EntryEncoding.JSON));
+            assertThat(EntryEncoding.detect(smileValue), is(EntryEncoding.SMILE));
+            assertThat(smileValue.length, is(lessThan(jsonValue.length)));
+
+            // Either registry reads either encoding.
+            if (part instanceof List) {
+                assertThat(json.readDetails(smileValue), is(part));
+                assertThat(smile.readDetails(jsonValue), is(part));
+            } else if (!(part instanceof UniqueEvent)) {
+                assertThat(json.read(smileValue, part.getClass()), is(part));
+                assertThat(smile.read(jsonValue, part.getClass()), is(part));
+            }
+        }
+    }
+
+    @Test
+    public void binaryTest() throws IOException {
+        EntryCodecs json = EntryCodecs.getDefault();
+        EntryCodecs binary = EntryCodecs.getDefault(EntryEncoding.BINARY);
+        assertThat(binary.getEncoding(), is(EntryEncoding.BINARY));
+
+        for (Object part : EntryPartSerializerTest.entryParts()) {
+            byte[] jsonValue = json.write(part);
+            byte[] binaryValue = binary.write(part);
+            assertThat(EntryEncoding.detect(binaryValue), is(EntryEncoding.BINARY));
+            assertThat(binaryValue.length, is(lessThan(jsonValue.length)));
+
+            if (part instanceof List) {
+                assertThat(json.readDetails(binaryValue), is(part));
+                assertThat(binary.readDetails(jsonValue), is(part));
+            } else if (!(part instanceof UniqueEvent)) {
+                assertThat(json.read(binaryValue, part.getClass()), is(part));
+            }
+        }
+
+        // Well-known code references take at most two bytes each.
+        Event event = new Event(UserAccessEventType.SIGN_ON, EventAction.READ, 1000L, EventOutcome.SUCCESS);
+        byte[] binaryValue = binary.write(event);
+        assertThat(binaryValue.length, is(11));
+        assertThat(json.write(event).length / binaryValue.length, is(greaterThan(10)));
+        assertThat(binary.read(binaryValue, Event.class), is(event));
+    }
+
+    @Test
+    public void binaryDictionaryTest() throws IOException {
+        CodeReference eventId = new CodeReference("app/events", "export");
+        Principal principal = new Principal("bob", (String) null, "Bob", new CodeReference("app/roles", "admin"));
+        Event event = new Event(eventId, EventAction.EXECUTE, 1000L, EventOutcome.SUCCESS);
+
+        CodeSystemDictionary dictionary = CodeSystemDictionary.define()
+                .withCodeSystem("app/roles")
+                .withReference(eventId)
+                .build();
+        EntryCodecs standard = EntryCodecs.getDefault(EntryEncoding.BINARY);
+        EntryCodecs custom = standard.withDictionary(dictionary);
+        assertThat(custom.withDictionary(dictionary) == custom, is(true));
+
+        assertThat(custom.write(event).length, is(lessThan(standard.write(event).length)));
+        assertThat(custom.write(principal).length, is(lessThan(standard.write(principal).length)));
+        assertThat(custom.read(custom.write(event), Event.class), is(event));
+        assertThat(custom.read(custom.write(principal), Principal.class), is(principal));
+
+        // Values written with the standard dictionary can be read with the custom one, but not vice versa.
+        assertThat(custom.read(standard.write(event), Event.class), is(event));
+        try {
+            standard.read(custom.write(event), Event.class);
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        // A later version of a dictionary still reads values written with an earlier version.
+        CodeSystemDictionary extended = CodeSystemDictionary.define()
+                .withCodeSystem("app/roles")
+                .withCodeSystem("app/objects")
+                .withReference(eventId)
+                .withReference(new CodeReference("app/events", "import"))
+                .build();
+        assertThat(standard.withDictionary(extended).read(custom.write(principal), Principal.class), is(principal));
+    }
+
+    @Test(expected = IOException.class)
+    public void binaryWrongTypeTest() throws IOException {
+        EntryCodecs binary = EntryCodecs.getDefault(EntryEncoding.BINARY);
+        binary.read(binary.write(new Principal("bob")), AuditSource.class);
+    }
+
+    @Test(expected = IOException.class)
+    public void binaryTruncatedTest() throws IOException {
+        EntryCodecs binary = EntryCodecs.getDefault(EntryEncoding.BINARY);
+        byte[] value = binary.write(new Principal("bob", (String) null, "Bob Jones"));
+        binary.read(Arrays.copyOf(value, value.length - 3), Principal.class);
+    }
+
+    @Test
+    public void concurrentWritesTest() throws Exception {
+        EntryCodecs codecs = EntryCodecs.forMapper(ObjectMapperFactory.getObjectMapper());
+        ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        Principal principal = new Principal("user-" + i, (String) null, "User " + i);
+                        String expected = objectMapper.writeValueAsString(principal);
+                        if (!new String(codecs.write(principal)).equals(expected)) return false;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(), is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2015 Lable (info@lable.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lable.rfc3881.auditlogger.serialization;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.lable.codesystem.codereference.CodeReference;
+import org.lable.rfc3881.auditlogger.api.*;
+import org.lable.rfc3881.auditlogger.definition.rfc3881.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EntryPartSerializerTest {
+    static ObjectMapper objectMapper(boolean streaming, JsonInclude.Include inclusion) {
+        return objectMapper(new ObjectMapper(), streaming, inclusion);
+    }
+
+    static ObjectMapper objectMapper(ObjectMapper objectMapper, boolean streaming, JsonInclude.Include inclusion) {
+        objectMapper.registerModule(new RFC3881Module(true, streaming));
+        objectMapper.setSerializationInclusion(inclusion);
+        objectMapper.setFilterProvider(new SimpleFilterProvider().addFilter("logFilter", new LogFilter()));
+        return objectMapper;
+    }
+
+    static List<Object> entryParts() {
+        List<Object> parts = new ArrayList<>(EntryCodecsTest.entryParts());
+        parts.addAll(Arrays.asList(
+                new Event(new CodeReference("events", "logon"), EventAction.READ, 0L, EventOutcome.MINOR_FAILURE),
+                new Principal("user", Arrays.asList("a", null, ""), "", false, (List<CodeReference>) null),
+                NetworkAccessPoint.byHostName("", false),
+                new AuditSource(null, "id", false),
+                new ParticipantObject(
+                        "po",
+                        null,
+                        new CodeReference("cr", "id", "", null, ""),
+                        null,
+                        null,
+                        null,
+                        "",
+                        null,
+                        false,
+                        new Detail(new CodeReference("dt", "d"), ""),
+                        new Detail(new CodeReference("dt", "e"), null)
+                ),
+                new Detail(new CodeReference("dt", "d"), null)
+        ));
+        return parts;
+    }
+
+    @Test
+    public void matchesBeanSerializationTest() throws IOException {
+        for (JsonInclude.Include inclusion : Arrays.asList(
+                JsonInclude.Include.NON_EMPTY, JsonInclude.Include.NON_NULL, JsonInclude.Include.ALWAYS)) {
+            ObjectMapper streaming = objectMapper(true, inclusion);
+            ObjectMapper bean = objectMapper(false, inclusion);
+
+            for (Object part : entryParts()) {
+                assertThat(inclusion + " " + part.getClass().getSimpleName(),
+                        streaming.writeValueAsString(part), is(bean.writeValueAsString(part)));
+            }
+        }
+    }
+
+    @Test
+    public void matchesBeanSerializationSmileTest() throws IOException {
+        ObjectMapper streaming = objectMapper(new ObjectMapper(new SmileFactory()), true, JsonInclude.Include.NON_EMPTY);
+        ObjectMapper bean = objectMapper(new ObjectMapper(new SmileFactory()), false, JsonInclude.Include.NON_EMPTY);
+
+        for (Object part : entryParts()) {
+            assertThat(streaming.writeValueAsBytes(part), is(bean.writeValueAsBytes(part)));
+        }
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        for (JsonInclude.Include inclusion : Arrays.asList(
+                JsonInclude.Include.NON_EMPTY, JsonInclude.Include.NON_NULL, JsonInclude.Include.ALWAYS)) {
+            ObjectMapper streaming = objectMapper(true, inclusion);
+            ObjectMapper bean = objectMapper(false, inclusion);
+
+            for (Object part : entryParts()) {
+                if (part instanceof List || part instanceof UniqueEvent) continue;
+                String json = streaming.writeValueAsString(part);
+                assertThat(json, streaming.readValue(json, part.getClass()), is(bean.readValue(json, part.getClass())));
+            }
+        }
+    }
+
+    @Test
+    public void fieldOrderAndDefaultsTest() throws IOException {
+        ObjectMapper objectMapper = objectMapper(true, JsonInclude.Include.NON_EMPTY);
+
+        AuditSource auditSource = objectMapper.readValue(
+                "{\"typeCodes\":[{\"cs\":\"CS\",\"code\":\"CODE\"},null],\"id\":\"ID\"}",
+                AuditSource.class
+        );
+        assertThat(auditSource, is(new AuditSource(null, "ID", new CodeReference("CS", "CODE"))));
+        assertThat(auditSource.isComplete(), is(true));
+
+        NetworkAccessPoint accessPoint = objectMapper.readValue(
+                "{\"complete\":false,\"id\":\"10.0.0.1\",\"type\":{\"cs\":\"" +
+                        NetworkAccessPointType.IP_ADDRESS.toCodeReference().getCodeSystem() + "\",\"code\":\"" +
+                        NetworkAccessPointType.IP_ADDRESS.toCodeReference().getCode() + "\"}}",
+                NetworkAccessPoint.class
+        );
+        assertThat(accessPoint, is(NetworkAccessPoint.byIPAddress("10.0.0.1", false)));
+    }
+
+    @Test(expected = UnrecognizedPropertyException.class)
+    public void unknownFieldTest() throws IOException {
+        objectMapper(true, JsonInclude.Include.NON_EMPTY).readValue("{\"userId\":\"U\",\"x\":1}", Principal.class);
+    }
+
+    /**
+     * Rough comparison of streaming and bean (de)serialization throughput.
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws IOException {
+        List<Object> parts = EntryCodecsTest.entryParts().subList(1, 5);
+        for (boolean streaming : new boolean[]{false, true, false, true}) {
+            ObjectMapper objectMapper = objectMapper(streaming, JsonInclude.Include.NON_EMPTY);
+            List<byte[]> serialized = new ArrayList<>();
+            for (Object part : parts) {
+                serialized.add(objectMapper.writeValueAsBytes(part));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) {
+                for (Object part : parts) {
+                    objectMapper.writeValueAsBytes(part);
+                }
+            }
+            long written = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) {
+                for (int j = 0; j < parts.size(); j++) {
+                    objectMapper.readValue(serialized.get(j), parts.get(j).getClass());
+                }
+            }
+            long read = System.nanoTime();
+
+            System.out.printf("%-9s write: %5d ms, read: %5d ms%n",
+                    streaming ? "streaming" : "bean",
+                    (written - start) / 1_000_000,
+                    (read - written) / 1_000_000);
+        }
+    }
+}